@@ -0,0 +1,156 @@
+package com.rakensi.waxeye.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.rakensi.AsciiUtils;
+import com.rakensi.waxeye.CompiledGrammar;
+import com.rakensi.waxeye.DescentParserGenerator;
+import com.rakensi.waxeye.DirectParser;
+import com.rakensi.waxeye.GrammarCompiler;
+import com.rakensi.waxeye.GrammarException;
+import com.rakensi.waxeye.GrammarReader;
+import com.rakensi.waxeye.ScanMode;
+
+/**
+ * The grammar and inputs for the benchmarks.
+ * The samples are the FtanML files in the input directory. A scaled input repeats the samples.
+ *
+ * @author Rakensi
+ */
+final class BenchmarkInput {
+
+  private static final String PROSE = "Some words and 12 numbers, here: ";
+
+  private BenchmarkInput() {
+  }
+
+  /* The project directory, which contains the grammar and the input directory. */
+  static File home() {
+    return new File(System.getProperty("ixml.home", ".."));
+  }
+
+  static CompiledGrammar ftanGrammar() throws IOException, GrammarException {
+    return GrammarCompiler.compile(GrammarReader.read(new File(home(), "ftan.waxeye"), false));
+  }
+
+  /**
+   * Generate the descent parser for a grammar, compile it with the system Java compiler, and load it.
+   */
+  static Class<? extends DirectParser> descentParserClass(CompiledGrammar grammar) throws IOException, ClassNotFoundException {
+    JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+    if (javaCompiler == null) throw new IOException("There is no system Java compiler; run the benchmarks with a JDK.");
+    File directory = File.createTempFile("descent-parser", "");
+    if (!directory.delete() || !directory.mkdir()) throw new IOException("Cannot create the directory "+directory);
+    directory.deleteOnExit();
+    File sourceFile = DescentParserGenerator.write(grammar, directory);
+    sourceFile.deleteOnExit();
+    if (javaCompiler.run(null, null, null, "-nowarn", "-classpath", System.getProperty("java.class.path"),
+                         "-d", directory.getPath(), sourceFile.getPath()) != 0) {
+      throw new IOException("Cannot compile the descent parser "+sourceFile);
+    }
+    new File(directory, DescentParserGenerator.CLASS_NAME + ".class").deleteOnExit();
+    ClassLoader classLoader = new URLClassLoader(new URL[] {directory.toURI().toURL()}, BenchmarkInput.class.getClassLoader());
+    return classLoader.loadClass(DescentParserGenerator.CLASS_NAME).asSubclass(DirectParser.class);
+  }
+
+  /**
+   * Make the fragment for a mode.
+   * For completeMatch, the fragment is one list with all sample values.
+   * For adjacentMatches, it is a run of such lists. For scanning, the samples are mixed with prose.
+   * The samples for completeMatch and adjacentMatches must match after toASCII, which replaces the ` of quoted names,
+   * so they only include samples that toASCII does not change.
+   * @param scale The number of times that the samples are repeated.
+   */
+  static String fragment(ScanMode mode, int scale) throws IOException {
+    List<String> samples = new ArrayList<String>();
+    for (String sample : samples()) {
+      if (mode == ScanMode.SCAN || AsciiUtils.normalize(sample).equals(sample)) samples.add(sample);
+    }
+    StringBuilder fragment = new StringBuilder();
+    if (mode == ScanMode.COMPLETE) fragment.append('[');
+    for (int i = 0; i < scale; ++i) {
+      if (mode == ScanMode.ADJACENT) fragment.append('[');
+      for (String sample : samples) {
+        if (mode == ScanMode.SCAN) {
+          fragment.append(PROSE).append(sample).append(" and more text, tru and true.\n");
+        } else {
+          fragment.append(sample).append('\n');
+        }
+      }
+      if (mode == ScanMode.ADJACENT) fragment.append(']');
+    }
+    if (mode == ScanMode.COMPLETE) fragment.append(']');
+    return fragment.toString();
+  }
+
+  /* The contents of the sample files, in the order of their names. */
+  private static String[] samples() throws IOException {
+    File[] files = new File(home(), "input").listFiles();
+    if (files == null) throw new IOException("There is no input directory in "+home());
+    Arrays.sort(files);
+    String[] samples = new String[files.length];
+    for (int i = 0; i < files.length; ++i) {
+      samples[i] = read(files[i]).trim();
+    }
+    return samples;
+  }
+
+  private static String read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] bytes = new byte[(int) file.length()];
+      int length = 0;
+      while (length < bytes.length) {
+        int n = in.read(bytes, length, bytes.length - length);
+        if (n < 0) break;
+        length += n;
+      }
+      return new String(bytes, 0, length, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * A content handler that does nothing with the events, except to keep the JIT compiler from removing them.
+   */
+  static final class NullContentHandler extends DefaultHandler {
+    private final Blackhole blackhole;
+
+    NullContentHandler(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      blackhole.consume(qName);
+      blackhole.consume(attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      blackhole.consume(qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      blackhole.consume(length);
+    }
+  }
+
+}
@@ -0,0 +1,84 @@
+package com.rakensi.waxeye.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.waxeye.ast.IAST;
+import org.waxeye.parser.ParseResult;
+
+import com.rakensi.waxeye.CompiledGrammar;
+import com.rakensi.waxeye.DirectParser;
+import com.rakensi.waxeye.GrowableInput;
+import com.rakensi.waxeye.SaxEmitter;
+import com.rakensi.waxeye.ScanMode;
+
+/**
+ * Sending a parse tree as SAX events to a content handler that ignores them, without parsing.
+ * The tree is the complete match of the FtanML samples, as a Waxeye tree or as the result of the direct parser.
+ *
+ * @author Rakensi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmitBenchmark {
+
+  @Param({"false", "true"})
+  public boolean direct;
+
+  /* The number of times the samples are repeated in the fragment. */
+  @Param({"1", "64"})
+  public int scale;
+
+  private char[] fragment;
+  private SaxEmitter emitter;
+  private IAST<?> tree;
+  private DirectParser directParser;
+
+  @Setup
+  public void setup(Blackhole blackhole) throws Exception {
+    CompiledGrammar grammar = BenchmarkInput.ftanGrammar();
+    fragment = BenchmarkInput.fragment(ScanMode.COMPLETE, scale).toCharArray();
+    emitter = new SaxEmitter();
+    emitter.setContentHandler(new BenchmarkInput.NullContentHandler(blackhole));
+    emitter.setNamespace("http://linkeddata.overheid.nl/lx/", null);
+    if (direct) {
+      directParser = new DirectParser(grammar);
+      directParser.setInput(new GrowableInput(fragment));
+      if (!directParser.parse(0)) {
+        throw new IllegalStateException("The benchmark input cannot be parsed: "+directParser.getError());
+      }
+    } else {
+      ParseResult<?> parseResult = grammar.newParser().parse(new GrowableInput(fragment));
+      if (parseResult.getError() != null) {
+        throw new IllegalStateException("The benchmark input cannot be parsed: "+parseResult.getError());
+      }
+      tree = parseResult.getAST();
+    }
+  }
+
+  @Benchmark
+  public void emit() throws Exception {
+    emitter.setFragment(fragment);
+    if (direct) {
+      directParser.emit(emitter);
+    } else {
+      emitter.emit(tree);
+    }
+  }
+
+}
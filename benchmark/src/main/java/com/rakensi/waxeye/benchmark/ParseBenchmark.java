@@ -0,0 +1,88 @@
+package com.rakensi.waxeye.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.rakensi.waxeye.CompiledGrammar;
+import com.rakensi.waxeye.DirectParser;
+import com.rakensi.waxeye.LoadedParser;
+import com.rakensi.waxeye.ParseEngine;
+import com.rakensi.waxeye.SaxEmitter;
+import com.rakensi.waxeye.ScanMode;
+
+/**
+ * Parsing a fragment and sending the matches as SAX events with a ParseEngine, like the transformer does.
+ * The FtanML samples are parsed in each scan mode, with and without toASCII,
+ * with the Waxeye parser, with the direct parser, and with the direct parser that is generated for the grammar,
+ * and scaled up to larger fragments.
+ *
+ * @author Rakensi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+  @Param({"SCAN", "ADJACENT", "COMPLETE"})
+  public ScanMode mode;
+
+  @Param({"false", "true"})
+  public boolean toASCII;
+
+  /* The Waxeye parser, the direct parser that interprets the automata, or the generated descent parser. */
+  @Param({"waxeye", "direct", "descent"})
+  public String parser;
+
+  /* The number of times the samples are repeated in the fragment. */
+  @Param({"1", "64"})
+  public int scale;
+
+  private String fragment;
+  private char[] chars;
+  private ParseEngine engine;
+  private DirectParser directParser;
+  private SaxEmitter emitter;
+
+  @Setup
+  public void setup(Blackhole blackhole) throws Exception {
+    fragment = BenchmarkInput.fragment(mode, scale);
+    chars = fragment.toCharArray();
+    CompiledGrammar grammar = BenchmarkInput.ftanGrammar();
+    boolean descent = parser.equals("descent");
+    engine = new ParseEngine(new LoadedParser(grammar.newParser(), grammar,
+                                              descent ? BenchmarkInput.descentParserClass(grammar) : null));
+    engine.setMode(mode);
+    engine.setToASCII(toASCII);
+    engine.setDirect(!parser.equals("waxeye"));
+    engine.setNamespace("http://linkeddata.overheid.nl/lx/", null);
+    directParser = engine.isDirect() ? engine.newDirectParser() : null;
+    emitter = engine.newEmitter(new BenchmarkInput.NullContentHandler(blackhole));
+  }
+
+  @Benchmark
+  public void parseFragment() throws Exception {
+    engine.newScanner(fragment, directParser, emitter).scan(true);
+  }
+
+  /* The same fragment, parsed from a character array without copying it. */
+  @Benchmark
+  public void parseCharArray() throws Exception {
+    engine.newScanner(chars, 0, chars.length, directParser, emitter).scan(true);
+  }
+
+}
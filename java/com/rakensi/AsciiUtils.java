@@ -1,6 +1,5 @@
-package com.rakensi.trie;
+package com.rakensi;
 
-import java.io.UnsupportedEncodingException;
 import java.text.Normalizer;
 
 /**
@@ -34,27 +33,91 @@ public class AsciiUtils {
 
   // Private constructor, can't be instantiated.
   private AsciiUtils() { }
-  
-  // Normalize a string to ASCII [http://stackoverflow.com/a/2097224/1021892].
+
+  /* The ASCII replacement of each character in the Basic Multilingual Plane, made when it is first needed. */
+  private static final class Table {
+    private static final char[] ASCII = build();
+
+    private static char[] build() {
+      char[] table = new char[Character.MAX_VALUE + 1];
+      for (int c = 0; c < table.length; ++c) {
+        table[c] = toAscii((char) c);
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Normalize a string to ASCII, removing diacritics and ligatures, with one character for each character.
+   * Each character is replaced by the first ASCII character of its compatibility decomposition (NFKD),
+   * so the result has the same length as the string, and positions in the result are positions in the string.
+   * A character without an ASCII decomposition becomes '?'. A combining mark or modifier on its own is kept.
+   * A string that does not change is returned as it is, without copying.
+   */
   public static String normalize(String s) {
-    s = s.replaceAll("[\u2018`\u2032\u00B4\u2019]", "'")
-         .replaceAll("[\u201C\u201D]", "\"")
-         .replaceAll("[\u2010\u2011\u2012\u2013\u2014\u2015\u2212]",  "-");
-    String sn = Normalizer.normalize(s, Normalizer.Form.NFKD);
-    String sr;
-    try {
-      sr = new String(sn.replaceAll("[\\p{InCombiningDiacriticalMarks}\\p{IsLm}\\p{IsSk}]+", "").getBytes("ascii"), "ascii");
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e);
+    char[] table = Table.ASCII;
+    int n = s.length();
+    int i = 0;
+    while (i < n && table[s.charAt(i)] == s.charAt(i)) ++i;
+    if (i == n) return s;
+    char[] chars = s.toCharArray();
+    for (; i < n; ++i) {
+      chars[i] = table[chars[i]];
     }
-    return sr;
+    return new String(chars);
   }
-  
+
   // Normalize a character to ASCII
   public static char normalize(char c) {
-    return normalize(Character.toString(c)).charAt(0);
+    return Table.ASCII[c];
   }
-  
+
+  /**
+   * The table that normalize uses, with the replacement of every char. The table is shared, and must not be changed.
+   */
+  public static char[] table() {
+    return Table.ASCII;
+  }
+
+  /* The ASCII replacement of a character [http://stackoverflow.com/a/2097224/1021892]. */
+  private static char toAscii(char c) {
+    char punctuation = punctuation(c);
+    if (punctuation != 0) return punctuation;
+    if (c < 0x80) return c;
+    if (c >= '\uD800' && c <= '\uDFFF') return '?'; // A surrogate is half of a character outside the BMP.
+    String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+    for (int i = 0; i < decomposed.length(); ++i) {
+      char d = decomposed.charAt(i);
+      if (isRemoved(d)) continue;
+      punctuation = punctuation(d);
+      if (punctuation != 0) return punctuation;
+      return d < 0x80 ? d : '?';
+    }
+    // Only diacritics, which cannot be removed without changing the length.
+    return c;
+  }
+
+  /* The replacement of quotes, primes and dashes, or 0. */
+  private static char punctuation(char c) {
+    switch (c) {
+      case '\u2018': case '`': case '\u2032': case '\u00B4': case '\u2019':
+        return '\'';
+      case '\u201C': case '\u201D':
+        return '"';
+      case '\u2010': case '\u2011': case '\u2012': case '\u2013': case '\u2014': case '\u2015': case '\u2212':
+        return '-';
+      default:
+        return 0;
+    }
+  }
+
+  /* Is a character in a decomposition removed? These are combining diacritics and modifier letters and symbols. */
+  private static boolean isRemoved(char c) {
+    int type = Character.getType(c);
+    return Character.UnicodeBlock.of(c) == Character.UnicodeBlock.COMBINING_DIACRITICAL_MARKS
+        || type == Character.MODIFIER_LETTER || type == Character.MODIFIER_SYMBOL;
+  }
+
   // Convert all characters in a string to ASCII codes 0x20 - 0x7E and remove punctuation.
   // Only letters and digits are kept, other characters are removed.
   public static String convertToLowAsciiWithoutPunctuation(String s) {
@@ -0,0 +1,210 @@
+package com.rakensi.trie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton, which finds all occurrences of a set of strings in one pass over a text.
+ *
+ * The automaton is a trie of the strings, with a failure link from each node to the node of its longest proper suffix
+ * that is also in the trie. Each node knows the lengths of the strings that end there, including those that end
+ * in the nodes of its suffixes, so every occurrence is reported at the position of its last character.
+ * The text can be given one character at a time, so that text that comes in parts can be searched as it comes in.
+ *
+ * An automaton is immutable, and can be used by several threads at the same time.
+ *
+ * @author Rakensi
+ */
+public final class AhoCorasick {
+
+  private static final int[] NO_LENGTHS = new int[0];
+
+  /* The transitions of each node, as sorted characters and the nodes they lead to. */
+  private final char[][] keys;
+  private final int[][] targets;
+  /* The failure link of each node. */
+  private final int[] failure;
+  /* The lengths of the strings that end in each node, from long to short. */
+  private final int[][] lengths;
+  private final int size;
+  private final int minLength;
+  private final int maxLength;
+
+  private AhoCorasick(char[][] keys, int[][] targets, int[] failure, int[][] lengths, int size, int minLength, int maxLength) {
+    this.keys = keys;
+    this.targets = targets;
+    this.failure = failure;
+    this.lengths = lengths;
+    this.size = size;
+    this.minLength = minLength;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Make an automaton for a set of strings.
+   * @param strings The strings, which must not be empty.
+   */
+  public static AhoCorasick of(Collection<String> strings) {
+    // Build the trie, with sorted transitions.
+    List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+    List<Integer> ends = new ArrayList<Integer>(); // The length of the string that ends in each node, or 0.
+    trie.add(new TreeMap<Character, Integer>());
+    ends.add(0);
+    int size = 0;
+    int minLength = Integer.MAX_VALUE;
+    int maxLength = 0;
+    for (String string : strings) {
+      if (string.length() == 0) {
+        throw new IllegalArgumentException("An Aho-Corasick automaton cannot find the empty string.");
+      }
+      int node = 0;
+      for (int i = 0; i < string.length(); ++i) {
+        Integer next = trie.get(node).get(string.charAt(i));
+        if (next == null) {
+          next = trie.size();
+          trie.add(new TreeMap<Character, Integer>());
+          ends.add(0);
+          trie.get(node).put(string.charAt(i), next);
+        }
+        node = next;
+      }
+      if (ends.get(node) == 0) {
+        ends.set(node, string.length());
+        ++size;
+        minLength = Math.min(minLength, string.length());
+        maxLength = Math.max(maxLength, string.length());
+      }
+    }
+    int nodes = trie.size();
+    char[][] keys = new char[nodes][];
+    int[][] targets = new int[nodes][];
+    for (int node = 0; node < nodes; ++node) {
+      TreeMap<Character, Integer> transitions = trie.get(node);
+      keys[node] = new char[transitions.size()];
+      targets[node] = new int[transitions.size()];
+      int i = 0;
+      for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+        keys[node][i] = transition.getKey();
+        targets[node][i] = transition.getValue();
+        ++i;
+      }
+    }
+    // Add failure links and the lengths of suffixes, breadth-first, so that the nodes of suffixes are done first.
+    int[] failure = new int[nodes];
+    int[][] lengths = new int[nodes][];
+    lengths[0] = NO_LENGTHS;
+    int[] queue = new int[nodes];
+    int head = 0;
+    int tail = 0;
+    for (int target : targets[0]) {
+      failure[target] = 0;
+      queue[tail++] = target;
+    }
+    while (head < tail) {
+      int node = queue[head++];
+      int[] suffixLengths = lengths[failure[node]];
+      int end = ends.get(node);
+      if (end == 0) {
+        lengths[node] = suffixLengths;
+      } else {
+        lengths[node] = new int[suffixLengths.length + 1];
+        lengths[node][0] = end;
+        System.arraycopy(suffixLengths, 0, lengths[node], 1, suffixLengths.length);
+      }
+      for (int i = 0; i < keys[node].length; ++i) {
+        int target = targets[node][i];
+        int fail = failure[node];
+        int next;
+        while ((next = transition(keys, targets, fail, keys[node][i])) < 0 && fail != 0) {
+          fail = failure[fail];
+        }
+        failure[target] = next < 0 ? 0 : next;
+        queue[tail++] = target;
+      }
+    }
+    return new AhoCorasick(keys, targets, failure, lengths, size, size == 0 ? 0 : minLength, maxLength);
+  }
+
+  /* The node that a transition from a node leads to, or -1 if the node has no transition for the character. */
+  private static int transition(char[][] keys, int[][] targets, int node, char c) {
+    int i = Arrays.binarySearch(keys[node], c);
+    return i < 0 ? -1 : targets[node][i];
+  }
+
+  /**
+   * The state before the first character of a text.
+   */
+  public int initialState() {
+    return 0;
+  }
+
+  /**
+   * The state after the next character of a text.
+   */
+  public int next(int state, char c) {
+    int next;
+    while ((next = transition(keys, targets, state, c)) < 0 && state != 0) {
+      state = failure[state];
+    }
+    return next < 0 ? 0 : next;
+  }
+
+  /**
+   * The lengths of the strings that end at the last character that led to a state, from long to short.
+   * The caller must not change the array.
+   */
+  public int[] matchLengths(int state) {
+    return lengths[state];
+  }
+
+  /**
+   * Find the positions in a text where one of the strings starts.
+   * @param text The text.
+   * @param from The position where the search starts.
+   * @param to The position where the search ends. Strings that end after this position are not found.
+   * @return The start positions of the strings.
+   */
+  public BitSet starts(CharSequence text, int from, int to) {
+    BitSet starts = new BitSet(to);
+    int state = initialState();
+    for (int i = from; i < to; ++i) {
+      state = next(state, text.charAt(i));
+      for (int length : lengths[state]) {
+        starts.set(i + 1 - length);
+      }
+    }
+    return starts;
+  }
+
+  /**
+   * The number of different strings.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The length of the shortest string.
+   */
+  public int getMinLength() {
+    return minLength;
+  }
+
+  /**
+   * The length of the longest string.
+   */
+  public int getMaxLength() {
+    return maxLength;
+  }
+
+  @Override
+  public String toString() {
+    return "strings="+size+" nodes="+keys.length+" minLength="+minLength+" maxLength="+maxLength;
+  }
+
+}
@@ -0,0 +1,142 @@
+package com.rakensi.waxeye;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The automaton for a rule or a predicate of a compiled grammar.
+ * This mirrors the Waxeye FA, but keeps the character sets and automaton indexes accessible,
+ * so that the automata can be analysed.
+ *
+ * @author Rakensi
+ */
+public final class Automaton {
+
+  private final int type;
+  private final int mode;
+  private final List<State> states;
+
+  /**
+   * @param type The index of the node type of the automaton.
+   * @param mode FA.LEFT, FA.PRUNE or FA.VOID.
+   * @param states The states. The first state is the start state.
+   */
+  public Automaton(int type, int mode, List<State> states) {
+    this.type = type;
+    this.mode = mode;
+    this.states = Collections.unmodifiableList(states);
+  }
+
+  public int getType() {
+    return type;
+  }
+
+  public int getMode() {
+    return mode;
+  }
+
+  public List<State> getStates() {
+    return states;
+  }
+
+  /**
+   * A state of an automaton.
+   */
+  public static final class State {
+    private final List<Edge> edges;
+    private final boolean match;
+
+    public State(List<Edge> edges, boolean match) {
+      this.edges = Collections.unmodifiableList(edges);
+      this.match = match;
+    }
+
+    /**
+     * The outgoing edges, in the order in which they are tried.
+     */
+    public List<Edge> getEdges() {
+      return edges;
+    }
+
+    /**
+     * Is this an accepting state?
+     */
+    public boolean isMatch() {
+      return match;
+    }
+  }
+
+  /**
+   * A transition from one state to another.
+   */
+  public static final class Edge {
+
+    public enum Kind { CHARS, WILDCARD, AUTOMATON }
+
+    private final Kind kind;
+    private final CharSet chars;
+    private final int automaton;
+    private final int target;
+    private final boolean voided;
+
+    private Edge(Kind kind, CharSet chars, int automaton, int target, boolean voided) {
+      this.kind = kind;
+      this.chars = chars;
+      this.automaton = automaton;
+      this.target = target;
+      this.voided = voided;
+    }
+
+    public static Edge chars(CharSet chars, int target, boolean voided) {
+      return new Edge(Kind.CHARS, chars, -1, target, voided);
+    }
+
+    public static Edge wildcard(int target, boolean voided) {
+      return new Edge(Kind.WILDCARD, null, -1, target, voided);
+    }
+
+    public static Edge automaton(int automaton, int target, boolean voided) {
+      return new Edge(Kind.AUTOMATON, null, automaton, target, voided);
+    }
+
+    /**
+     * The same transition, to another target state.
+     */
+    Edge withTarget(int newTarget) {
+      return new Edge(kind, chars, automaton, newTarget, voided);
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * The character set of a CHARS edge.
+     */
+    public CharSet getChars() {
+      return chars;
+    }
+
+    /**
+     * The index of the automaton of an AUTOMATON edge.
+     */
+    public int getAutomaton() {
+      return automaton;
+    }
+
+    /**
+     * The index of the target state.
+     */
+    public int getTarget() {
+      return target;
+    }
+
+    /**
+     * Is the result of this transition left out of the parse tree?
+     */
+    public boolean isVoided() {
+      return voided;
+    }
+  }
+
+}
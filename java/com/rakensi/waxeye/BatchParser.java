@@ -0,0 +1,267 @@
+package com.rakensi.waxeye;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A command-line tool that parses all files in a directory into XML files, using all processors.
+ *
+ * The grammar is compiled in memory. Each input file is parsed as one fragment, like the text of a trigger element
+ * in the WaxeyeParserTransformer, and written as an XML document with a root element around the output.
+ * The output directory gets the same structure as the input directory, and the extension of each file becomes .xml.
+ * A file that cannot be parsed is reported, and the other files are parsed anyway.
+ *
+ * <pre>
+ * java com.rakensi.waxeye.BatchParser [options] grammar inputDirectory outputDirectory
+ * </pre>
+ * The options are:
+ * <ul>
+ *   <li>-modular The grammar is modular.</li>
+ *   <li>-completeMatch Each file must be one match.</li>
+ *   <li>-adjacentMatches Each file must be a run of adjacent matches.</li>
+ *   <li>-parseErrors Put parse errors in the output, instead of failing the file.</li>
+ *   <li>-toASCII Convert the text to low ASCII characters before it is parsed.</li>
+ *   <li>-direct Parse with a DirectParser, without building Waxeye parse trees.</li>
+ *   <li>-unmemoizedRules rules With -direct, a comma-separated list of rules that are not memoized.</li>
+ *   <li>-memoLimit entries With -direct, the maximum number of memoized results, to bound the memory for large files.</li>
+ *   <li>-chunkSeparator separator With -adjacentMatches and -direct, split large files into chunks after the separator.</li>
+ *   <li>-chunkLength length The approximate length of a chunk.</li>
+ *   <li>-parallelChunks number The maximum number of chunks of a file that are parsed or buffered at the same time.
+ *       (Default is two per processor.)</li>
+ *   <li>-namespace uri The namespace of the elements. (Default is http://linkeddata.overheid.nl/lx/.)</li>
+ *   <li>-root name The name of the root element. (Default is parse.)</li>
+ *   <li>-threads number The number of files that are parsed at the same time. (Default is the number of processors.)</li>
+ * </ul>
+ * The exit status is 0 if all files were parsed, 1 if some files failed, and 2 if the arguments or the grammar are wrong.
+ *
+ * @author Rakensi
+ */
+public final class BatchParser {
+
+  public static final String DEFAULT_NAMESPACE_URI = "http://linkeddata.overheid.nl/lx/";
+  public static final String DEFAULT_ROOT_ELEMENT = "parse";
+  private static final String OUTPUT_EXTENSION = ".xml";
+
+  private final ParseEngine engine;
+  private final String namespaceURI;
+  private final String rootElement;
+  private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+  /**
+   * @param engine The configured engine.
+   * @param namespaceURI The namespace of the root element, which must be the namespace of the engine.
+   * @param rootElement The local name of the root element.
+   */
+  public BatchParser(ParseEngine engine, String namespaceURI, String rootElement) {
+    this.engine = engine;
+    this.namespaceURI = namespaceURI;
+    this.rootElement = rootElement;
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean modular = false;
+    boolean completeMatch = false;
+    boolean adjacentMatches = false;
+    boolean parseErrors = false;
+    boolean toASCII = false;
+    boolean direct = false;
+    List<String> unmemoizedRules = new ArrayList<String>();
+    int memoLimit = 0;
+    String chunkSeparator = null;
+    int chunkLength = ParseEngine.DEFAULT_CHUNK_LENGTH;
+    int parallelChunks = ParseEngine.DEFAULT_PARALLEL_CHUNKS;
+    String namespaceURI = DEFAULT_NAMESPACE_URI;
+    String rootElement = DEFAULT_ROOT_ELEMENT;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int arg = 0;
+    try {
+      for (; arg < args.length && args[arg].startsWith("-"); ++arg) {
+        String option = args[arg];
+        if (option.equals("-modular")) modular = true;
+        else if (option.equals("-completeMatch")) completeMatch = true;
+        else if (option.equals("-adjacentMatches")) adjacentMatches = true;
+        else if (option.equals("-parseErrors")) parseErrors = true;
+        else if (option.equals("-toASCII")) toASCII = true;
+        else if (option.equals("-direct")) direct = true;
+        else if (option.equals("-unmemoizedRules")) unmemoizedRules.addAll(Arrays.asList(args[++arg].split("[, ]+")));
+        else if (option.equals("-memoLimit")) memoLimit = Integer.parseInt(args[++arg]);
+        else if (option.equals("-chunkSeparator")) chunkSeparator = args[++arg];
+        else if (option.equals("-chunkLength")) chunkLength = Integer.parseInt(args[++arg]);
+        else if (option.equals("-parallelChunks")) parallelChunks = Integer.parseInt(args[++arg]);
+        else if (option.equals("-namespace")) namespaceURI = args[++arg];
+        else if (option.equals("-root")) rootElement = args[++arg];
+        else if (option.equals("-threads")) threads = Integer.parseInt(args[++arg]);
+        else throw new IllegalArgumentException("Unknown option "+option);
+      }
+      if (args.length - arg != 3) throw new IllegalArgumentException("Expected a grammar, an input directory and an output directory.");
+    } catch (RuntimeException e) {
+      System.err.println(e.getMessage());
+      System.err.println("Usage: java "+BatchParser.class.getName()+" [options] grammar inputDirectory outputDirectory");
+      System.exit(2);
+    }
+    File grammarFile = new File(args[arg]);
+    File inputDirectory = new File(args[arg + 1]);
+    File outputDirectory = new File(args[arg + 2]);
+    if (!inputDirectory.isDirectory()) {
+      System.err.println("The input directory "+inputDirectory+" does not exist.");
+      System.exit(2);
+    }
+    GrammarMetrics metrics = GrammarMetrics.of(grammarFile.getCanonicalPath());
+    CompiledGrammar grammar;
+    long startTime = System.currentTimeMillis();
+    try {
+      grammar = GrammarCompiler.compile(GrammarReader.read(grammarFile, modular));
+    } catch (GrammarException e) {
+      System.err.println("Error compiling waxeye grammar: "+e.getMessage());
+      System.exit(2);
+      return;
+    }
+    metrics.compiled(System.currentTimeMillis() - startTime);
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private int count = 0;
+      public synchronized Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "waxeye-batch-"+(++count));
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    ParseEngine engine = new ParseEngine(grammar);
+    engine.setMode(ScanMode.of(completeMatch, adjacentMatches));
+    engine.setParseErrors(parseErrors);
+    engine.setToASCII(toASCII);
+    engine.setDirect(direct);
+    engine.setMemoLimit(memoLimit);
+    engine.setChunks(chunkSeparator, chunkLength, parallelChunks, executor);
+    engine.setMetrics(metrics);
+    engine.setNamespace(namespaceURI, null);
+    try {
+      engine.setMemoPolicy(MemoPolicy.of(grammar, unmemoizedRules));
+    } catch (IllegalArgumentException e) {
+      System.err.println("-unmemoizedRules: "+e.getMessage());
+      System.exit(2);
+    }
+    startTime = System.currentTimeMillis();
+    int failed = new BatchParser(engine, namespaceURI, rootElement).parseDirectory(inputDirectory, outputDirectory, executor);
+    executor.shutdown();
+    System.err.println("Parsing took "+(System.currentTimeMillis() - startTime)+" milliseconds.");
+    System.err.println(metrics.snapshot());
+    System.exit(failed == 0 ? 0 : 1);
+  }
+
+  /**
+   * Parse all files in a directory and its sub-directories.
+   * @param executor Parses the files.
+   * @result The number of files that could not be parsed.
+   */
+  public int parseDirectory(File inputDirectory, File outputDirectory, ExecutorService executor)
+      throws InterruptedException {
+    List<File> inputs = new ArrayList<File>();
+    List<File> outputs = new ArrayList<File>();
+    listFiles(inputDirectory, outputDirectory, inputs, outputs);
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (int i = 0; i < inputs.size(); ++i) {
+      final File input = inputs.get(i);
+      final File output = outputs.get(i);
+      results.add(executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          parseFile(input, output);
+          return null;
+        }
+      }));
+    }
+    int failed = 0;
+    for (int i = 0; i < results.size(); ++i) {
+      try {
+        results.get(i).get();
+      } catch (ExecutionException e) {
+        ++failed;
+        System.err.println(inputs.get(i)+": "+e.getCause().getMessage());
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Parse a file into an XML document. If the file cannot be parsed, the output file is removed.
+   */
+  public void parseFile(File input, File output) throws IOException, XMLStreamException, ParsingException {
+    CharBuffer text = readFile(input);
+    File directory = output.getParentFile();
+    if (directory != null && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Unable to create directory "+directory);
+    }
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+    boolean done = false;
+    try {
+      XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      writer.setDefaultNamespace(namespaceURI);
+      writer.writeStartElement(namespaceURI, rootElement);
+      writer.writeDefaultNamespace(namespaceURI);
+      engine.parse(text, writer);
+      writer.writeEndElement();
+      writer.writeEndDocument();
+      writer.close();
+      done = true;
+    } finally {
+      out.close();
+      if (!done) output.delete();
+    }
+  }
+
+  /* Find the files in a directory and its sub-directories, and the output file for each of them. */
+  private static void listFiles(File inputDirectory, File outputDirectory, List<File> inputs, List<File> outputs) {
+    File[] files = inputDirectory.listFiles();
+    if (files == null) return;
+    Arrays.sort(files);
+    for (File file : files) {
+      if (file.isDirectory()) {
+        listFiles(file, new File(outputDirectory, file.getName()), inputs, outputs);
+      } else if (file.isFile()) {
+        inputs.add(file);
+        outputs.add(new File(outputDirectory, file.getName().replaceFirst("\\.[^.]*$", "") + OUTPUT_EXTENSION));
+      }
+    }
+  }
+
+  /* Read a file into a buffer, which is parsed without copying it into a string. */
+  private static CharBuffer readFile(File file) throws IOException {
+    Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+    try {
+      // A UTF-8 file has at most as many characters as bytes, so the file usually fits without growing the array.
+      char[] chars = new char[(int) Math.min(1 << 30, Math.max(4096, file.length() + 1))];
+      int length = 0;
+      for (int n = reader.read(chars, length, chars.length - length); n >= 0;
+           n = reader.read(chars, length, chars.length - length)) {
+        length += n;
+        if (length == chars.length) chars = Arrays.copyOf(chars, chars.length * 2);
+      }
+      // Skip a byte order mark.
+      int start = length > 0 && chars[0] == '\uFEFF' ? 1 : 0;
+      return CharBuffer.wrap(chars, start, length - start);
+    } finally {
+      reader.close();
+    }
+  }
+
+}
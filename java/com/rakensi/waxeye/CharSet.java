@@ -0,0 +1,140 @@
+package com.rakensi.waxeye;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.waxeye.parser.CharTransition;
+
+/**
+ * An immutable set of characters, as used in character classes and literals of a Waxeye grammar.
+ * It is represented in the same way as a Waxeye CharTransition: single characters and ranges of characters.
+ *
+ * @author Rakensi
+ */
+public final class CharSet {
+
+  private final char[] single;
+  private final char[] min;
+  private final char[] max;
+
+  public CharSet(char[] single, char[] min, char[] max) {
+    this.single = single;
+    this.min = min;
+    this.max = max;
+  }
+
+  /**
+   * Make a character set containing one character.
+   */
+  public static CharSet of(char c) {
+    return new CharSet(new char[] {c}, new char[0], new char[0]);
+  }
+
+  /**
+   * Make a character set containing one character, ignoring case.
+   */
+  public static CharSet ofIgnoreCase(char c) {
+    char lower = Character.toLowerCase(c);
+    char upper = Character.toUpperCase(c);
+    if (lower == upper) return of(c);
+    return new CharSet(new char[] {lower, upper}, new char[0], new char[0]);
+  }
+
+  public boolean contains(char c) {
+    for (int i = 0; i < min.length; ++i) {
+      if (c >= min[i] && c <= max[i]) return true;
+    }
+    for (int i = 0; i < single.length; ++i) {
+      if (c == single[i]) return true;
+    }
+    return false;
+  }
+
+  public char[] getSingle() {
+    return single.clone();
+  }
+
+  public char[] getMin() {
+    return min.clone();
+  }
+
+  public char[] getMax() {
+    return max.clone();
+  }
+
+  /**
+   * Make a Waxeye transition that matches a character in this set.
+   */
+  public <E extends Enum<?>> CharTransition<E> toTransition() {
+    return new CharTransition<E>(single.clone(), min.clone(), max.clone());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof CharSet)) return false;
+    CharSet other = (CharSet) o;
+    return Arrays.equals(single, other.single) && Arrays.equals(min, other.min) && Arrays.equals(max, other.max);
+  }
+
+  @Override
+  public int hashCode() {
+    return (Arrays.hashCode(single) * 31 + Arrays.hashCode(min)) * 31 + Arrays.hashCode(max);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (char c : single) appendChar(sb, c);
+    for (int i = 0; i < min.length; ++i) {
+      appendChar(sb, min[i]);
+      sb.append('-');
+      appendChar(sb, max[i]);
+    }
+    return sb.append(']').toString();
+  }
+
+  private static void appendChar(StringBuilder sb, char c) {
+    if (c < 0x20 || c > 0x7E) {
+      sb.append("\\<").append(Integer.toHexString(c).toUpperCase()).append('>');
+    } else {
+      if (c == '\\' || c == '-' || c == ']') sb.append('\\');
+      sb.append(c);
+    }
+  }
+
+  /**
+   * Collects characters and ranges into a character set.
+   */
+  public static final class Builder {
+    private final List<Character> single = new ArrayList<Character>();
+    private final List<Character> min = new ArrayList<Character>();
+    private final List<Character> max = new ArrayList<Character>();
+
+    public Builder add(char c) {
+      single.add(c);
+      return this;
+    }
+
+    public Builder add(char from, char to) {
+      if (from == to) {
+        single.add(from);
+      } else {
+        min.add(from);
+        max.add(to);
+      }
+      return this;
+    }
+
+    public CharSet build() {
+      return new CharSet(toArray(single), toArray(min), toArray(max));
+    }
+
+    private static char[] toArray(List<Character> chars) {
+      char[] array = new char[chars.size()];
+      for (int i = 0; i < array.length; ++i) array[i] = chars.get(i);
+      return array;
+    }
+  }
+
+}
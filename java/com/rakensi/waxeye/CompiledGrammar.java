@@ -0,0 +1,99 @@
+package com.rakensi.waxeye;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.waxeye.parser.AutomatonTransition;
+import org.waxeye.parser.Edge;
+import org.waxeye.parser.FA;
+import org.waxeye.parser.ITransition;
+import org.waxeye.parser.Parser;
+import org.waxeye.parser.State;
+import org.waxeye.parser.WildCardTransition;
+
+/**
+ * A grammar that has been compiled into automata by the GrammarCompiler.
+ * It makes Waxeye parsers that interpret the automata.
+ *
+ * @author Rakensi
+ */
+public final class CompiledGrammar {
+
+  private final Grammar grammar;
+  private final Enum<?>[] nodeTypes;
+  private final List<Automaton> automata;
+  private final List<FA<Enum<?>>> waxeyeAutomata;
+
+  CompiledGrammar(Grammar grammar, Enum<?>[] nodeTypes, List<Automaton> automata) {
+    this.grammar = grammar;
+    this.nodeTypes = nodeTypes;
+    this.automata = Collections.unmodifiableList(new ArrayList<Automaton>(automata));
+    this.waxeyeAutomata = Collections.unmodifiableList(toWaxeyeAutomata());
+  }
+
+  public Grammar getGrammar() {
+    return grammar;
+  }
+
+  /**
+   * The node types, indexed as described in the GrammarCompiler.
+   */
+  public Enum<?>[] getNodeTypes() {
+    return nodeTypes.clone();
+  }
+
+  /**
+   * The automata. The first automaton is the start rule.
+   */
+  public List<Automaton> getAutomata() {
+    return automata;
+  }
+
+  /**
+   * Make a new Waxeye parser for this grammar.
+   * The parser checks for the end of the input, like a parser generated by Waxeye.
+   */
+  public Parser<Enum<?>> newParser() {
+    return new GrammarParser(waxeyeAutomata, nodeTypes);
+  }
+
+  /* The Waxeye automata are immutable, so they can be shared by all parsers. */
+  private List<FA<Enum<?>>> toWaxeyeAutomata() {
+    List<FA<Enum<?>>> fas = new ArrayList<FA<Enum<?>>>(automata.size());
+    for (Automaton automaton : automata) {
+      List<State<Enum<?>>> states = new ArrayList<State<Enum<?>>>(automaton.getStates().size());
+      for (Automaton.State state : automaton.getStates()) {
+        List<Edge<Enum<?>>> edges = new ArrayList<Edge<Enum<?>>>(state.getEdges().size());
+        for (Automaton.Edge edge : state.getEdges()) {
+          ITransition<Enum<?>> transition;
+          switch (edge.getKind()) {
+          case CHARS:
+            transition = edge.getChars().<Enum<?>>toTransition();
+            break;
+          case WILDCARD:
+            transition = new WildCardTransition<Enum<?>>();
+            break;
+          default:
+            transition = new AutomatonTransition<Enum<?>>(edge.getAutomaton());
+            break;
+          }
+          edges.add(new Edge<Enum<?>>(transition, edge.getTarget(), edge.isVoided()));
+        }
+        states.add(new State<Enum<?>>(edges, state.isMatch()));
+      }
+      fas.add(new FA<Enum<?>>(nodeTypes[automaton.getType()], automaton.getMode(), states));
+    }
+    return fas;
+  }
+
+  /* A Waxeye parser for automata that are made in memory. */
+  private static final class GrammarParser extends Parser<Enum<?>> {
+    GrammarParser(List<FA<Enum<?>>> automata, Enum<?>[] nodeTypes) {
+      super(automata, true, 0,
+            nodeTypes[GrammarCompiler.EMPTY_TYPE], nodeTypes[GrammarCompiler.CHAR_TYPE],
+            nodeTypes[GrammarCompiler.POS_TYPE], nodeTypes[GrammarCompiler.NEG_TYPE]);
+    }
+  }
+
+}
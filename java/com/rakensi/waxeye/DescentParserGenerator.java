@@ -0,0 +1,427 @@
+package com.rakensi.waxeye;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.waxeye.parser.FA;
+
+/**
+ * Generates the Java code of a recursive-descent parser for a compiled grammar.
+ *
+ * The generated class is a DirectParser that does not interpret the automata of the grammar:
+ * each automaton has a method of its own, in which character tests are inlined, the states of a sequence follow
+ * each other in straight-line code, and backtracking is explicit. A state that can be reached in only one way
+ * is inlined where it is reached; other states, like those of loops, get a method of their own.
+ * Memoization, parse errors and the parse tree are handled by the DirectParser, like for interpreted automata,
+ * so the results are the same.
+ *
+ * The class is called DescentParser and is in the default package, like the classes that Waxeye generates,
+ * so that it can be compiled and loaded together with them. It has a constructor that takes the compiled grammar,
+ * which must be the grammar that it was generated for; see isGeneratedFor.
+ *
+ * @author Rakensi
+ */
+public final class DescentParserGenerator {
+
+  /** The name of the generated class. */
+  public static final String CLASS_NAME = "DescentParser";
+  /** The name of the static field of the generated class that holds the signature of the grammar. */
+  public static final String SIGNATURE_FIELD = "SIGNATURE";
+  /**
+   * The version of the generated code, and of the protected methods of DirectParser that it uses.
+   * Increase it when either changes, so that descent parsers that were precompiled or cached before are not used.
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  /* The maximum number of states that are inlined in the method of a state. */
+  private static final int MAX_INLINED_STATES = 48;
+  /* The maximum depth of inlined states, so that the generated code is not nested too deeply. */
+  private static final int MAX_INLINE_DEPTH = 16;
+  /* The maximum number of characters and ranges that are tested inline. Larger sets are searched in a table. */
+  private static final int MAX_INLINE_TESTS = 6;
+
+  private final CompiledGrammar grammar;
+  private final List<Automaton> automata;
+  private final StringBuilder methods = new StringBuilder();
+  private final StringBuilder tables = new StringBuilder();
+  private final Map<String, String> tableNames = new HashMap<String, String>(); /* Table names by their contents. */
+
+  /* The state of the automaton that is generated. */
+  private Automaton automaton;
+  private int automatonIndex;
+  private int[] incoming; /* The number of edges to each state that can be reached. */
+  private boolean[] hasMethod;
+  private LinkedList<Integer> pendingMethods;
+  /* The state of the method that is generated. */
+  private int variables;
+  private int inlinedStates;
+
+  private DescentParserGenerator(CompiledGrammar grammar) {
+    this.grammar = grammar;
+    this.automata = grammar.getAutomata();
+  }
+
+  /**
+   * Generate the Java code of the parser for a compiled grammar.
+   * @result The source code of the class CLASS_NAME.
+   */
+  public static String generate(CompiledGrammar grammar) {
+    return new DescentParserGenerator(grammar).generate();
+  }
+
+  /**
+   * Generate the Java code of the parser for a compiled grammar into a directory.
+   * @result The source file, which is CLASS_NAME.java in the directory.
+   */
+  public static File write(CompiledGrammar grammar, File directory) throws IOException {
+    File sourceFile = new File(directory, CLASS_NAME + ".java");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(sourceFile), "UTF-8");
+    try {
+      writer.write(generate(grammar));
+    } finally {
+      writer.close();
+    }
+    return sourceFile;
+  }
+
+  /**
+   * The signature of the automata of a compiled grammar.
+   * A generated parser can only be used with a grammar that has the signature it was generated for,
+   * by a generator with the same FORMAT_VERSION.
+   */
+  public static String signature(CompiledGrammar grammar) {
+    // A 64-bit FNV-1a hash over a description of the automata.
+    long hash = 0xcbf29ce484222325L;
+    StringBuilder description = new StringBuilder();
+    description.append('V').append(FORMAT_VERSION).append(';');
+    for (Enum<?> type : grammar.getNodeTypes()) description.append(type.name()).append(';');
+    for (Automaton automaton : grammar.getAutomata()) {
+      description.append('A').append(automaton.getType()).append(',').append(automaton.getMode());
+      for (Automaton.State state : automaton.getStates()) {
+        description.append(state.isMatch() ? 'M' : 'S');
+        for (Automaton.Edge edge : state.getEdges()) {
+          description.append(edge.getKind().ordinal()).append(edge.isVoided() ? 'v' : '-');
+          description.append(edge.getAutomaton()).append('>').append(edge.getTarget());
+          if (edge.getChars() != null) description.append(edge.getChars());
+        }
+      }
+    }
+    for (int i = 0; i < description.length(); ++i) {
+      hash ^= description.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return Long.toHexString(hash);
+  }
+
+  /**
+   * Is a class a parser that was generated for a compiled grammar?
+   */
+  public static boolean isGeneratedFor(Class<?> parserClass, CompiledGrammar grammar) {
+    if (!DirectParser.class.isAssignableFrom(parserClass)) return false;
+    try {
+      return signature(grammar).equals(parserClass.getField(SIGNATURE_FIELD).get(null));
+    } catch (NoSuchFieldException e) {
+      return false;
+    } catch (IllegalAccessException e) {
+      return false;
+    }
+  }
+
+  private String generate() {
+    for (int i = 0; i < automata.size(); ++i) {
+      generateAutomaton(i);
+    }
+    StringBuilder code = new StringBuilder();
+    code.append("// Generated by ").append(DescentParserGenerator.class.getName()).append(". Do not edit.\n\n");
+    code.append("import com.rakensi.waxeye.CompiledGrammar;\n");
+    code.append("import com.rakensi.waxeye.DirectParser;\n\n");
+    code.append("/**\n * A recursive-descent parser for the grammar ").append(grammarName()).append(".\n */\n");
+    code.append("public final class ").append(CLASS_NAME).append(" extends DirectParser {\n\n");
+    code.append("  public static final String ").append(SIGNATURE_FIELD).append(" = \"").append(signature(grammar)).append("\";\n\n");
+    code.append(tables);
+    if (tables.length() > 0) code.append('\n');
+    code.append("  public ").append(CLASS_NAME).append("(CompiledGrammar grammar) {\n");
+    code.append("    super(grammar);\n");
+    code.append("  }\n\n");
+    code.append("  @Override\n");
+    code.append("  protected DirectParser newInstance() {\n");
+    code.append("    return new ").append(CLASS_NAME).append("(getGrammar());\n");
+    code.append("  }\n\n");
+    code.append("  @Override\n");
+    code.append("  protected int matchStart(int index) {\n");
+    code.append("    switch (index) {\n");
+    for (int i = 0; i < automata.size(); ++i) {
+      code.append("    case ").append(i).append(": return ").append(methodName(i, 0)).append("();\n");
+    }
+    code.append("    default: throw new IllegalArgumentException(\"There is no automaton \" + index);\n");
+    code.append("    }\n");
+    code.append("  }\n");
+    code.append(methods);
+    if (tables.length() > 0) {
+      code.append('\n');
+      code.append("  /* Is a character in a table of sorted, separate ranges? */\n");
+      code.append("  private static boolean inTable(char[] table, int c) {\n");
+      code.append("    int low = 0;\n");
+      code.append("    int high = table.length / 2 - 1;\n");
+      code.append("    while (low <= high) {\n");
+      code.append("      int middle = (low + high) >>> 1;\n");
+      code.append("      if (c < table[2 * middle]) high = middle - 1;\n");
+      code.append("      else if (c > table[2 * middle + 1]) low = middle + 1;\n");
+      code.append("      else return true;\n");
+      code.append("    }\n");
+      code.append("    return false;\n");
+      code.append("  }\n");
+    }
+    code.append("\n}\n");
+    return code.toString();
+  }
+
+  /* The name of the grammar, for the documentation of the generated class. */
+  private String grammarName() {
+    List<Rule> rules = grammar.getGrammar().getRules();
+    return rules.isEmpty() ? "" : "starting with " + rules.get(0).getName();
+  }
+
+  /* The name of an automaton, for comments. */
+  private String automatonName(int index) {
+    List<Rule> rules = grammar.getGrammar().getRules();
+    if (index < rules.size()) return "rule " + rules.get(index).getName();
+    return automata.get(index).getType() == GrammarCompiler.POS_TYPE ? "positive predicate" : "negative predicate";
+  }
+
+  /* Generate the methods of an automaton: one for its start state, and one for each state that is not inlined. */
+  private void generateAutomaton(int index) {
+    automaton = automata.get(index);
+    automatonIndex = index;
+    List<Automaton.State> states = automaton.getStates();
+    incoming = new int[states.size()];
+    hasMethod = new boolean[states.size()];
+    pendingMethods = new LinkedList<Integer>();
+    // Count the edges to each state that can be reached from the start state.
+    boolean[] reached = new boolean[states.size()];
+    LinkedList<Integer> toVisit = new LinkedList<Integer>();
+    reached[0] = true;
+    toVisit.add(0);
+    while (!toVisit.isEmpty()) {
+      for (Automaton.Edge edge : states.get(toVisit.removeFirst()).getEdges()) {
+        ++incoming[edge.getTarget()];
+        if (!reached[edge.getTarget()]) {
+          reached[edge.getTarget()] = true;
+          toVisit.add(edge.getTarget());
+        }
+      }
+    }
+    hasMethod[0] = true;
+    pendingMethods.add(0);
+    while (!pendingMethods.isEmpty()) {
+      generateStateMethod(pendingMethods.removeFirst());
+    }
+  }
+
+  private String methodName(int index, int state) {
+    return "a" + index + "s" + state;
+  }
+
+  /* Generate the method that matches from a state. */
+  private void generateStateMethod(int state) {
+    variables = 0;
+    inlinedStates = 0;
+    methods.append('\n');
+    methods.append("  /* ").append(automatonName(automatonIndex));
+    methods.append(state == 0 ? "" : ", from state " + state).append(" */\n");
+    methods.append("  private int ").append(methodName(automatonIndex, state)).append("() {\n");
+    generateState(state, null, null, 2);
+    methods.append("  }\n");
+  }
+
+  /* Generate the code that matches from a state, and ends with its result.
+   * @param result The variable that receives the result, or null to return it.
+   * @param label The label of the block to leave with the result, or null to return it.
+   */
+  private void generateState(int state, String result, String label, int depth) {
+    Automaton.State s = automaton.getStates().get(state);
+    for (Automaton.Edge edge : s.getEdges()) {
+      generateEdge(edge, result, label, depth);
+    }
+    end(s.isMatch() ? "NIL" : "FAIL", result, label, depth);
+  }
+
+  /* Generate the code that tries an edge, and ends with the result if the edge matches,
+   * or leaves the block of the edge with the position restored if it does not.
+   */
+  private void generateEdge(Automaton.Edge edge, String result, String label, int depth) {
+    int n = ++variables;
+    String edgeLabel = "e" + n;
+    String start = "p" + n;
+    String item = "i" + n;
+    String children = "r" + n;
+    boolean hasItem = false; /* Does the edge add a child to the result? */
+    boolean mayBeEmpty = false; /* May the child be EMPTY? */
+    Automaton.State targetState = automaton.getStates().get(edge.getTarget());
+    boolean ends = targetState.getEdges().isEmpty() && targetState.isMatch(); /* Does the match end after the edge? */
+    line(depth, edgeLabel + ": {");
+    if (!ends) line(depth + 1, "int " + start + " = pos;");
+    switch (edge.getKind()) {
+    case CHARS:
+      line(depth + 1, "int c" + n + " = peek();");
+      line(depth + 1, "if (!(" + test(edge.getChars(), "c" + n) + ")) {");
+      line(depth + 2, "updateError();");
+      line(depth + 2, "break " + edgeLabel + ";");
+      line(depth + 1, "}");
+      hasItem = !edge.isVoided();
+      line(depth + 1, hasItem ? "int " + item + " = -(++pos);" : "++pos;");
+      break;
+    case WILDCARD:
+      line(depth + 1, "if (peek() < 0) {");
+      line(depth + 2, "updateError();");
+      line(depth + 2, "break " + edgeLabel + ";");
+      line(depth + 1, "}");
+      hasItem = !edge.isVoided();
+      line(depth + 1, hasItem ? "int " + item + " = -(++pos);" : "++pos;");
+      break;
+    default:
+      Automaton callee = automata.get(edge.getAutomaton());
+      // Predicates and voided rules always give EMPTY when they match.
+      hasItem = !edge.isVoided()
+                && callee.getType() != GrammarCompiler.POS_TYPE && callee.getType() != GrammarCompiler.NEG_TYPE
+                && callee.getMode() != FA.VOID;
+      mayBeEmpty = true;
+      line(depth + 1, "int " + item + " = matchAutomaton(" + edge.getAutomaton() + "); // " + automatonName(edge.getAutomaton()));
+      line(depth + 1, "if (" + item + " == FAIL) break " + edgeLabel + ";");
+      break;
+    }
+    if (ends) {
+      children = "NIL";
+    } else {
+      generateTarget(edge.getTarget(), children, depth);
+      line(depth + 1, "if (" + children + " == FAIL) {");
+      line(depth + 2, "pos = " + start + ";");
+      line(depth + 2, "break " + edgeLabel + ";");
+      line(depth + 1, "}");
+    }
+    String value;
+    if (!hasItem) {
+      value = children;
+    } else if (mayBeEmpty) {
+      value = item + " == EMPTY ? " + children + " : cell(" + item + ", " + children + ")";
+    } else {
+      value = "cell(" + item + ", " + children + ")";
+    }
+    end(value, result, label, depth + 1);
+    line(depth, "}");
+  }
+
+  /* Generate the code that matches from the target state of an edge into a new variable. */
+  private void generateTarget(int target, String children, int depth) {
+    if (inline(target, depth)) {
+      ++inlinedStates;
+      String stateLabel = "s" + children.substring(1);
+      line(depth + 1, "int " + children + ";");
+      line(depth + 1, stateLabel + ": {");
+      generateState(target, children, stateLabel, depth + 2);
+      line(depth + 1, "}");
+    } else {
+      if (!hasMethod[target]) {
+        hasMethod[target] = true;
+        pendingMethods.add(target);
+      }
+      line(depth + 1, "int " + children + " = " + methodName(automatonIndex, target) + "();");
+    }
+  }
+
+  /* Is a state inlined where an edge leads to it? */
+  private boolean inline(int state, int depth) {
+    return state != 0 && incoming[state] == 1 && !hasMethod[state]
+           && inlinedStates < MAX_INLINED_STATES && depth < 2 * MAX_INLINE_DEPTH;
+  }
+
+  /* End the code of a state with a value. */
+  private void end(String value, String result, String label, int depth) {
+    if (result == null) {
+      line(depth, "return " + value + ";");
+    } else {
+      line(depth, result + " = " + value + ";");
+      line(depth, "break " + label + ";");
+    }
+  }
+
+  private void line(int depth, String code) {
+    for (int i = 0; i < depth; ++i) methods.append("  ");
+    methods.append(code).append('\n');
+  }
+
+  /* A Java expression that tests if the int variable c is a character in a set. It is false for -1. */
+  private String test(CharSet chars, String c) {
+    int[] ranges = ranges(chars);
+    if (ranges.length == 0) return "false";
+    if (ranges.length / 2 > MAX_INLINE_TESTS) {
+      return "inTable(" + table(ranges) + ", " + c + ")";
+    }
+    StringBuilder test = new StringBuilder();
+    for (int i = 0; i < ranges.length; i += 2) {
+      if (i > 0) test.append(" || ");
+      if (ranges[i] == ranges[i + 1]) {
+        test.append(c).append(" == ").append(literal(ranges[i]));
+      } else {
+        test.append('(').append(c).append(" >= ").append(literal(ranges[i]));
+        test.append(" && ").append(c).append(" <= ").append(literal(ranges[i + 1])).append(')');
+      }
+    }
+    return test.toString();
+  }
+
+  /* The characters of a set as sorted, separate ranges: min, max, min, max, ... */
+  private static int[] ranges(CharSet chars) {
+    char[] single = chars.getSingle();
+    char[] min = chars.getMin();
+    char[] max = chars.getMax();
+    long[] ranges = new long[single.length + min.length];
+    for (int i = 0; i < single.length; ++i) ranges[i] = ((long) single[i] << 32) | single[i];
+    for (int i = 0; i < min.length; ++i) ranges[single.length + i] = ((long) min[i] << 32) | max[i];
+    Arrays.sort(ranges);
+    int[] merged = new int[2 * ranges.length];
+    int n = 0;
+    for (long range : ranges) {
+      int from = (int) (range >>> 32);
+      int to = (int) range;
+      if (n > 0 && from <= merged[n - 1] + 1) {
+        merged[n - 1] = Math.max(merged[n - 1], to);
+      } else {
+        merged[n++] = from;
+        merged[n++] = to;
+      }
+    }
+    return Arrays.copyOf(merged, n);
+  }
+
+  /* The name of a static table with ranges, which is generated once for equal ranges. */
+  private String table(int[] ranges) {
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < ranges.length; ++i) {
+      if (i > 0) contents.append(", ");
+      contents.append(literal(ranges[i]));
+    }
+    String name = tableNames.get(contents.toString());
+    if (name == null) {
+      name = "TABLE" + tableNames.size();
+      tableNames.put(contents.toString(), name);
+      tables.append("  private static final char[] ").append(name).append(" = {").append(contents).append("};\n");
+    }
+    return name;
+  }
+
+  /* A character as a Java literal. Other characters than printable ASCII are written as numbers. */
+  private static String literal(int c) {
+    if (c >= 0x20 && c < 0x7F && c != '\'' && c != '\\') return "'" + (char) c + "'";
+    return "0x" + Integer.toHexString(c).toUpperCase();
+  }
+
+}
@@ -0,0 +1,688 @@
+package com.rakensi.waxeye;
+
+import java.util.List;
+
+import org.waxeye.parser.FA;
+import org.waxeye.parser.ParseError;
+import org.xml.sax.SAXException;
+
+/**
+ * A parser for a compiled grammar that does not build a Waxeye parse tree.
+ *
+ * It interprets the automata in the same way as the Waxeye runtime parser, with the same backtracking,
+ * memoization and error reporting, so the results are the same.
+ * The memo table is a MemoTable of primitive slots, and a MemoPolicy tells which automata are memoized.
+ * Instead of AST and Char objects, the results of automata are records in an integer array,
+ * which is reused for the next input. A character in the tree is just its position in the input.
+ * After a successful parse, the tree is sent to a ParseTreeHandler.
+ *
+ * The memo table is kept while the same input is parsed from different start positions, as when scanning a fragment.
+ * Therefore a memo entry also records the parse error and end-of-input check that happened while matching,
+ * so that using the entry has the same effect as matching again.
+ * For large inputs, the memo table can be limited. The parser commits to the start position of a parse,
+ * and to the end of each match of a rule that the start rule refers to. When the table is full,
+ * entries before the committed position are dropped first, and if that is not enough, all entries are dropped,
+ * so the parser matches again instead of running out of memory.
+ * The limit also covers the records: when they take more than a few nodes for each allowed entry,
+ * or twice as much as after they were last compacted, the records that are still used are moved into a new array,
+ * and the records of earlier parses and of backtracking are dropped. This is done at the start of a parse,
+ * and during a parse after each match in the start automaton, so a large complete match only keeps its own tree
+ * and the records of the remaining memo entries. If these take too much, all entries are dropped.
+ * If the records do not fit in an array or in memory, the parse is done again without memoization,
+ * which may take longer, but only keeps the records of the tree.
+ * When the input is released, a large array of records and a large memo table are given back.
+ * Line and column numbers are only computed for the position of a parse error.
+ *
+ * A DirectParser is not thread-safe, but it is cheap to make one for each thread from a shared CompiledGrammar.
+ *
+ * The DescentParserGenerator generates subclasses that match the states of each automaton with code of their own,
+ * instead of interpreting the automata; see matchStart. Everything else, including memoization, is done here.
+ *
+ * The edges that an interpreted automaton has taken are kept on a stack of their own, so a long sequence or repetition
+ * does not use the Java stack. A rule that is matched within another rule does use the Java stack, and so does each
+ * state in the code of a generated subclass, so deeply nested matches need a thread with a large stack.
+ * The start automaton is always interpreted, so a long list of matches of its rules is not limited by the stack.
+ *
+ * @author Rakensi
+ */
+public class DirectParser {
+
+  /** The result of an automaton or transition that does not match. */
+  protected static final int FAIL = Integer.MIN_VALUE;
+  /** The result of an automaton that matches without a node, like a predicate or a voided rule. */
+  protected static final int EMPTY = Integer.MIN_VALUE + 1;
+  /** The empty list of children. Other lists are the index of their first cell. */
+  protected static final int NIL = -1;
+
+  /* A node is recorded as type, start, end, children. A list cell is recorded as item, next. */
+  private static final int NODE_SIZE = 4;
+  private static final int CELL_SIZE = 2;
+  /* An edge that an interpreted automaton has taken is recorded as state, edge index, start position, item. */
+  private static final int FRAME_SIZE = 4;
+
+  private static final int INITIAL_ARENA_SIZE = 4096;
+  /* The largest array of records that is kept when the input is released. */
+  private static final int RETAINED_ARENA_SIZE = 1 << 16;
+  /* The largest array that can be allocated, as in java.util.ArrayList. */
+  private static final int MAX_ARENA_SIZE = Integer.MAX_VALUE - 8;
+  /* With a memo limit, the number of ints of records for each allowed memo entry, before the records are compacted. */
+  private static final int ARENA_PER_MEMO_ENTRY = 16;
+
+  private final CompiledGrammar grammar;
+  private final Automaton[] automata;
+  private final String[] typeNames;
+  private boolean eofCheck = true;
+  private MemoPolicy memoPolicy;
+
+  /* The state of the current input and parse. */
+  private CharSequence input;
+  private int length;
+  private int start;
+  /** The current position in the input. */
+  protected int pos;
+  private int errorPos;
+  private int errorType;
+  private boolean endReached;
+  private int[] faStack = new int[64];
+  private int faDepth;
+  private int[] edgeStack = new int[64 * FRAME_SIZE];
+  private int edgeTop;
+  private boolean memoizing = true; /* Is the memo table used? Not when a parse is done again to save memory. */
+  private final MemoTable memo = new MemoTable();
+  private int[] arena = new int[INITIAL_ARENA_SIZE];
+  private int arenaSize;
+  private int compactedArenaSize; /* The size of the records after they were last compacted. */
+  private int maxArenaSize = MAX_ARENA_SIZE;
+  private int result;
+  private ParseError error;
+  private int textStart;
+  private int textEnd;
+
+  public DirectParser(CompiledGrammar grammar) {
+    this.grammar = grammar;
+    List<Automaton> automataList = grammar.getAutomata();
+    this.automata = automataList.toArray(new Automaton[automataList.size()]);
+    Enum<?>[] nodeTypes = grammar.getNodeTypes();
+    this.typeNames = new String[nodeTypes.length];
+    for (int i = 0; i < nodeTypes.length; ++i) typeNames[i] = nodeTypes[i].name();
+    this.memoPolicy = MemoPolicy.all(grammar);
+  }
+
+  public CompiledGrammar getGrammar() {
+    return grammar;
+  }
+
+  /**
+   * Make a parser of the same class for the same grammar, with the same memo policy and memo limit,
+   * for example for another thread.
+   */
+  public DirectParser newParser() {
+    DirectParser parser = newInstance();
+    parser.setMemoPolicy(memoPolicy);
+    parser.setMemoLimit(getMemoLimit());
+    return parser;
+  }
+
+  /**
+   * Make a parser of the same class for the same grammar. Subclasses must override this.
+   */
+  protected DirectParser newInstance() {
+    return new DirectParser(grammar);
+  }
+
+  /**
+   * Set whether the parser must match the complete input, like Parser.setEofCheck.
+   */
+  public void setEofCheck(boolean eofCheck) {
+    this.eofCheck = eofCheck;
+  }
+
+  public MemoPolicy getMemoPolicy() {
+    return memoPolicy;
+  }
+
+  /**
+   * Set which automata are memoized. By default, all automata are memoized.
+   */
+  public void setMemoPolicy(MemoPolicy memoPolicy) {
+    this.memoPolicy = memoPolicy;
+  }
+
+  /**
+   * Limit the number of entries in the memo table, or 0 to let the memo table grow with the input.
+   * With a limit, the records of the parse results are limited as well, and only the result of the last parse is kept.
+   */
+  public void setMemoLimit(int memoLimit) {
+    this.memo.setMaxSize(memoLimit);
+  }
+
+  public int getMemoLimit() {
+    return memo.getMaxSize();
+  }
+
+  /**
+   * The number of memo entries that were dropped because of the memo limit.
+   */
+  public long getDroppedMemoEntries() {
+    return memo.getDropped();
+  }
+
+  /**
+   * Set the input for the following parses, and forget what was memoized for the previous input.
+   * Characters may be appended to the input between parses, but the input must not change otherwise.
+   * @param input The input, or null to release the previous input, and the memory that was used for a large input.
+   */
+  public void setInput(CharSequence input) {
+    this.input = input;
+    this.arenaSize = 0;
+    this.compactedArenaSize = 0;
+    this.result = FAIL;
+    if (input != null) {
+      this.memo.clear();
+    } else {
+      // A parser may be kept for the next request, so it does not keep the memory of a large input.
+      this.memo.release();
+      if (arena.length > RETAINED_ARENA_SIZE) arena = new int[INITIAL_ARENA_SIZE];
+    }
+  }
+
+  /* The length of the array of records. */
+  int getArenaLength() {
+    return arena.length;
+  }
+
+  /* Set the largest array of records, to test what happens when the records do not fit. */
+  void setMaxArenaLength(int maxArenaLength) {
+    this.maxArenaSize = maxArenaLength;
+  }
+
+  /**
+   * Parse the input from a position.
+   * Results that were memoized while parsing from other positions are used again.
+   * With a memo limit, entries before the start position may be dropped, so parses should start at increasing positions.
+   * @param start The position in the input where the match must start.
+   * @return True if the parse succeeded, false if there is a parse error.
+   * @throws IllegalStateException If the tree of the match does not fit in an array or in memory.
+   */
+  public boolean parse(int start) {
+    this.length = input.length();
+    this.start = start;
+    try {
+      result = match();
+    } catch (ArenaFullException e) {
+      // Drop the memo entries and their records, and match again without memoization.
+      memo.dropBefore(Integer.MAX_VALUE);
+      dropArena();
+      memoizing = false;
+      try {
+        result = match();
+      } catch (ArenaFullException again) {
+        dropArena();
+        throw new IllegalStateException("The parse tree does not fit in memory; parse smaller fragments.");
+      } finally {
+        memoizing = true;
+      }
+    }
+    if (result == FAIL || (eofCheck && peek() >= 0)) {
+      result = FAIL;
+      error = parseError();
+    }
+    return result != FAIL;
+  }
+
+  /* Match the start automaton from the start position. */
+  private int match() {
+    this.pos = start;
+    this.errorPos = 0;
+    this.errorType = automata[0].getType();
+    this.endReached = false;
+    this.faDepth = 0;
+    this.edgeTop = 0;
+    this.error = null;
+    memo.setCommittedPosition(start);
+    if (arenaFull()) {
+      compactArena(start);
+    }
+    return matchAutomaton(0);
+  }
+
+  /**
+   * The parse error, or null if the last parse succeeded.
+   */
+  public ParseError getError() {
+    return error;
+  }
+
+  /**
+   * Did the last parse try to read beyond the end of the input?
+   * If not, the result does not depend on text that may follow the input.
+   */
+  public boolean isEndReached() {
+    return endReached;
+  }
+
+  /**
+   * Is the result of the last parse a node with children?
+   */
+  public boolean hasChildren() {
+    return result >= 0 && arena[result + 3] != NIL;
+  }
+
+  /**
+   * The end position of the node that is the result of the last parse.
+   */
+  public int getEndIndex() {
+    return result >= 0 ? arena[result + 2] : pos;
+  }
+
+  /**
+   * The result of the last parse, which can be sent later by emit(int, ParseTreeHandler) while the input is the same.
+   * With a memo limit, the records of earlier results may be dropped by the next parse, so only the last result can be sent.
+   */
+  public int getResult() {
+    return result;
+  }
+
+  /**
+   * Send the result of the last parse to a handler.
+   * Text is given as ranges of positions, so the handler can take the characters from the original fragment,
+   * which may differ from the parsed input if that has been normalized.
+   * @param handler Receives the nodes and text.
+   */
+  public void emit(ParseTreeHandler handler) throws SAXException {
+    emit(result, handler);
+  }
+
+  /**
+   * Send a result of an earlier parse of the same input to a handler.
+   * @param parseResult A result from getResult().
+   * @param handler Receives the nodes and text.
+   */
+  public void emit(int parseResult, ParseTreeHandler handler) throws SAXException {
+    textStart = textEnd = 0;
+    if (parseResult >= 0) {
+      emitNode(parseResult, handler);
+    }
+  }
+
+  private void emitNode(int node, ParseTreeHandler handler) throws SAXException {
+    flushText(handler);
+    String type = typeNames[arena[node]];
+    handler.startNode(type, arena[node + 1], arena[node + 2]);
+    for (int cell = arena[node + 3]; cell != NIL; cell = arena[cell + 1]) {
+      int item = arena[cell];
+      if (item >= 0) {
+        emitNode(item, handler);
+      } else {
+        int charPos = -item - 1;
+        if (charPos != textEnd) {
+          flushText(handler);
+          textStart = charPos;
+        }
+        textEnd = charPos + 1;
+      }
+    }
+    flushText(handler);
+    handler.endNode(type);
+  }
+
+  private void flushText(ParseTreeHandler handler) throws SAXException {
+    if (textEnd > textStart) {
+      handler.text(textStart, textEnd);
+    }
+    textStart = textEnd = 0;
+  }
+
+  /* The parser, mirroring the Waxeye runtime. */
+
+  /**
+   * Match an automaton at the current position, using the memo table.
+   * @result The node, character or EMPTY that the automaton matched, or FAIL.
+   */
+  protected final int matchAutomaton(int index) {
+    int startPos = pos;
+    int value;
+    if (!memoizing || !memoPolicy.isMemoized(index)) {
+      value = evaluateAutomaton(index);
+    } else {
+      int slot = memo.find(index, startPos);
+      if (slot >= 0 && (memo.getInputLength(slot) < 0 || memo.getInputLength(slot) == length)) {
+        // The entry is valid if it does not depend on the end of the input, or the input has not grown since.
+        value = memo.getResult(slot);
+        pos = memo.getEndPosition(slot);
+        mergeError(memo.getErrorPosition(slot), memo.getErrorType(slot));
+        endReached |= memo.getInputLength(slot) >= 0;
+      } else {
+        // Match with a clean error and end-of-input state, so that the entry records only what this match does.
+        int outerErrorPos = errorPos;
+        int outerErrorType = errorType;
+        boolean outerEndReached = endReached;
+        errorPos = -1;
+        endReached = false;
+        value = evaluateAutomaton(index);
+        memo.put(index, startPos, value, pos, errorPos, errorType, endReached ? length : -1);
+        int innerErrorPos = errorPos;
+        int innerErrorType = errorType;
+        errorPos = outerErrorPos;
+        errorType = outerErrorType;
+        mergeError(innerErrorPos, innerErrorType);
+        endReached |= outerEndReached;
+      }
+    }
+    // A match in the start automaton is not likely to be undone, so memo entries before it may be dropped.
+    if (faDepth == 1 && value != FAIL) {
+      memo.setCommittedPosition(pos);
+    }
+    // The error for a failed automaton is reported in the automaton that called it, so it is not memoized.
+    if (value == FAIL && automata[index].getType() != GrammarCompiler.POS_TYPE) {
+      updateError();
+    }
+    return value;
+  }
+
+  /* Match an automaton at the current position, without memoization. */
+  private int evaluateAutomaton(int index) {
+    int startPos = pos;
+    Automaton automaton = automata[index];
+    pushAutomaton(index);
+    // The start automaton is interpreted, so that its records can be compacted while it is matched.
+    int children = faDepth == 1 ? matchStates(automaton, true) : matchStart(index);
+    --faDepth;
+    int type = automaton.getType();
+    if (type == GrammarCompiler.POS_TYPE) {
+      pos = startPos;
+      return children == FAIL ? FAIL : EMPTY;
+    } else if (type == GrammarCompiler.NEG_TYPE) {
+      pos = startPos;
+      return children == FAIL ? EMPTY : FAIL;
+    } else if (children == FAIL) {
+      return FAIL;
+    } else if (automaton.getMode() == FA.VOID) {
+      return EMPTY;
+    } else if (automaton.getMode() == FA.PRUNE && children == NIL) {
+      return EMPTY;
+    } else if (automaton.getMode() == FA.PRUNE && arena[children + 1] == NIL) {
+      return arena[children];
+    } else {
+      return node(type, startPos, pos, children);
+    }
+  }
+
+  /**
+   * Match the states of an automaton from its start state, by interpreting the automaton.
+   * A subclass may match the states with code of its own, which must have the same effect:
+   * it tries the edges of each state in order, and takes the first edge after which the rest of the automaton matches.
+   * A character that does not match calls updateError(), and the position is restored when an edge is undone.
+   * @param index The index of the automaton.
+   * @result The list of children, which is NIL or a cell, or FAIL.
+   */
+  protected int matchStart(int index) {
+    return matchStates(automata[index], false);
+  }
+
+  /* Match the states of an automaton from its start state, with the edges that have been taken on the edge stack.
+   * From a state, the edges are tried in order. When the rest of the automaton does not match after an edge,
+   * the edge is taken off the stack, the position is restored, and the next edge of its state is tried.
+   * @param committing Is this the start automaton, of which the records can be compacted after a match of an edge?
+   */
+  private int matchStates(Automaton automaton, boolean committing) {
+    List<Automaton.State> states = automaton.getStates();
+    int base = edgeTop;
+    int state = 0;
+    int edge = 0;
+    while (true) {
+      Automaton.State s = states.get(state);
+      List<Automaton.Edge> edges = s.getEdges();
+      if (edge < edges.size()) {
+        int startPos = pos;
+        int item = matchEdge(edges.get(edge));
+        if (item == FAIL) {
+          ++edge;
+        } else {
+          pushEdge(state, edge, startPos, item);
+          // No other records are referred to from the Java stack here, so they can be moved.
+          if (committing && arenaFull()) {
+            compactArena(memo.getCommittedPosition());
+          }
+          state = edges.get(edge).getTarget();
+          edge = 0;
+        }
+      } else if (s.isMatch()) {
+        // Make the list of children from the last edge to the first.
+        int children = NIL;
+        while (edgeTop > base) {
+          edgeTop -= FRAME_SIZE;
+          int item = edgeStack[edgeTop + 3];
+          if (item != EMPTY && !states.get(edgeStack[edgeTop]).getEdges().get(edgeStack[edgeTop + 1]).isVoided()) {
+            children = cell(item, children);
+          }
+        }
+        return children;
+      } else if (edgeTop == base) {
+        return FAIL;
+      } else {
+        // Undo the last edge, and try the next edge of its state.
+        edgeTop -= FRAME_SIZE;
+        state = edgeStack[edgeTop];
+        edge = edgeStack[edgeTop + 1] + 1;
+        pos = edgeStack[edgeTop + 2];
+      }
+    }
+  }
+
+  /* Match the character or automaton of an edge.
+   * @result The character, node or EMPTY that the edge matched, or FAIL.
+   */
+  private int matchEdge(Automaton.Edge edge) {
+    switch (edge.getKind()) {
+    case CHARS:
+      int c = peek();
+      if (c >= 0 && edge.getChars().contains((char) c)) {
+        return -(++pos);
+      }
+      updateError();
+      return FAIL;
+    case WILDCARD:
+      if (peek() < 0) {
+        updateError();
+        return FAIL;
+      }
+      return -(++pos);
+    default:
+      return matchAutomaton(edge.getAutomaton());
+    }
+  }
+
+  private void pushEdge(int state, int edge, int startPos, int item) {
+    if (edgeTop == edgeStack.length) {
+      int[] newStack = new int[edgeStack.length * 2];
+      System.arraycopy(edgeStack, 0, newStack, 0, edgeTop);
+      edgeStack = newStack;
+    }
+    edgeStack[edgeTop] = state;
+    edgeStack[edgeTop + 1] = edge;
+    edgeStack[edgeTop + 2] = startPos;
+    edgeStack[edgeTop + 3] = item;
+    edgeTop += FRAME_SIZE;
+  }
+
+  /**
+   * The character at the current position, or -1 at the end of the input.
+   */
+  protected final int peek() {
+    if (pos < length) return input.charAt(pos);
+    endReached = true;
+    return -1;
+  }
+
+  /**
+   * Record that the current automaton cannot go on at the current position, for the parse error.
+   */
+  protected final void updateError() {
+    if (errorPos < pos) {
+      errorPos = pos;
+      if (faDepth > 0) errorType = automata[faStack[faDepth - 1]].getType();
+    }
+  }
+
+  /* Merge the error of a memoized match, as if the match had been done again. */
+  private void mergeError(int matchErrorPos, int matchErrorType) {
+    if (errorPos < matchErrorPos) {
+      errorPos = matchErrorPos;
+      errorType = matchErrorType;
+    }
+  }
+
+  /* The parse error, with line and column counted from the start position, like the Waxeye parser does. */
+  private ParseError parseError() {
+    int line = 1;
+    int column = 0;
+    boolean lastCR = false;
+    for (int i = start; i < errorPos; ++i) {
+      char c = input.charAt(i);
+      if (c == '\r') {
+        ++line;
+        column = 0;
+        lastCR = true;
+      } else {
+        if (c == '\n') {
+          if (!lastCR) {
+            ++line;
+            column = 0;
+          }
+        } else {
+          ++column;
+        }
+        lastCR = false;
+      }
+    }
+    return new ParseError(errorPos, line, column, typeNames[errorType]);
+  }
+
+  private void pushAutomaton(int index) {
+    if (faDepth == faStack.length) {
+      int[] newStack = new int[faStack.length * 2];
+      System.arraycopy(faStack, 0, newStack, 0, faDepth);
+      faStack = newStack;
+    }
+    faStack[faDepth++] = index;
+  }
+
+  private int node(int type, int start, int end, int children) {
+    int node = allocate(NODE_SIZE);
+    arena[node] = type;
+    arena[node + 1] = start;
+    arena[node + 2] = end;
+    arena[node + 3] = children;
+    return node;
+  }
+
+  /**
+   * Make a list cell with a child, which is a node or a character, in front of a list of children.
+   */
+  protected final int cell(int item, int next) {
+    int cell = allocate(CELL_SIZE);
+    arena[cell] = item;
+    arena[cell + 1] = next;
+    return cell;
+  }
+
+  /* Should the records be compacted? Only with a memo limit, or without memoization. */
+  private boolean arenaFull() {
+    return (memo.getMaxSize() > 0 || !memoizing)
+        && arenaSize > Math.max((long) memo.getMaxSize() * ARENA_PER_MEMO_ENTRY, 2L * compactedArenaSize);
+  }
+
+  /* Move the records that the edge stack and the memo entries at or after a position refer to into a new array,
+   * and drop the other records and the memo entries before the position.
+   * If the moved records of the memo entries take more than half of the limit, these entries and records are dropped.
+   */
+  private void compactArena(int position) {
+    memo.dropBefore(position);
+    int[] oldArena = arena;
+    arena = new int[INITIAL_ARENA_SIZE];
+    arenaSize = 0;
+    try {
+      for (int frame = 0; frame < edgeTop; frame += FRAME_SIZE) {
+        if (edgeStack[frame + 3] >= 0) {
+          edgeStack[frame + 3] = moveNode(oldArena, edgeStack[frame + 3]);
+        }
+      }
+      int treeSize = arenaSize;
+      for (int slot = 0; slot < memo.getCapacity(); ++slot) {
+        if (memo.isEntry(slot) && memo.getResult(slot) >= 0) {
+          memo.setResult(slot, moveNode(oldArena, memo.getResult(slot)));
+        }
+      }
+      if (2L * (arenaSize - treeSize) > (long) memo.getMaxSize() * ARENA_PER_MEMO_ENTRY) {
+        // The records of the memo entries come after the records of the edge stack, which are kept.
+        memo.dropBefore(Integer.MAX_VALUE);
+        arenaSize = treeSize;
+      }
+    } catch (ArenaFullException e) {
+      // The old array is given up, so there are no records to go back to.
+      memo.dropBefore(Integer.MAX_VALUE);
+      throw e;
+    }
+    compactedArenaSize = arenaSize;
+    result = FAIL;
+  }
+
+  /* Drop all records. */
+  private void dropArena() {
+    arena = new int[INITIAL_ARENA_SIZE];
+    arenaSize = 0;
+    compactedArenaSize = 0;
+    edgeTop = 0;
+    result = FAIL;
+  }
+
+  /* Move a node and its children from the old array of records, and return its new index.
+   * A node may be the child of several nodes, so the type of a moved node is replaced by its new index.
+   * A list of children belongs to one node.
+   */
+  private int moveNode(int[] oldArena, int node) {
+    if (oldArena[node] < 0) return -1 - oldArena[node];
+    int moved = node(oldArena[node], oldArena[node + 1], oldArena[node + 2], NIL);
+    oldArena[node] = -1 - moved;
+    int last = NIL;
+    for (int oldCell = oldArena[node + 3]; oldCell != NIL; oldCell = oldArena[oldCell + 1]) {
+      int item = oldArena[oldCell];
+      int newCell = cell(item >= 0 ? moveNode(oldArena, item) : item, NIL);
+      if (last == NIL) {
+        arena[moved + 3] = newCell;
+      } else {
+        arena[last + 1] = newCell;
+      }
+      last = newCell;
+    }
+    return moved;
+  }
+
+  private int allocate(int size) {
+    if (arenaSize + size > arena.length) {
+      if (arenaSize > maxArenaSize - size) {
+        throw new ArenaFullException();
+      }
+      int[] newArena;
+      try {
+        newArena = new int[(int) Math.min(2L * arena.length, maxArenaSize)];
+      } catch (OutOfMemoryError e) {
+        // Only this array could not be made, so the parse can go on without the records of the memo entries.
+        throw new ArenaFullException();
+      }
+      System.arraycopy(arena, 0, newArena, 0, arenaSize);
+      arena = newArena;
+    }
+    int index = arenaSize;
+    arenaSize += size;
+    return index;
+  }
+
+  /* Thrown when the records do not fit, and caught by parse. */
+  private static final class ArenaFullException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+  }
+
+}
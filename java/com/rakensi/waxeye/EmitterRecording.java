@@ -0,0 +1,159 @@
+package com.rakensi.waxeye;
+
+import java.util.Arrays;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * The calls that a SaxEmitter got for one fragment, which can be sent again to another emitter.
+ *
+ * The calls are kept as integer codes, with the node types and strings in a separate array.
+ * Text is kept as positions in the fragment, so a recording can only be replayed for the same fragment,
+ * but names are made by the emitter that replays it, so the namespace prefix may be different.
+ * A recording is made by one thread; after that it is not changed, and it may be replayed by several threads.
+ *
+ * @author Rakensi
+ */
+final class EmitterRecording {
+
+  private static final int START_NODE = 0;
+  private static final int TEXT = 1;
+  private static final int END_NODE = 2;
+  private static final int START_ELEMENT = 3;
+  private static final int END_ELEMENT = 4;
+  private static final int CHARACTERS = 5;
+  private static final int COMMENT = 6;
+  /* The estimated size of the arrays and the object itself, in bytes. */
+  private static final int OVERHEAD = 64;
+
+  private int[] codes = new int[64];
+  private int codeCount = 0;
+  private Object[] objects = new Object[16];
+  private int objectCount = 0;
+  private long stringSize = 0; /* The estimated size of the strings and attributes, in bytes. */
+  private long matches = 0;
+  private long errors = 0;
+
+  void startNode(Object type, int start, int end) {
+    code(START_NODE);
+    object(type);
+    code(start);
+    code(end);
+  }
+
+  void text(int start, int end) {
+    code(TEXT);
+    code(start);
+    code(end);
+  }
+
+  void endNode(Object type) {
+    code(END_NODE);
+    object(type);
+  }
+
+  void startElement(String localName, Attributes attributes) {
+    code(START_ELEMENT);
+    object(localName);
+    object(new AttributesImpl(attributes));
+    for (int i = 0; i < attributes.getLength(); ++i) {
+      stringSize += 2 * (attributes.getLocalName(i).length() + attributes.getValue(i).length()) + OVERHEAD;
+    }
+  }
+
+  void endElement(String localName) {
+    code(END_ELEMENT);
+    object(localName);
+  }
+
+  void characters(String text) {
+    code(CHARACTERS);
+    object(text);
+    stringSize += 2 * text.length() + OVERHEAD;
+  }
+
+  void comment(String text) {
+    code(COMMENT);
+    object(text);
+    stringSize += 2 * text.length() + OVERHEAD;
+  }
+
+  /**
+   * Finish the recording, with the number of matches and errors in the fragment, for the metrics of a replay.
+   */
+  void finish(long matches, long errors) {
+    this.matches = matches;
+    this.errors = errors;
+    codes = Arrays.copyOf(codes, codeCount);
+    objects = Arrays.copyOf(objects, objectCount);
+  }
+
+  long getMatches() {
+    return matches;
+  }
+
+  long getErrors() {
+    return errors;
+  }
+
+  /**
+   * The estimated memory use of the recording, in bytes.
+   */
+  long size() {
+    return OVERHEAD + 4L * codes.length + 8L * objects.length + stringSize;
+  }
+
+  /**
+   * Send the recorded calls to an emitter, which must have the fragment of the recording.
+   */
+  void replay(SaxEmitter emitter) throws SAXException {
+    int o = 0;
+    for (int c = 0; c < codeCount; ) {
+      switch (codes[c++]) {
+        case START_NODE:
+          emitter.startNode(objects[o++], codes[c], codes[c + 1]);
+          c += 2;
+          break;
+        case TEXT:
+          emitter.text(codes[c], codes[c + 1]);
+          c += 2;
+          break;
+        case END_NODE:
+          emitter.endNode(objects[o++]);
+          break;
+        case START_ELEMENT:
+          emitter.startElement((String) objects[o], (Attributes) objects[o + 1]);
+          o += 2;
+          break;
+        case END_ELEMENT:
+          emitter.endElement((String) objects[o++]);
+          break;
+        case CHARACTERS:
+          emitter.characters((String) objects[o++]);
+          break;
+        case COMMENT:
+          emitter.comment((String) objects[o++]);
+          break;
+        default:
+          throw new IllegalStateException("Unknown code in recording.");
+      }
+    }
+  }
+
+  private void code(int code) {
+    if (codeCount == codes.length) {
+      codes = Arrays.copyOf(codes, codeCount * 2);
+    }
+    codes[codeCount++] = code;
+  }
+
+  private void object(Object object) {
+    if (objectCount == objects.length) {
+      objects = Arrays.copyOf(objects, objectCount * 2);
+    }
+    objects[objectCount++] = object;
+  }
+
+}
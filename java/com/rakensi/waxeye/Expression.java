@@ -0,0 +1,142 @@
+package com.rakensi.waxeye;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable parsing expression, the right-hand side of a rule in a Waxeye grammar.
+ * Literals are represented as sequences of character sets.
+ *
+ * @author Rakensi
+ */
+public final class Expression {
+
+  public enum Kind {
+    /** Ordered choice between the children: a | b */
+    ALTERNATION,
+    /** The children in sequence: a b */
+    SEQUENCE,
+    /** Zero or more repetitions of the child: *a */
+    ZERO_OR_MORE,
+    /** One or more repetitions of the child: +a */
+    ONE_OR_MORE,
+    /** Zero or one occurrence of the child: ?a */
+    OPTIONAL,
+    /** The child, without putting its result in the tree: :a */
+    VOID,
+    /** Positive look-ahead: &a */
+    AND,
+    /** Negative look-ahead: !a */
+    NOT,
+    /** A reference to a rule. */
+    NONTERMINAL,
+    /** One character from a character set. */
+    CHARS,
+    /** Any character: . */
+    WILDCARD
+  }
+
+  private final Kind kind;
+  private final List<Expression> children;
+  private final String name;
+  private final CharSet chars;
+
+  private Expression(Kind kind, List<Expression> children, String name, CharSet chars) {
+    this.kind = kind;
+    this.children = children;
+    this.name = name;
+    this.chars = chars;
+  }
+
+  public static Expression compound(Kind kind, List<Expression> children) {
+    return new Expression(kind, Collections.unmodifiableList(new ArrayList<Expression>(children)), null, null);
+  }
+
+  public static Expression unary(Kind kind, Expression child) {
+    return new Expression(kind, Collections.singletonList(child), null, null);
+  }
+
+  public static Expression nonterminal(String name) {
+    return new Expression(Kind.NONTERMINAL, Collections.<Expression>emptyList(), name, null);
+  }
+
+  public static Expression chars(CharSet chars) {
+    return new Expression(Kind.CHARS, Collections.<Expression>emptyList(), null, chars);
+  }
+
+  public static Expression wildcard() {
+    return new Expression(Kind.WILDCARD, Collections.<Expression>emptyList(), null, null);
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public List<Expression> getChildren() {
+    return children;
+  }
+
+  /**
+   * The only child of a unary expression.
+   */
+  public Expression getChild() {
+    return children.get(0);
+  }
+
+  /**
+   * The name of the rule referred to by a NONTERMINAL expression.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The character set of a CHARS expression.
+   */
+  public CharSet getChars() {
+    return chars;
+  }
+
+  /**
+   * Make a copy of this expression in which references to rules are renamed.
+   * @param names Maps old names to new names. Names that are not in the map are not changed.
+   */
+  public Expression rename(Map<String, String> names) {
+    if (kind == Kind.NONTERMINAL) {
+      String newName = names.get(name);
+      return newName == null ? this : nonterminal(newName);
+    } else if (children.isEmpty()) {
+      return this;
+    } else {
+      List<Expression> renamed = new ArrayList<Expression>(children.size());
+      for (Expression child : children) renamed.add(child.rename(names));
+      return new Expression(kind, Collections.unmodifiableList(renamed), null, null);
+    }
+  }
+
+  @Override
+  public String toString() {
+    switch (kind) {
+    case ALTERNATION:
+    case SEQUENCE:
+      StringBuilder sb = new StringBuilder("(");
+      for (int i = 0; i < children.size(); ++i) {
+        if (i > 0) sb.append(kind == Kind.ALTERNATION ? " | " : " ");
+        sb.append(children.get(i));
+      }
+      return sb.append(')').toString();
+    case ZERO_OR_MORE: return "*" + getChild();
+    case ONE_OR_MORE: return "+" + getChild();
+    case OPTIONAL: return "?" + getChild();
+    case VOID: return ":" + getChild();
+    case AND: return "&" + getChild();
+    case NOT: return "!" + getChild();
+    case NONTERMINAL: return name;
+    case CHARS: return chars.toString();
+    default: return ".";
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+package com.rakensi.waxeye;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The set of characters that can be the first character of a match of the start rule of a compiled grammar.
+ *
+ * If the start rule cannot match the empty string, a match can only be found at positions where the input
+ * has a character in this set, so the parser does not have to be called at other positions.
+ * The set is an over-approximation: predicates are ignored, so the parser may still fail at a position in the set.
+ *
+ * @author Rakensi
+ */
+public final class FirstSet {
+
+  private static final int CHAR_COUNT = Character.MAX_VALUE + 1;
+
+  private final BitSet chars;
+  private final boolean nullable;
+
+  private FirstSet(BitSet chars, boolean nullable) {
+    this.chars = chars;
+    this.nullable = nullable;
+  }
+
+  /**
+   * Compute the first set of the start rule of a compiled grammar.
+   */
+  public static FirstSet of(CompiledGrammar grammar) {
+    List<Automaton> automata = grammar.getAutomata();
+    int n = automata.size();
+    BitSet[] first = new BitSet[n];
+    boolean[] nullable = new boolean[n];
+    for (int i = 0; i < n; ++i) first[i] = new BitSet();
+    // Iterate until nothing changes, because rules may refer to each other.
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i < n; ++i) {
+        int cardinality = first[i].cardinality();
+        boolean wasNullable = nullable[i];
+        nullable[i] = visit(automata, i, first, nullable);
+        changed |= nullable[i] != wasNullable || first[i].cardinality() != cardinality;
+      }
+    }
+    return new FirstSet(first[0], nullable[0]);
+  }
+
+  /* Add the characters that can be consumed first by an automaton to first[index].
+   * @result Whether the automaton can match without consuming characters.
+   */
+  private static boolean visit(List<Automaton> automata, int index, BitSet[] first, boolean[] nullable) {
+    List<Automaton.State> states = automata.get(index).getStates();
+    BitSet result = first[index];
+    // The states that can be reached without consuming characters.
+    boolean[] reached = new boolean[states.size()];
+    int[] stack = new int[states.size()];
+    int top = 0;
+    reached[0] = true;
+    stack[top++] = 0;
+    boolean matchesEmpty = false;
+    while (top > 0) {
+      Automaton.State state = states.get(stack[--top]);
+      if (state.isMatch()) matchesEmpty = true;
+      for (Automaton.Edge edge : state.getEdges()) {
+        boolean passesEmpty;
+        switch (edge.getKind()) {
+        case CHARS:
+          add(result, edge.getChars());
+          passesEmpty = false;
+          break;
+        case WILDCARD:
+          result.set(0, CHAR_COUNT);
+          passesEmpty = false;
+          break;
+        default:
+          int target = edge.getAutomaton();
+          if (isPredicate(automata.get(target))) {
+            // A predicate does not consume characters.
+            passesEmpty = true;
+          } else {
+            result.or(first[target]);
+            passesEmpty = nullable[target];
+          }
+          break;
+        }
+        if (passesEmpty && !reached[edge.getTarget()]) {
+          reached[edge.getTarget()] = true;
+          stack[top++] = edge.getTarget();
+        }
+      }
+    }
+    return matchesEmpty;
+  }
+
+  private static boolean isPredicate(Automaton automaton) {
+    return automaton.getType() == GrammarCompiler.POS_TYPE || automaton.getType() == GrammarCompiler.NEG_TYPE;
+  }
+
+  private static void add(BitSet set, CharSet chars) {
+    for (char c : chars.getSingle()) set.set(c);
+    char[] min = chars.getMin();
+    char[] max = chars.getMax();
+    for (int i = 0; i < min.length; ++i) set.set(min[i], max[i] + 1);
+  }
+
+  /**
+   * Can a match start with this character?
+   * This is always true if the start rule can match the empty string.
+   */
+  public boolean mayStartWith(char c) {
+    return nullable || chars.get(c);
+  }
+
+  /**
+   * Can the start rule match the empty string?
+   * In that case the first set cannot be used to skip positions.
+   */
+  public boolean isNullable() {
+    return nullable;
+  }
+
+  /**
+   * The number of characters in the first set.
+   */
+  public int size() {
+    return nullable ? CHAR_COUNT : chars.cardinality();
+  }
+
+}
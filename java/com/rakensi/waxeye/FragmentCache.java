@@ -0,0 +1,190 @@
+package com.rakensi.waxeye;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A cache of the output of short fragments, for text where the same fragments occur over and over.
+ *
+ * The key is the id of the parser, the options that change the output, and the text of the fragment.
+ * The value is a recording of the SAX output, which is replayed when the same fragment is parsed again.
+ * The cache is limited by the estimated memory use of the keys and recordings; when it is full,
+ * the least recently used entries are removed. Entries for a parser that is replaced are removed in the same way.
+ *
+ * A cache is thread-safe, and may be shared by several engines.
+ *
+ * @author Rakensi
+ */
+public final class FragmentCache implements FragmentCacheMXBean {
+
+  /* The estimated size of a key and a map entry, without the text, in bytes. */
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private final long maxSize;
+  private final int maxFragmentLength;
+  /* The entries, from least to most recently used. */
+  private final LinkedHashMap<Key, EmitterRecording> entries = new LinkedHashMap<Key, EmitterRecording>(256, 0.75f, true);
+  private long size = 0;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxSize The maximum memory use, in bytes.
+   * @param maxFragmentLength The maximum length of a fragment that is cached.
+   */
+  public FragmentCache(long maxSize, int maxFragmentLength) {
+    this.maxSize = maxSize;
+    this.maxFragmentLength = maxFragmentLength;
+  }
+
+  /**
+   * The name of the MXBean for a cache.
+   */
+  public static ObjectName objectName(String name) throws JMException {
+    return new ObjectName(GrammarMetrics.JMX_DOMAIN+":type=FragmentCache,name="+ObjectName.quote(name));
+  }
+
+  /**
+   * Register this as an MXBean, replacing an MXBean with the same name.
+   * The statistics are not essential, so if registration fails they are only available through the getters.
+   */
+  public void register(String name) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = objectName(name);
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(this, objectName);
+    } catch (JMException e) {
+      // The statistics can still be read from the getters.
+    } catch (SecurityException e) {
+      // The statistics can still be read from the getters.
+    }
+  }
+
+  /**
+   * Can the output of a fragment with this length be cached?
+   */
+  public boolean accepts(int fragmentLength) {
+    return fragmentLength <= maxFragmentLength;
+  }
+
+  /* The recorded output of a fragment, or null if it is not cached. */
+  synchronized EmitterRecording get(Key key) {
+    EmitterRecording recording = entries.get(key);
+    (recording == null ? misses : hits).incrementAndGet();
+    return recording;
+  }
+
+  /* Cache the recorded output of a fragment, and remove the least recently used entries if the cache is too large. */
+  synchronized void put(Key key, EmitterRecording recording) {
+    long entrySize = key.size() + recording.size();
+    if (entrySize > maxSize) return;
+    EmitterRecording old = entries.put(key, recording);
+    if (old != null) size -= key.size() + old.size();
+    size += entrySize;
+    Iterator<Map.Entry<Key, EmitterRecording>> eldest = entries.entrySet().iterator();
+    while (size > maxSize) {
+      Map.Entry<Key, EmitterRecording> entry = eldest.next();
+      size -= entry.getKey().size() + entry.getValue().size();
+      eldest.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public double getHitRatio() {
+    long h = hits.get();
+    long lookups = h + misses.get();
+    return lookups == 0 ? 0.0 : (double) h / lookups;
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public synchronized int getEntries() {
+    return entries.size();
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public int getMaxFragmentLength() {
+    return maxFragmentLength;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+  public void reset() {
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "entries="+getEntries()+" size="+getSize()+" maxSize="+maxSize+" hits="+getHits()+" misses="+getMisses()+
+           " evictions="+getEvictions();
+  }
+
+  /**
+   * The key of a fragment: the id of the parser, the options that change the output, and the text.
+   * A new parser for a changed grammar has a new id, so it does not use the output of the old one.
+   * The key does not refer to the parser, so cached entries do not keep a replaced parser and its classes loaded.
+   */
+  static final class Key {
+    private final long parserId;
+    private final int options;
+    private final String fragment;
+    private final int hash;
+
+    Key(long parserId, int options, String fragment) {
+      this.parserId = parserId;
+      this.options = options;
+      this.fragment = fragment;
+      this.hash = ((int) (parserId ^ (parserId >>> 32)) * 31 + options) * 31 + fragment.hashCode();
+    }
+
+    long size() {
+      return ENTRY_OVERHEAD + 2L * fragment.length();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return parserId == other.parserId && options == other.options && fragment.equals(other.fragment);
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+package com.rakensi.waxeye;
+
+/**
+ * The management interface of a fragment cache.
+ * A registered cache has the name com.rakensi.waxeye:type=FragmentCache,name="the name".
+ *
+ * @author Rakensi
+ */
+public interface FragmentCacheMXBean {
+
+  /**
+   * The number of fragments whose output was replayed from the cache.
+   */
+  long getHits();
+
+  /**
+   * The number of fragments that could be cached, but were not in the cache.
+   */
+  long getMisses();
+
+  /**
+   * The fraction of lookups that were hits.
+   */
+  double getHitRatio();
+
+  /**
+   * The number of entries that were removed to stay within the maximum size.
+   */
+  long getEvictions();
+
+  /**
+   * The number of cached fragments.
+   */
+  int getEntries();
+
+  /**
+   * The estimated memory use of the cached fragments and their output, in bytes.
+   */
+  long getSize();
+
+  /**
+   * The maximum memory use, in bytes.
+   */
+  long getMaxSize();
+
+  /**
+   * The maximum length of a fragment that is cached.
+   */
+  int getMaxFragmentLength();
+
+  /**
+   * Remove all entries.
+   */
+  void clear();
+
+  /**
+   * Set the hit, miss and eviction counters to zero.
+   */
+  void reset();
+
+}
@@ -0,0 +1,444 @@
+package com.rakensi.waxeye;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.waxeye.parser.ParseError;
+import org.waxeye.parser.ParseResult;
+import org.waxeye.parser.Parser;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.rakensi.trie.AhoCorasick;
+
+/**
+ * Finds matches in a fragment, and sends the matches and the unmatched text as SAX events.
+ *
+ * When streaming, the text is appended in parts. A match or unmatched text is only sent when it is final,
+ * that is, when the parser did not try to read beyond the text that is available.
+ * The fragment is counted in the metrics of the grammar when all text has been scanned.
+ * If the engine has a fragment cache, the output of a short fragment that is scanned as a whole is recorded,
+ * and the output of the same fragment is replayed from the cache the next time.
+ *
+ * A scanner is made by a ParseEngine, and it is used for one fragment, by one thread.
+ *
+ * @author Rakensi
+ */
+public final class FragmentScanner {
+
+  /* When streaming, the minimum number of characters that must come in before a step that needs more text is tried again. */
+  private static final int MIN_STREAMING_RETRY = 4096;
+
+  private final ParseEngine engine;
+  private final GrowableInput fragment; /* The original text. */
+  private final GrowableInput input; /* The text that is parsed, which may be normalized. */
+  private final MixedContent mixedContent; /* The mixed content that the fragment is the text of, or null. */
+  private final Parser<?> parser;
+  private final DirectParser directParser; /* The direct parser, or null to use the parser. */
+  private final SaxEmitter emitter; /* Sends the output. */
+  private final FragmentCache.Key cacheKey; /* The key of the fragment in the fragment cache, or null. */
+  private final boolean completeMatch;
+  private final boolean adjacentMatches;
+  private final boolean allowUnmatchedText;
+  private final FirstSet skipFilter;
+  private final AhoCorasick anchors; /* Finds the positions where a match can start, or null. */
+  private final BitSet anchorStarts; /* The positions in the input where an anchor starts, up to anchorEnd. */
+  private int anchorState; /* The state of the anchor automaton after the input up to anchorEnd. */
+  private int anchorEnd = 0;
+  private int unmatched = 0; // The number of unmatched characters before the start position, up to the next match.
+  private int start = 0;
+  private int retryLength = 0; /* When streaming, the length of the text at which scanning is tried again. */
+  private boolean stopped = false;
+  private final ParseMetrics parseMetrics; /* The metrics for the mode, or null. */
+  private final long outputStart; /* The output length of the emitter before the fragment. */
+  private long parseNanos = 0;
+  private long attempts = 0;
+  private long matches = 0;
+  private long errors = 0;
+
+  /* @param fragment The original text, which may be the same object as the input.
+   * @param mixedContent The mixed content that the fragment is the text of, or null.
+   * @param directParser The direct parser, which must not be used by another scanner at the same time, or null.
+   * @param cacheKey The key of the fragment in the fragment cache of the engine, or null if it is not cached.
+   */
+  FragmentScanner(ParseEngine engine, GrowableInput fragment, GrowableInput input, MixedContent mixedContent,
+                  DirectParser directParser, SaxEmitter emitter, FragmentCache.Key cacheKey) {
+    this.engine = engine;
+    this.fragment = fragment;
+    this.input = input;
+    this.mixedContent = mixedContent;
+    this.parser = engine.getParser();
+    this.directParser = directParser;
+    this.emitter = emitter;
+    this.cacheKey = cacheKey;
+    this.outputStart = emitter.getOutputLength();
+    this.completeMatch = engine.getMode() == ScanMode.COMPLETE;
+    this.adjacentMatches = engine.getMode() == ScanMode.ADJACENT;
+    this.allowUnmatchedText = engine.getMode() == ScanMode.SCAN;
+    GrammarMetrics metrics = engine.getMetrics();
+    this.parseMetrics = metrics == null ? null : metrics.parsing(engine.getMode());
+    // Without a match at the current position, the first set tells where the parser cannot start a match.
+    FirstSet firstSet = engine.getFirstSet();
+    this.skipFilter = allowUnmatchedText && firstSet != null && !firstSet.isNullable() ? firstSet : null;
+    // The literal anchors tell where a match can start, in one pass over the input.
+    this.anchors = allowUnmatchedText ? engine.getAnchors() : null;
+    this.anchorStarts = anchors == null ? null : new BitSet();
+    this.anchorState = anchors == null ? 0 : anchors.initialState();
+    if (directParser != null) {
+      directParser.setEofCheck(completeMatch);
+      // Results that are memoized while parsing from one start position are used again from later positions.
+      directParser.setInput(input);
+    } else {
+      parser.setEofCheck(completeMatch);
+    }
+  }
+
+  /**
+   * Append text when streaming, and scan it if enough text has come in since the last attempt.
+   */
+  public void append(char[] ch, int offset, int length) throws SAXException, ParsingException {
+    input.append(ch, offset, length);
+    // A complete match can only be parsed when all text is there.
+    if (!completeMatch && input.length() >= retryLength) {
+      scan(false);
+    }
+  }
+
+  /**
+   * Scan the available text.
+   * @param complete Is all text available?
+   */
+  public void scan(boolean complete) throws SAXException, ParsingException {
+    long scanStart = System.nanoTime();
+    EmitterRecording recording = null;
+    try {
+      int end = fragment.length();
+      if (complete && start == 0 && cacheKey != null) {
+        EmitterRecording cached = engine.getFragmentCache().get(cacheKey);
+        if (cached != null) {
+          setEmitterFragment();
+          cached.replay(emitter);
+          matches = cached.getMatches();
+          errors = cached.getErrors();
+          start = end;
+        } else {
+          recording = new EmitterRecording();
+          emitter.setRecording(recording);
+        }
+      }
+      if (complete && start == 0 && adjacentMatches && directParser != null
+          && engine.getChunkSeparator() != null && end >= 2 * engine.getChunkLength()) {
+        scanChunks(end);
+      }
+      while (start < end && !stopped) {
+        int stepStart = start;
+        int unmatchedLength = unmatched;
+        if (!step(end, complete)) {
+          // The step depends on text that is not available yet. Undo it, and try again when the text has grown.
+          start = stepStart;
+          unmatched = unmatchedLength;
+          retryLength = end + Math.max(MIN_STREAMING_RETRY, end - start);
+          break;
+        }
+      }
+      sendUnmatched();
+      if (recording != null) {
+        recording.finish(matches, errors);
+        engine.getFragmentCache().put(cacheKey, recording);
+      }
+    } finally {
+      if (recording != null) emitter.setRecording(null);
+      if (complete && directParser != null) {
+        // Release the input, and the memory of the parser if it was large, also when scanning failed.
+        directParser.setInput(null);
+      }
+      parseNanos += System.nanoTime() - scanStart;
+      if (complete && parseMetrics != null) {
+        parseMetrics.fragment(fragment.length(), parseNanos, attempts, matches, errors, emitter.getOutputLength() - outputStart);
+      }
+    }
+  }
+
+  /* Scan adjacent matches in chunks that are parsed in parallel.
+   * Chunks start after a separator, where a match is likely to start. The matches of a chunk are used from the first
+   * position where they line up with the matches before the chunk. Matches that do not line up are parsed again.
+   * The matches of a chunk are sent, and its parser is released, as soon as the chunks before it have been sent.
+   * New chunks are started while fewer than the maximum number of chunks are parsed or waiting to be sent,
+   * so the memory for the parse results does not grow with the fragment.
+   */
+  private void scanChunks(int end) throws SAXException, ParsingException {
+    int chunkLength = engine.getChunkLength();
+    int maxChunks = Math.max(1, engine.getMaxParallelChunks());
+    Executor executor = engine.getExecutor();
+    LinkedList<FutureTask<Chunk>> chunks = new LinkedList<FutureTask<Chunk>>();
+    int from = 0;
+    try {
+      while ((from < end || !chunks.isEmpty()) && !stopped) {
+        while (from < end && chunks.size() < maxChunks) {
+          int limit = from + chunkLength < end - chunkLength ? syncPoint(from + chunkLength, end) : end;
+          Chunk chunk = new Chunk(from, limit);
+          FutureTask<Chunk> task = new FutureTask<Chunk>(chunk, chunk);
+          chunks.add(task);
+          if (from > 0 && executor != null) executor.execute(task);
+          from = limit;
+        }
+        // The chunk and its parser are not referenced after this iteration.
+        FutureTask<Chunk> task = chunks.removeFirst();
+        // Parse the chunk on this thread if no worker has started it yet, so that waiting cannot deadlock.
+        task.run();
+        Chunk chunk = task.get();
+        attempts += chunk.attempts;
+        while (start < chunk.limit && !stopped) {
+          int match = Arrays.binarySearch(chunk.starts, 0, chunk.count, start);
+          if (match >= 0) {
+            setEmitterFragment();
+            for (int i = match; i < chunk.count; ++i) {
+              chunk.parser.emit(chunk.results[i], emitter);
+            }
+            matches += chunk.count - match;
+            start = chunk.next;
+            break;
+          }
+          step(end, true);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ParsingException("Interrupted while parsing chunks.", e);
+    } catch (ExecutionException e) {
+      throw new ParsingException("Error while parsing chunks.", e.getCause());
+    } finally {
+      for (FutureTask<Chunk> task : chunks) {
+        task.cancel(false);
+      }
+    }
+  }
+
+  /* The position after the first chunk separator at or after a position, or the end of the input. */
+  private int syncPoint(int position, int end) {
+    String chunkSeparator = engine.getChunkSeparator();
+    int length = chunkSeparator.length();
+    for (int i = position; i + length <= end; ++i) {
+      int j = 0;
+      while (j < length && input.charAt(i + j) == chunkSeparator.charAt(j)) ++j;
+      if (j == length) return i + length;
+    }
+    return end;
+  }
+
+  /* Adjacent matches in a chunk, parsed from the start of the chunk by a parser of its own.
+   * The matches continue until one ends at or after the limit, or no match is found.
+   */
+  private class Chunk implements Runnable {
+    final int from;
+    final int limit;
+    DirectParser parser;
+    int[] starts = new int[256];
+    int[] results = new int[256];
+    int count = 0;
+    int attempts = 0;
+    int next; /* The position after the last match. */
+
+    Chunk(int from, int limit) {
+      this.from = from;
+      this.limit = limit;
+    }
+
+    public void run() {
+      parser = directParser.newParser();
+      parser.setEofCheck(false);
+      // The results of all matches are kept until they are sent, so the records must not be compacted.
+      parser.setMemoLimit(0);
+      parser.setInput(input);
+      int position = from;
+      while (position < limit) {
+        ++attempts;
+        if (!parser.parse(position) || !parser.hasChildren()) break;
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, count * 2);
+          results = Arrays.copyOf(results, count * 2);
+        }
+        starts[count] = position;
+        results[count] = parser.getResult();
+        ++count;
+        position = parser.getEndIndex();
+      }
+      next = position;
+    }
+  }
+
+  /* Scan from the current start position, up to and including the next match or unmatched word.
+   * @result False if more text is needed.
+   */
+  private boolean step(int end, boolean complete) throws SAXException, ParsingException {
+    // Skip spaces.
+    if (allowUnmatchedText)
+      while (start < end && Character.isWhitespace(fragment.charAt(start))) {
+        ++start;
+        ++unmatched;
+      }
+    if (start >= end) {
+      return true;
+    }
+    if (skipFilter != null && start < input.length() && !skipFilter.mayStartWith(input.charAt(start))) {
+      // No match can start here, so skip unmatched text without calling the parser.
+      return skipWord(end, complete);
+    }
+    if (anchors != null && !mayStartAt(start, complete)) {
+      // No anchor starts here, so skip unmatched text without calling the parser.
+      return skipWord(end, complete);
+    }
+    // input[start] points to the start from where we will match.
+    final ParseResult<?> parseResult;
+    final ParseError parseError;
+    final boolean nonEmptyMatch;
+    if (directParser != null) {
+      parseResult = null;
+      ++attempts;
+      try {
+        directParser.parse(start);
+      } catch (IllegalStateException e) {
+        throw new ParsingException(e.getMessage(), e);
+      }
+      if (!complete && directParser.isEndReached()) {
+        return false;
+      }
+      parseError = directParser.getError();
+      nonEmptyMatch = directParser.hasChildren();
+    } else {
+      input.setPosition(start);
+      input.resetEndReached();
+      ++attempts;
+      parseResult = parseInPlace();
+      if (!complete && input.isEndReached()) {
+        return false;
+      }
+      parseError = parseResult.getError();
+      nonEmptyMatch = parseResult.getAST() != null && parseResult.getAST().getChildren().size() > 0;
+    }
+    // Parse errors are significant if completeMatch or adjacentMatches.
+    if (!allowUnmatchedText && parseError != null) {
+      // The error output contains the rest of the fragment.
+      if (!complete) return false;
+      try {
+        parseError(parseError); // This will throw an exception.
+      } catch (ParsingException pe) {
+        if (engine.isParseErrors()) {
+          stopped = true;
+          return true;
+        }
+        else throw pe;
+      }
+    // Create XML for a non-empty match.
+    } else if (nonEmptyMatch) {
+      ++matches;
+      sendUnmatched();
+      setEmitterFragment();
+      if (directParser != null) {
+        directParser.emit(emitter);
+        start = directParser.getEndIndex();
+      } else {
+        if (engine.isShowParseTree()) emitter.comment(parseResult.toString());
+        emitter.emit(parseResult.getAST());
+        start = parseResult.getAST().getPosition().getEndIndex();
+      }
+    // Skip unmatched text if there is an ignored error or empty match.
+    } else if (allowUnmatchedText) {
+      return skipWord(end, complete);
+    // There is an empty match, apparently the grammar allows that.
+    } else {
+      throw new ParsingException("The grammar only matches an empty string, no parsing progress can be made.");
+    }
+    return true;
+  }
+
+  /* Parse the input from its position with the Waxeye parser.
+   * Parser.parse(IParserInput) is deprecated, but it is the only entry point that parses the input in place from a position.
+   * parse(String) and parse(char[]) would copy the rest of the fragment for every attempt, and start at 0,
+   * which makes scanning quadratic in the length of the fragment.
+   */
+  @SuppressWarnings("deprecation")
+  private ParseResult<?> parseInPlace() {
+    return parser.parse(input);
+  }
+
+  /* Can a match start at a position, according to the literal anchors?
+   * The input is searched for anchors up to its current length, so each character is looked at once.
+   * When streaming, an anchor may start at a position near the end of the input, and continue in text that comes later.
+   */
+  private boolean mayStartAt(int position, boolean complete) {
+    int length = input.length();
+    for (; anchorEnd < length; ++anchorEnd) {
+      anchorState = anchors.next(anchorState, input.charAt(anchorEnd));
+      for (int anchorLength : anchors.matchLengths(anchorState)) {
+        anchorStarts.set(anchorEnd + 1 - anchorLength);
+      }
+    }
+    return anchorStarts.get(position) || (!complete && position + anchors.getMaxLength() > length);
+  }
+
+  /* Send an error element for a parse error, and throw an exception. */
+  private void parseError(ParseError error) throws ParsingException {
+    ++errors;
+    String message = "Parser error: "+error.toString()+"\n"+
+                     "Parsing ["+fragment.subSequence(start, Math.min(fragment.length(), start+12))+"]";
+    try {
+      AttributesImpl attrs = new AttributesImpl();
+      attrs.addAttribute("", "NT", "NT", "CDATA", error.getNT());
+      attrs.addAttribute("", "line", "line", "CDATA", ""+error.getLine());
+      attrs.addAttribute("", "column", "column", "CDATA", ""+error.getColumn());
+      attrs.addAttribute("", "position", "position", "CDATA", ""+error.getPosition());
+      attrs.addAttribute("", "message", "message", "CDATA", error.toString());
+      setEmitterFragment();
+      emitter.startElement(ParseEngine.ERROR_ELEMENT_TAG, attrs);
+      emitter.text(0, error.getPosition());
+      emitter.startElement(ParseEngine.MARKER_ELEMENT_TAG, new AttributesImpl());
+      emitter.endElement(ParseEngine.MARKER_ELEMENT_TAG);
+      emitter.text(error.getPosition(), fragment.length());
+      emitter.endElement(ParseEngine.ERROR_ELEMENT_TAG);
+    } catch (SAXException e) {
+      throw new ParsingException(message, e);
+    }
+    throw new ParsingException(message);
+  }
+
+  /* Send the unmatched text before the start position, as a slice of the fragment. */
+  private void sendUnmatched() throws SAXException {
+    if (unmatched > 0) {
+      setEmitterFragment();
+      emitter.text(start - unmatched, start);
+      unmatched = 0;
+    }
+  }
+
+  /* Let the emitter send text from the fragment. When streaming, the array of the fragment is replaced as it grows. */
+  private void setEmitterFragment() {
+    emitter.setFragment(fragment.getChars(), fragment.getOffset(), mixedContent);
+  }
+
+  /* Skip unmatched text. When streaming, a word at the end of the text may continue in text that comes later. */
+  private boolean skipWord(int end, boolean complete) {
+    int skipped = skipUnmatched(fragment, start, end);
+    unmatched += skipped - start;
+    start = skipped;
+    return complete || start < end || !Character.isLetterOrDigit(fragment.charAt(end - 1));
+  }
+
+  /* Skip one unmatched character, and if it is part of a word, the rest of the word.
+   * @result The position after the skipped text.
+   */
+  private static int skipUnmatched(CharSequence fragment, int start, int end) {
+    char unmatchedChar = fragment.charAt(start++);
+    if (Character.isLetterOrDigit(unmatchedChar)) {
+      while (start < end && Character.isLetterOrDigit(fragment.charAt(start))) {
+        ++start;
+      }
+    }
+    return start;
+  }
+
+}
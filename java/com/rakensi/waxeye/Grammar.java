@@ -0,0 +1,47 @@
+package com.rakensi.waxeye;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Waxeye grammar, as read by the GrammarReader.
+ * The first rule is the start rule.
+ *
+ * @author Rakensi
+ */
+public final class Grammar {
+
+  private final List<Rule> rules;
+  private final List<File> sources;
+
+  /**
+   * @param rules The rules, starting with the start rule.
+   * @param sources The files that the grammar was read from, starting with the main grammar file.
+   */
+  public Grammar(List<Rule> rules, List<File> sources) {
+    this.rules = Collections.unmodifiableList(new ArrayList<Rule>(rules));
+    this.sources = Collections.unmodifiableList(new ArrayList<File>(sources));
+  }
+
+  public List<Rule> getRules() {
+    return rules;
+  }
+
+  /**
+   * The files that the grammar was read from.
+   * For a modular grammar, these are the module file and all included grammar files.
+   */
+  public List<File> getSources() {
+    return sources;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Rule rule : rules) sb.append(rule).append('\n');
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,212 @@
+package com.rakensi.waxeye;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.waxeye.parser.FA;
+
+/**
+ * Compiles a Waxeye grammar into automata in memory, without the Waxeye executable and without generating Java code.
+ *
+ * Each rule becomes an automaton, in the order of the rules, so the start rule is automaton 0.
+ * Each predicate (&amp; or !) becomes an automaton of type _Pos or _Neg, after the automata for the rules.
+ * The automata are built like the Waxeye compiler does: a non-deterministic automaton with epsilon transitions is made
+ * for each expression, and the epsilon transitions are then removed, keeping the order in which transitions are tried.
+ *
+ * @author Rakensi
+ */
+public final class GrammarCompiler {
+
+  /** The index of the node type for empty results. */
+  public static final int EMPTY_TYPE = 0;
+  /** The index of the node type for characters. */
+  public static final int CHAR_TYPE = 1;
+  /** The index of the node type for positive predicates. */
+  public static final int POS_TYPE = 2;
+  /** The index of the node type for negative predicates. */
+  public static final int NEG_TYPE = 3;
+  /** The index of the node type for the first rule. The other rules follow in order. */
+  public static final int FIRST_RULE_TYPE = 4;
+
+  private static final String[] SPECIAL_TYPE_NAMES = new String[] {"_Empty", "_Char", "_Pos", "_Neg"};
+
+  private final Map<String, Integer> ruleIndexes = new HashMap<String, Integer>();
+  private final List<Automaton> automata = new ArrayList<Automaton>();
+
+  private GrammarCompiler(Grammar grammar) {
+    List<Rule> rules = grammar.getRules();
+    for (int i = 0; i < rules.size(); ++i) {
+      ruleIndexes.put(rules.get(i).getName(), i);
+      automata.add(null); // Reserve the index of the rule automaton.
+    }
+  }
+
+  /**
+   * Compile a grammar.
+   * @param grammar The grammar, as read by the GrammarReader.
+   * @return The compiled grammar, which can make parsers.
+   */
+  public static CompiledGrammar compile(Grammar grammar) {
+    GrammarCompiler compiler = new GrammarCompiler(grammar);
+    List<Rule> rules = grammar.getRules();
+    String[] typeNames = new String[FIRST_RULE_TYPE + rules.size()];
+    System.arraycopy(SPECIAL_TYPE_NAMES, 0, typeNames, 0, FIRST_RULE_TYPE);
+    for (int i = 0; i < rules.size(); ++i) {
+      Rule rule = rules.get(i);
+      typeNames[FIRST_RULE_TYPE + i] = NodeTypes.typeName(rule.getName());
+      compiler.automata.set(i, compiler.build(FIRST_RULE_TYPE + i, rule.getMode(), rule.getExpression()));
+    }
+    return new CompiledGrammar(grammar, NodeTypes.create(typeNames), compiler.automata);
+  }
+
+  /* Build the automaton for an expression. */
+  private Automaton build(int type, int mode, Expression exp) {
+    Nfa nfa = new Nfa();
+    int start = nfa.newState();
+    int end = visit(nfa, exp, start, false);
+    return nfa.toAutomaton(type, mode, start, end);
+  }
+
+  /* Add states and transitions for an expression, starting in state 'from'.
+   * @result The state where the expression has been matched.
+   */
+  private int visit(Nfa nfa, Expression exp, int from, boolean voided) {
+    int to;
+    switch (exp.getKind()) {
+    case CHARS:
+      to = nfa.newState();
+      nfa.addEdge(from, Automaton.Edge.chars(exp.getChars(), to, voided));
+      return to;
+    case WILDCARD:
+      to = nfa.newState();
+      nfa.addEdge(from, Automaton.Edge.wildcard(to, voided));
+      return to;
+    case NONTERMINAL:
+      to = nfa.newState();
+      nfa.addEdge(from, Automaton.Edge.automaton(ruleIndexes.get(exp.getName()), to, voided));
+      return to;
+    case AND:
+    case NOT:
+      int predicate = automata.size();
+      automata.add(null); // Reserve the index, nested predicates will be added after this one.
+      automata.set(predicate, build(exp.getKind() == Expression.Kind.AND ? POS_TYPE : NEG_TYPE, FA.LEFT, exp.getChild()));
+      to = nfa.newState();
+      nfa.addEdge(from, Automaton.Edge.automaton(predicate, to, voided));
+      return to;
+    case VOID:
+      return visit(nfa, exp.getChild(), from, true);
+    case SEQUENCE:
+      int current = from;
+      for (Expression child : exp.getChildren()) {
+        current = visit(nfa, child, current, voided);
+      }
+      return current;
+    case ALTERNATION:
+      to = nfa.newState();
+      for (Expression child : exp.getChildren()) {
+        int alternative = nfa.newState();
+        nfa.addEpsilon(from, alternative);
+        nfa.addEpsilon(visit(nfa, child, alternative, voided), to);
+      }
+      return to;
+    case OPTIONAL:
+      int option = nfa.newState();
+      nfa.addEpsilon(from, option);
+      int optionEnd = visit(nfa, exp.getChild(), option, voided);
+      to = nfa.newState();
+      nfa.addEpsilon(optionEnd, to);
+      nfa.addEpsilon(from, to);
+      return to;
+    case ONE_OR_MORE:
+      return loop(nfa, exp.getChild(), visit(nfa, exp.getChild(), from, voided), voided);
+    case ZERO_OR_MORE:
+      return loop(nfa, exp.getChild(), from, voided);
+    default:
+      throw new IllegalArgumentException("Unknown expression "+exp);
+    }
+  }
+
+  /* Zero or more repetitions. The repetition is tried before leaving the loop. */
+  private int loop(Nfa nfa, Expression exp, int from, boolean voided) {
+    int loop = nfa.newState();
+    nfa.addEpsilon(from, loop);
+    int body = nfa.newState();
+    nfa.addEpsilon(loop, body);
+    nfa.addEpsilon(visit(nfa, exp, body, voided), loop);
+    int to = nfa.newState();
+    nfa.addEpsilon(loop, to);
+    return to;
+  }
+
+  /* A non-deterministic automaton with epsilon transitions, under construction. */
+  private static final class Nfa {
+    /* For each state, the outgoing transitions. An Integer is an epsilon transition to that state. */
+    private final List<List<Object>> states = new ArrayList<List<Object>>();
+
+    int newState() {
+      states.add(new ArrayList<Object>());
+      return states.size() - 1;
+    }
+
+    void addEdge(int from, Automaton.Edge edge) {
+      states.get(from).add(edge);
+    }
+
+    void addEpsilon(int from, int to) {
+      states.get(from).add(Integer.valueOf(to));
+    }
+
+    /* Remove epsilon transitions and unreachable states. */
+    Automaton toAutomaton(int type, int mode, int start, int end) {
+      // Number the states that are reachable by real transitions, in breadth-first order.
+      Map<Integer, Integer> numbers = new LinkedHashMap<Integer, Integer>();
+      LinkedList<Integer> queue = new LinkedList<Integer>();
+      numbers.put(start, 0);
+      queue.add(start);
+      Map<Integer, List<Automaton.Edge>> closedEdges = new HashMap<Integer, List<Automaton.Edge>>();
+      Map<Integer, Boolean> closedMatch = new HashMap<Integer, Boolean>();
+      while (!queue.isEmpty()) {
+        int state = queue.removeFirst();
+        List<Automaton.Edge> edges = new ArrayList<Automaton.Edge>();
+        boolean[] match = new boolean[1];
+        close(state, end, new boolean[states.size()], edges, match);
+        closedEdges.put(state, edges);
+        closedMatch.put(state, match[0]);
+        for (Automaton.Edge edge : edges) {
+          if (!numbers.containsKey(edge.getTarget())) {
+            numbers.put(edge.getTarget(), numbers.size());
+            queue.add(edge.getTarget());
+          }
+        }
+      }
+      List<Automaton.State> result = new ArrayList<Automaton.State>(numbers.size());
+      for (Integer state : numbers.keySet()) {
+        List<Automaton.Edge> edges = new ArrayList<Automaton.Edge>();
+        for (Automaton.Edge edge : closedEdges.get(state)) {
+          edges.add(edge.withTarget(numbers.get(edge.getTarget())));
+        }
+        result.add(new Automaton.State(edges, closedMatch.get(state)));
+      }
+      return new Automaton(type, mode, result);
+    }
+
+    /* Collect the real transitions of the epsilon-closure of a state, in order. */
+    private void close(int state, int end, boolean[] visited, List<Automaton.Edge> edges, boolean[] match) {
+      if (visited[state]) return;
+      visited[state] = true;
+      if (state == end) match[0] = true;
+      for (Object transition : states.get(state)) {
+        if (transition instanceof Integer) {
+          close((Integer) transition, end, visited, edges, match);
+        } else {
+          edges.add((Automaton.Edge) transition);
+        }
+      }
+    }
+  }
+
+}
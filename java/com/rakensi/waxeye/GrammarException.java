@@ -0,0 +1,20 @@
+package com.rakensi.waxeye;
+
+/**
+ * Signals an error in a Waxeye grammar.
+ *
+ * @author Rakensi
+ */
+public class GrammarException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  public GrammarException(String message) {
+    super(message);
+  }
+
+  public GrammarException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+}
@@ -0,0 +1,150 @@
+package com.rakensi.waxeye;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.waxeye.parser.Parser;
+
+/**
+ * Computes fingerprints of grammars, which identify a compiled parser independently of file timestamps.
+ *
+ * A fingerprint is a SHA-256 hash over the contents of the grammar file and all its sub-grammar files,
+ * the version of the Waxeye runtime, and the settings used to compile the grammar.
+ * Two grammars with the same fingerprint produce the same parser, even if they are in different places.
+ *
+ * The files are read each time, because timestamps cannot be trusted: a deployment may restore an old timestamp
+ * on a changed file. Grammar files are small, and a watched grammar is not fingerprinted for each request.
+ *
+ * @author Rakensi
+ */
+public final class GrammarFingerprint {
+
+  /* The format of fingerprints. Change this when the way parsers are compiled changes. */
+  private static final String FORMAT = "waxeye-fingerprint-1";
+
+  private static volatile String runtimeVersion = null;
+
+  // Private constructor, can't be instantiated.
+  private GrammarFingerprint() { }
+
+  /**
+   * Compute the fingerprint of a grammar.
+   * @param grammarFiles The grammar file, followed by all its sub-grammar files.
+   * @param settings The settings of the grammar compiler, for example the compiler and whether the grammar is modular.
+   * @return The fingerprint, as a hexadecimal string.
+   */
+  public static String of(List<File> grammarFiles, String settings) throws IOException {
+    MessageDigest digest = sha256();
+    update(digest, FORMAT);
+    update(digest, getRuntimeVersion());
+    update(digest, settings);
+    for (File file : grammarFiles) {
+      update(digest, file.getName());
+      if (file.isFile()) {
+        digest.update(fileDigest(file));
+      } else {
+        update(digest, "(missing)");
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Determine the grammar file and the sub-grammar files.
+   * The sub-grammar files of a modular grammar are read from it by the GrammarReader.
+   * A modular grammar that cannot be read has no sub-grammar files; loading it reports the error.
+   * @param grammarFile The grammar file.
+   * @param modular Is the grammar modular?
+   * @result The grammar file, followed by the sub-grammar files of a modular grammar.
+   */
+  public static List<File> grammarFiles(File grammarFile, boolean modular) throws IOException {
+    List<File> files = new ArrayList<File>();
+    files.add(grammarFile);
+    if (modular) {
+      try {
+        files.addAll(GrammarReader.moduleFiles(grammarFile));
+      } catch (GrammarException e) {
+        // The grammar file itself is in the fingerprint, so the fingerprint changes when it is fixed.
+      }
+    }
+    return files;
+  }
+
+  /**
+   * The version of the Waxeye runtime.
+   * This is the implementation version of the runtime jar if it has one,
+   * and otherwise a digest of the runtime Parser class.
+   */
+  public static String getRuntimeVersion() {
+    String version = runtimeVersion;
+    if (version == null) {
+      Package runtimePackage = Parser.class.getPackage();
+      version = runtimePackage != null ? runtimePackage.getImplementationVersion() : null;
+      if (version == null) {
+        try {
+          InputStream in = Parser.class.getResourceAsStream("Parser.class");
+          try {
+            version = "class-" + toHex(digest(in));
+          } finally {
+            in.close();
+          }
+        } catch (Exception e) {
+          version = "unknown";
+        }
+      }
+      runtimeVersion = version;
+    }
+    return version;
+  }
+
+  private static byte[] fileDigest(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return digest(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] digest(InputStream in) throws IOException {
+    MessageDigest digest = sha256();
+    byte[] buffer = new byte[8192];
+    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+      digest.update(buffer, 0, n);
+    }
+    return digest.digest();
+  }
+
+  private static void update(MessageDigest digest, String s) {
+    try {
+      digest.update(s.getBytes("UTF-8"));
+      digest.update((byte) 0);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+}
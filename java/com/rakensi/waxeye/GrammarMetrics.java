@@ -0,0 +1,197 @@
+package com.rakensi.waxeye;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics for loading a grammar and parsing with it, for each scan mode.
+ *
+ * There is one instance for each grammar, which is registered as an MXBean when it is made,
+ * so the metrics can be seen in a JMX console. The snapshot methods give the same metrics within the process.
+ *
+ * @author Rakensi
+ */
+public final class GrammarMetrics implements GrammarMetricsMXBean {
+
+  public static final String JMX_DOMAIN = "com.rakensi.waxeye";
+
+  private static final ConcurrentMap<String, GrammarMetrics> metrics = new ConcurrentHashMap<String, GrammarMetrics>();
+
+  private final String grammar;
+  private final Histogram compileTime = new Histogram();
+  private final Histogram loadTime = new Histogram();
+  private final ParseMetrics[] parseMetrics = new ParseMetrics[ScanMode.values().length];
+
+  private GrammarMetrics(String grammar) {
+    this.grammar = grammar;
+    for (int i = 0; i < parseMetrics.length; ++i) {
+      parseMetrics[i] = new ParseMetrics();
+    }
+  }
+
+  /**
+   * The metrics for a grammar. They are made and registered when they are first asked for.
+   * @param grammar The grammar, usually the path of the grammar file.
+   */
+  public static GrammarMetrics of(String grammar) {
+    GrammarMetrics grammarMetrics = metrics.get(grammar);
+    if (grammarMetrics == null) {
+      GrammarMetrics newMetrics = new GrammarMetrics(grammar);
+      grammarMetrics = metrics.putIfAbsent(grammar, newMetrics);
+      if (grammarMetrics == null) {
+        grammarMetrics = newMetrics;
+        grammarMetrics.register();
+      }
+    }
+    return grammarMetrics;
+  }
+
+  /**
+   * Snapshots of the metrics of all grammars, by grammar.
+   */
+  public static Map<String, Snapshot> snapshots() {
+    Map<String, Snapshot> snapshots = new TreeMap<String, Snapshot>();
+    for (GrammarMetrics grammarMetrics : metrics.values()) {
+      snapshots.put(grammarMetrics.grammar, grammarMetrics.snapshot());
+    }
+    return Collections.unmodifiableMap(snapshots);
+  }
+
+  /**
+   * The name of the MXBean for the metrics of a grammar.
+   */
+  public static ObjectName objectName(String grammar) throws JMException {
+    return new ObjectName(JMX_DOMAIN+":type=GrammarMetrics,grammar="+ObjectName.quote(grammar));
+  }
+
+  /* Register this as an MXBean. An MXBean for the same grammar that was left by a previous class loader is replaced.
+   * Metrics are not essential, so if registration fails they are only available through snapshots.
+   */
+  private void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = objectName(grammar);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      // The metrics can still be read from snapshots.
+    } catch (SecurityException e) {
+      // The metrics can still be read from snapshots.
+    }
+  }
+
+  /**
+   * Record the time it took to compile the grammar, or to generate the parser.
+   */
+  public void compiled(long millis) {
+    compileTime.record(millis);
+  }
+
+  /**
+   * Record the time it took to load the parser.
+   */
+  public void loaded(long millis) {
+    loadTime.record(millis);
+  }
+
+  /**
+   * The counters for parsing in a scan mode.
+   */
+  public ParseMetrics parsing(ScanMode mode) {
+    return parseMetrics[mode.ordinal()];
+  }
+
+  public String getGrammar() {
+    return grammar;
+  }
+
+  public Histogram.Snapshot getCompileTime() {
+    return compileTime.snapshot();
+  }
+
+  public Histogram.Snapshot getLoadTime() {
+    return loadTime.snapshot();
+  }
+
+  public ParseMetrics.Snapshot getScan() {
+    return parsing(ScanMode.SCAN).snapshot();
+  }
+
+  public ParseMetrics.Snapshot getAdjacentMatches() {
+    return parsing(ScanMode.ADJACENT).snapshot();
+  }
+
+  public ParseMetrics.Snapshot getCompleteMatch() {
+    return parsing(ScanMode.COMPLETE).snapshot();
+  }
+
+  public void reset() {
+    compileTime.reset();
+    loadTime.reset();
+    for (ParseMetrics parse : parseMetrics) {
+      parse.reset();
+    }
+  }
+
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  /**
+   * An immutable copy of the metrics of a grammar.
+   */
+  public static final class Snapshot {
+    private final String grammar;
+    private final Histogram.Snapshot compileTime;
+    private final Histogram.Snapshot loadTime;
+    private final ParseMetrics.Snapshot[] parsing;
+
+    private Snapshot(GrammarMetrics metrics) {
+      this.grammar = metrics.grammar;
+      this.compileTime = metrics.getCompileTime();
+      this.loadTime = metrics.getLoadTime();
+      this.parsing = new ParseMetrics.Snapshot[metrics.parseMetrics.length];
+      for (int i = 0; i < parsing.length; ++i) {
+        parsing[i] = metrics.parseMetrics[i].snapshot();
+      }
+    }
+
+    public String getGrammar() {
+      return grammar;
+    }
+
+    public Histogram.Snapshot getCompileTime() {
+      return compileTime;
+    }
+
+    public Histogram.Snapshot getLoadTime() {
+      return loadTime;
+    }
+
+    public ParseMetrics.Snapshot getParsing(ScanMode mode) {
+      return parsing[mode.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder(grammar);
+      s.append("\n  compileTime(ms): ").append(compileTime);
+      s.append("\n  loadTime(ms): ").append(loadTime);
+      for (ScanMode mode : ScanMode.values()) {
+        s.append("\n  ").append(mode).append(": ").append(getParsing(mode));
+      }
+      return s.toString();
+    }
+  }
+
+}
@@ -0,0 +1,47 @@
+package com.rakensi.waxeye;
+
+/**
+ * The management interface of the metrics for a grammar.
+ * The metrics of each grammar are registered in the platform MBean server,
+ * with the name com.rakensi.waxeye:type=GrammarMetrics,grammar="the grammar".
+ *
+ * @author Rakensi
+ */
+public interface GrammarMetricsMXBean {
+
+  /**
+   * The grammar, usually the path of the grammar file.
+   */
+  String getGrammar();
+
+  /**
+   * The time it took to compile the grammar in memory, or to generate the parser with Waxeye, in milliseconds.
+   */
+  Histogram.Snapshot getCompileTime();
+
+  /**
+   * The time it took to compile and load a generated parser, or to load a cached parser, in milliseconds.
+   */
+  Histogram.Snapshot getLoadTime();
+
+  /**
+   * The fragments that were scanned for matches in text.
+   */
+  ParseMetrics.Snapshot getScan();
+
+  /**
+   * The fragments that were parsed with adjacentMatches.
+   */
+  ParseMetrics.Snapshot getAdjacentMatches();
+
+  /**
+   * The fragments that were parsed with completeMatch.
+   */
+  ParseMetrics.Snapshot getCompleteMatch();
+
+  /**
+   * Set all metrics of the grammar to zero.
+   */
+  void reset();
+
+}
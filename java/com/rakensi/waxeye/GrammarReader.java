@@ -0,0 +1,519 @@
+package com.rakensi.waxeye;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.waxeye.parser.FA;
+
+/**
+ * Reads Waxeye grammars (.waxeye files) and modular grammars (as given to waxeye with the -m option).
+ *
+ * A grammar consists of rules like <code>name &lt;- expression</code>, with the arrows
+ * <code>&lt;-</code> (keep the node), <code>&lt;=</code> (prune the node if it has less than two children)
+ * and <code>&lt;:</code> (void the node).
+ * Expressions are built from alternation (<code>|</code>), sequence, the prefixes <code>* + ? : &amp; !</code>,
+ * parentheses, literals (<code>'abc'</code>), case-insensitive literals (<code>"abc"</code>),
+ * character classes (<code>[a-z\n\&lt;A0&gt;]</code>), the wildcard (<code>.</code>) and references to rules.
+ * Comments are <code># ...</code> up to the end of the line, and <code>/* ... *&#47;</code>.
+ *
+ * A modular grammar consists of s-expressions that combine grammar files:
+ * <ul>
+ *   <li><code>(all m ...)</code> or <code>(join m ...)</code> contains the rules of all modules m.</li>
+ *   <li><code>(only m nt ...)</code> contains only the named rules of module m.</li>
+ *   <li><code>(except m nt ...)</code> contains all rules of module m, except the named ones.</li>
+ *   <li><code>(rename m (old . new) ...)</code> renames rules in module m.</li>
+ *   <li><code>(prefix p m ...)</code> puts p in front of the names of all rules in the modules m.</li>
+ * </ul>
+ * A module is either a file name in double quotes (relative to the modular grammar) or another s-expression.
+ * Comments start with a semicolon and extend to the end of the line.
+ *
+ * @author Rakensi
+ */
+public final class GrammarReader {
+
+  private final String text;
+  private final String systemId;
+  private int pos = 0;
+
+  private GrammarReader(String text, String systemId) {
+    this.text = text;
+    this.systemId = systemId;
+  }
+
+  /**
+   * Read a grammar from a file.
+   * @param file The grammar file.
+   * @param modular True if the file is a modular grammar.
+   */
+  public static Grammar read(File file, boolean modular) throws IOException, GrammarException {
+    List<File> sources = new ArrayList<File>();
+    List<Rule> rules;
+    if (modular) {
+      rules = new GrammarReader(readFile(file), file.getPath()).readModule(file.getParentFile(), sources);
+    } else {
+      rules = readRules(file, sources);
+    }
+    return new Grammar(checked(rules, file.getPath()), sources);
+  }
+
+  /**
+   * Read a (non-modular) grammar from a string.
+   * @param text The text of the grammar.
+   * @param systemId Identifies the grammar in error messages.
+   */
+  public static Grammar read(String text, String systemId) throws GrammarException {
+    return new Grammar(checked(new GrammarReader(text, systemId).readGrammar(), systemId), new ArrayList<File>());
+  }
+
+  /**
+   * Determine the grammar files that a modular grammar combines, without reading them.
+   * @param file The modular grammar file.
+   * @result The grammar files, in the order in which they occur in the modular grammar. They need not exist.
+   */
+  public static List<File> moduleFiles(File file) throws IOException, GrammarException {
+    GrammarReader reader = new GrammarReader(readFile(file), file.getPath());
+    List<File> files = new ArrayList<File>();
+    reader.skipModularSpace();
+    while (reader.pos < reader.text.length()) {
+      addModuleFiles(reader.sexpr(), file.getParentFile(), files);
+      reader.skipModularSpace();
+    }
+    return files;
+  }
+
+  private static List<Rule> readRules(File file, List<File> sources) throws IOException, GrammarException {
+    sources.add(file);
+    return new GrammarReader(readFile(file), file.getPath()).readGrammar();
+  }
+
+  private static String readFile(File file) throws IOException {
+    Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+    try {
+      StringBuilder sb = new StringBuilder();
+      char[] buffer = new char[4096];
+      for (int n = reader.read(buffer); n >= 0; n = reader.read(buffer)) {
+        sb.append(buffer, 0, n);
+      }
+      // Skip a byte order mark.
+      if (sb.length() > 0 && sb.charAt(0) == '\uFEFF') sb.deleteCharAt(0);
+      return sb.toString();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /* Check that there are rules, that rule names are unique, and that all referenced rules exist. */
+  private static List<Rule> checked(List<Rule> rules, String systemId) throws GrammarException {
+    if (rules.isEmpty()) {
+      throw new GrammarException(systemId+": The grammar has no rules.");
+    }
+    Set<String> names = new HashSet<String>();
+    for (Rule rule : rules) {
+      if (!names.add(rule.getName())) {
+        throw new GrammarException(systemId+": The rule "+rule.getName()+" is defined more than once.");
+      }
+    }
+    for (Rule rule : rules) {
+      checkReferences(rule.getExpression(), rule.getName(), names, systemId);
+    }
+    return rules;
+  }
+
+  private static void checkReferences(Expression exp, String ruleName, Set<String> names, String systemId)
+      throws GrammarException {
+    if (exp.getKind() == Expression.Kind.NONTERMINAL && !names.contains(exp.getName())) {
+      throw new GrammarException(systemId+": The rule "+ruleName+" refers to "+exp.getName()+", which is not defined.");
+    }
+    for (Expression child : exp.getChildren()) {
+      checkReferences(child, ruleName, names, systemId);
+    }
+  }
+
+  /* ---------------- Waxeye grammars ---------------- */
+
+  private List<Rule> readGrammar() throws GrammarException {
+    List<Rule> rules = new ArrayList<Rule>();
+    skipSpace();
+    while (pos < text.length()) {
+      String name = identifier();
+      if (name == null) throw error("Expected the name of a rule");
+      skipSpace();
+      int mode = arrow();
+      if (mode < 0) throw error("Expected '<-', '<=' or '<:' after "+name);
+      skipSpace();
+      rules.add(new Rule(name, mode, alternation()));
+    }
+    return rules;
+  }
+
+  private Expression alternation() throws GrammarException {
+    List<Expression> alternatives = new ArrayList<Expression>();
+    alternatives.add(sequence());
+    while (pos < text.length() && text.charAt(pos) == '|') {
+      ++pos;
+      skipSpace();
+      alternatives.add(sequence());
+    }
+    return alternatives.size() == 1 ? alternatives.get(0) : Expression.compound(Expression.Kind.ALTERNATION, alternatives);
+  }
+
+  private Expression sequence() throws GrammarException {
+    List<Expression> units = new ArrayList<Expression>();
+    while (pos < text.length() && text.charAt(pos) != '|' && text.charAt(pos) != ')' && !atRuleStart()) {
+      units.add(unit());
+    }
+    if (units.isEmpty()) throw error("Expected an expression");
+    return units.size() == 1 ? units.get(0) : Expression.compound(Expression.Kind.SEQUENCE, units);
+  }
+
+  private Expression unit() throws GrammarException {
+    char c = text.charAt(pos);
+    Expression.Kind prefix = null;
+    switch (c) {
+    case '*': prefix = Expression.Kind.ZERO_OR_MORE; break;
+    case '+': prefix = Expression.Kind.ONE_OR_MORE; break;
+    case '?': prefix = Expression.Kind.OPTIONAL; break;
+    case ':': prefix = Expression.Kind.VOID; break;
+    case '&': prefix = Expression.Kind.AND; break;
+    case '!': prefix = Expression.Kind.NOT; break;
+    }
+    if (prefix != null) {
+      ++pos;
+      skipSpace();
+      if (pos >= text.length()) throw error("Expected an expression after '"+c+"'");
+      return Expression.unary(prefix, unit());
+    }
+    Expression primary = primary();
+    skipSpace();
+    return primary;
+  }
+
+  private Expression primary() throws GrammarException {
+    char c = text.charAt(pos);
+    switch (c) {
+    case '(':
+      ++pos;
+      skipSpace();
+      Expression exp = alternation();
+      if (pos >= text.length() || text.charAt(pos) != ')') throw error("Expected ')'");
+      ++pos;
+      return exp;
+    case '\'':
+    case '"':
+      return literal(c);
+    case '[':
+      return charClass();
+    case '.':
+      ++pos;
+      return Expression.wildcard();
+    default:
+      String name = identifier();
+      if (name == null) throw error("Unexpected character '"+c+"'");
+      return Expression.nonterminal(name);
+    }
+  }
+
+  /* A literal in single quotes, or a case-insensitive literal in double quotes. */
+  private Expression literal(char quote) throws GrammarException {
+    int start = pos++;
+    List<Expression> chars = new ArrayList<Expression>();
+    while (pos < text.length() && text.charAt(pos) != quote) {
+      char c = text.charAt(pos) == '\\' ? escape() : text.charAt(pos++);
+      chars.add(Expression.chars(quote == '"' ? CharSet.ofIgnoreCase(c) : CharSet.of(c)));
+    }
+    if (pos >= text.length()) {
+      pos = start;
+      throw error("Unterminated literal");
+    }
+    ++pos;
+    if (chars.isEmpty()) throw error("Empty literal");
+    return chars.size() == 1 ? chars.get(0) : Expression.compound(Expression.Kind.SEQUENCE, chars);
+  }
+
+  private Expression charClass() throws GrammarException {
+    int start = pos++;
+    CharSet.Builder chars = new CharSet.Builder();
+    while (pos < text.length() && text.charAt(pos) != ']') {
+      char from = text.charAt(pos) == '\\' ? escape() : text.charAt(pos++);
+      if (pos + 1 < text.length() && text.charAt(pos) == '-' && text.charAt(pos + 1) != ']') {
+        ++pos;
+        char to = text.charAt(pos) == '\\' ? escape() : text.charAt(pos++);
+        if (to < from) throw error("Invalid range in character class");
+        chars.add(from, to);
+      } else {
+        chars.add(from);
+      }
+    }
+    if (pos >= text.length()) {
+      pos = start;
+      throw error("Unterminated character class");
+    }
+    ++pos;
+    return Expression.chars(chars.build());
+  }
+
+  /* An escaped character in a literal or character class, starting at the backslash. */
+  private char escape() throws GrammarException {
+    ++pos;
+    if (pos >= text.length()) throw error("Unterminated escape");
+    char c = text.charAt(pos++);
+    switch (c) {
+    case 'n': return '\n';
+    case 'r': return '\r';
+    case 't': return '\t';
+    case '<':
+      int end = text.indexOf('>', pos);
+      if (end < 0 || end == pos || end - pos > 4) throw error("Invalid hexadecimal escape");
+      try {
+        char hex = (char) Integer.parseInt(text.substring(pos, end), 16);
+        pos = end + 1;
+        return hex;
+      } catch (NumberFormatException e) {
+        throw error("Invalid hexadecimal escape");
+      }
+    default: return c;
+    }
+  }
+
+  private String identifier() {
+    int start = pos;
+    if (pos < text.length() && (Character.isLetter(text.charAt(pos)) || text.charAt(pos) == '_')) {
+      ++pos;
+      while (pos < text.length() &&
+             (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_' || text.charAt(pos) == '-')) {
+        ++pos;
+      }
+    }
+    return pos > start ? text.substring(start, pos) : null;
+  }
+
+  /* Read an arrow and return the corresponding FA mode, or -1 if there is no arrow. */
+  private int arrow() {
+    if (text.startsWith("<-", pos)) {
+      pos += 2;
+      return FA.LEFT;
+    } else if (text.startsWith("<=", pos)) {
+      pos += 2;
+      return FA.PRUNE;
+    } else if (text.startsWith("<:", pos)) {
+      pos += 2;
+      return FA.VOID;
+    }
+    return -1;
+  }
+
+  /* Is the current position at the start of a new rule, i.e., an identifier followed by an arrow? */
+  private boolean atRuleStart() {
+    int start = pos;
+    try {
+      if (identifier() == null) return false;
+      skipSpace();
+      return arrow() >= 0;
+    } finally {
+      pos = start;
+    }
+  }
+
+  private void skipSpace() {
+    while (pos < text.length()) {
+      char c = text.charAt(pos);
+      if (Character.isWhitespace(c)) {
+        ++pos;
+      } else if (c == '#') {
+        while (pos < text.length() && text.charAt(pos) != '\n' && text.charAt(pos) != '\r') ++pos;
+      } else if (text.startsWith("/*", pos)) {
+        skipBlockComment();
+      } else {
+        break;
+      }
+    }
+  }
+
+  /* Skip a block comment, which may be nested. */
+  private void skipBlockComment() {
+    int depth = 0;
+    do {
+      if (text.startsWith("/*", pos)) {
+        ++depth;
+        pos += 2;
+      } else if (text.startsWith("*/", pos)) {
+        --depth;
+        pos += 2;
+      } else {
+        ++pos;
+      }
+    } while (depth > 0 && pos < text.length());
+  }
+
+  private GrammarException error(String message) {
+    int line = 1;
+    int column = 1;
+    for (int i = 0; i < pos && i < text.length(); ++i) {
+      if (text.charAt(i) == '\n') {
+        ++line;
+        column = 1;
+      } else {
+        ++column;
+      }
+    }
+    return new GrammarException(systemId+":"+line+":"+column+": "+message+".");
+  }
+
+  /* ---------------- Modular grammars ---------------- */
+
+  /* Read all s-expressions in a modular grammar, and concatenate their rules. */
+  private List<Rule> readModule(File baseDir, List<File> sources) throws IOException, GrammarException {
+    sources.add(new File(systemId));
+    List<Rule> rules = new ArrayList<Rule>();
+    skipModularSpace();
+    while (pos < text.length()) {
+      rules.addAll(rulesOf(sexpr(), baseDir, sources));
+      skipModularSpace();
+    }
+    return rules;
+  }
+
+  /* The rules of a module, which is a file name or a list. */
+  private List<Rule> rulesOf(Object module, File baseDir, List<File> sources) throws IOException, GrammarException {
+    if (module instanceof Quoted) {
+      return readRules(new File(baseDir, ((Quoted) module).text), sources);
+    } else if (!(module instanceof List) || ((List<?>) module).isEmpty()) {
+      throw new GrammarException(systemId+": Expected a grammar file or a module expression, but found "+module+".");
+    }
+    List<?> list = (List<?>) module;
+    String operator = String.valueOf(list.get(0));
+    List<?> args = list.subList(1, list.size());
+    List<Rule> rules = new ArrayList<Rule>();
+    if (operator.equals("all") || operator.equals("join")) {
+      for (Object arg : args) rules.addAll(rulesOf(arg, baseDir, sources));
+    } else if (operator.equals("only") || operator.equals("except")) {
+      Set<String> names = new HashSet<String>();
+      List<Rule> moduleRules = new ArrayList<Rule>();
+      for (Object arg : args) {
+        if (arg instanceof String) names.add((String) arg);
+        else moduleRules.addAll(rulesOf(arg, baseDir, sources));
+      }
+      boolean only = operator.equals("only");
+      for (Rule rule : moduleRules) {
+        if (names.contains(rule.getName()) == only) rules.add(rule);
+      }
+    } else if (operator.equals("rename")) {
+      Map<String, String> names = new HashMap<String, String>();
+      List<Rule> moduleRules = new ArrayList<Rule>();
+      for (Object arg : args) {
+        List<?> pair = arg instanceof List ? (List<?>) arg : null;
+        if (pair != null && pair.size() == 2 && pair.get(0) instanceof String && pair.get(1) instanceof String) {
+          names.put((String) pair.get(0), (String) pair.get(1));
+        } else {
+          moduleRules.addAll(rulesOf(arg, baseDir, sources));
+        }
+      }
+      rules.addAll(renamed(moduleRules, names));
+    } else if (operator.equals("prefix")) {
+      if (args.isEmpty()) throw new GrammarException(systemId+": Missing prefix in "+module+".");
+      Object prefixArg = args.get(0);
+      String prefix = prefixArg instanceof Quoted ? ((Quoted) prefixArg).text : String.valueOf(prefixArg);
+      List<Rule> moduleRules = new ArrayList<Rule>();
+      for (Object arg : args.subList(1, args.size())) moduleRules.addAll(rulesOf(arg, baseDir, sources));
+      Map<String, String> names = new HashMap<String, String>();
+      for (Rule rule : moduleRules) names.put(rule.getName(), prefix + rule.getName());
+      rules.addAll(renamed(moduleRules, names));
+    } else {
+      throw new GrammarException(systemId+": Unknown module operator '"+operator+"'.");
+    }
+    return rules;
+  }
+
+  /* Add the grammar files of a module, which is a file name or a list, in the same order as rulesOf reads them. */
+  private static void addModuleFiles(Object module, File baseDir, List<File> files) {
+    if (module instanceof Quoted) {
+      files.add(new File(baseDir, ((Quoted) module).text));
+    } else if (module instanceof List && !((List<?>) module).isEmpty()) {
+      List<?> list = (List<?>) module;
+      // The first argument of prefix is the prefix, which is not a module, even if it is quoted.
+      int first = String.valueOf(list.get(0)).equals("prefix") ? 2 : 1;
+      for (int i = first; i < list.size(); ++i) addModuleFiles(list.get(i), baseDir, files);
+    }
+  }
+
+  private static List<Rule> renamed(List<Rule> rules, Map<String, String> names) {
+    List<Rule> result = new ArrayList<Rule>(rules.size());
+    for (Rule rule : rules) {
+      String name = names.containsKey(rule.getName()) ? names.get(rule.getName()) : rule.getName();
+      result.add(new Rule(name, rule.getMode(), rule.getExpression().rename(names)));
+    }
+    return result;
+  }
+
+  /* A string in double quotes in a modular grammar. */
+  private static final class Quoted {
+    private final String text;
+    Quoted(String text) {
+      this.text = text;
+    }
+    @Override
+    public String toString() {
+      return '"' + text + '"';
+    }
+  }
+
+  /* Read an s-expression: a list, a quoted string, or a symbol. A dotted pair becomes a list of two elements. */
+  private Object sexpr() throws GrammarException {
+    char c = text.charAt(pos);
+    if (c == '(') {
+      ++pos;
+      List<Object> list = new ArrayList<Object>();
+      skipModularSpace();
+      while (pos < text.length() && text.charAt(pos) != ')') {
+        if (text.charAt(pos) == '.' && pos + 1 < text.length() && isModularDelimiter(text.charAt(pos + 1))) {
+          ++pos; // Dotted pair.
+        } else {
+          list.add(sexpr());
+        }
+        skipModularSpace();
+      }
+      if (pos >= text.length()) throw error("Expected ')'");
+      ++pos;
+      return list;
+    } else if (c == '"') {
+      int end = text.indexOf('"', pos + 1);
+      if (end < 0) throw error("Unterminated string");
+      Quoted quoted = new Quoted(text.substring(pos + 1, end));
+      pos = end + 1;
+      return quoted;
+    } else if (c == ')') {
+      throw error("Unexpected ')'");
+    } else {
+      int start = pos;
+      while (pos < text.length() && !isModularDelimiter(text.charAt(pos))) ++pos;
+      return text.substring(start, pos);
+    }
+  }
+
+  private static boolean isModularDelimiter(char c) {
+    return Character.isWhitespace(c) || c == '(' || c == ')' || c == '"' || c == ';';
+  }
+
+  private void skipModularSpace() {
+    while (pos < text.length()) {
+      char c = text.charAt(pos);
+      if (Character.isWhitespace(c)) {
+        ++pos;
+      } else if (c == ';') {
+        while (pos < text.length() && text.charAt(pos) != '\n') ++pos;
+      } else {
+        break;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,175 @@
+package com.rakensi.waxeye;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the files of grammars, and reloads a grammar in the background when one of its files changes.
+ *
+ * Each grammar has a key, the grammar file and its sub-grammar files, and a reload action.
+ * The directories of the files are watched with a WatchService. Changes are collected until no file has changed
+ * for a short delay, so that an editor that writes a file in several steps causes one reload.
+ * The reload actions run one at a time on the daemon thread of the watcher.
+ * A reload action usually loads the new parser into a ParserStore, which swaps it in for the next requests,
+ * while parses that are in progress finish with the old parser.
+ *
+ * @author Rakensi
+ */
+public final class GrammarWatcher implements Closeable {
+
+  public static final long DEFAULT_DELAY_MILLIS = 100;
+
+  private final WatchService watchService;
+  private final long delayMillis;
+  private final Thread thread;
+  /* The watched directories. Guarded by this. */
+  private final Map<Path, WatchKey> directories = new HashMap<Path, WatchKey>();
+  /* The watched grammars, by key. Guarded by this. */
+  private final Map<String, Watch> watches = new HashMap<String, Watch>();
+
+  /* The files and reload action of a grammar. */
+  private static final class Watch {
+    final Set<Path> files;
+    final Runnable reload;
+    Watch(Set<Path> files, Runnable reload) {
+      this.files = files;
+      this.reload = reload;
+    }
+  }
+
+  /**
+   * Start watching, on a daemon thread.
+   * @param name The name of the thread.
+   * @param delayMillis The time without changes after which changed grammars are reloaded.
+   */
+  public GrammarWatcher(String name, long delayMillis) throws IOException {
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.delayMillis = delayMillis;
+    this.thread = new Thread(new Runnable() {
+      public void run() {
+        watchFiles();
+      }
+    }, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Watch the files of a grammar, or change the files and the reload action of a grammar that is watched.
+   * @param key Identifies the grammar.
+   * @param files The grammar file and its sub-grammar files.
+   * @param reload Reloads the grammar. It is run on the thread of the watcher, and should not throw exceptions.
+   */
+  public synchronized void watch(String key, Collection<File> files, Runnable reload) throws IOException {
+    Set<Path> paths = new HashSet<Path>();
+    for (File file : files) {
+      Path path = file.getCanonicalFile().toPath();
+      paths.add(path);
+      Path directory = path.getParent();
+      if (directory != null && !directories.containsKey(directory)) {
+        directories.put(directory, directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE));
+      }
+    }
+    watches.put(key, new Watch(paths, reload));
+  }
+
+  /**
+   * Stop reloading a grammar.
+   */
+  public synchronized void unwatch(String key) {
+    watches.remove(key);
+  }
+
+  /**
+   * Is a grammar watched?
+   * @param key Identifies the grammar.
+   */
+  public synchronized boolean isWatching(String key) {
+    return watches.containsKey(key);
+  }
+
+  /**
+   * Stop watching. Reload actions that have not started yet are not run.
+   */
+  public void close() throws IOException {
+    thread.interrupt();
+    watchService.close();
+  }
+
+  /* Collect changes, and reload the changed grammars when there have been no changes for the delay. */
+  private void watchFiles() {
+    Set<String> changed = new LinkedHashSet<String>();
+    try {
+      while (true) {
+        WatchKey watchKey = changed.isEmpty() ? watchService.take() : watchService.poll(delayMillis, TimeUnit.MILLISECONDS);
+        if (watchKey == null) {
+          reload(changed);
+          changed.clear();
+          continue;
+        }
+        Path directory = (Path) watchKey.watchable();
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+          changed.addAll(event.kind() == OVERFLOW ? watchedKeys(null) : watchedKeys(directory.resolve((Path) event.context())));
+        }
+        if (!watchKey.reset()) {
+          // The directory is gone. It is watched again if a grammar in it is watched again.
+          synchronized (this) {
+            directories.remove(directory);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // The watcher is closed.
+    } catch (ClosedWatchServiceException e) {
+      // The watcher is closed.
+    }
+  }
+
+  /* The keys of the grammars that have a file, or of all grammars if the file is null. */
+  private synchronized List<String> watchedKeys(Path file) {
+    List<String> keys = new ArrayList<String>();
+    for (Map.Entry<String, Watch> watch : watches.entrySet()) {
+      if (file == null || watch.getValue().files.contains(file)) {
+        keys.add(watch.getKey());
+      }
+    }
+    return keys;
+  }
+
+  private void reload(Set<String> keys) {
+    for (String key : keys) {
+      Watch watch;
+      synchronized (this) {
+        watch = watches.get(key);
+      }
+      if (watch == null) continue;
+      try {
+        watch.reload.run();
+      } catch (RuntimeException e) {
+        // The grammar is loaded again by the next change.
+      }
+    }
+  }
+
+}
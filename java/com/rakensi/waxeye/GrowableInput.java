@@ -0,0 +1,203 @@
+package com.rakensi.waxeye;
+
+import java.nio.CharBuffer;
+
+import org.waxeye.input.IParserInput;
+
+/**
+ * Parser input that can grow while it is being parsed, for streaming.
+ *
+ * The input remembers whether the parser has tried to read beyond the available characters.
+ * If it has not, the result of the parse does not depend on characters that are appended later.
+ * The input is also a CharSequence, so the parsed text does not need to be copied into a String.
+ * An input can be a slice of an existing character array, which is then shared by the parser and the emitter
+ * of the text; positions in the input are relative to the start of the slice.
+ *
+ * A mapped input is a view of another input, which replaces each character through a table while it is read,
+ * like a normalized copy of the text with the same length, but without copying. Text that is appended to either one
+ * is seen by both. Each view has its own position.
+ *
+ * @author Rakensi
+ */
+public final class GrowableInput implements IParserInput, CharSequence {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private char[] chars;
+  private int offset; /* The position of the first character of the input in chars. */
+  private int size;
+  private boolean shared; /* Is chars owned by someone else, so that it must be copied before anything is appended? */
+  private final GrowableInput text; /* The input that has the characters, which is this input unless it is a view. */
+  private final char[] table; /* The replacement of each character, or null if characters are not replaced. */
+  private int position = 0;
+  private boolean endReached = false;
+
+  /**
+   * Make an empty input, to which characters will be appended.
+   */
+  public GrowableInput() {
+    this.chars = new char[INITIAL_CAPACITY];
+    this.size = 0;
+    this.text = this;
+    this.table = null;
+  }
+
+  /**
+   * Make an input containing the given characters.
+   * The array is used as it is, and not copied.
+   */
+  public GrowableInput(char[] chars) {
+    this(chars, 0, chars.length);
+  }
+
+  /**
+   * Make an input containing a slice of the given characters.
+   * The array is used as it is, and not copied. It is not changed either; when characters are appended,
+   * the slice is copied first.
+   * @param chars The characters.
+   * @param offset The position of the first character of the input in the array.
+   * @param length The number of characters of the input.
+   */
+  public GrowableInput(char[] chars, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > chars.length) {
+      throw new IndexOutOfBoundsException("Slice "+offset+"+"+length+" is not within the array length "+chars.length);
+    }
+    this.chars = chars;
+    this.offset = offset;
+    this.size = length;
+    this.shared = true;
+    this.text = this;
+    this.table = null;
+  }
+
+  private GrowableInput(GrowableInput text, char[] table) {
+    this.text = text;
+    this.table = table;
+  }
+
+  /**
+   * Make an input containing the characters of a character sequence.
+   * The array of a CharBuffer that is backed by an array is shared without copying;
+   * other character sequences, such as strings, are copied once.
+   */
+  public static GrowableInput of(CharSequence text) {
+    if (text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+      CharBuffer buffer = (CharBuffer) text;
+      return new GrowableInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+    char[] chars = new char[text.length()];
+    if (text instanceof String) {
+      ((String) text).getChars(0, chars.length, chars, 0);
+    } else {
+      for (int i = 0; i < chars.length; ++i) chars[i] = text.charAt(i);
+    }
+    return new GrowableInput(chars);
+  }
+
+  /**
+   * Make a view of an input, which replaces each character c by table[c].
+   * @param text The input that has the characters. If it is a view itself, the view is of its text.
+   * @param table The replacement of every char value. The table is not copied.
+   */
+  public static GrowableInput mapped(GrowableInput text, char[] table) {
+    return new GrowableInput(text.text, table);
+  }
+
+  /**
+   * Append characters at the end of the input. For a view, they are appended to the input of which it is a view.
+   */
+  public void append(char[] ch, int start, int length) {
+    if (text != this) {
+      text.append(ch, start, length);
+      return;
+    }
+    if (shared || offset + size + length > chars.length) {
+      char[] newChars = new char[Math.max(Math.max(size * 2, INITIAL_CAPACITY), size + length)];
+      System.arraycopy(chars, offset, newChars, 0, size);
+      chars = newChars;
+      offset = 0;
+      shared = false;
+    }
+    System.arraycopy(ch, start, chars, offset + size, length);
+    size += length;
+  }
+
+  /**
+   * The array with the characters of the input, from getOffset() up to getOffset() + length().
+   * The array is not copied, and is replaced when the input grows.
+   * For a view, these are the characters before they are replaced.
+   */
+  public char[] getChars() {
+    return text.chars;
+  }
+
+  /**
+   * The position of the first character of the input in the array of getChars().
+   */
+  public int getOffset() {
+    return text.offset;
+  }
+
+  /**
+   * Has the parser tried to read beyond the end of the input since the last call to resetEndReached()?
+   */
+  public boolean isEndReached() {
+    return endReached;
+  }
+
+  public void resetEndReached() {
+    endReached = false;
+  }
+
+  public int consume() {
+    if (position < text.size) {
+      char c = text.chars[text.offset + position++];
+      return table == null ? c : table[c];
+    }
+    endReached = true;
+    return EOF;
+  }
+
+  public int peek() {
+    if (position < text.size) {
+      char c = text.chars[text.offset + position];
+      return table == null ? c : table[c];
+    }
+    endReached = true;
+    return EOF;
+  }
+
+  public int getPosition() {
+    return position;
+  }
+
+  public void setPosition(int position) {
+    this.position = position;
+  }
+
+  public int length() {
+    return text.size;
+  }
+
+  public char charAt(int index) {
+    if (index >= text.size) throw new IndexOutOfBoundsException("Index "+index+" is beyond the input length "+text.size);
+    char c = text.chars[text.offset + index];
+    return table == null ? c : table[c];
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    if (end > text.size) throw new IndexOutOfBoundsException("Index "+end+" is beyond the input length "+text.size);
+    if (table == null) return new String(text.chars, text.offset + start, end - start);
+    char[] replaced = new char[end - start];
+    for (int i = start; i < end; ++i) {
+      replaced[i - start] = table[text.chars[text.offset + i]];
+    }
+    return new String(replaced);
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, text.size).toString();
+  }
+
+}
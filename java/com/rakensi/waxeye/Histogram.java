@@ -0,0 +1,127 @@
+package com.rakensi.waxeye;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of non-negative values, with a bucket for each power of two.
+ * Recording a value costs a few atomic additions, so it can be done for every fragment.
+ * Percentiles are estimated as the upper bound of the bucket that contains them, which is at most twice the real value.
+ *
+ * @author Rakensi
+ */
+public final class Histogram {
+
+  /* Bucket 0 counts the value 0, bucket i > 0 counts the values from 2^(i-1) up to 2^i. */
+  private final AtomicLongArray buckets = new AtomicLongArray(64);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a value. Negative values are recorded as 0.
+   */
+  public void record(long value) {
+    if (value < 0) value = 0;
+    buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long previous;
+    while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+      // Another thread recorded a value at the same time.
+    }
+  }
+
+  /**
+   * The recorded values so far. Values that are recorded while the snapshot is made may be partly included.
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[buckets.length()];
+    for (int i = 0; i < counts.length; ++i) {
+      counts[i] = buckets.get(i);
+    }
+    return new Snapshot(count.get(), sum.get(), max.get(), counts);
+  }
+
+  /**
+   * Forget the recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < buckets.length(); ++i) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * An immutable copy of a histogram.
+   */
+  public static final class Snapshot {
+    private final long count;
+    private final long sum;
+    private final long max;
+    private final long[] buckets;
+
+    Snapshot(long count, long sum, long max, long[] buckets) {
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+      this.buckets = buckets;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSum() {
+      return sum;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long getMedian() {
+      return percentile(0.5);
+    }
+
+    public long get95thPercentile() {
+      return percentile(0.95);
+    }
+
+    public long get99thPercentile() {
+      return percentile(0.99);
+    }
+
+    /**
+     * The estimated value below which a fraction of the recorded values lies.
+     * @param fraction A number between 0 and 1.
+     */
+    public long percentile(double fraction) {
+      long total = 0;
+      for (long bucketCount : buckets) total += bucketCount;
+      long rank = (long) Math.ceil(fraction * total);
+      long seen = 0;
+      for (int i = 0; i < buckets.length; ++i) {
+        seen += buckets[i];
+        if (seen >= rank && seen > 0) {
+          return Math.min((1L << i) - 1, max);
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public String toString() {
+      return "count="+count+" mean="+Math.round(getMean())+" median="+getMedian()+
+             " p95="+get95thPercentile()+" p99="+get99thPercentile()+" max="+max;
+    }
+  }
+
+}
@@ -0,0 +1,253 @@
+package com.rakensi.waxeye;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.rakensi.trie.AhoCorasick;
+
+/**
+ * Derives the literal anchors of the start rule of a compiled grammar: strings such that every match of the start rule
+ * starts with one of them. For a grammar whose matches start with keywords like "artikel" or "ECLI:",
+ * an Aho-Corasick automaton over the anchors finds the positions where a match can start in one pass over the text,
+ * so that the parser is not called at other positions.
+ *
+ * The anchors are found by following the automata of the grammar from the start, through references to other rules,
+ * as long as each step matches one of a few characters, up to a maximum length.
+ * Like the FirstSet, the anchors are an over-approximation: predicates are ignored, and alternatives are all followed,
+ * so the parser may still fail at a position where an anchor starts.
+ *
+ * @author Rakensi
+ */
+public final class LiteralAnchors {
+
+  /** The maximum length of an anchor. */
+  public static final int MAX_LENGTH = 8;
+  /** The maximum number of anchors. When there would be more, the anchors are made shorter. */
+  public static final int MAX_ANCHORS = 256;
+
+  /* The maximum number of characters of a character class that is expanded into alternative anchors. */
+  private static final int MAX_CHOICES = 16;
+  /* The maximum number of combinations that are made when prefixes are concatenated. */
+  private static final long MAX_COMBINATIONS = 4L * MAX_ANCHORS;
+  /* The maximum number of times that the prefixes of each automaton, or of each state, are computed. */
+  private static final int MAX_ROUNDS = 64;
+
+  /* The beginnings of the matches of an automaton, or of an automaton from a state.
+   * A complete prefix is a whole match, an open prefix is the beginning of longer matches.
+   */
+  private static final class Prefixes {
+    final Set<String> open = new HashSet<String>();
+    final Set<String> complete = new HashSet<String>();
+
+    /* Matches may start with anything. */
+    static Prefixes any() {
+      Prefixes any = new Prefixes();
+      any.open.add("");
+      return any;
+    }
+
+    boolean isAny() {
+      return open.contains("");
+    }
+
+    int size() {
+      return open.size() + complete.size();
+    }
+
+    /* Add a prefix, which becomes open if it is too long. */
+    void add(String prefix, boolean isComplete) {
+      if (prefix.length() > MAX_LENGTH) {
+        open.add(prefix.substring(0, MAX_LENGTH));
+      } else {
+        (isComplete ? complete : open).add(prefix);
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Prefixes && open.equals(((Prefixes) o).open) && complete.equals(((Prefixes) o).complete);
+    }
+
+    @Override
+    public int hashCode() {
+      return open.hashCode() * 31 + complete.hashCode();
+    }
+  }
+
+  // Private constructor, can't be instantiated.
+  private LiteralAnchors() { }
+
+  /**
+   * Derive the literal anchors of the start rule of a compiled grammar.
+   * @result The anchors, sorted, of which none is the beginning of another; or null if a match can start with anything,
+   *         or if the start rule can match the empty string.
+   */
+  public static List<String> of(CompiledGrammar grammar) {
+    List<Automaton> automata = grammar.getAutomata();
+    int n = automata.size();
+    Prefixes[] prefixes = new Prefixes[n];
+    for (int i = 0; i < n; ++i) prefixes[i] = new Prefixes();
+    // The automata that refer to each automaton, which must be visited again when its prefixes change.
+    List<Set<Integer>> referrers = new ArrayList<Set<Integer>>(n);
+    for (int i = 0; i < n; ++i) referrers.add(new HashSet<Integer>());
+    for (int i = 0; i < n; ++i) {
+      for (Automaton.State state : automata.get(i).getStates()) {
+        for (Automaton.Edge edge : state.getEdges()) {
+          if (edge.getKind() == Automaton.Edge.Kind.AUTOMATON) referrers.get(edge.getAutomaton()).add(i);
+        }
+      }
+    }
+    // Visit automata until nothing changes, because rules may refer to each other.
+    // Rules usually refer to later rules, so the last rule is visited first.
+    LinkedHashSet<Integer> pending = new LinkedHashSet<Integer>();
+    for (int i = n - 1; i >= 0; --i) pending.add(i);
+    for (int visits = 0; !pending.isEmpty(); ++visits) {
+      if (visits == MAX_ROUNDS * n) return null;
+      Iterator<Integer> first = pending.iterator();
+      int i = first.next();
+      first.remove();
+      Prefixes automatonPrefixes = visit(automata, i, prefixes);
+      if (!automatonPrefixes.equals(prefixes[i])) {
+        prefixes[i] = automatonPrefixes;
+        pending.addAll(referrers.get(i));
+      }
+    }
+    Prefixes start = prefixes[0];
+    if (start.isAny() || start.complete.contains("")) return null;
+    List<String> anchors = new ArrayList<String>(start.open);
+    anchors.addAll(start.complete);
+    Collections.sort(anchors);
+    // An anchor that begins with another anchor adds nothing. In sorted order, it comes right after an anchor it begins with.
+    List<String> minimal = new ArrayList<String>();
+    for (String anchor : anchors) {
+      if (minimal.isEmpty() || !anchor.startsWith(minimal.get(minimal.size() - 1))) {
+        minimal.add(anchor);
+      }
+    }
+    return minimal;
+  }
+
+  /**
+   * Make an automaton that finds the literal anchors of the start rule of a compiled grammar.
+   * @result The automaton, or null if there are no anchors, or if some anchors are single characters,
+   *         because then the FirstSet is just as good.
+   */
+  public static AhoCorasick index(CompiledGrammar grammar) {
+    List<String> anchors = of(grammar);
+    if (anchors == null) return null;
+    for (String anchor : anchors) {
+      if (anchor.length() < 2) return null;
+    }
+    return AhoCorasick.of(anchors);
+  }
+
+  /* The prefixes of the matches of an automaton, given the current prefixes of all automata. */
+  private static Prefixes visit(List<Automaton> automata, int index, Prefixes[] prefixes) {
+    List<Automaton.State> states = automata.get(index).getStates();
+    int n = states.size();
+    Prefixes[] statePrefixes = new Prefixes[n];
+    for (int s = 0; s < n; ++s) statePrefixes[s] = new Prefixes();
+    // Iterate until nothing changes, because states may loop. Later states are usually done first.
+    boolean changed = true;
+    for (int round = 0; changed; ++round) {
+      if (round == MAX_ROUNDS) return Prefixes.any();
+      changed = false;
+      for (int s = n - 1; s >= 0; --s) {
+        Automaton.State state = states.get(s);
+        Prefixes result = new Prefixes();
+        if (state.isMatch()) result.complete.add("");
+        for (Automaton.Edge edge : state.getEdges()) {
+          Prefixes next = concat(edgePrefixes(automata, edge, prefixes), statePrefixes[edge.getTarget()]);
+          result.open.addAll(next.open);
+          result.complete.addAll(next.complete);
+          result = limited(result);
+          if (result.isAny()) break;
+        }
+        if (!result.equals(statePrefixes[s])) {
+          statePrefixes[s] = result;
+          changed = true;
+        }
+      }
+    }
+    return statePrefixes[0];
+  }
+
+  /* The prefixes of what an edge consumes. */
+  private static Prefixes edgePrefixes(List<Automaton> automata, Automaton.Edge edge, Prefixes[] prefixes) {
+    switch (edge.getKind()) {
+    case CHARS:
+      List<Character> chars = choices(edge.getChars());
+      if (chars == null) return Prefixes.any();
+      Prefixes charPrefixes = new Prefixes();
+      for (char c : chars) charPrefixes.complete.add(String.valueOf(c));
+      return charPrefixes;
+    case WILDCARD:
+      return Prefixes.any();
+    default:
+      int type = automata.get(edge.getAutomaton()).getType();
+      if (type == GrammarCompiler.POS_TYPE || type == GrammarCompiler.NEG_TYPE) {
+        // A predicate does not consume characters.
+        Prefixes empty = new Prefixes();
+        empty.complete.add("");
+        return empty;
+      }
+      return prefixes[edge.getAutomaton()];
+    }
+  }
+
+  /* The characters in a character class, or null if there are too many. */
+  private static List<Character> choices(CharSet chars) {
+    List<Character> choices = new ArrayList<Character>();
+    for (char c : chars.getSingle()) choices.add(c);
+    char[] min = chars.getMin();
+    char[] max = chars.getMax();
+    for (int i = 0; i < min.length; ++i) {
+      if (max[i] - min[i] >= MAX_CHOICES) return null;
+      for (int c = min[i]; c <= max[i]; ++c) choices.add((char) c);
+    }
+    return choices.size() <= MAX_CHOICES ? choices : null;
+  }
+
+  /* The prefixes of a match of the first part followed by a match of the second part. */
+  private static Prefixes concat(Prefixes first, Prefixes second) {
+    if (first.isAny()) return first;
+    Prefixes result = new Prefixes();
+    result.open.addAll(first.open);
+    if (first.complete.size() * (long) second.size() > MAX_COMBINATIONS) {
+      // Too many combinations. A match still begins with the first part.
+      result.open.addAll(first.complete);
+    } else {
+      for (String prefix : first.complete) {
+        for (String next : second.complete) result.add(prefix + next, true);
+        for (String next : second.open) result.add(prefix + next, false);
+      }
+    }
+    return limited(result);
+  }
+
+  /* Make the longest prefixes shorter until there are not too many. */
+  private static Prefixes limited(Prefixes prefixes) {
+    while (prefixes.size() > MAX_ANCHORS && !prefixes.isAny()) {
+      int longest = 0;
+      for (String prefix : prefixes.open) longest = Math.max(longest, prefix.length());
+      for (String prefix : prefixes.complete) longest = Math.max(longest, prefix.length());
+      Prefixes shorter = new Prefixes();
+      for (String prefix : prefixes.open) {
+        shorter.open.add(prefix.length() < longest ? prefix : prefix.substring(0, longest - 1));
+      }
+      for (String prefix : prefixes.complete) {
+        if (prefix.length() < longest) shorter.complete.add(prefix);
+        else shorter.open.add(prefix.substring(0, longest - 1));
+      }
+      prefixes = shorter;
+    }
+    if (prefixes.isAny() && prefixes.size() > 1) return Prefixes.any();
+    return prefixes;
+  }
+
+}
@@ -0,0 +1,145 @@
+package com.rakensi.waxeye;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waxeye.parser.Parser;
+
+import com.rakensi.trie.AhoCorasick;
+
+/**
+ * A loaded parser, with what is known about its grammar.
+ * The parser may be generated by Waxeye or compiled in memory; in both cases the grammar is
+ * compiled by the GrammarCompiler (if it can be read) so that it can be analysed.
+ * It may also have a parser that was generated by the DescentParserGenerator, which is then used for direct parsing.
+ *
+ * @author Rakensi
+ */
+public final class LoadedParser {
+
+  private static final AtomicLong ids = new AtomicLong();
+
+  private final long id = ids.incrementAndGet();
+  private final Parser<?> parser;
+  private final CompiledGrammar compiledGrammar;
+  private final FirstSet firstSet;
+  private final AhoCorasick anchors;
+  private final Constructor<? extends DirectParser> descentParser; /* Makes generated direct parsers, or null. */
+  private final String fingerprint; /* The fingerprint of the grammar that the parser was loaded for, or null. */
+
+  /**
+   * @param parser The parser.
+   * @param compiledGrammar The compiled grammar of the parser, or null if the grammar could not be analysed.
+   */
+  public LoadedParser(Parser<?> parser, CompiledGrammar compiledGrammar) {
+    this(parser, compiledGrammar, null);
+  }
+
+  /**
+   * @param parser The parser.
+   * @param compiledGrammar The compiled grammar of the parser, or null if the grammar could not be analysed.
+   * @param descentParserClass The class that the DescentParserGenerator generated for the compiled grammar,
+   *        or null to interpret the automata of the grammar in direct parsers.
+   * @throws IllegalArgumentException If the class was not generated for the compiled grammar.
+   */
+  public LoadedParser(Parser<?> parser, CompiledGrammar compiledGrammar, Class<? extends DirectParser> descentParserClass) {
+    this(parser, compiledGrammar, descentParserClass, null);
+  }
+
+  /**
+   * @param parser The parser.
+   * @param compiledGrammar The compiled grammar of the parser, or null if the grammar could not be analysed.
+   * @param descentParserClass The class that the DescentParserGenerator generated for the compiled grammar,
+   *        or null to interpret the automata of the grammar in direct parsers.
+   * @param fingerprint The fingerprint of the grammar files that the parser was loaded for, or null if it is not known.
+   * @throws IllegalArgumentException If the class was not generated for the compiled grammar.
+   */
+  public LoadedParser(Parser<?> parser, CompiledGrammar compiledGrammar, Class<? extends DirectParser> descentParserClass,
+                      String fingerprint) {
+    this.parser = parser;
+    this.fingerprint = fingerprint;
+    this.compiledGrammar = compiledGrammar;
+    this.firstSet = compiledGrammar == null ? null : FirstSet.of(compiledGrammar);
+    this.anchors = compiledGrammar == null ? null : LiteralAnchors.index(compiledGrammar);
+    if (descentParserClass == null) {
+      this.descentParser = null;
+    } else if (compiledGrammar == null || !DescentParserGenerator.isGeneratedFor(descentParserClass, compiledGrammar)) {
+      throw new IllegalArgumentException("The class "+descentParserClass.getName()+" was not generated for this grammar.");
+    } else {
+      try {
+        this.descentParser = descentParserClass.getConstructor(CompiledGrammar.class);
+      } catch (NoSuchMethodException e) {
+        throw new IllegalArgumentException("The class "+descentParserClass.getName()+" has no constructor for a grammar.", e);
+      }
+    }
+  }
+
+  /**
+   * A number that identifies this parser, and is not used again for a parser of a changed grammar.
+   * Unlike the parser itself, it can be kept without keeping the classes of the parser loaded.
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * The fingerprint of the grammar files that the parser was loaded for, or null if it is not known.
+   * While a changed grammar is being loaded, this may differ from the fingerprint of the files on disk.
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public Parser<?> getParser() {
+    return parser;
+  }
+
+  /**
+   * The compiled grammar, or null if the grammar could not be analysed.
+   */
+  public CompiledGrammar getCompiledGrammar() {
+    return compiledGrammar;
+  }
+
+  /**
+   * The characters that a match of the start rule can start with, or null if the grammar could not be analysed.
+   */
+  public FirstSet getFirstSet() {
+    return firstSet;
+  }
+
+  /**
+   * An automaton that finds the literal anchors that a match of the start rule starts with,
+   * or null if there are no anchors of more than one character, or if the grammar could not be analysed.
+   */
+  public AhoCorasick getAnchors() {
+    return anchors;
+  }
+
+  /**
+   * Does this parser have a generated descent parser, which newDirectParser makes?
+   */
+  public boolean hasDescentParser() {
+    return descentParser != null;
+  }
+
+  /**
+   * Make a direct parser for the compiled grammar. This is a generated descent parser if there is one,
+   * otherwise a DirectParser that interprets the automata of the grammar.
+   * @throws IllegalStateException If the grammar could not be analysed.
+   */
+  public DirectParser newDirectParser() {
+    if (compiledGrammar == null) {
+      throw new IllegalStateException("The grammar could not be analysed, so it has no direct parser.");
+    }
+    if (descentParser == null) {
+      return new DirectParser(compiledGrammar);
+    }
+    try {
+      return descentParser.newInstance(compiledGrammar);
+    } catch (Exception e) {
+      throw new IllegalStateException("Cannot make the descent parser: "+e.getMessage(), e);
+    }
+  }
+
+}
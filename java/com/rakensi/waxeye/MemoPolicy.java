@@ -0,0 +1,74 @@
+package com.rakensi.waxeye;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tells a DirectParser which automata of a compiled grammar are memoized.
+ *
+ * Memoizing a cheap lexical automaton costs more than matching it again after backtracking.
+ * Automata that only have character and wildcard transitions (like `letter` or `space`) are never memoized,
+ * and other rules can be named explicitly. Memoization does not change the result of a parse.
+ *
+ * @author Rakensi
+ */
+public final class MemoPolicy {
+
+  private final boolean[] memoized;
+
+  private MemoPolicy(boolean[] memoized) {
+    this.memoized = memoized;
+  }
+
+  /**
+   * Make a policy that memoizes all automata.
+   */
+  public static MemoPolicy all(CompiledGrammar grammar) {
+    boolean[] memoized = new boolean[grammar.getAutomata().size()];
+    for (int i = 0; i < memoized.length; ++i) memoized[i] = true;
+    return new MemoPolicy(memoized);
+  }
+
+  /**
+   * Make a policy that memoizes all automata except lexical automata and the given rules.
+   * @param grammar The compiled grammar.
+   * @param unmemoizedRules The names of rules that are not memoized.
+   * @throws IllegalArgumentException If a rule does not exist in the grammar.
+   */
+  public static MemoPolicy of(CompiledGrammar grammar, Collection<String> unmemoizedRules) {
+    List<Automaton> automata = grammar.getAutomata();
+    boolean[] memoized = new boolean[automata.size()];
+    for (int i = 0; i < memoized.length; ++i) {
+      memoized[i] = !isLexical(automata.get(i));
+    }
+    List<Rule> rules = grammar.getGrammar().getRules();
+    for (String name : unmemoizedRules) {
+      int rule = 0;
+      while (rule < rules.size() && !rules.get(rule).getName().equals(name)) ++rule;
+      if (rule == rules.size()) {
+        throw new IllegalArgumentException("There is no rule '"+name+"' in the grammar.");
+      }
+      memoized[rule] = false; // The automaton of a rule has the index of the rule.
+    }
+    return new MemoPolicy(memoized);
+  }
+
+  /**
+   * Is the result of an automaton memoized?
+   * @param automaton The index of the automaton.
+   */
+  public boolean isMemoized(int automaton) {
+    return memoized[automaton];
+  }
+
+  /* Does the automaton only match characters, without calling other automata? */
+  private static boolean isLexical(Automaton automaton) {
+    for (Automaton.State state : automaton.getStates()) {
+      for (Automaton.Edge edge : state.getEdges()) {
+        if (edge.getKind() == Automaton.Edge.Kind.AUTOMATON) return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,284 @@
+package com.rakensi.waxeye;
+
+import java.util.Arrays;
+
+/**
+ * The packrat memo table of a DirectParser, mapping (automaton, position) to the result of the automaton.
+ *
+ * The table uses open addressing with linear probing on primitive arrays, so a lookup does not allocate.
+ * Clearing the table only increments a generation number; slots of older generations are free.
+ * The table keeps its capacity, so it does not need to grow again for the next input, until it is released.
+ *
+ * A table may have a maximum size, for large inputs. Then, instead of growing, the table first drops the entries
+ * before the committed position, which the parser will probably not backtrack into.
+ * If that does not make enough room and the table has reached its maximum size, all entries are dropped.
+ * Dropping entries does not change the results of the parser, which matches again what it cannot find.
+ *
+ * @author Rakensi
+ */
+public final class MemoTable {
+
+  private static final int INITIAL_CAPACITY = 1024; // Must be a power of two.
+  /* The largest capacity that is kept when the table is released. */
+  private static final int RETAINED_CAPACITY = 1 << 14;
+  /* The values of a slot are: result, end position, error position, error type, input length. */
+  private static final int SLOT_SIZE = 5;
+
+  private long[] keys;
+  private int[] generations;
+  private int[] values;
+  private int mask;
+  private int size;
+  private int generation = 1;
+  private int maxSize = 0; /* The maximum number of entries, or 0 if the table may grow without limit. */
+  private int committedPosition = 0;
+  private long dropped = 0;
+  /* The arrays of the previous capacity, which are used again when entries are dropped. */
+  private long[] spareKeys;
+  private int[] spareGenerations;
+  private int[] spareValues;
+
+  public MemoTable() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear() {
+    if (++generation == 0) {
+      Arrays.fill(generations, 0);
+      generation = 1;
+    }
+    size = 0;
+  }
+
+  /**
+   * Remove all entries, and give back the memory of a table that has grown large.
+   */
+  public void release() {
+    clear();
+    if (keys.length > RETAINED_CAPACITY) {
+      allocate(INITIAL_CAPACITY);
+    }
+    spareKeys = null;
+    spareGenerations = null;
+    spareValues = null;
+  }
+
+  /**
+   * Drop the entries before a position. They are counted as dropped.
+   */
+  public void dropBefore(int position) {
+    rehash(keys.length, position);
+  }
+
+  /**
+   * Set the maximum number of entries, or 0 to let the table grow without limit.
+   */
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Set the position before which entries may be dropped when the table has a maximum size.
+   */
+  public void setCommittedPosition(int committedPosition) {
+    this.committedPosition = committedPosition;
+  }
+
+  public int getCommittedPosition() {
+    return committedPosition;
+  }
+
+  /**
+   * The number of entries that were dropped to stay within the maximum size.
+   */
+  public long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * The number of entries.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Find the entry for an automaton at a position.
+   * @return The slot of the entry, or -1 if there is none.
+   */
+  public int find(int automaton, int position) {
+    long key = key(automaton, position);
+    for (int i = hash(key) & mask; generations[i] == generation; i = (i + 1) & mask) {
+      if (keys[i] == key) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * The number of slots. The entries are in the slots for which isEntry is true.
+   */
+  public int getCapacity() {
+    return keys.length;
+  }
+
+  public boolean isEntry(int slot) {
+    return generations[slot] == generation;
+  }
+
+  public int getResult(int slot) {
+    return values[slot * SLOT_SIZE];
+  }
+
+  /**
+   * Replace the result of an entry, for example when the record that it refers to has been moved.
+   */
+  public void setResult(int slot, int result) {
+    values[slot * SLOT_SIZE] = result;
+  }
+
+  public int getEndPosition(int slot) {
+    return values[slot * SLOT_SIZE + 1];
+  }
+
+  /**
+   * The position of the furthest parse error while matching, or -1 if there was none.
+   */
+  public int getErrorPosition(int slot) {
+    return values[slot * SLOT_SIZE + 2];
+  }
+
+  /**
+   * The type of the automaton in which the furthest parse error happened.
+   */
+  public int getErrorType(int slot) {
+    return values[slot * SLOT_SIZE + 3];
+  }
+
+  /**
+   * The length of the input if the match tried to read beyond it, otherwise -1.
+   */
+  public int getInputLength(int slot) {
+    return values[slot * SLOT_SIZE + 4];
+  }
+
+  /**
+   * Add or replace the entry for an automaton at a position.
+   */
+  public void put(int automaton, int position, int result, int endPosition, int errorPosition, int errorType, int inputLength) {
+    if (maxSize > 0 && (size >= maxSize || 2 * (size + 1) > keys.length)) {
+      makeRoom();
+    } else if (2 * (size + 1) > keys.length) {
+      grow();
+    }
+    long key = key(automaton, position);
+    int slot = probe(key);
+    if (generations[slot] != generation) {
+      generations[slot] = generation;
+      keys[slot] = key;
+      ++size;
+    }
+    int v = slot * SLOT_SIZE;
+    values[v] = result;
+    values[v + 1] = endPosition;
+    values[v + 2] = errorPosition;
+    values[v + 3] = errorType;
+    values[v + 4] = inputLength;
+  }
+
+  /* The slot of a key, or the free slot where it can be added. */
+  private int probe(long key) {
+    int i = hash(key) & mask;
+    while (generations[i] == generation && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  /* Drop the entries before the committed position, and grow if the table is full and the maximum size allows it.
+   * If less than half of the maximum size is free after that, drop all entries.
+   */
+  private void makeRoom() {
+    boolean grow = 2 * (size + 1) > keys.length && keys.length < 2 * maxSize;
+    rehash(grow ? keys.length * 2 : keys.length, committedPosition);
+    if (2 * size > maxSize || 2 * (size + 1) > keys.length) {
+      dropped += size;
+      clear();
+    }
+  }
+
+  /* Move the entries at or after a position into arrays with a capacity, and drop the entries before it. */
+  private void rehash(int capacity, int minPosition) {
+    long[] oldKeys = keys;
+    int[] oldGenerations = generations;
+    int[] oldValues = values;
+    int oldGeneration = generation;
+    if (spareKeys != null && spareKeys.length == capacity) {
+      keys = spareKeys;
+      generations = spareGenerations;
+      values = spareValues;
+      Arrays.fill(generations, 0);
+      generation = 1;
+    } else {
+      allocate(capacity);
+    }
+    size = 0;
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldGenerations[i] == oldGeneration) {
+        if ((int) oldKeys[i] < minPosition) {
+          ++dropped;
+        } else {
+          int slot = probe(oldKeys[i]);
+          generations[slot] = generation;
+          keys[slot] = oldKeys[i];
+          System.arraycopy(oldValues, i * SLOT_SIZE, values, slot * SLOT_SIZE, SLOT_SIZE);
+          ++size;
+        }
+      }
+    }
+    // Keep the old arrays if they can be used for the next rehash.
+    spareKeys = oldKeys.length == capacity ? oldKeys : null;
+    spareGenerations = oldKeys.length == capacity ? oldGenerations : null;
+    spareValues = oldKeys.length == capacity ? oldValues : null;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldGenerations = generations;
+    int[] oldValues = values;
+    int oldGeneration = generation;
+    allocate(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldGenerations[i] == oldGeneration) {
+        int slot = probe(oldKeys[i]);
+        generations[slot] = generation;
+        keys[slot] = oldKeys[i];
+        System.arraycopy(oldValues, i * SLOT_SIZE, values, slot * SLOT_SIZE, SLOT_SIZE);
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    generations = new int[capacity];
+    values = new int[capacity * SLOT_SIZE];
+    mask = capacity - 1;
+    generation = 1;
+  }
+
+  private static long key(int automaton, int position) {
+    return ((long) automaton << 32) | (position & 0xFFFFFFFFL);
+  }
+
+  private static int hash(long key) {
+    int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+}
@@ -0,0 +1,266 @@
+package com.rakensi.waxeye;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.rakensi.AsciiUtils;
+
+/**
+ * Text with markup in it, recorded from SAX events, which is parsed without serializing the markup.
+ *
+ * Each element in the content, with everything inside it, appears in the text as one PLACEHOLDER character,
+ * and so does each comment, processing instruction and skipped entity. A grammar can match a placeholder
+ * like any other character, for example as <code>[\&lt;FFFC&gt;]</code>, or leave it in unmatched text.
+ * The events of the markup are kept aside, and are sent in place of the placeholder when the text is emitted,
+ * in a match as well as in unmatched text. Namespace prefix mappings are kept with the element they belong to.
+ *
+ * Send the events of the content of an element to the mixed content, which is a ContentHandler and a LexicalHandler,
+ * and give it to ParseEngine.newScanner when the element ends.
+ *
+ * @author Rakensi
+ */
+public final class MixedContent implements ContentHandler, LexicalHandler {
+
+  /** The character that stands for markup in the text: the object replacement character U+FFFC. */
+  public static final char PLACEHOLDER = '\uFFFC';
+
+  private static final char[] PLACEHOLDER_CHARS = {PLACEHOLDER};
+
+  /* The table of AsciiUtils, in which the placeholder is not replaced, made when it is first needed. */
+  private static final class Ascii {
+    static final char[] TABLE = AsciiUtils.table().clone();
+    static {
+      TABLE[PLACEHOLDER] = PLACEHOLDER;
+    }
+  }
+
+  /* The kinds of recorded events. */
+  private static final int START_PREFIX_MAPPING = 0;
+  private static final int END_PREFIX_MAPPING = 1;
+  private static final int START_ELEMENT = 2;
+  private static final int END_ELEMENT = 3;
+  private static final int CHARACTERS = 4;
+  private static final int IGNORABLE_WHITESPACE = 5;
+  private static final int PROCESSING_INSTRUCTION = 6;
+  private static final int SKIPPED_ENTITY = 7;
+  private static final int COMMENT = 8;
+  private static final int START_CDATA = 9;
+  private static final int END_CDATA = 10;
+  private static final int START_ENTITY = 11;
+  private static final int END_ENTITY = 12;
+
+  /* A recorded event. The strings are the arguments of the event, in the order of its method. */
+  private static final class Event {
+    final int kind;
+    final String first;
+    final String second;
+    final String third;
+    final Attributes attributes;
+    final char[] chars;
+
+    Event(int kind, String first, String second, String third, Attributes attributes, char[] chars) {
+      this.kind = kind;
+      this.first = first;
+      this.second = second;
+      this.third = third;
+      this.attributes = attributes;
+      this.chars = chars;
+    }
+
+    void send(ContentHandler contentHandler, LexicalHandler lexicalHandler) throws SAXException {
+      switch (kind) {
+      case START_PREFIX_MAPPING: contentHandler.startPrefixMapping(first, second); break;
+      case END_PREFIX_MAPPING: contentHandler.endPrefixMapping(first); break;
+      case START_ELEMENT: contentHandler.startElement(first, second, third, attributes); break;
+      case END_ELEMENT: contentHandler.endElement(first, second, third); break;
+      case CHARACTERS: contentHandler.characters(chars, 0, chars.length); break;
+      case IGNORABLE_WHITESPACE: contentHandler.ignorableWhitespace(chars, 0, chars.length); break;
+      case PROCESSING_INSTRUCTION: contentHandler.processingInstruction(first, second); break;
+      case SKIPPED_ENTITY: contentHandler.skippedEntity(first); break;
+      default:
+        if (lexicalHandler == null) return;
+        switch (kind) {
+        case COMMENT: lexicalHandler.comment(chars, 0, chars.length); break;
+        case START_CDATA: lexicalHandler.startCDATA(); break;
+        case END_CDATA: lexicalHandler.endCDATA(); break;
+        case START_ENTITY: lexicalHandler.startEntity(first); break;
+        case END_ENTITY: lexicalHandler.endEntity(first); break;
+        }
+      }
+    }
+  }
+
+  private final GrowableInput text = new GrowableInput();
+  private final List<Event> events = new ArrayList<Event>();
+  private int[] positions = new int[16]; /* The position of the placeholder of each markup in the text. */
+  private int[] firstEvents = new int[16]; /* The first event of each markup. A markup ends where the next one starts. */
+  private int count = 0;
+  private int depth = 0; /* The depth in the markup, which is 0 in the text. */
+  private boolean mappingsPending = false; /* Has a markup been started by prefix mappings before its element? */
+
+  /**
+   * The text, in which each markup is a PLACEHOLDER.
+   */
+  public GrowableInput getText() {
+    return text;
+  }
+
+  /**
+   * The table that replaces characters by ASCII characters for toASCII, which keeps the placeholder as it is.
+   * The table is shared, and must not be changed.
+   */
+  public static char[] asciiTable() {
+    return Ascii.TABLE;
+  }
+
+  /**
+   * The number of markups in the text.
+   */
+  public int getMarkupCount() {
+    return count;
+  }
+
+  /**
+   * The position of the placeholder of a markup in the text.
+   */
+  public int getPosition(int markup) {
+    return positions[markup];
+  }
+
+  /**
+   * The first markup at or after a position in the text, or getMarkupCount() if there is none.
+   */
+  public int nextMarkup(int position) {
+    int markup = Arrays.binarySearch(positions, 0, count, position);
+    return markup >= 0 ? markup : -markup - 1;
+  }
+
+  /**
+   * Send the events of a markup.
+   * @param lexicalHandler Receives comments, CDATA sections and entities, or null to leave them out.
+   */
+  public void sendMarkup(int markup, ContentHandler contentHandler, LexicalHandler lexicalHandler) throws SAXException {
+    int end = markup + 1 < count ? firstEvents[markup + 1] : events.size();
+    for (int i = firstEvents[markup]; i < end; ++i) {
+      events.get(i).send(contentHandler, lexicalHandler);
+    }
+  }
+
+  /* Start a markup with a placeholder at the end of the text. */
+  private void startMarkup() {
+    if (count == positions.length) {
+      positions = Arrays.copyOf(positions, count * 2);
+      firstEvents = Arrays.copyOf(firstEvents, count * 2);
+    }
+    positions[count] = text.length();
+    firstEvents[count] = events.size();
+    ++count;
+    text.append(PLACEHOLDER_CHARS, 0, 1);
+  }
+
+  /* Record an event of the current markup. */
+  private void record(int kind, String first, String second, String third, Attributes attributes, char[] chars) {
+    events.add(new Event(kind, first, second, third, attributes, chars));
+  }
+
+  /* Start a markup for a comment or processing instruction in the text, and record its event. */
+  private void recordAtom(int kind, String first, String second, char[] chars) {
+    if (depth == 0) startMarkup();
+    record(kind, first, second, null, null, chars);
+  }
+
+  public void setDocumentLocator(Locator locator) {
+  }
+
+  public void startDocument() {
+  }
+
+  public void endDocument() {
+  }
+
+  public void startPrefixMapping(String prefix, String uri) {
+    if (depth == 0 && !mappingsPending) {
+      startMarkup();
+      mappingsPending = true;
+    }
+    record(START_PREFIX_MAPPING, prefix, uri, null, null, null);
+  }
+
+  public void endPrefixMapping(String prefix) {
+    // After the end of an element in the text, this belongs to the markup of that element.
+    if (count > 0) record(END_PREFIX_MAPPING, prefix, null, null, null, null);
+  }
+
+  public void startElement(String uri, String localName, String qName, Attributes atts) {
+    if (depth == 0 && !mappingsPending) startMarkup();
+    mappingsPending = false;
+    ++depth;
+    record(START_ELEMENT, uri, localName, qName, new AttributesImpl(atts), null);
+  }
+
+  public void endElement(String uri, String localName, String qName) {
+    --depth;
+    record(END_ELEMENT, uri, localName, qName, null, null);
+  }
+
+  public void characters(char[] ch, int start, int length) {
+    if (depth == 0) {
+      text.append(ch, start, length);
+    } else {
+      record(CHARACTERS, null, null, null, null, Arrays.copyOfRange(ch, start, start + length));
+    }
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    if (depth == 0) {
+      text.append(ch, start, length);
+    } else {
+      record(IGNORABLE_WHITESPACE, null, null, null, null, Arrays.copyOfRange(ch, start, start + length));
+    }
+  }
+
+  public void processingInstruction(String target, String data) {
+    recordAtom(PROCESSING_INSTRUCTION, target, data, null);
+  }
+
+  public void skippedEntity(String name) {
+    recordAtom(SKIPPED_ENTITY, name, null, null);
+  }
+
+  public void comment(char[] ch, int start, int length) {
+    recordAtom(COMMENT, null, null, Arrays.copyOfRange(ch, start, start + length));
+  }
+
+  // CDATA sections and entities in the text only change how the text was written, so only those in markup are kept.
+
+  public void startCDATA() {
+    if (depth > 0) record(START_CDATA, null, null, null, null, null);
+  }
+
+  public void endCDATA() {
+    if (depth > 0) record(END_CDATA, null, null, null, null, null);
+  }
+
+  public void startEntity(String name) {
+    if (depth > 0) record(START_ENTITY, name, null, null, null, null);
+  }
+
+  public void endEntity(String name) {
+    if (depth > 0) record(END_ENTITY, name, null, null, null, null);
+  }
+
+  public void startDTD(String name, String publicId, String systemId) {
+  }
+
+  public void endDTD() {
+  }
+
+}
@@ -0,0 +1,146 @@
+package com.rakensi.waxeye;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Makes the node types for a grammar that is compiled in memory.
+ *
+ * The Waxeye runtime identifies the nodes in a parse tree by enum constants, which the Waxeye code generator
+ * writes as a Java enum. A grammar that is compiled in memory does not have such an enum, so this class defines
+ * a minimal subclass of java.lang.Enum in its own class loader, and instantiates it once for each node type.
+ * The resulting objects behave like enum constants: name() and toString() give the name of the node type,
+ * ordinal() gives its index, and they compare and hash by identity, which is all that the Waxeye runtime needs.
+ * They are not the constants of an enum class, though: the class is not marked as an enum, so that its constructor
+ * can be called, and it has no values(), so EnumSet and EnumMap cannot be used with node types.
+ *
+ * Why the class is defined from its bytes, and not generated as an enum and compiled:
+ * <ul>
+ *   <li>Grammars are compiled in memory so that a server does not need the Waxeye executable or a JDK.
+ *       Compiling an enum would need the system Java compiler, which a JRE does not have,
+ *       and takes about a second for each grammar, while the GrammarCompiler takes milliseconds.</li>
+ *   <li>The names of the node types are only known when the grammar is read, and javac cannot compile a class that
+ *       extends java.lang.Enum, while reflection cannot instantiate the constants of a real enum class.</li>
+ * </ul>
+ * The class only relies on what the JVM specification allows: a class may extend any class that is not final,
+ * and the constructor Enum(String, int) is protected, so a subclass may call it. The rule that only enum declarations
+ * extend Enum is a rule of the Java language (JLS 8.1.4), which javac checks, not a rule of the JVM.
+ * The class file has version 49 (Java 5), and is verified when it is loaded, like any class from a class loader
+ * that is not the boot class loader. This has been checked on OpenJDK 17 (Temurin 17.0.9);
+ * NodeTypesTest checks it on the JVM that runs the tests, and must pass on each JVM that the project supports.
+ *
+ * @author Rakensi
+ */
+public final class NodeTypes {
+
+  private static final String CLASS_NAME = "com.rakensi.waxeye.generated.NodeType";
+
+  // Private constructor, can't be instantiated.
+  private NodeTypes() { }
+
+  /**
+   * Make node types with the given names.
+   * @param names The names of the node types, in the order of their ordinals.
+   * @return The node types, with the same names and in the same order.
+   */
+  public static Enum<?>[] create(String[] names) {
+    final byte[] classBytes = classBytes(CLASS_NAME.replace('.', '/'));
+    ClassLoader loader = new ClassLoader(NodeTypes.class.getClassLoader()) {
+      @Override
+      protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (name.equals(CLASS_NAME)) return defineClass(name, classBytes, 0, classBytes.length);
+        throw new ClassNotFoundException(name);
+      }
+    };
+    try {
+      Class<?> typeClass = loader.loadClass(CLASS_NAME);
+      java.lang.reflect.Constructor<?> constructor = typeClass.getConstructor(String.class, int.class);
+      Enum<?>[] types = new Enum<?>[names.length];
+      for (int i = 0; i < names.length; ++i) {
+        types[i] = (Enum<?>) constructor.newInstance(names[i], i);
+      }
+      return types;
+    } catch (Exception e) {
+      throw new IllegalStateException("Cannot make node types", e);
+    }
+  }
+
+  /**
+   * The name of a node type for a rule, as made by the Waxeye Java code generator.
+   * Parts separated by '_' or '-' are capitalized and joined, so 'emptyList' becomes 'EmptyList'.
+   */
+  public static String typeName(String ruleName) {
+    StringBuilder sb = new StringBuilder(ruleName.length());
+    boolean capitalize = true;
+    for (int i = 0; i < ruleName.length(); ++i) {
+      char c = ruleName.charAt(i);
+      if (c == '_' || c == '-') {
+        capitalize = true;
+      } else {
+        sb.append(capitalize ? Character.toUpperCase(c) : c);
+        capitalize = false;
+      }
+    }
+    return sb.toString();
+  }
+
+  /*
+   * The class file of 'public final class NodeType extends java.lang.Enum',
+   * with the single constructor 'public NodeType(String name, int ordinal) { super(name, ordinal); }'.
+   * The class does not have the enum flag, so that it can be instantiated reflectively.
+   */
+  private static byte[] classBytes(String internalName) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0); // minor version
+      out.writeShort(49); // major version, Java 5
+      // Constant pool.
+      out.writeShort(10); // number of entries + 1
+      out.writeByte(1); out.writeUTF(internalName); // #1
+      out.writeByte(7); out.writeShort(1); // #2 this class
+      out.writeByte(1); out.writeUTF("java/lang/Enum"); // #3
+      out.writeByte(7); out.writeShort(3); // #4 super class
+      out.writeByte(1); out.writeUTF("<init>"); // #5
+      out.writeByte(1); out.writeUTF("(Ljava/lang/String;I)V"); // #6
+      out.writeByte(12); out.writeShort(5); out.writeShort(6); // #7 name and type
+      out.writeByte(10); out.writeShort(4); out.writeShort(7); // #8 Enum.<init>(String, int)
+      out.writeByte(1); out.writeUTF("Code"); // #9
+      // Class.
+      out.writeShort(0x0031); // public final super
+      out.writeShort(2);
+      out.writeShort(4);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+      // The constructor.
+      out.writeShort(1); // methods
+      out.writeShort(0x0001); // public
+      out.writeShort(5);
+      out.writeShort(6);
+      out.writeShort(1); // attributes
+      byte[] code = new byte[] {
+          0x2A, // aload_0
+          0x2B, // aload_1
+          0x1C, // iload_2
+          (byte) 0xB7, 0x00, 0x08, // invokespecial #8
+          (byte) 0xB1 // return
+      };
+      out.writeShort(9);
+      out.writeInt(12 + code.length);
+      out.writeShort(3); // max stack
+      out.writeShort(3); // max locals
+      out.writeInt(code.length);
+      out.write(code);
+      out.writeShort(0); // exception table
+      out.writeShort(0); // code attributes
+      out.writeShort(0); // class attributes
+      out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // Cannot happen for a ByteArrayOutputStream.
+    }
+    return bytes.toByteArray();
+  }
+
+}
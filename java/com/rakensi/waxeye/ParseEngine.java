@@ -0,0 +1,379 @@
+package com.rakensi.waxeye;
+
+import java.util.concurrent.Executor;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.waxeye.parser.Parser;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+import com.rakensi.AsciiUtils;
+import com.rakensi.trie.AhoCorasick;
+
+/**
+ * Parses fragments of text with a grammar, and sends the matches and the unmatched text as SAX events.
+ *
+ * The engine does what the WaxeyeParserTransformer does with the text of a trigger element, without Cocoon.
+ * It is configured with the mode and options of the transformer, and then makes a FragmentScanner for each fragment.
+ * The parse methods are a shortcut for a whole fragment, which send the output to a ContentHandler or an XMLStreamWriter.
+ *
+ * An engine must be configured before it is used. After that, it may be used by several threads at the same time,
+ * as long as the configuration does not change. The Waxeye parser of the grammar is shared;
+ * each thread has its own direct parser.
+ *
+ * @author Rakensi
+ */
+public class ParseEngine {
+
+  public static final String ERROR_ELEMENT_TAG = "ERROR";
+  public static final String MARKER_ELEMENT_TAG = "ERROR_POSITION";
+  public static final int DEFAULT_CHUNK_LENGTH = 1 << 20;
+  public static final int DEFAULT_PARALLEL_CHUNKS = 2 * Runtime.getRuntime().availableProcessors();
+
+  private final LoadedParser loadedParser;
+  private ScanMode mode = ScanMode.SCAN;
+  private boolean parseErrors = false;
+  private boolean showParseTree = false;
+  private boolean toASCII = false;
+  private boolean direct = false;
+  private MemoPolicy memoPolicy = null; /* The memo policy of direct parsers, or null for the default. */
+  private int memoLimit = 0; /* The maximum size of the memo table of direct parsers, or 0 for no limit. */
+  private String chunkSeparator = null; /* Separates records where a top-level match can start, or null. */
+  private int chunkLength = DEFAULT_CHUNK_LENGTH;
+  private int maxParallelChunks = DEFAULT_PARALLEL_CHUNKS; /* The maximum number of chunks that are parsed or not sent yet. */
+  private Executor executor = null; /* Parses chunks in parallel, or null to parse them on the calling thread. */
+  private GrammarMetrics metrics = null;
+  private FragmentCache fragmentCache = null; /* Keeps the output of short fragments, or null. */
+  private String namespaceURI = "";
+  private String prefix = null;
+  /* The direct parser of each thread, for the parse methods. */
+  private final ThreadLocal<DirectParser> directParsers = new ThreadLocal<DirectParser>();
+
+  /**
+   * @param loadedParser The parser, with its compiled grammar if the grammar could be analysed.
+   */
+  public ParseEngine(LoadedParser loadedParser) {
+    this.loadedParser = loadedParser;
+  }
+
+  /**
+   * An engine for a grammar that is compiled in memory.
+   */
+  public ParseEngine(CompiledGrammar grammar) {
+    this(new LoadedParser(grammar.newParser(), grammar));
+  }
+
+  /**
+   * Set how matches are found. The default is to scan for matches in text.
+   */
+  public void setMode(ScanMode mode) {
+    this.mode = mode;
+  }
+
+  public ScanMode getMode() {
+    return mode;
+  }
+
+  /**
+   * With adjacentMatches or completeMatch, put a parse error in the output and stop parsing the fragment,
+   * instead of throwing a ParsingException.
+   */
+  public void setParseErrors(boolean parseErrors) {
+    this.parseErrors = parseErrors;
+  }
+
+  public boolean isParseErrors() {
+    return parseErrors;
+  }
+
+  /**
+   * Send the Waxeye parse tree of each match as a comment. This is only done when the Waxeye parser is used.
+   */
+  public void setShowParseTree(boolean showParseTree) {
+    this.showParseTree = showParseTree;
+  }
+
+  public boolean isShowParseTree() {
+    return showParseTree;
+  }
+
+  /**
+   * Parse the text after converting it to low ASCII characters. The output contains the original text.
+   * Characters are converted by AsciiUtils while the parser reads them, one character for one character,
+   * so the positions in the parsed text are the positions in the original text.
+   */
+  public void setToASCII(boolean toASCII) {
+    this.toASCII = toASCII;
+  }
+
+  public boolean isToASCII() {
+    return toASCII;
+  }
+
+  /**
+   * Let the parse methods use a DirectParser, which sends SAX events without building a Waxeye parse tree.
+   * This is not done if the parse tree is shown, or if the grammar could not be analysed.
+   */
+  public void setDirect(boolean direct) {
+    this.direct = direct;
+  }
+
+  /**
+   * Do the parse methods use a DirectParser?
+   */
+  public boolean isDirect() {
+    return direct && !showParseTree && loadedParser.getCompiledGrammar() != null;
+  }
+
+  /**
+   * Set which automata are memoized by the direct parsers that the engine makes.
+   */
+  public void setMemoPolicy(MemoPolicy memoPolicy) {
+    this.memoPolicy = memoPolicy;
+  }
+
+  /**
+   * Limit the number of memo entries of the direct parsers that the engine makes, or 0 for no limit.
+   * This bounds the memory that is used for large fragments; see DirectParser.
+   */
+  public void setMemoLimit(int memoLimit) {
+    this.memoLimit = memoLimit;
+  }
+
+  public int getMemoLimit() {
+    return memoLimit;
+  }
+
+  /**
+   * With adjacentMatches and a direct parser, split fragments of at least twice the chunk length into chunks
+   * after a separator, and parse the chunks in parallel.
+   * @param chunkSeparator The string after which a top-level match can start, or null to parse fragments in one piece.
+   * @param chunkLength The approximate length of a chunk.
+   * @param maxParallelChunks The maximum number of chunks that are parsed or waiting to be sent at the same time.
+   * @param executor Parses the chunks, or null to parse them on the thread that scans the fragment.
+   */
+  public void setChunks(String chunkSeparator, int chunkLength, int maxParallelChunks, Executor executor) {
+    this.chunkSeparator = chunkSeparator == null || chunkSeparator.length() == 0 ? null : chunkSeparator;
+    this.chunkLength = chunkLength;
+    this.maxParallelChunks = maxParallelChunks;
+    this.executor = executor;
+  }
+
+  public String getChunkSeparator() {
+    return chunkSeparator;
+  }
+
+  public int getChunkLength() {
+    return chunkLength;
+  }
+
+  public int getMaxParallelChunks() {
+    return maxParallelChunks;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Set where the fragments are counted, or null to not count them.
+   */
+  public void setMetrics(GrammarMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public GrammarMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set where the output of short fragments is cached, or null to parse every fragment.
+   * Only fragments that are scanned as a whole are cached, not fragments that are streamed.
+   */
+  public void setFragmentCache(FragmentCache fragmentCache) {
+    this.fragmentCache = fragmentCache;
+  }
+
+  public FragmentCache getFragmentCache() {
+    return fragmentCache;
+  }
+
+  /**
+   * Set the namespace of the elements that the parse methods send.
+   * @param namespaceURI The namespace URI.
+   * @param prefix The namespace prefix, or null or the empty string for no prefix.
+   */
+  public void setNamespace(String namespaceURI, String prefix) {
+    this.namespaceURI = namespaceURI;
+    this.prefix = prefix;
+  }
+
+  public LoadedParser getLoadedParser() {
+    return loadedParser;
+  }
+
+  public Parser<?> getParser() {
+    return loadedParser.getParser();
+  }
+
+  /**
+   * The characters that a match can start with, or null if the grammar could not be analysed.
+   */
+  public FirstSet getFirstSet() {
+    return loadedParser.getFirstSet();
+  }
+
+  /**
+   * An automaton that finds the literal anchors that a match starts with, or null if there are none.
+   */
+  public AhoCorasick getAnchors() {
+    return loadedParser.getAnchors();
+  }
+
+  /**
+   * Make a direct parser for the grammar, with the memo policy of the engine.
+   * This is the generated descent parser of the loaded parser, if it has one.
+   * @throws IllegalStateException If the grammar could not be analysed.
+   */
+  public DirectParser newDirectParser() {
+    DirectParser directParser = loadedParser.newDirectParser();
+    if (memoPolicy != null) directParser.setMemoPolicy(memoPolicy);
+    directParser.setMemoLimit(memoLimit);
+    return directParser;
+  }
+
+  /**
+   * Make a scanner for a complete fragment.
+   * A CharBuffer that is backed by an array is parsed and emitted without copying; a string is copied once.
+   * @param directParser The direct parser, which must not be used by another scanner at the same time,
+   *   or null to use the Waxeye parser.
+   * @param emitter Receives the output.
+   */
+  public FragmentScanner newScanner(CharSequence fragment, DirectParser directParser, SaxEmitter emitter) {
+    return newScanner(GrowableInput.of(fragment), directParser, emitter);
+  }
+
+  /**
+   * Make a scanner for a complete fragment that is a slice of a character array.
+   * The array is parsed and emitted without copying, so it must not change while the fragment is scanned.
+   * @param directParser The direct parser, which must not be used by another scanner at the same time,
+   *   or null to use the Waxeye parser.
+   * @param emitter Receives the output.
+   */
+  public FragmentScanner newScanner(char[] chars, int offset, int length, DirectParser directParser, SaxEmitter emitter) {
+    return newScanner(new GrowableInput(chars, offset, length), directParser, emitter);
+  }
+
+  /**
+   * Make a scanner for the text of mixed content, in which markup is a placeholder.
+   * The markup is sent in place of the placeholders in the output.
+   * @param directParser The direct parser, which must not be used by another scanner at the same time,
+   *   or null to use the Waxeye parser.
+   * @param emitter Receives the output.
+   */
+  public FragmentScanner newScanner(MixedContent mixedContent, DirectParser directParser, SaxEmitter emitter) {
+    return newScanner(mixedContent.getText(), mixedContent, directParser, emitter);
+  }
+
+  private FragmentScanner newScanner(GrowableInput text, DirectParser directParser, SaxEmitter emitter) {
+    return newScanner(text, null, directParser, emitter);
+  }
+
+  private FragmentScanner newScanner(GrowableInput text, MixedContent mixedContent, DirectParser directParser,
+                                     SaxEmitter emitter) {
+    // Only a fragment that can be cached is copied into a string for its key.
+    // The output of mixed content is cached as well: the markup is sent from the positions of its placeholders.
+    FragmentCache.Key cacheKey = fragmentCache != null && fragmentCache.accepts(text.length())
+                               ? new FragmentCache.Key(loadedParser.getId(), outputOptions(mixedContent != null), text.toString())
+                               : null;
+    return new FragmentScanner(this, text, parsedInput(text, mixedContent), mixedContent, directParser, emitter, cacheKey);
+  }
+
+  /**
+   * Make a scanner for a fragment that is appended while it is scanned.
+   * @param directParser The direct parser, which must not be used by another scanner at the same time,
+   *   or null to use the Waxeye parser.
+   * @param emitter Receives the output.
+   */
+  public FragmentScanner newStreamingScanner(DirectParser directParser, SaxEmitter emitter) {
+    GrowableInput text = new GrowableInput();
+    return new FragmentScanner(this, text, parsedInput(text, null), null, directParser, emitter, null);
+  }
+
+  /* The options that change the output, as bits. */
+  private int outputOptions(boolean mixed) {
+    return mode.ordinal() | (parseErrors ? 4 : 0) | (showParseTree ? 8 : 0) | (toASCII ? 16 : 0) | (mixed ? 32 : 0);
+  }
+
+  /* The input that the parser reads for a text. The placeholders of mixed content are not replaced by toASCII. */
+  private GrowableInput parsedInput(GrowableInput text, MixedContent mixedContent) {
+    if (!toASCII) return text;
+    return GrowableInput.mapped(text, mixedContent == null ? AsciiUtils.table() : MixedContent.asciiTable());
+  }
+
+  /**
+   * Make an emitter that sends events to a content handler, in the namespace of the engine.
+   * If the content handler is a LexicalHandler, comments are sent to it as well.
+   */
+  public SaxEmitter newEmitter(ContentHandler contentHandler) {
+    SaxEmitter emitter = new SaxEmitter();
+    emitter.setContentHandler(contentHandler);
+    emitter.setLexicalHandler(contentHandler instanceof LexicalHandler ? (LexicalHandler) contentHandler : null);
+    emitter.setNamespace(namespaceURI, prefix);
+    return emitter;
+  }
+
+  /**
+   * Parse a fragment, and send the matches and unmatched text to a content handler.
+   * No startDocument and endDocument events are sent, so the output can be part of a larger document.
+   */
+  public void parse(CharSequence fragment, ContentHandler contentHandler) throws SAXException, ParsingException {
+    newScanner(fragment, isDirect() ? threadParser() : null, newEmitter(contentHandler)).scan(true);
+  }
+
+  /**
+   * Parse the text of mixed content, and send the matches and unmatched text to a content handler,
+   * with the markup in place of its placeholders.
+   */
+  public void parse(MixedContent mixedContent, ContentHandler contentHandler) throws SAXException, ParsingException {
+    newScanner(mixedContent, isDirect() ? threadParser() : null, newEmitter(contentHandler)).scan(true);
+  }
+
+  /**
+   * Parse a fragment that is a slice of a character array, without copying it,
+   * and send the matches and unmatched text to a content handler.
+   */
+  public void parse(char[] chars, int offset, int length, ContentHandler contentHandler)
+      throws SAXException, ParsingException {
+    newScanner(chars, offset, length, isDirect() ? threadParser() : null, newEmitter(contentHandler)).scan(true);
+  }
+
+  /**
+   * Parse a fragment, and write the matches and unmatched text to an XMLStreamWriter.
+   * The namespace of the engine must be bound in the writer.
+   */
+  public void parse(CharSequence fragment, XMLStreamWriter writer) throws XMLStreamException, ParsingException {
+    try {
+      parse(fragment, new StaxWriterHandler(writer));
+    } catch (SAXException e) {
+      if (e.getException() instanceof XMLStreamException) {
+        throw (XMLStreamException) e.getException();
+      }
+      throw new XMLStreamException(e.getMessage(), e);
+    }
+  }
+
+  /* The direct parser of the current thread. */
+  private DirectParser threadParser() {
+    DirectParser directParser = directParsers.get();
+    if (directParser == null) {
+      directParser = newDirectParser();
+      directParsers.set(directParser);
+    }
+    return directParser;
+  }
+
+}
@@ -0,0 +1,149 @@
+package com.rakensi.waxeye;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters for the fragments that are parsed with one grammar in one scan mode.
+ * A scanner records a fragment once, when it is done with it, so the counters cost nothing per match.
+ *
+ * @author Rakensi
+ */
+public final class ParseMetrics {
+
+  private final AtomicLong fragments = new AtomicLong();
+  private final AtomicLong characters = new AtomicLong();
+  private final AtomicLong parseNanos = new AtomicLong();
+  private final AtomicLong attempts = new AtomicLong();
+  private final AtomicLong matches = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong outputCharacters = new AtomicLong();
+  /* The time spent on each fragment, in microseconds. */
+  private final Histogram fragmentTime = new Histogram();
+
+  /**
+   * Record a parsed fragment.
+   * @param characters The length of the fragment.
+   * @param nanos The time spent parsing the fragment and sending the output, in nanoseconds.
+   * @param attempts The number of times the parser was called.
+   * @param matches The number of non-empty matches.
+   * @param errors The number of parse errors that were reported.
+   * @param outputCharacters The number of characters in the SAX events that were sent.
+   */
+  public void fragment(long characters, long nanos, long attempts, long matches, long errors, long outputCharacters) {
+    this.fragments.incrementAndGet();
+    this.characters.addAndGet(characters);
+    this.parseNanos.addAndGet(nanos);
+    this.attempts.addAndGet(attempts);
+    this.matches.addAndGet(matches);
+    this.errors.addAndGet(errors);
+    this.outputCharacters.addAndGet(outputCharacters);
+    this.fragmentTime.record(nanos / 1000);
+  }
+
+  public Snapshot snapshot() {
+    return new Snapshot(fragments.get(), characters.get(), parseNanos.get(), attempts.get(), matches.get(),
+                        errors.get(), outputCharacters.get(), fragmentTime.snapshot());
+  }
+
+  public void reset() {
+    fragments.set(0);
+    characters.set(0);
+    parseNanos.set(0);
+    attempts.set(0);
+    matches.set(0);
+    errors.set(0);
+    outputCharacters.set(0);
+    fragmentTime.reset();
+  }
+
+  /**
+   * An immutable copy of the counters.
+   */
+  public static final class Snapshot {
+    private final long fragments;
+    private final long characters;
+    private final long parseNanos;
+    private final long attempts;
+    private final long matches;
+    private final long errors;
+    private final long outputCharacters;
+    private final Histogram.Snapshot fragmentTime;
+
+    Snapshot(long fragments, long characters, long parseNanos, long attempts, long matches,
+             long errors, long outputCharacters, Histogram.Snapshot fragmentTime) {
+      this.fragments = fragments;
+      this.characters = characters;
+      this.parseNanos = parseNanos;
+      this.attempts = attempts;
+      this.matches = matches;
+      this.errors = errors;
+      this.outputCharacters = outputCharacters;
+      this.fragmentTime = fragmentTime;
+    }
+
+    public long getFragments() {
+      return fragments;
+    }
+
+    public long getCharacters() {
+      return characters;
+    }
+
+    /**
+     * The total time spent parsing fragments and sending the output, in milliseconds.
+     */
+    public long getParseTimeMillis() {
+      return parseNanos / 1000000;
+    }
+
+    /**
+     * The number of characters parsed per second of parse time.
+     */
+    public long getCharactersPerSecond() {
+      return parseNanos == 0 ? 0 : Math.round(characters * 1e9 / parseNanos);
+    }
+
+    /**
+     * The number of times the parser was called. When scanning, there is an attempt at each position where a match may start.
+     */
+    public long getAttempts() {
+      return attempts;
+    }
+
+    /**
+     * The number of non-empty matches.
+     */
+    public long getMatches() {
+      return matches;
+    }
+
+    /**
+     * The number of parse errors in adjacentMatches and completeMatch mode, including those that were put in the output.
+     */
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * The number of characters in the element names, attribute values and text of the SAX events for the fragments.
+     */
+    public long getOutputCharacters() {
+      return outputCharacters;
+    }
+
+    /**
+     * The time spent on each fragment, in microseconds.
+     */
+    public Histogram.Snapshot getFragmentTime() {
+      return fragmentTime;
+    }
+
+    @Override
+    public String toString() {
+      return "fragments="+fragments+" characters="+characters+" chars/s="+getCharactersPerSecond()+
+             " attempts="+attempts+" matches="+matches+" errors="+errors+" output="+outputCharacters+
+             " fragmentTime(us)=["+fragmentTime+"]";
+    }
+  }
+
+}
@@ -0,0 +1,34 @@
+package com.rakensi.waxeye;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Receives the parse tree of a match from a DirectParser, as events.
+ * The events are the same as those that a visitor of the Waxeye parse tree would see.
+ *
+ * @author Rakensi
+ */
+public interface ParseTreeHandler {
+
+  /**
+   * The start of a node of the parse tree.
+   * @param type The node type. Its string value is the name of the type.
+   * @param start The position of the first character of the node.
+   * @param end The position after the last character of the node.
+   */
+  void startNode(Object type, int start, int end) throws SAXException;
+
+  /**
+   * Characters of the matched text. Adjacent characters are given together.
+   * @param start The position of the first character in the fragment.
+   * @param end The position after the last character.
+   */
+  void text(int start, int end) throws SAXException;
+
+  /**
+   * The end of a node of the parse tree.
+   * @param type The node type, as given to startNode.
+   */
+  void endNode(Object type) throws SAXException;
+
+}
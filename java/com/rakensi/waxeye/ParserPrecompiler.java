@@ -0,0 +1,235 @@
+package com.rakensi.waxeye;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * A command-line tool that generates and compiles the parsers of grammars when the project is built,
+ * so that they can be found on the class path at runtime as PrecompiledParsers.
+ *
+ * By default, each grammar is compiled by the GrammarCompiler, and the precompiled parser is the descent parser
+ * that the DescentParserGenerator generates for it; at runtime, the parser that is not direct is the compiled grammar.
+ * With -waxeye, the parser of each grammar is generated by the Waxeye executable instead,
+ * and with -descent, the jar also contains the descent parser of the grammar.
+ * The generated code is compiled by the system Java compiler against the class path of this tool,
+ * which must contain the Waxeye runtime, and stored as a jar in the sub-directory waxeye-parsers of the output directory.
+ *
+ * <pre>
+ * java com.rakensi.waxeye.ParserPrecompiler [options] outputDirectory grammar...
+ * </pre>
+ * The options are:
+ * <ul>
+ *   <li>-waxeye path Generate the parsers with this Waxeye executable.</li>
+ *   <li>-modular The grammars are modular.</li>
+ *   <li>-descent With -waxeye, also generate descent parsers, for grammars that the GrammarCompiler can compile.</li>
+ *   <li>-release version Compile the parsers for this Java version, like javac --release.</li>
+ * </ul>
+ * The exit status is 0 if all parsers were compiled, 1 if some grammars failed, and 2 if the arguments are wrong.
+ *
+ * @author Rakensi
+ */
+public final class ParserPrecompiler {
+
+  private static final String CLASS_EXTENSION = ".class";
+
+  private final String waxeyePath;
+  private final boolean modular;
+  private final String release;
+  private boolean descent = false;
+
+  /**
+   * @param waxeyePath The Waxeye executable, or null to compile the grammars with the GrammarCompiler.
+   * @param modular Are the grammars modular?
+   * @param release The Java version of the compiled parsers, or null for the version of the compiler.
+   */
+  public ParserPrecompiler(String waxeyePath, boolean modular, String release) {
+    this.waxeyePath = waxeyePath;
+    this.modular = modular;
+    this.release = release;
+  }
+
+  /**
+   * Also generate a descent parser for each grammar, if the GrammarCompiler can compile the grammar.
+   * Without the Waxeye executable, the descent parser is always generated, because it is the only generated code.
+   */
+  public void setDescent(boolean descent) {
+    this.descent = descent;
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean modular = false;
+    boolean descent = false;
+    String release = null;
+    String waxeyePath = null;
+    int arg = 0;
+    try {
+      for (; arg < args.length && args[arg].startsWith("-"); ++arg) {
+        String option = args[arg];
+        if (option.equals("-modular")) modular = true;
+        else if (option.equals("-descent")) descent = true;
+        else if (option.equals("-release")) release = args[++arg];
+        else if (option.equals("-waxeye")) waxeyePath = args[++arg];
+        else throw new IllegalArgumentException("Unknown option "+option);
+      }
+      if (args.length - arg < 2) throw new IllegalArgumentException("Expected an output directory and grammars.");
+    } catch (RuntimeException e) {
+      System.err.println(e.getMessage());
+      System.err.println("Usage: java "+ParserPrecompiler.class.getName()+" [options] outputDirectory grammar...");
+      System.exit(2);
+    }
+    ParserPrecompiler precompiler = new ParserPrecompiler(waxeyePath, modular, release);
+    precompiler.setDescent(descent);
+    File outputDirectory = new File(args[arg]);
+    int failed = 0;
+    for (int i = arg + 1; i < args.length; ++i) {
+      File grammarFile = new File(args[i]);
+      try {
+        File jarFile = precompiler.precompile(grammarFile, outputDirectory);
+        System.err.println(grammarFile+": "+jarFile);
+      } catch (Exception e) {
+        ++failed;
+        System.err.println(grammarFile+": "+e.getMessage());
+      }
+    }
+    System.exit(failed == 0 ? 0 : 1);
+  }
+
+  /**
+   * Generate and compile the parser of a grammar, and store it in an output directory.
+   * @result The jar with the precompiled parser.
+   */
+  public File precompile(File grammarFile, File outputDirectory) throws IOException, GrammarException {
+    String grammarName = PrecompiledParsers.grammarName(grammarFile);
+    String hash = PrecompiledParsers.hash(GrammarFingerprint.grammarFiles(grammarFile, modular), modular);
+    File javaCodeDir = File.createTempFile("waxeye-"+grammarName, "");
+    if (!javaCodeDir.delete() || !javaCodeDir.mkdir()) {
+      throw new IOException("Unable to create directory ["+javaCodeDir+"] for Waxeye java files.");
+    }
+    try {
+      if (waxeyePath != null) {
+        generate(grammarFile, javaCodeDir);
+        if (descent) generateDescentParser(grammarFile, javaCodeDir);
+      } else {
+        DescentParserGenerator.write(GrammarCompiler.compile(GrammarReader.read(grammarFile, modular)), javaCodeDir);
+      }
+      compile(javaCodeDir);
+      return PrecompiledParsers.write(outputDirectory, grammarName, hash, readClassFiles(javaCodeDir));
+    } finally {
+      File[] files = javaCodeDir.listFiles();
+      if (files != null) {
+        for (File file : files) file.delete();
+      }
+      javaCodeDir.delete();
+    }
+  }
+
+  /* Generate the Java code of the parser with the Waxeye executable. */
+  private void generate(File grammarFile, File javaCodeDir) throws IOException, GrammarException {
+    List<String> command = new ArrayList<String>();
+    command.add(waxeyePath);
+    command.add("-g");
+    command.add("java");
+    command.add(javaCodeDir.getAbsolutePath());
+    if (modular) command.add("-m");
+    command.add(grammarFile.getAbsolutePath());
+    Process waxeye = new ProcessBuilder(command).redirectErrorStream(true).start();
+    StringBuilder waxeyeOutput = new StringBuilder();
+    BufferedReader waxeyeOutputReader = new BufferedReader(new InputStreamReader(waxeye.getInputStream()));
+    try {
+      for (String line = waxeyeOutputReader.readLine(); line != null; line = waxeyeOutputReader.readLine()) {
+        waxeyeOutput.append(line).append('\n');
+      }
+    } finally {
+      waxeyeOutputReader.close();
+    }
+    try {
+      if (waxeye.waitFor() != 0) {
+        throw new GrammarException("Waxeye process exited with error code "+waxeye.exitValue()+"\n"+waxeyeOutput);
+      }
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while generating the parser.", e);
+    }
+  }
+
+  /* Generate the Java code of the descent parser, unless the GrammarCompiler cannot compile the grammar.
+   * Then the grammar cannot be analysed at runtime either, so it would not be used.
+   */
+  private void generateDescentParser(File grammarFile, File javaCodeDir) throws IOException {
+    CompiledGrammar compiledGrammar;
+    try {
+      compiledGrammar = GrammarCompiler.compile(GrammarReader.read(grammarFile, modular));
+    } catch (GrammarException e) {
+      System.err.println(grammarFile+": no descent parser, because the grammar cannot be compiled in memory: "+e.getMessage());
+      return;
+    }
+    DescentParserGenerator.write(compiledGrammar, javaCodeDir);
+  }
+
+  /* Compile the generated Java code into class files in the same directory. */
+  private void compile(File javaCodeDir) throws IOException, GrammarException {
+    JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+    if (javaCompiler == null) {
+      throw new IOException("There is no system Java compiler; run the precompiler with a JDK.");
+    }
+    List<String> arguments = new ArrayList<String>();
+    arguments.add("-classpath");
+    arguments.add(System.getProperty("java.class.path"));
+    arguments.add("-encoding");
+    arguments.add("UTF-8");
+    arguments.add("-nowarn");
+    if (release != null) {
+      arguments.add("--release");
+      arguments.add(release);
+    }
+    arguments.add("-d");
+    arguments.add(javaCodeDir.getAbsolutePath());
+    File[] sourceFiles = javaCodeDir.listFiles();
+    if (sourceFiles != null) {
+      for (File file : sourceFiles) {
+        if (file.getName().endsWith(".java")) arguments.add(file.getAbsolutePath());
+      }
+    }
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    if (javaCompiler.run(null, errors, errors, arguments.toArray(new String[arguments.size()])) != 0) {
+      throw new GrammarException("Error compiling the generated parser:\n"+errors.toString("UTF-8"));
+    }
+  }
+
+  /* Read the class files in the default package, like the classes generated by Waxeye. */
+  private static Map<String, byte[]> readClassFiles(File directory) throws IOException {
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (file.isFile() && name.endsWith(CLASS_EXTENSION)) {
+          InputStream in = new FileInputStream(file);
+          try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+              bytes.write(buffer, 0, n);
+            }
+            classes.put(name.substring(0, name.length() - CLASS_EXTENSION.length()), bytes.toByteArray());
+          } finally {
+            in.close();
+          }
+        }
+      }
+    }
+    return classes;
+  }
+
+}
@@ -0,0 +1,224 @@
+package com.rakensi.waxeye;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A thread-safe store of loaded parsers, with single-flight loading.
+ *
+ * Each grammar has a key (usually the grammar URI) and a version (usually a fingerprint of the grammar files).
+ * When a parser is requested for another version than the one that has been loaded, exactly one thread runs the loader.
+ * Other threads that request the same grammar in the mean time will use the previously loaded version if there is one,
+ * and otherwise wait for the result of the loading thread.
+ * The loads of a grammar never overlap, because loaders may share files, such as the directory with the generated code:
+ * a version that is requested while another version is being loaded is loaded after that load has finished.
+ *
+ * @param <P> The type of the stored parsers.
+ * @author Rakensi
+ */
+public class ParserStore<P> {
+
+  /**
+   * The load state of a grammar.
+   */
+  public enum LoadState {
+    /** The grammar is unknown, or it has been removed. */
+    UNLOADED,
+    /** The grammar is being loaded for the first time. */
+    LOADING,
+    /** A parser for the grammar is loaded. */
+    LOADED,
+    /** A parser for the grammar is loaded, and a newer version is being loaded. */
+    RELOADING,
+    /** The last attempt to load the grammar failed. A previous version may still be used. */
+    FAILED
+  }
+
+  /**
+   * Something that loads a parser.
+   * This is called by at most one thread at a time for each key, and loads of the same key do not overlap.
+   */
+  public interface Loader<P> {
+    P load() throws Exception;
+  }
+
+  /* The state of one grammar. All fields are guarded by the entry itself. */
+  private static class Entry<P> {
+    private P parser = null;
+    private String version = null;
+    private FutureTask<P> pending = null;
+    private String pendingVersion = null;
+    private Throwable failure = null;
+  }
+
+  private final ConcurrentMap<String, Entry<P>> entries = new ConcurrentHashMap<String, Entry<P>>();
+
+  /**
+   * Get the parser for a grammar, loading it if the stored parser has another version than the requested version.
+   * @param key Identifies the grammar.
+   * @param version The version of the grammar. A stored parser with this version is returned without loading.
+   * @param loader Loads the parser if that is necessary.
+   * @return The parser for the grammar. This may be a previous version while another thread is loading the new version.
+   * @throws Exception when loading the parser fails.
+   */
+  public P get(String key, final String version, final Loader<P> loader) throws Exception {
+    Entry<P> entry = entries.get(key);
+    if (entry == null) {
+      Entry<P> newEntry = new Entry<P>();
+      entry = entries.putIfAbsent(key, newEntry);
+      if (entry == null) entry = newEntry;
+    }
+    final FutureTask<P> task;
+    boolean mustRun = false;
+    synchronized (entry) {
+      if (entry.parser != null && version.equals(entry.version)) {
+        return entry.parser;
+      }
+      if (entry.pending == null || !version.equals(entry.pendingVersion)) {
+        // This thread becomes responsible for loading the requested version, after the pending load of another version.
+        final FutureTask<P> previous = entry.pending;
+        entry.pending = new FutureTask<P>(new Callable<P>() {
+          public P call() throws Exception {
+            if (previous != null) awaitLoad(previous);
+            return loader.load();
+          }
+        });
+        entry.pendingVersion = version;
+        mustRun = true;
+      } else if (entry.parser != null) {
+        // Another thread is loading; use the previous version in the mean time.
+        return entry.parser;
+      }
+      task = entry.pending;
+    }
+    if (mustRun) {
+      task.run();
+      synchronized (entry) {
+        try {
+          P parser = task.get();
+          if (entry.pending == task || entry.parser == null) {
+            // Unless a newer load has been started, this is the current version.
+            entry.parser = parser;
+            entry.version = version;
+          }
+          entry.failure = null;
+        } catch (ExecutionException e) {
+          entry.failure = e.getCause();
+        } finally {
+          if (entry.pending == task) entry.pending = null;
+        }
+      }
+    }
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw e;
+    }
+  }
+
+  /**
+   * Get the version of the stored parser for a grammar.
+   * This is the version that get returns without loading, even while a newer version is being loaded.
+   * @param key Identifies the grammar.
+   * @return The version, or null if no parser is stored for the grammar.
+   */
+  public String getVersion(String key) {
+    Entry<P> entry = entries.get(key);
+    if (entry == null) return null;
+    synchronized (entry) {
+      return entry.parser == null ? null : entry.version;
+    }
+  }
+
+  /**
+   * Get the stored parser for a grammar, without checking its version.
+   * This is for callers that learn about new versions in another way, such as a GrammarWatcher.
+   * @param key Identifies the grammar.
+   * @return The parser, or null if no parser is stored for the grammar.
+   */
+  public P getLoaded(String key) {
+    Entry<P> entry = entries.get(key);
+    if (entry == null) return null;
+    synchronized (entry) {
+      return entry.parser;
+    }
+  }
+
+  /**
+   * Get the load state of a grammar.
+   * @param key Identifies the grammar.
+   */
+  public LoadState getLoadState(String key) {
+    Entry<P> entry = entries.get(key);
+    if (entry == null) return LoadState.UNLOADED;
+    synchronized (entry) {
+      return loadState(entry);
+    }
+  }
+
+  /**
+   * Get the load states of all known grammars, sorted by key.
+   */
+  public Map<String, LoadState> getLoadStates() {
+    Map<String, LoadState> states = new TreeMap<String, LoadState>();
+    for (Map.Entry<String, Entry<P>> e : entries.entrySet()) {
+      synchronized (e.getValue()) {
+        states.put(e.getKey(), loadState(e.getValue()));
+      }
+    }
+    return Collections.unmodifiableMap(states);
+  }
+
+  /**
+   * Get the reason why the last attempt to load a grammar failed.
+   * @param key Identifies the grammar.
+   * @return The exception thrown by the loader, or null if the last attempt did not fail.
+   */
+  public Throwable getFailure(String key) {
+    Entry<P> entry = entries.get(key);
+    if (entry == null) return null;
+    synchronized (entry) {
+      return entry.failure;
+    }
+  }
+
+  /**
+   * Forget the parser for a grammar, so it will be loaded again when it is requested.
+   * A load that is in progress will still deliver its result to the threads that are waiting for it.
+   * @param key Identifies the grammar.
+   */
+  public void remove(String key) {
+    entries.remove(key);
+  }
+
+  /* Wait until a load has finished. Its result or failure is handled by the thread that runs it. */
+  private static void awaitLoad(FutureTask<?> load) throws InterruptedException {
+    try {
+      load.get();
+    } catch (ExecutionException e) {
+      // The failure of another version does not prevent loading this version.
+    }
+  }
+
+  private static LoadState loadState(Entry<?> entry) {
+    if (entry.pending != null) {
+      return entry.parser == null ? LoadState.LOADING : LoadState.RELOADING;
+    } else if (entry.failure != null) {
+      return LoadState.FAILED;
+    } else if (entry.parser != null) {
+      return LoadState.LOADED;
+    } else {
+      return LoadState.UNLOADED;
+    }
+  }
+
+}
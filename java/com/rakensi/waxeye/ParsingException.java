@@ -0,0 +1,20 @@
+package com.rakensi.waxeye;
+
+/**
+ * Signals that a fragment cannot be parsed, for instance because it does not match the grammar in completeMatch mode.
+ *
+ * @author Rakensi
+ */
+public class ParsingException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  public ParsingException(String message) {
+    super(message);
+  }
+
+  public ParsingException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+}
@@ -0,0 +1,145 @@
+package com.rakensi.waxeye;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Parsers that are generated and compiled when the project is built, and found on the class path at runtime.
+ *
+ * A precompiled parser is a jar with the classes of the generated parser, which is generated by Waxeye,
+ * or the descent parser of a grammar that is compiled in memory. It is stored as the resource
+ * <code>waxeye-parsers/name-hash.jar</code>, where name is the name of the grammar file without its extension,
+ * and hash is the hash of the contents of the grammar file and its sub-grammar files, of the Waxeye runtime,
+ * and of the format version of the descent parsers, so that the jar is not used with a changed DirectParser.
+ * The generated classes are in the default package, so the parsers of several grammars can be on the class path
+ * without clashing; each parser is loaded by a class loader of its own.
+ * A grammar that has been changed since the build has another hash, so its precompiled parser is not found.
+ *
+ * @author Rakensi
+ */
+public final class PrecompiledParsers {
+
+  /** The resource directory with the precompiled parsers. */
+  public static final String RESOURCE_DIRECTORY = "waxeye-parsers/";
+  /** The manifest attribute with the name of the grammar. */
+  public static final String GRAMMAR_ATTRIBUTE = "Waxeye-Grammar";
+  /** The manifest attribute with the hash of the grammar. */
+  public static final String HASH_ATTRIBUTE = "Waxeye-Grammar-Hash";
+
+  private static final String CLASS_EXTENSION = ".class";
+
+  // Private constructor, can't be instantiated.
+  private PrecompiledParsers() { }
+
+  /**
+   * The name of a grammar, which is the name of the grammar file without its extension.
+   */
+  public static String grammarName(File grammarFile) {
+    return grammarFile.getName().replaceFirst("\\.[^.]*$", "");
+  }
+
+  /**
+   * The hash of a grammar, which identifies its precompiled parser.
+   * Unlike the fingerprint that is used at runtime, it does not depend on the Waxeye executable,
+   * which is only needed when the project is built.
+   * @param grammarFiles The grammar file, followed by all its sub-grammar files.
+   * @param modular Is the grammar modular?
+   */
+  public static String hash(List<File> grammarFiles, boolean modular) throws IOException {
+    return GrammarFingerprint.of(grammarFiles, "compiler=precompiled;modular="+modular+
+                                               ";descent="+DescentParserGenerator.FORMAT_VERSION);
+  }
+
+  /**
+   * The name of the resource with a precompiled parser.
+   */
+  public static String resourceName(String grammarName, String hash) {
+    return RESOURCE_DIRECTORY + grammarName + "-" + hash + ".jar";
+  }
+
+  /**
+   * Find a precompiled parser on the class path.
+   * @param classLoader The class loader that finds the resource.
+   * @param grammarName The name of the grammar.
+   * @param hash The hash of the grammar.
+   * @return The class files, by binary class name, or null if there is no precompiled parser for the grammar.
+   * @throws IOException if the precompiled parser exists but cannot be read.
+   */
+  public static Map<String, byte[]> find(ClassLoader classLoader, String grammarName, String hash) throws IOException {
+    InputStream in = classLoader.getResourceAsStream(resourceName(grammarName, hash));
+    if (in == null) {
+      return null;
+    }
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    JarInputStream jar = new JarInputStream(in);
+    try {
+      Manifest manifest = jar.getManifest();
+      if (manifest == null || !hash.equals(manifest.getMainAttributes().getValue(HASH_ATTRIBUTE))) {
+        return null;
+      }
+      for (JarEntry entry = jar.getNextJarEntry(); entry != null; entry = jar.getNextJarEntry()) {
+        String name = entry.getName();
+        if (name.endsWith(CLASS_EXTENSION)) {
+          classes.put(name.substring(0, name.length() - CLASS_EXTENSION.length()).replace('/', '.'), readAll(jar));
+        }
+      }
+    } finally {
+      jar.close();
+    }
+    return classes.isEmpty() ? null : classes;
+  }
+
+  /**
+   * Store a precompiled parser in a directory that becomes part of the class path, such as target/classes.
+   * @param directory The directory. The jar is written to its sub-directory waxeye-parsers.
+   * @param grammarName The name of the grammar.
+   * @param hash The hash of the grammar.
+   * @param classes The class files, by binary class name.
+   * @return The written jar file.
+   */
+  public static File write(File directory, String grammarName, String hash, Map<String, byte[]> classes)
+      throws IOException {
+    File jarFile = new File(directory, resourceName(grammarName, hash));
+    File parsersDirectory = jarFile.getParentFile();
+    if (!parsersDirectory.mkdirs() && !parsersDirectory.isDirectory()) {
+      throw new IOException("Unable to create directory ["+parsersDirectory.getAbsolutePath()+"] for precompiled parsers.");
+    }
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.putValue(GRAMMAR_ATTRIBUTE, grammarName);
+    attributes.putValue(HASH_ATTRIBUTE, hash);
+    JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile), manifest);
+    try {
+      for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+        jar.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + CLASS_EXTENSION));
+        jar.write(entry.getValue());
+        jar.closeEntry();
+      }
+    } finally {
+      jar.close();
+    }
+    return jarFile;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+      bytes.write(buffer, 0, n);
+    }
+    return bytes.toByteArray();
+  }
+
+}
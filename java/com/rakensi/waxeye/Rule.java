@@ -0,0 +1,45 @@
+package com.rakensi.waxeye;
+
+import org.waxeye.parser.FA;
+
+/**
+ * A rule (definition) in a Waxeye grammar: name <- expression.
+ *
+ * @author Rakensi
+ */
+public final class Rule {
+
+  private final String name;
+  private final int mode;
+  private final Expression expression;
+
+  /**
+   * @param name The name of the non-terminal.
+   * @param mode FA.LEFT for '<-', FA.PRUNE for '<=' or FA.VOID for '<:'.
+   * @param expression The right-hand side of the rule.
+   */
+  public Rule(String name, int mode, Expression expression) {
+    this.name = name;
+    this.mode = mode;
+    this.expression = expression;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMode() {
+    return mode;
+  }
+
+  public Expression getExpression() {
+    return expression;
+  }
+
+  @Override
+  public String toString() {
+    String arrow = mode == FA.PRUNE ? "<=" : mode == FA.VOID ? "<:" : "<-";
+    return name + " " + arrow + " " + expression;
+  }
+
+}
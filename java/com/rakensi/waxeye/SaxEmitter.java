@@ -0,0 +1,280 @@
+package com.rakensi.waxeye;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.waxeye.ast.IAST;
+import org.waxeye.ast.IASTVisitor;
+import org.waxeye.ast.IChar;
+import org.waxeye.ast.IEmpty;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Sends a parse tree to a SAX content handler, as elements with start and end attributes.
+ *
+ * The parse tree may be a Waxeye tree, which is visited, or it may come from a DirectParser.
+ * The names of the elements are computed once for each node type, the attributes object is reused,
+ * and text is sent as slices of the character array of the fragment, without copying.
+ * When the fragment is the text of MixedContent, the markup is sent in place of its placeholders.
+ * Other elements in the same namespace, text and comments can be sent as well.
+ * The emitter counts the characters in the names, attribute values and text that it sends, for metrics.
+ * While a recording is set, the calls are also recorded, so that a FragmentCache can replay them later.
+ *
+ * An emitter is not thread-safe.
+ *
+ * @author Rakensi
+ */
+public final class SaxEmitter implements IASTVisitor, ParseTreeHandler {
+
+  private static final String CDATA = "CDATA";
+  private static final String START_ATTRIBUTE = "start";
+  private static final String END_ATTRIBUTE = "end";
+
+  private ContentHandler contentHandler;
+  private LexicalHandler lexicalHandler;
+  private String namespaceURI = "";
+  private String prefix = null;
+  /* The local name and qualified name for each node type. */
+  private final Map<Object, String[]> names = new IdentityHashMap<Object, String[]>();
+  private final AttributesImpl attributes = new AttributesImpl();
+  private char[] fragment;
+  private int fragmentOffset; /* The position in the fragment array that position 0 in the parse tree refers to. */
+  private MixedContent mixedContent; /* The markup that is sent in place of placeholders in the text, or null. */
+  private int textStart;
+  private int textEnd;
+  private long outputLength = 0;
+  private EmitterRecording recording = null; /* Records the calls, or null. */
+
+  /**
+   * Set where the events are sent.
+   */
+  public void setContentHandler(ContentHandler contentHandler) {
+    this.contentHandler = contentHandler;
+  }
+
+  /**
+   * Set where comments are sent, or null to leave out comments.
+   */
+  public void setLexicalHandler(LexicalHandler lexicalHandler) {
+    this.lexicalHandler = lexicalHandler;
+  }
+
+  /**
+   * Set the namespace of the elements.
+   * @param namespaceURI The namespace URI.
+   * @param prefix The namespace prefix, or null or the empty string for no prefix.
+   */
+  public void setNamespace(String namespaceURI, String prefix) {
+    if (!namespaceURI.equals(this.namespaceURI) || !(prefix == null ? this.prefix == null : prefix.equals(this.prefix))) {
+      this.namespaceURI = namespaceURI;
+      this.prefix = prefix;
+      names.clear();
+    }
+  }
+
+  /**
+   * Set the fragment that the positions in the parse tree refer to.
+   * The array is not copied, and must not change while the tree is sent.
+   */
+  public void setFragment(char[] fragment) {
+    setFragment(fragment, 0);
+  }
+
+  /**
+   * Set the fragment that the positions in the parse tree refer to, as a slice of an array that starts at an offset.
+   * The array is not copied, and must not change while the tree is sent.
+   */
+  public void setFragment(char[] fragment, int offset) {
+    setFragment(fragment, offset, null);
+  }
+
+  /**
+   * Set the fragment that the positions in the parse tree refer to, and the mixed content that it is the text of.
+   * The events of a markup are sent in place of its placeholder.
+   * @param mixedContent The mixed content, or null if the fragment is plain text.
+   */
+  public void setFragment(char[] fragment, int offset, MixedContent mixedContent) {
+    this.fragment = fragment;
+    this.fragmentOffset = offset;
+    this.mixedContent = mixedContent;
+  }
+
+  /* Set where calls are recorded, or null to stop recording. */
+  void setRecording(EmitterRecording recording) {
+    this.recording = recording;
+  }
+
+  /**
+   * The number of characters in the element names, attribute values, text and comments that have been sent.
+   */
+  public long getOutputLength() {
+    return outputLength;
+  }
+
+  /**
+   * Send a Waxeye parse tree.
+   */
+  public void emit(IAST<?> tree) throws SAXException {
+    textStart = textEnd = 0;
+    try {
+      tree.acceptASTVisitor(this);
+    } catch (EmitterException e) {
+      throw e.getCause();
+    }
+  }
+
+  public void startNode(Object type, int start, int end) throws SAXException {
+    String[] name = names(type);
+    String startValue = Integer.toString(start);
+    String endValue = Integer.toString(end);
+    attributes.clear();
+    attributes.addAttribute("", START_ATTRIBUTE, START_ATTRIBUTE, CDATA, startValue);
+    attributes.addAttribute("", END_ATTRIBUTE, END_ATTRIBUTE, CDATA, endValue);
+    outputLength += name[1].length() + startValue.length() + endValue.length();
+    if (recording != null) recording.startNode(type, start, end);
+    contentHandler.startElement(namespaceURI, name[0], name[1], attributes);
+  }
+
+  public void text(int start, int end) throws SAXException {
+    outputLength += end - start;
+    if (recording != null) recording.text(start, end);
+    if (mixedContent == null) {
+      contentHandler.characters(fragment, fragmentOffset + start, end - start);
+      return;
+    }
+    // Send the text up to each placeholder, and the markup in its place.
+    for (int markup = mixedContent.nextMarkup(start); start < end; ++markup) {
+      int next = markup < mixedContent.getMarkupCount() ? Math.min(end, mixedContent.getPosition(markup)) : end;
+      if (next > start) contentHandler.characters(fragment, fragmentOffset + start, next - start);
+      if (next < end) {
+        mixedContent.sendMarkup(markup, contentHandler, lexicalHandler);
+        ++next;
+      }
+      start = next;
+    }
+  }
+
+  public void endNode(Object type) throws SAXException {
+    String[] name = names(type);
+    outputLength += name[1].length();
+    if (recording != null) recording.endNode(type);
+    contentHandler.endElement(namespaceURI, name[0], name[1]);
+  }
+
+  /**
+   * Send the start of an element in the namespace.
+   * Names are cached by identity, so the local name should be a constant.
+   */
+  public void startElement(String localName, Attributes attributes) throws SAXException {
+    String[] name = names(localName);
+    outputLength += name[1].length();
+    for (int i = 0; i < attributes.getLength(); ++i) {
+      outputLength += attributes.getValue(i).length();
+    }
+    if (recording != null) recording.startElement(localName, attributes);
+    contentHandler.startElement(namespaceURI, name[0], name[1], attributes);
+  }
+
+  /**
+   * Send the end of an element in the namespace.
+   */
+  public void endElement(String localName) throws SAXException {
+    String[] name = names(localName);
+    outputLength += name[1].length();
+    if (recording != null) recording.endElement(localName);
+    contentHandler.endElement(namespaceURI, name[0], name[1]);
+  }
+
+  /**
+   * Send text that is not a slice of the fragment.
+   */
+  public void characters(String text) throws SAXException {
+    if (text.length() > 0) {
+      outputLength += text.length();
+      if (recording != null) recording.characters(text);
+      contentHandler.characters(text.toCharArray(), 0, text.length());
+    }
+  }
+
+  /**
+   * Send a comment, if there is a lexical handler.
+   */
+  public void comment(String text) throws SAXException {
+    if (recording != null) recording.comment(text);
+    if (lexicalHandler != null) {
+      outputLength += text.length();
+      lexicalHandler.comment(text.toCharArray(), 0, text.length());
+    }
+  }
+
+  /* Visiting a Waxeye tree. Characters with adjacent positions are sent together. */
+
+  public void visitAST(IAST<?> tree) {
+    try {
+      flushText();
+      startNode(tree.getType(), tree.getPosition().getStartIndex(), tree.getPosition().getEndIndex());
+      for (IAST<?> child : tree.getChildren()) {
+        child.acceptASTVisitor(this);
+      }
+      flushText();
+      endNode(tree.getType());
+    } catch (SAXException e) {
+      throw new EmitterException(e);
+    }
+  }
+
+  public void visitEmpty(IEmpty tree) {
+    try {
+      flushText();
+    } catch (SAXException e) {
+      throw new EmitterException(e);
+    }
+  }
+
+  public void visitChar(IChar tree) {
+    int pos = tree.getPos() - 1;
+    if (pos != textEnd || textEnd == textStart) {
+      try {
+        flushText();
+      } catch (SAXException e) {
+        throw new EmitterException(e);
+      }
+      textStart = pos;
+    }
+    textEnd = pos + 1;
+  }
+
+  private void flushText() throws SAXException {
+    if (textEnd > textStart) {
+      text(textStart, textEnd);
+    }
+    textStart = textEnd = 0;
+  }
+
+  private String[] names(Object type) {
+    String[] name = names.get(type);
+    if (name == null) {
+      String localName = type.toString();
+      name = new String[] {localName, prefix == null || prefix.length() == 0 ? localName : prefix + ':' + localName};
+      names.put(type, name);
+    }
+    return name;
+  }
+
+  /* Carries a SAXException through the visitor methods, which cannot throw it. */
+  private static final class EmitterException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    EmitterException(SAXException cause) {
+      super(cause);
+    }
+    @Override
+    public SAXException getCause() {
+      return (SAXException) super.getCause();
+    }
+  }
+
+}
@@ -0,0 +1,22 @@
+package com.rakensi.waxeye;
+
+/**
+ * The ways in which matches are found in a fragment.
+ *
+ * @author Rakensi
+ */
+public enum ScanMode {
+  /** Matches and unmatched text, the default. */
+  SCAN,
+  /** adjacentMatches: the fragment is a run of adjacent matches. */
+  ADJACENT,
+  /** completeMatch: the fragment is one match. */
+  COMPLETE;
+
+  /**
+   * The mode for the completeMatch and adjacentMatches settings. If completeMatch is true, adjacentMatches is ignored.
+   */
+  public static ScanMode of(boolean completeMatch, boolean adjacentMatches) {
+    return completeMatch ? COMPLETE : adjacentMatches ? ADJACENT : SCAN;
+  }
+}
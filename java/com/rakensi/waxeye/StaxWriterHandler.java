@@ -0,0 +1,109 @@
+package com.rakensi.waxeye;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Writes SAX events to an XMLStreamWriter.
+ *
+ * Elements are written with the prefix of their qualified name. Namespaces that are mapped with startPrefixMapping
+ * are declared on the next element; other namespaces must already be bound in the writer.
+ * Document events are ignored, so that the events can be written inside a larger document.
+ * An XMLStreamException is passed on inside a SAXException.
+ *
+ * @author Rakensi
+ */
+public final class StaxWriterHandler extends DefaultHandler implements LexicalHandler {
+
+  private final XMLStreamWriter writer;
+  /* Prefixes and namespace URIs to be declared on the next element. */
+  private final List<String> namespaces = new ArrayList<String>();
+
+  public StaxWriterHandler(XMLStreamWriter writer) {
+    this.writer = writer;
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) {
+    namespaces.add(prefix);
+    namespaces.add(uri);
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+    try {
+      int colon = qName.indexOf(':');
+      writer.writeStartElement(colon < 0 ? "" : qName.substring(0, colon), localName, uri);
+      for (int i = 0; i < namespaces.size(); i += 2) {
+        if (namespaces.get(i).length() == 0) {
+          writer.writeDefaultNamespace(namespaces.get(i + 1));
+        } else {
+          writer.writeNamespace(namespaces.get(i), namespaces.get(i + 1));
+        }
+      }
+      namespaces.clear();
+      for (int i = 0; i < attributes.getLength(); ++i) {
+        if (attributes.getURI(i).length() == 0) {
+          writer.writeAttribute(attributes.getLocalName(i), attributes.getValue(i));
+        } else {
+          writer.writeAttribute(attributes.getURI(i), attributes.getLocalName(i), attributes.getValue(i));
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    try {
+      writer.writeEndElement();
+    } catch (XMLStreamException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    try {
+      writer.writeCharacters(ch, start, length);
+    } catch (XMLStreamException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    try {
+      writer.writeComment(new String(ch, start, length));
+    } catch (XMLStreamException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  public void startDTD(String name, String publicId, String systemId) {
+  }
+
+  public void endDTD() {
+  }
+
+  public void startEntity(String name) {
+  }
+
+  public void endEntity(String name) {
+  }
+
+  public void startCDATA() {
+  }
+
+  public void endCDATA() {
+  }
+
+}
@@ -0,0 +1,33 @@
+package org.apache.cocoon.components.language.programming.java;
+
+import java.util.Map;
+
+/**
+ * A class loader for the classes of one generated parser, which have been compiled in memory.
+ * Each grammar gets its own class loader, so that generated classes with the same name do not clash,
+ * and so that the classes of a parser can be garbage-collected when the parser is no longer used.
+ */
+public class ParserClassLoader extends ClassLoader {
+
+  /** The class files, by binary class name. */
+  private final Map<String, byte[]> classes;
+
+  /**
+   * @param classes The class files, by binary class name.
+   * @param parent The class loader for all other classes, which must be able to load the Waxeye runtime.
+   */
+  public ParserClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+    super(parent);
+    this.classes = classes;
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    byte[] classBytes = classes.get(name);
+    if (classBytes == null) {
+      throw new ClassNotFoundException(name);
+    }
+    return defineClass(name, classBytes, 0, classBytes.length);
+  }
+
+}
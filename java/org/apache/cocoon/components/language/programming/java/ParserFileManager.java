@@ -0,0 +1,57 @@
+package org.apache.cocoon.components.language.programming.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * A Java file manager that keeps the compiled classes in memory instead of writing class files.
+ */
+public class ParserFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+  /** The class files, by binary class name. */
+  private final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+
+  public ParserFileManager(JavaFileManager fileManager) {
+    super(fileManager);
+  }
+
+  @Override
+  public JavaFileObject getJavaFileForOutput(Location location, final String className, Kind kind, FileObject sibling)
+      throws IOException {
+    if (kind != Kind.CLASS) {
+      return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+    return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+      @Override
+      public OutputStream openOutputStream() {
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        classes.put(className, classBytes);
+        return classBytes;
+      }
+    };
+  }
+
+  /**
+   * Get the compiled classes.
+   * @return The class files, by binary class name.
+   */
+  public Map<String, byte[]> getClasses() {
+    Map<String, byte[]> result = new HashMap<String, byte[]>();
+    for (Map.Entry<String, ByteArrayOutputStream> entry : classes.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toByteArray());
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,155 @@
+package org.apache.cocoon.components.language.programming.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * A persistent cache of compiled parsers, stored as jar files in a directory.
+ * Each jar contains the classes of one parser, and is named after the fingerprint of its grammar,
+ * so that identical grammars share the same jar, across sitemaps and restarts.
+ * A jar is written to a temporary file first and then renamed, so that a jar is either complete or absent.
+ */
+public class ParserJarCache {
+
+  /** The manifest attribute with the grammar that the parser was compiled from. */
+  public static final String GRAMMAR_ATTRIBUTE = "Waxeye-Grammar";
+  /** The manifest attribute with the fingerprint of the grammar. */
+  public static final String FINGERPRINT_ATTRIBUTE = "Waxeye-Grammar-Fingerprint";
+
+  private static final String CLASS_EXTENSION = ".class";
+
+  /** The directory containing the jars. */
+  private final File directory;
+
+  /**
+   * @param directory The directory containing the jars. It is created when the first jar is stored.
+   */
+  public ParserJarCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * The jar file for a fingerprint.
+   */
+  public File getJarFile(String fingerprint) {
+    return new File(directory, fingerprint + ".jar");
+  }
+
+  /**
+   * Get the classes of a cached parser.
+   * @param fingerprint The fingerprint of the grammar.
+   * @return The class files, by binary class name, or null if there is no parser with this fingerprint.
+   * @throws IOException if the jar exists but cannot be read.
+   */
+  public Map<String, byte[]> get(String fingerprint) throws IOException {
+    File jarFile = getJarFile(fingerprint);
+    if (!jarFile.isFile()) {
+      return null;
+    }
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    JarInputStream jar = new JarInputStream(new FileInputStream(jarFile));
+    try {
+      Manifest manifest = jar.getManifest();
+      if (manifest == null || !fingerprint.equals(manifest.getMainAttributes().getValue(FINGERPRINT_ATTRIBUTE))) {
+        return null;
+      }
+      for (JarEntry entry = jar.getNextJarEntry(); entry != null; entry = jar.getNextJarEntry()) {
+        String name = entry.getName();
+        if (name.endsWith(CLASS_EXTENSION)) {
+          String className = name.substring(0, name.length() - CLASS_EXTENSION.length()).replace('/', '.');
+          classes.put(className, readAll(jar));
+        }
+      }
+    } finally {
+      jar.close();
+    }
+    return classes;
+  }
+
+  /**
+   * Store the classes of a parser.
+   * @param fingerprint The fingerprint of the grammar.
+   * @param grammar The grammar, for information only.
+   * @param classes The class files, by binary class name.
+   * @throws IOException if the jar cannot be written.
+   */
+  public void put(String fingerprint, String grammar, Map<String, byte[]> classes) throws IOException {
+    if (!directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Unable to create directory ["+directory.getAbsolutePath()+"] for compiled parsers.");
+    }
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.putValue(GRAMMAR_ATTRIBUTE, grammar);
+    attributes.putValue(FINGERPRINT_ATTRIBUTE, fingerprint);
+    File tempFile = File.createTempFile(fingerprint, ".tmp", directory);
+    try {
+      JarOutputStream jar = new JarOutputStream(new FileOutputStream(tempFile), manifest);
+      try {
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+          jar.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + CLASS_EXTENSION));
+          jar.write(entry.getValue());
+          jar.closeEntry();
+        }
+      } finally {
+        jar.close();
+      }
+      try {
+        Files.move(tempFile.toPath(), getJarFile(fingerprint).toPath(),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), getJarFile(fingerprint).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  /**
+   * Read the class files in a directory, such as the output directory of the Java compiler.
+   * Only classes in the default package are read, like the classes generated by Waxeye.
+   * @return The class files, by binary class name.
+   */
+  public static Map<String, byte[]> readClassFiles(File directory) throws IOException {
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (file.isFile() && name.endsWith(CLASS_EXTENSION)) {
+          InputStream in = new FileInputStream(file);
+          try {
+            classes.put(name.substring(0, name.length() - CLASS_EXTENSION.length()), readAll(in));
+          } finally {
+            in.close();
+          }
+        }
+      }
+    }
+    return classes;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+      bytes.write(buffer, 0, n);
+    }
+    return bytes.toByteArray();
+  }
+
+}
@@ -2,8 +2,19 @@ package org.apache.cocoon.components.language.programming.java;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
 
 import org.apache.avalon.framework.activity.Disposable;
 import org.apache.avalon.framework.activity.Initializable;
@@ -45,6 +56,12 @@ public class ParserJavaLanguage extends CompiledProgrammingLanguage implements
   /** Source code version */
   private int compilerComplianceLevel;
 
+  /** The system classpath, which is resolved only once. */
+  private static volatile String resolvedSystemClasspath = null;
+
+  /** Expanded directory paths, so that library directories are scanned only once. */
+  private static final Map<String, String> expandedDirs = new ConcurrentHashMap<String, String>();
+
   /**
    * Return the language's canonical source file extension.
    * 
@@ -117,22 +134,29 @@ public class ParserJavaLanguage extends CompiledProgrammingLanguage implements
   }
 
   public void initialize() throws Exception {
+    // Initialize the classpath. The system classpath is resolved only once.
+    String systemClasspath = resolvedSystemClasspath;
+    if (systemClasspath == null) {
+      resolvedSystemClasspath = systemClasspath = resolveSystemClasspath();
+    }
+    this.classpath = ((super.classpath != null) ? File.pathSeparator
+        + super.classpath : "")
+        + systemClasspath;
+  }
 
-    // Initialize the classpath
+  private String resolveSystemClasspath() {
     String systemBootClasspath = System.getProperty("sun.boot.class.path");
     String systemClasspath = SystemUtils.JAVA_CLASS_PATH;
     String systemExtDirs = SystemUtils.JAVA_EXT_DIRS;
     String systemExtClasspath = null;
 
     try {
-      systemExtClasspath = expandDirs(systemExtDirs);
+      systemExtClasspath = (systemExtDirs != null) ? expandDirsOnce(systemExtDirs) : null;
     } catch (Exception e) {
       getLogger().warn("Could not expand Directory:" + systemExtDirs, e);
     }
 
-    this.classpath = ((super.classpath != null) ? File.pathSeparator
-        + super.classpath : "")
-        + ((systemBootClasspath != null) ? File.pathSeparator
+    return ((systemBootClasspath != null) ? File.pathSeparator
             + systemBootClasspath : "")
         + ((systemClasspath != null) ? File.pathSeparator + systemClasspath
             : "")
@@ -145,7 +169,7 @@ public class ParserJavaLanguage extends CompiledProgrammingLanguage implements
     if (pathFile.isFile()) {
       this.classpath += File.pathSeparator + path;
     } else if (pathFile.isDirectory()) {
-      this.classpath += File.pathSeparator + expandDirs(path);
+      this.classpath += File.pathSeparator + expandDirsOnce(path);
     }
   }
 
@@ -244,9 +268,71 @@ public class ParserJavaLanguage extends CompiledProgrammingLanguage implements
   }
 
   /**
-   * Unload a previously loaded class. This method simply reinstantiates the
-   * class loader to ensure that a new version of the same class will be
-   * correctly loaded in a future loading operation
+   * Compile source files into classes in memory, using the system Java compiler.
+   * The classes are not written to disk.
+   * The compiler compliance level is not used, because the classes are loaded by the JVM that compiles them.
+   * 
+   * @param names
+   *          The object programs base file names
+   * @param baseDirectory
+   *          The directory containing the source files
+   * @param encoding
+   *          The encoding expected in the source file or <code>null</code> if
+   *          it is the platform's default encoding
+   * @return The class files, by binary class name.
+   * @exception LanguageException
+   *              If an error occurs during compilation
+   */
+  protected Map<String, byte[]> compileInMemory(JavaCompiler javaCompiler, String[] names, File baseDirectory, String encoding)
+      throws LanguageException {
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    StandardJavaFileManager standardFileManager = javaCompiler.getStandardFileManager(diagnostics, null,
+        encoding != null ? Charset.forName(encoding) : null);
+    ParserFileManager fileManager = new ParserFileManager(standardFileManager);
+    File[] sourceFiles = new File[names.length];
+    for (int i = 0; i < names.length; ++i) {
+      sourceFiles[i] = new File(baseDirectory, names[i] + "." + getSourceExtension());
+    }
+    List<String> options = new ArrayList<String>();
+    options.add("-classpath");
+    options.add(this.classpath.replaceFirst("^\\" + File.pathSeparator + "+", ""));
+    if (encoding != null) {
+      options.add("-encoding");
+      options.add(encoding);
+    }
+    if (getLogger().isDebugEnabled()) {
+      getLogger().debug("Compiling in memory " + StringUtils.join(sourceFiles, ", "));
+    }
+    try {
+      Boolean success = javaCompiler.getTask(null, fileManager, diagnostics, options, null,
+          standardFileManager.getJavaFileObjects(sourceFiles)).call();
+      if (!success.booleanValue()) {
+        List<CompilerError> errors = new ArrayList<CompilerError>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+          if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+            String file = diagnostic.getSource() != null ? diagnostic.getSource().getName() : null;
+            int line = (int) diagnostic.getLineNumber();
+            int column = (int) diagnostic.getColumnNumber();
+            errors.add(new CompilerError(file, true, line, column, line, column, diagnostic.getMessage(null)));
+          }
+        }
+        throw new LanguageException("Error compiling ", StringUtils.join(sourceFiles, ", "),
+            errors.toArray(new CompilerError[errors.size()]));
+      }
+      return fileManager.getClasses();
+    } finally {
+      try {
+        fileManager.close();
+      } catch (IOException e) {
+        getLogger().warn("Error closing the Java file manager", e);
+      }
+    }
+  }
+
+  /**
+   * Unload a previously loaded class. Programs loaded by this language have a
+   * class loader of their own, which is unloaded with the program when it is
+   * not used anymore, so the shared class loader is not reinstantiated.
    * 
    * @param program
    *          A previously loaded class
@@ -254,7 +340,7 @@ public class ParserJavaLanguage extends CompiledProgrammingLanguage implements
    *              If an error occurs during unloading
    */
   public void doUnload(Object program) throws LanguageException {
-    this.classLoaderManager.reinstantiate();
+    // The class loader of the program is dropped with the program.
   }
 
   /**
@@ -269,6 +355,19 @@ public class ParserJavaLanguage extends CompiledProgrammingLanguage implements
     return XSLTExtension.escapeJavaString(constant);
   }
 
+  /**
+   * Expand a directory path or list of directory paths, like expandDirs,
+   * but remember the result so that the directories are scanned only once.
+   */
+  private String expandDirsOnce(String dirPaths) {
+    String expanded = expandedDirs.get(dirPaths);
+    if (expanded == null) {
+      expanded = expandDirs(dirPaths);
+      expandedDirs.put(dirPaths, expanded);
+    }
+    return expanded;
+  }
+
   /**
    * Expand a directory path or list of directory paths (File.pathSeparator
    * delimited) into a list of file paths of all the jar files in those
@@ -343,16 +442,35 @@ public class ParserJavaLanguage extends CompiledProgrammingLanguage implements
       }
     }
     
-    this.compile(filenames, baseDirectory, encoding);
     String filename = null;
     Class program = null;
+    Map<String, byte[]> classes = null;
+    JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
     
+    if (javaCompiler != null) {
+      // Compile in memory.
+      classes = this.compileInMemory(javaCompiler, filenames, baseDirectory, encoding);
+    } else {
+      // No system Java compiler (running on a JRE), compile to class files.
+      this.compile(filenames, baseDirectory, encoding);
+      try {
+        classes = ParserJarCache.readClassFiles(baseDirectory);
+      } catch (IOException e) {
+        throw new LanguageException("Could not read the class files in " + baseDirectory + ": " + e.getMessage());
+      }
+    }
+    // Load the classes in a class loader for this program only, so they are unloaded when the program is not used anymore.
+    ClassLoader programClassLoader = new ParserClassLoader(classes, ParserJavaLanguage.class.getClassLoader());
     for (int i = 0; i < filenames.length; ++i) {
       filename = filenames[i];
       if (this.deleteSources) {
         new File(baseDirectory, filename + "." + this.getSourceExtension()).delete();
       }
-      program = this.loadProgram(filename, baseDirectory);
+      try {
+        program = programClassLoader.loadClass(filename.replace(File.separatorChar, '.'));
+      } catch (ClassNotFoundException e) {
+        throw new LanguageException("Could not load class for program '" + filename + "': " + e.getMessage());
+      }
     }
 
     // Try to instantiate once to ensure there are no exceptions thrown in the constructor
@@ -371,7 +489,7 @@ public class ParserJavaLanguage extends CompiledProgrammingLanguage implements
       throw new LanguageException(message, e);
     }
 
-    return new ParserJavaProgram(program);
+    return new ParserJavaProgram(program, classes);
   }
   
 }
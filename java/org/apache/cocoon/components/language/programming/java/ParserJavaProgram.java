@@ -1,5 +1,7 @@
 package org.apache.cocoon.components.language.programming.java;
 
+import java.util.Map;
+
 import org.apache.avalon.excalibur.component.ComponentHandler;
 import org.apache.avalon.excalibur.component.LogkitLoggerManager;
 import org.apache.avalon.excalibur.component.RoleManager;
@@ -13,8 +15,16 @@ public class ParserJavaProgram implements Program {
 
   protected Class program;
 
+  /** The class files of the program, by binary class name. */
+  protected Map<String, byte[]> classes;
+
   public ParserJavaProgram(Class program) {
+      this(program, null);
+  }
+
+  public ParserJavaProgram(Class program, Map<String, byte[]> classes) {
       this.program = program;
+      this.classes = classes;
   }
 
   public String getName() {
@@ -40,4 +50,11 @@ public class ParserJavaProgram implements Program {
   public Class getProgram() {
     return this.program;
   }
+
+  /**
+   * The class files of the program, by binary class name, or null if they are not known.
+   */
+  public Map<String, byte[]> getClasses() {
+    return this.classes;
+  }
 }
@@ -0,0 +1,446 @@
+package org.apache.cocoon.transformation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.apache.avalon.framework.logger.Logger;
+import org.apache.cocoon.ProcessingException;
+import org.apache.cocoon.components.LifecycleHelper;
+import org.apache.cocoon.components.language.LanguageException;
+import org.apache.cocoon.components.language.programming.java.ParserClassLoader;
+import org.apache.cocoon.components.language.programming.java.ParserFileManager;
+import org.apache.cocoon.components.language.programming.java.ParserJarCache;
+import org.apache.cocoon.components.language.programming.java.ParserJavaLanguage;
+import org.apache.cocoon.components.language.programming.java.ParserJavaProgram;
+import org.apache.commons.lang.StringUtils;
+import org.waxeye.parser.Parser;
+
+import com.rakensi.waxeye.CompiledGrammar;
+import com.rakensi.waxeye.DescentParserGenerator;
+import com.rakensi.waxeye.DirectParser;
+import com.rakensi.waxeye.GrammarCompiler;
+import com.rakensi.waxeye.GrammarException;
+import com.rakensi.waxeye.GrammarFingerprint;
+import com.rakensi.waxeye.GrammarMetrics;
+import com.rakensi.waxeye.GrammarReader;
+import com.rakensi.waxeye.LoadedParser;
+import com.rakensi.waxeye.PrecompiledParsers;
+
+/**
+ * Loads the parser for a grammar file, for the WaxeyeParserTransformer.
+ *
+ * A parser that was precompiled when the project was built (see PrecompiledParsers) is used if it is on the class path.
+ * Otherwise the grammar is compiled in memory, or, if the Waxeye executable is set, the parser is generated by Waxeye,
+ * compiled and stored in a parser cache. The classes of each generated parser are loaded by a class loader
+ * of their own, so they can be unloaded when the parser is no longer used.
+ * With a descent parser, the DescentParserGenerator generates a parser for direct parsing as well,
+ * which is compiled, cached and loaded together with the parser that Waxeye generates,
+ * or compiled in memory with the system Java compiler when the grammar is compiled in memory.
+ * A loader does not refer to the transformer that made it, so it can load the grammar again in the background,
+ * while the transformer is used for other requests.
+ *
+ * @author Rakensi
+ */
+final class WaxeyeParserLoader {
+
+  private final String grammar; /* The grammar, as given in the sitemap, for messages. */
+  private final File grammarFile;
+  private final String grammarFilePath;
+  private final boolean modular;
+  private final GrammarMetrics metrics;
+  private final Logger logger;
+  private String waxeyePath = null; /* Path to the Waxeye executable, or null to compile the grammar in memory. */
+  private File parserCacheDir;
+  private File javaCodeDir; /* Directory to store Java sources and classes. */
+  private String classpath;
+  private LifecycleHelper lifecycleHelper;
+  private boolean descentParser = false; /* Generate and load a descent parser for direct parsing? */
+
+  /**
+   * A loader that compiles the grammar in memory.
+   * @param grammar The grammar, as given in the sitemap.
+   * @param grammarFile The grammar file.
+   * @param modular Is the grammar modular?
+   * @param metrics Records the compile and load times.
+   */
+  WaxeyeParserLoader(String grammar, File grammarFile, boolean modular, GrammarMetrics metrics, Logger logger) {
+    this.grammar = grammar;
+    this.grammarFile = grammarFile;
+    this.grammarFilePath = grammarFile.getPath();
+    this.modular = modular;
+    this.metrics = metrics;
+    this.logger = logger;
+  }
+
+  /**
+   * Generate the parser with the Waxeye executable, instead of compiling the grammar in memory.
+   * @param waxeyePath The Waxeye executable.
+   * @param parserCacheDir Where compiled parsers are stored.
+   * @param javaCodeDir Where the Java code of the parser is generated.
+   * @param classpath The class path for compiling the Java code.
+   * @param lifecycleHelper Sets up the Java language component.
+   */
+  void setWaxeye(String waxeyePath, File parserCacheDir, File javaCodeDir, String classpath, LifecycleHelper lifecycleHelper) {
+    this.waxeyePath = waxeyePath;
+    this.parserCacheDir = parserCacheDir;
+    this.javaCodeDir = javaCodeDir;
+    this.classpath = classpath;
+    this.lifecycleHelper = lifecycleHelper;
+  }
+
+  /**
+   * Generate a descent parser for direct parsing, together with the parser that Waxeye generates,
+   * and use the descent parser of a precompiled parser if it has one.
+   * Without the Waxeye executable, the descent parser is compiled in memory by the system Java compiler;
+   * if there is none, a warning is logged, and the automata are interpreted.
+   */
+  void setDescentParser(boolean descentParser) {
+    this.descentParser = descentParser;
+  }
+
+  /**
+   * Load the parser that was precompiled when the project was built, if it is on the class path.
+   * Otherwise, generate and load the parser, or load it from the parser cache if a parser with the same fingerprint
+   * was compiled before. Without a Waxeye executable, the grammar is compiled in memory.
+   * This is called by only one thread at a time for the same grammar.
+   * @param fingerprint The fingerprint of the grammar files, which the loaded parser carries.
+   * @result The loaded parser.
+   */
+  LoadedParser load(String fingerprint) throws ProcessingException, IOException {
+    LoadedParser precompiledParser = loadPrecompiledParser(fingerprint);
+    if (precompiledParser != null) {
+      return precompiledParser;
+    }
+    if (waxeyePath == null) {
+      CompiledGrammar compiledGrammar = compileGrammarInMemory();
+      return new LoadedParser(compiledGrammar.newParser(), compiledGrammar,
+                              descentParser ? compileDescentParserInMemory(compiledGrammar) : null, fingerprint);
+    }
+    ParserJarCache parserCache = new ParserJarCache(parserCacheDir);
+    Map<String, byte[]> cachedClasses = parserCache.get(fingerprint);
+    if (cachedClasses != null) {
+      logger.info("Re-using compiled parser "+parserCache.getJarFile(fingerprint)+" for waxeye grammar: "+grammarFilePath);
+      long startTime = System.currentTimeMillis();
+      LoadedParser cachedParser = instantiateParser(cachedClasses, fingerprint);
+      metrics.loaded(System.currentTimeMillis()-startTime);
+      return cachedParser;
+    }
+    logger.info("Parser code must be generated for waxeye grammar: "+grammarFilePath);
+    long startTime = System.currentTimeMillis();
+    compileGrammar();
+    CompiledGrammar compiledGrammar = analyseGrammar();
+    boolean withDescentParser = descentParser && compiledGrammar != null;
+    if (withDescentParser) {
+      DescentParserGenerator.write(compiledGrammar, javaCodeDir);
+    }
+    long elapsedTime = System.currentTimeMillis()-startTime;
+    logger.info("Generating the parser for "+grammar+" took "+elapsedTime+" milliseconds.");
+    metrics.compiled(elapsedTime);
+    /* Compile the generated Java code and load the parser. */
+    startTime = System.currentTimeMillis();
+    ParserJavaProgram parserProgram = loadParser(withDescentParser);
+    Class<?> parserClass = parserProgram.getProgram();
+    LoadedParser loadedParser = new LoadedParser(newParser(parserClass), compiledGrammar,
+                                                 descentParserClass(parserClass.getClassLoader(), compiledGrammar), fingerprint);
+    elapsedTime = System.currentTimeMillis()-startTime;
+    logger.info("Loading the parser for "+grammar+" took "+elapsedTime+" milliseconds.");
+    metrics.loaded(elapsedTime);
+    /* Store the compiled classes, so that the next time the parser does not need to be compiled. */
+    try {
+      parserCache.put(fingerprint, grammarFilePath, parserProgram.getClasses());
+    } catch (IOException e) {
+      logger.warn("Could not store the compiled parser for "+this.grammar, e);
+    }
+    return loadedParser;
+  }
+
+  /* Load the parser that was precompiled when the project was built, if it is on the class path.
+   * @result The loaded parser, or null if there is no precompiled parser for the current grammar files.
+   */
+  private LoadedParser loadPrecompiledParser(String fingerprint) throws ProcessingException, IOException {
+    String grammarName = PrecompiledParsers.grammarName(grammarFile);
+    String hash = PrecompiledParsers.hash(grammarFiles(), modular);
+    long startTime = System.currentTimeMillis();
+    Map<String, byte[]> classes = PrecompiledParsers.find(WaxeyeParserLoader.class.getClassLoader(), grammarName, hash);
+    if (classes == null) {
+      logger.debug("There is no precompiled parser "+PrecompiledParsers.resourceName(grammarName, hash)+" on the class path.");
+      return null;
+    }
+    logger.info("Using the precompiled parser "+PrecompiledParsers.resourceName(grammarName, hash)+" for waxeye grammar: "+grammarFilePath);
+    LoadedParser precompiledParser = instantiateParser(classes, fingerprint);
+    metrics.loaded(System.currentTimeMillis()-startTime);
+    return precompiledParser;
+  }
+
+  /**
+   * Determine the fingerprint of the grammar, from the contents of the grammar file, the sub-grammar files,
+   * the Waxeye runtime, and the way the grammar is compiled.
+   * @param grammarFiles The grammar file and the sub-grammar files.
+   */
+  String fingerprint(List<File> grammarFiles) throws ProcessingException {
+    List<File> files = new ArrayList<File>(grammarFiles);
+    if (waxeyePath != null) {
+      // The Waxeye executable determines the generated code.
+      files.add(new File(waxeyePath));
+    }
+    try {
+      return GrammarFingerprint.of(files, settings());
+    } catch (IOException e) {
+      throw new ProcessingException("Cannot read the grammar "+grammarFile, e);
+    }
+  }
+
+  /**
+   * The settings that determine which parser is loaded for the grammar, without the contents of the grammar files.
+   * Loaders with different settings load different parsers for the same grammar file.
+   */
+  String settings() {
+    String settings;
+    if (waxeyePath == null) {
+      settings = "compiler=in-memory";
+    } else {
+      settings = "compiler=waxeye;waxeye="+waxeyePath+";java="+System.getProperty("java.specification.version");
+    }
+    settings += ";modular="+modular;
+    if (descentParser) {
+      // The cached parser must have a descent parser.
+      settings += ";descent="+DescentParserGenerator.FORMAT_VERSION;
+    }
+    return settings;
+  }
+
+  /**
+   * Determine the grammar file and the sub-grammar files.
+   * @result The grammar file, followed by the sub-grammar files of a modular grammar.
+   */
+  List<File> grammarFiles() throws ProcessingException {
+    try {
+      return GrammarFingerprint.grammarFiles(grammarFile, modular);
+    } catch (IOException e) {
+      throw new ProcessingException("Cannot read the grammar "+grammarFile, e);
+    }
+  }
+
+  /* Compile the Waxeye grammar into automata in memory, without the Waxeye executable.
+   * @result The compiled grammar, which makes parsers that interpret the automata.
+   */
+  private CompiledGrammar compileGrammarInMemory() throws ProcessingException, IOException {
+    logger.info("Compiling waxeye grammar in memory: "+grammarFilePath);
+    long startTime = System.currentTimeMillis();
+    CompiledGrammar compiledGrammar;
+    try {
+      compiledGrammar = GrammarCompiler.compile(GrammarReader.read(grammarFile, modular));
+    } catch (GrammarException e) {
+      throw new ProcessingException("Error compiling waxeye grammar: "+e.getMessage(), e);
+    }
+    long elapsedTime = System.currentTimeMillis()-startTime;
+    logger.info("Compiling the parser for "+grammar+" took "+elapsedTime+" milliseconds.");
+    metrics.compiled(elapsedTime);
+    return compiledGrammar;
+  }
+
+  /* Generate the descent parser for a grammar that is compiled in memory, and compile it with the system Java compiler.
+   * The class files are kept in memory, and loaded by a class loader of their own.
+   * @result The class of the descent parser, or null to interpret the automata of the grammar,
+   *         if there is no system Java compiler or the descent parser cannot be compiled.
+   */
+  private Class<? extends DirectParser> compileDescentParserInMemory(CompiledGrammar compiledGrammar) {
+    JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+    if (javaCompiler == null) {
+      logger.warn("There is no system Java compiler (running on a JRE), so the descent parser for "+grammar+
+                  " is not compiled, and its automata will be interpreted.");
+      return null;
+    }
+    long startTime = System.currentTimeMillis();
+    final String code = DescentParserGenerator.generate(compiledGrammar);
+    JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///"+DescentParserGenerator.CLASS_NAME+
+                                                                JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return code;
+      }
+    };
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    ParserFileManager fileManager = new ParserFileManager(javaCompiler.getStandardFileManager(diagnostics, null, null));
+    List<String> options = Arrays.asList("-nowarn", "-classpath", descentParserClasspath());
+    try {
+      if (!javaCompiler.getTask(null, fileManager, diagnostics, options, null, Collections.singletonList(source)).call()) {
+        logger.warn("The descent parser for "+grammar+" cannot be compiled, so its automata will be interpreted: "+
+                    diagnostics.getDiagnostics());
+        return null;
+      }
+      ClassLoader parserClassLoader = new ParserClassLoader(fileManager.getClasses(), ParserJavaLanguage.class.getClassLoader());
+      Class<? extends DirectParser> descentParserClass = descentParserClass(parserClassLoader, compiledGrammar);
+      logger.info("Compiling the descent parser for "+grammar+" took "+(System.currentTimeMillis()-startTime)+" milliseconds.");
+      return descentParserClass;
+    } finally {
+      try {
+        fileManager.close();
+      } catch (IOException e) {
+        logger.warn("Error closing the Java file manager", e);
+      }
+    }
+  }
+
+  /* The class path for compiling a descent parser: the system class path, and the locations of the classes
+   * of the transformer and of the Waxeye runtime, which are not on the system class path in a web application.
+   */
+  private static String descentParserClasspath() {
+    StringBuilder classpath = new StringBuilder(System.getProperty("java.class.path", ""));
+    for (Class<?> c : new Class<?>[] {DirectParser.class, Parser.class}) {
+      CodeSource codeSource = c.getProtectionDomain().getCodeSource();
+      if (codeSource == null || codeSource.getLocation() == null || !"file".equals(codeSource.getLocation().getProtocol())) continue;
+      try {
+        classpath.append(File.pathSeparator).append(new File(codeSource.getLocation().toURI()).getPath());
+      } catch (URISyntaxException e) {
+        // Not a file; the class may still be on the system class path.
+      }
+    }
+    return classpath.toString();
+  }
+
+  /* Compile the Waxeye grammar in memory for analysis only, when the parser is generated by the Waxeye executable.
+   * @result The compiled grammar, or null if the grammar cannot be compiled in memory.
+   */
+  private CompiledGrammar analyseGrammar() {
+    try {
+      return GrammarCompiler.compile(GrammarReader.read(grammarFile, modular));
+    } catch (Exception e) {
+      logger.info("The waxeye grammar "+grammarFilePath+" cannot be analysed, so all positions will be parsed: "+e.getMessage());
+      return null;
+    }
+  }
+
+  /* Compile the Waxeye grammar into Java code using the Waxeye executable.
+   * This produces .java source-code files.
+   */
+  private void compileGrammar() throws ProcessingException {
+    String javaCodeDirPath = javaCodeDir.getAbsolutePath();
+    if (!javaCodeDir.mkdirs() && !javaCodeDir.exists()) {
+      throw new ProcessingException("Unable to create directory ["+javaCodeDirPath+"] for Waxeye java files.");
+    }
+    /* Compile the grammar into Java code. */
+    // The String[] waxeyeCommand must not contain empty strings, which will give an empty argument on OSX.
+    String[] waxeyeCommand;
+    if (modular)
+      waxeyeCommand = new String[]{waxeyePath, "-g", "java", javaCodeDirPath, "-m", grammarFilePath};
+    else
+      waxeyeCommand = new String[]{waxeyePath, "-g", "java", javaCodeDirPath, grammarFilePath};
+    logger.info("Compiling waxeye grammar: "+StringUtils.join(waxeyeCommand, " "));
+    String waxeyeOutput = "";
+    try {
+      Process waxeye = new ProcessBuilder(waxeyeCommand).redirectErrorStream(true).start();
+      BufferedReader waxeyeOutputReader = new BufferedReader(new InputStreamReader(waxeye.getInputStream()));
+      for (String line = waxeyeOutputReader.readLine(); line != null; line = waxeyeOutputReader.readLine()) {
+        waxeyeOutput += line+"\n";
+      }
+      waxeye.waitFor();
+      if (waxeye.exitValue() != 0) {
+        throw new ProcessingException("Waxeye process exited with error code: "+waxeye.exitValue());
+      }
+    } catch (Throwable ex) {
+      throw new ProcessingException("Error compiling waxeye grammar: "+ex.getMessage()+"\n"+waxeyeOutput, ex);
+    }
+    logger.info(waxeyeOutput);
+  }
+
+  /* Compile the Java files for the grammar and load the class-files.
+   * @param withDescentParser Is there a generated descent parser?
+   * @result The loaded program, which has the Parser class.
+   */
+  private ParserJavaProgram loadParser(boolean withDescentParser) throws ProcessingException {
+    /* Compile the Java files into a class. */
+    ParserJavaLanguage java = new ParserJavaLanguage();
+    try {
+      lifecycleHelper.setupComponent(java);
+    } catch (Exception e) {
+      throw new ProcessingException("Error setting up the JavaLanguage component.", e);
+    }
+    java.addClasspath(classpath);
+    ParserJavaProgram parserClass;
+    try {
+      // The load method compiles (if necessary) and loads. The program is the last class, which must be Parser.
+      String[] classNames = withDescentParser ? new String[] {DescentParserGenerator.CLASS_NAME, "Type", "Parser"}
+                                              : new String[] {"Type", "Parser"};
+      parserClass = java.load(classNames, javaCodeDir, "UTF-8");
+    } catch (LanguageException e) {
+      throw new ProcessingException("Error compiling or loading the parser.", e);
+    }
+    try {
+      LifecycleHelper.decommission(java);
+    } catch (Exception e) {
+      throw new ProcessingException("Can't stop Java!", e);
+    }
+    return parserClass;
+  }
+
+  /* Load the classes of a compiled parser, and make an instance of the Parser class, with the analysed grammar
+   * and the descent parser, if there is one.
+   * A parser that was precompiled without the Waxeye executable has no Parser class; then the compiled grammar is the parser.
+   */
+  private LoadedParser instantiateParser(Map<String, byte[]> classes, String fingerprint) throws ProcessingException {
+    ClassLoader parserClassLoader = new ParserClassLoader(classes, ParserJavaLanguage.class.getClassLoader());
+    CompiledGrammar compiledGrammar = analyseGrammar();
+    Parser<?> parser;
+    if (classes.containsKey("Parser")) {
+      try {
+        parser = newParser(parserClassLoader.loadClass("Parser"));
+      } catch (ClassNotFoundException e) {
+        throw new ProcessingException("The compiled parser for "+grammar+" has no Parser class.", e);
+      }
+    } else if (compiledGrammar != null) {
+      parser = compiledGrammar.newParser();
+    } else {
+      throw new ProcessingException("The compiled parser for "+grammar+" has no Parser class, and the grammar cannot be compiled in memory.");
+    }
+    return new LoadedParser(parser, compiledGrammar, descentParserClass(parserClassLoader, compiledGrammar), fingerprint);
+  }
+
+  /* The generated descent parser for the compiled grammar, if it is used and the compiled parser has one.
+   * @result The class of the descent parser, or null to interpret the automata of the grammar.
+   */
+  private Class<? extends DirectParser> descentParserClass(ClassLoader parserClassLoader, CompiledGrammar compiledGrammar) {
+    if (!descentParser || compiledGrammar == null) {
+      return null;
+    }
+    Class<?> descentParserClass;
+    try {
+      descentParserClass = parserClassLoader.loadClass(DescentParserGenerator.CLASS_NAME);
+    } catch (ClassNotFoundException e) {
+      logger.info("The compiled parser for "+grammar+" has no descent parser, so its automata will be interpreted.");
+      return null;
+    }
+    if (!DescentParserGenerator.isGeneratedFor(descentParserClass, compiledGrammar)) {
+      logger.warn("The descent parser for "+grammar+" was generated for another version of the grammar, so it is not used.");
+      return null;
+    }
+    return descentParserClass.asSubclass(DirectParser.class);
+  }
+
+  /* Make an instance of a generated Parser class. */
+  private Parser<?> newParser(Class<?> parserClass) throws ProcessingException {
+    try {
+      return (Parser<?>)parserClass.newInstance();
+    } catch (Throwable e) {
+      throw new ProcessingException("Error instantiating the generated Java Parser class.", e);
+    }
+  }
+
+
+}
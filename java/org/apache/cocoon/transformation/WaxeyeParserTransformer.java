@@ -1,16 +1,19 @@
 package org.apache.cocoon.transformation;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.Serializable;
 import java.net.MalformedURLException;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.xml.transform.OutputKeys;
 
@@ -19,41 +22,65 @@ import org.apache.avalon.framework.configuration.ConfigurationException;
 import org.apache.avalon.framework.context.Context;
 import org.apache.avalon.framework.context.ContextException;
 import org.apache.avalon.framework.context.Contextualizable;
+import org.apache.avalon.framework.logger.Logger;
 import org.apache.avalon.framework.parameters.ParameterException;
 import org.apache.avalon.framework.parameters.Parameterizable;
 import org.apache.avalon.framework.parameters.Parameters;
 import org.apache.cocoon.Constants;
 import org.apache.cocoon.ProcessingException;
+import org.apache.cocoon.caching.CacheableProcessingComponent;
 import org.apache.cocoon.components.LifecycleHelper;
-import org.apache.cocoon.components.language.LanguageException;
-import org.apache.cocoon.components.language.programming.java.ParserJavaLanguage;
-import org.apache.cocoon.components.language.programming.java.ParserJavaProgram;
 import org.apache.cocoon.environment.SourceResolver;
-import org.apache.cocoon.xml.AttributesImpl;
+import org.apache.cocoon.xml.SaxBuffer;
 import org.apache.commons.lang.StringUtils;
 import org.apache.excalibur.source.Source;
 import org.apache.excalibur.source.SourceException;
-import org.waxeye.ast.IAST;
-import org.waxeye.ast.IASTVisitor;
-import org.waxeye.ast.IChar;
-import org.waxeye.ast.IEmpty;
-import org.waxeye.ast.Position;
-import org.waxeye.input.InputBuffer;
-import org.waxeye.parser.ParseError;
-import org.waxeye.parser.ParseResult;
-import org.waxeye.parser.Parser;
+import org.apache.excalibur.source.SourceValidity;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
 
-import com.rakensi.AsciiUtils;
+import com.rakensi.waxeye.CompiledGrammar;
+import com.rakensi.waxeye.DirectParser;
+import com.rakensi.waxeye.FragmentCache;
+import com.rakensi.waxeye.FragmentScanner;
+import com.rakensi.waxeye.GrammarMetrics;
+import com.rakensi.waxeye.GrammarWatcher;
+import com.rakensi.waxeye.LoadedParser;
+import com.rakensi.waxeye.MemoPolicy;
+import com.rakensi.waxeye.MixedContent;
+import com.rakensi.waxeye.ParseEngine;
+import com.rakensi.waxeye.ParserStore;
+import com.rakensi.waxeye.ParsingException;
+import com.rakensi.waxeye.SaxEmitter;
+import com.rakensi.waxeye.ScanMode;
 
 /**
  * A transformer that parses its input using Waxeye.
  * 
  * The transformer takes the following configuration parameters:
  * <ul>
- *   <li>waxeye.bin The location of the Waxeye binary.</li>
+ *   <li>waxeye.bin The location of the Waxeye binary.
+ *       If this is not given, grammars are compiled in memory by the GrammarCompiler,
+ *       without the Waxeye binary and without generating and compiling Java code.
+ *       In both cases, a parser that was precompiled when the project was built is used if it is on the class path
+ *       and the grammar has not changed since (see PrecompiledParsers).</li>
+ *   <li>descentParser Set to true to let directSAX use a recursive-descent parser that is generated for the grammar
+ *       by the DescentParserGenerator, with a method for each rule, instead of interpreting the automata of the grammar.
+ *       The output is the same. The descent parser is used with waxeye.bin, where it is compiled together with the parser
+ *       that Waxeye generates; without waxeye.bin, where it is compiled in memory by the system Java compiler;
+ *       and with precompiled parsers, which contain it. Without a JDK, a grammar that is compiled in memory
+ *       has no descent parser: a warning is logged and the automata are interpreted. (Default is false.)</li>
+ *   <li>fragmentCacheSize The memory for cached output of short fragments, in kilobytes.
+ *       The cache is shared by all instances, and has the size of the first instance that is configured with it.
+ *       (Default is 0, which means that fragments are not cached.)</li>
+ *   <li>fragmentCacheMaxLength The maximum length of a fragment that is cached. (Default is 256 characters.)</li>
+ *   <li>watchGrammars Set to true to reload a grammar in the background when the grammar file or a sub-grammar file changes,
+ *       so that the next request does not wait for the new parser. Parses that are in progress finish with the old parser.
+ *       Requests then use the loaded parser without reading the grammar files. If a reload fails, the old parser stays in use
+ *       until the grammar changes again.
+ *       Without this, a changed grammar is loaded by the first request that uses it. (Default is false.)</li>
  * </ul>
  * 
  * The grammar is given as the src attribute of the map:transform element.
@@ -69,8 +96,36 @@ import com.rakensi.AsciiUtils;
  *   <li>showParseTree Set to true to show the parse tree in an XML comment in the output. (Default is false.)</li>
  *   <li>keepXML If true, the XML in the trigger element is serialized and passed as the input to the scanner.
  *       Otherwise only the text from parsed fragments is kept.</li>
+ *   <li>mixedContent If true, the elements, comments and processing instructions in the trigger element are kept
+ *       without serializing them. Each of them appears to the grammar as one placeholder character, U+FFFC,
+ *       and its events are sent in place of the placeholder in the output, in matches and in unmatched text
+ *       (see MixedContent). This is faster than keepXML, and keeps namespace declarations intact.
+ *       keepXML is ignored if this is true. (Default is false.)</li>
  *   <li>toASCII Set to true if characters in the input must be converted to low ASCII characters, removing diacrites and ligatures.
+ *       Each character is converted to one character while it is parsed, so positions refer to the original text.
  *       (Default is false.)</li>
+ *   <li>directSAX Set to true to send SAX events directly from the parser, without building a Waxeye parse tree.
+ *       This is not done if showParseTree is true, or if the grammar cannot be compiled in memory.
+ *       (Default is false.)</li>
+ *   <li>unmemoizedRules With directSAX, a comma-separated list of rules whose results are not memoized,
+ *       because matching them again is cheaper. Rules that only match characters are never memoized.</li>
+ *   <li>memoLimit With directSAX, the maximum number of memoized results, to bound the memory used for large fragments.
+ *       When the limit is reached, results before the last match of a rule that the start rule refers to are dropped,
+ *       and if that is not enough, all results are dropped and matched again when needed.
+ *       The records of the parse trees are limited in proportion, by dropping those of earlier matches. (Default is 0, no limit.)</li>
+ *   <li>streaming Set to true to parse the text of the trigger element while it comes in, instead of recording it first.
+ *       Matches and unmatched text are sent as soon as they are final. This is not done if keepXML or mixedContent is true.
+ *       (Default is false.)</li>
+ *   <li>parallel Set to true to parse recorded trigger elements on worker threads, one thread per processor.
+ *       The output is buffered and sent in document order. (Default is false.)</li>
+ *   <li>parallelFragments With parallel, the maximum number of trigger elements that are parsed or buffered at the same time.
+ *       (Default is four per processor.)</li>
+ *   <li>chunkSeparator With adjacentMatches and directSAX, a string after which a top-level match can start, like a record separator.
+ *       A large fragment is then split into chunks after separators, which are parsed in parallel.
+ *       Where the matches of a chunk do not line up with the matches before it, the text is parsed again, so the result is the same.</li>
+ *   <li>chunkLength With chunkSeparator, the approximate length of a chunk. (Default is 1048576 characters.)</li>
+ *   <li>parallelChunks With chunkSeparator, the maximum number of chunks of a fragment that are parsed or buffered at the same time.
+ *       (Default is two per processor.)</li>
  * </ul>
  * If `completeMatch` is true, `adjacentMatches` is ignored because there must be only one match.
  * If `adjacentMatches` is true, there may be multiple adjacent matched fragments, but no unmatched text.
@@ -78,16 +133,28 @@ import com.rakensi.AsciiUtils;
  * the result is a mix of unmatched text and an arbitrary number of matched fragments.
  * In this case, no parsing errors will be generated, and `parseErrors` is ignored.
  * 
+ * The transformer is cacheable. The cache key contains the grammar, the fingerprint of the parser that is used,
+ * and the parameters that change the output; the cached output is valid as long as that parser is used for the grammar.
+ * While a changed grammar is being loaded, the previous parser is used, and its output is cached under its own fingerprint.
+ * 
+ * The text is parsed by a ParseEngine, which does not depend on Cocoon.
+ * Metrics for loading each grammar and for parsing with it in each mode are kept in GrammarMetrics,
+ * which registers them as MXBeans.
+ * 
  * @author Rakensi
  * This code is part of the "Link eXtractor", a project of the Publications Office of the Netherlands.
  */
 
 public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer 
-  implements Contextualizable, Parameterizable
+  implements Contextualizable, Parameterizable, CacheableProcessingComponent
 {
   
   public static final String LINKEXTRACTOR_NAMESPACE_URI = "http://linkeddata.overheid.nl/lx/";
   public static final String WAXEYE_BIN_PARAMETER_NAME = "waxeye.bin";
+  public static final String FRAGMENT_CACHE_SIZE_PARAMETER_NAME = "fragmentCacheSize";
+  public static final String FRAGMENT_CACHE_MAX_LENGTH_PARAMETER_NAME = "fragmentCacheMaxLength";
+  public static final String WATCH_GRAMMARS_PARAMETER_NAME = "watchGrammars";
+  public static final String DESCENT_PARSER_PARAMETER_NAME = "descentParser";
   public static final String DEFAULT_PARSE_ELEMENT_TAG = "parse";
   public static final String PARSE_ELEMENT_TAG_PARAMETER_NAME = "parseElementTag";
   public static final String COMPLETE_MATCH_PARAMETER_NAME = "completeMatch";
@@ -96,12 +163,32 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
   public static final String SHOW_PARSE_TREE_PARAMETER_NAME = "showParseTree";
   public static final String MODULAR_PARAMETER_NAME = "modular";
   public static final String KEEP_XML_PARAMETER_NAME = "keepXML";
+  public static final String MIXED_CONTENT_PARAMETER_NAME = "mixedContent";
   public static final String TO_ASCII_PARAMETER_NAME = "toASCII";
-  public static final String ERROR_ELEMENT_TAG = "ERROR";
-  public static final String MARKER_ELEMENT_TAG = "ERROR_POSITION";
+  public static final String STREAMING_PARAMETER_NAME = "streaming";
+  public static final String DIRECT_SAX_PARAMETER_NAME = "directSAX";
+  public static final String UNMEMOIZED_RULES_PARAMETER_NAME = "unmemoizedRules";
+  public static final String MEMO_LIMIT_PARAMETER_NAME = "memoLimit";
+  public static final String PARALLEL_PARAMETER_NAME = "parallel";
+  public static final String PARALLEL_FRAGMENTS_PARAMETER_NAME = "parallelFragments";
+  public static final String CHUNK_SEPARATOR_PARAMETER_NAME = "chunkSeparator";
+  public static final String CHUNK_LENGTH_PARAMETER_NAME = "chunkLength";
+  public static final String PARALLEL_CHUNKS_PARAMETER_NAME = "parallelChunks";
+  public static final String ERROR_ELEMENT_TAG = ParseEngine.ERROR_ELEMENT_TAG;
+  public static final String MARKER_ELEMENT_TAG = ParseEngine.MARKER_ELEMENT_TAG;
+  public static final String PARSER_CACHE_DIR = "waxeye-parsers";
+  private static final int PARALLEL_THREADS = Runtime.getRuntime().availableProcessors();
 
   // The global Parser store, mapping grammars to Parsers.
-  private static Map<String, Parser<?>> parserStore = new HashMap<String, Parser<?>>();
+  private static final ParserStore<LoadedParser> parserStore = new ParserStore<LoadedParser>();
+  // The cache of the output of short fragments, created when the first instance that uses it is configured.
+  private static FragmentCache fragmentCache;
+  // Reloads changed grammars in the background, started when the first instance that watches grammars is set up.
+  private static GrammarWatcher grammarWatcher;
+  // The worker threads for parallel parsing, created when they are first needed.
+  private static ExecutorService parallelExecutor;
+  // The direct parser of each worker thread.
+  private static final ThreadLocal<DirectParser> workerParsers = new ThreadLocal<DirectParser>();
 
   private String parseElementTag = null;
   private boolean modular;
@@ -110,14 +197,38 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
   private boolean parseErrors;
   private boolean showParseTree;
   private boolean keepXML = false;
+  private boolean mixedContent = false;
   private boolean toASCII = false;
+  private boolean streaming = false;
+  private boolean directSAX = false;
+  private List<String> unmemoizedRules;
+  private int memoLimit;
+  private boolean parallel = false;
+  private int maxParallelFragments;
+  private String chunkSeparator; /* Separates records where a top-level match can start, or null. */
+  private int chunkLength;
+  private int maxParallelChunks;
   private String grammar = null;
   private Source grammarSource = null;
-  private String waxeyePath; /* Path to the Waxeye executable. */
+  private String grammarPath; /* The canonical path of the grammar file. */
+  private String parserKey; /* The key of the parser in the parser store: the grammar path and the settings. */
+  private String waxeyePath; /* Path to the Waxeye executable, or null to compile grammars in memory. */
+  private FragmentCache engineFragmentCache; /* The fragment cache, or null if fragments are not cached. */
+  private boolean watchGrammars; /* Reload grammars in the background when they change? */
+  private boolean descentParser; /* Generate descent parsers for directSAX? */
   private File workDir; /* The working directory. */
   private File javaCodeDir; /* Directory to store Java sources and classes. */
-  private Parser<?> parser;
+  private ParseEngine engine; /* Parses the fragments. */
+  private DirectParser directParser; /* Parses without building a parse tree, or null to use the parser. */
+  private GrammarMetrics metrics; /* The metrics of the grammar. */
+  private final SaxEmitter emitter = new SaxEmitter();
+  private String namespacePrefix; /* The prefix of the namespace of the generated elements, if it has been declared. */
   private int isParsing;
+  private FragmentScanner scanner; /* Scans the text of the trigger element while streaming, otherwise null. */
+  private MixedContent recordedContent; /* Records the content of the trigger element with mixedContent, otherwise null. */
+  private final LinkedList<FragmentTask> pendingFragments = new LinkedList<FragmentTask>(); /* Fragments that are parsed in parallel. */
+  private ContentHandler outputContentHandler; /* Where output goes while events are buffered for parallel parsing. */
+  private LexicalHandler outputLexicalHandler;
   
   private Configuration configuration;
   private Context context;
@@ -144,7 +255,22 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
    * @throws ParameterException if parameters are invalid
    */
   public void parameterize(Parameters parameters) throws ParameterException {
-    this.waxeyePath = interpolateModules(parameters.getParameter(WAXEYE_BIN_PARAMETER_NAME));
+    String waxeyeBin = parameters.getParameter(WAXEYE_BIN_PARAMETER_NAME, null);
+    this.waxeyePath = waxeyeBin == null ? null : interpolateModules(waxeyeBin);
+    int fragmentCacheSize = parameters.getParameterAsInteger(FRAGMENT_CACHE_SIZE_PARAMETER_NAME, 0);
+    int fragmentCacheMaxLength = parameters.getParameterAsInteger(FRAGMENT_CACHE_MAX_LENGTH_PARAMETER_NAME, 256);
+    this.engineFragmentCache = fragmentCacheSize > 0 ? fragmentCache(1024L * fragmentCacheSize, fragmentCacheMaxLength) : null;
+    this.watchGrammars = parameters.getParameterAsBoolean(WATCH_GRAMMARS_PARAMETER_NAME, false);
+    this.descentParser = parameters.getParameterAsBoolean(DESCENT_PARSER_PARAMETER_NAME, false);
+  }
+
+  /* The fragment cache that is shared by all instances, which is made and registered as an MXBean the first time. */
+  private static synchronized FragmentCache fragmentCache(long maxSize, int maxFragmentLength) {
+    if (fragmentCache == null) {
+      fragmentCache = new FragmentCache(maxSize, maxFragmentLength);
+      fragmentCache.register(WaxeyeParserTransformer.class.getName());
+    }
+    return fragmentCache;
   }
 
   /** Contextualize this class */
@@ -169,8 +295,23 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
     this.parseErrors = params.getParameterAsBoolean(PARSE_ERRORS_PARAMETER_NAME, false);
     this.showParseTree = params.getParameterAsBoolean(SHOW_PARSE_TREE_PARAMETER_NAME, false);
     this.keepXML = params.getParameterAsBoolean(KEEP_XML_PARAMETER_NAME, false);
+    this.mixedContent = params.getParameterAsBoolean(MIXED_CONTENT_PARAMETER_NAME, false);
+    if (this.mixedContent) this.keepXML = false;
     this.toASCII = params.getParameterAsBoolean(TO_ASCII_PARAMETER_NAME, false);
+    this.streaming = params.getParameterAsBoolean(STREAMING_PARAMETER_NAME, false);
+    this.directSAX = params.getParameterAsBoolean(DIRECT_SAX_PARAMETER_NAME, false);
+    this.unmemoizedRules = Arrays.asList(StringUtils.split(params.getParameter(UNMEMOIZED_RULES_PARAMETER_NAME, ""), ", "));
+    this.memoLimit = params.getParameterAsInteger(MEMO_LIMIT_PARAMETER_NAME, 0);
+    this.parallel = params.getParameterAsBoolean(PARALLEL_PARAMETER_NAME, false);
+    this.maxParallelFragments = params.getParameterAsInteger(PARALLEL_FRAGMENTS_PARAMETER_NAME, 4 * PARALLEL_THREADS);
+    this.chunkSeparator = params.getParameter(CHUNK_SEPARATOR_PARAMETER_NAME, null);
+    if (this.chunkSeparator != null && this.chunkSeparator.length() == 0) this.chunkSeparator = null;
+    this.chunkLength = params.getParameterAsInteger(CHUNK_LENGTH_PARAMETER_NAME, ParseEngine.DEFAULT_CHUNK_LENGTH);
+    this.maxParallelChunks = params.getParameterAsInteger(PARALLEL_CHUNKS_PARAMETER_NAME, ParseEngine.DEFAULT_PARALLEL_CHUNKS);
     this.isParsing = 0;
+    this.scanner = null;
+    this.recordedContent = null;
+    this.namespacePrefix = null;
     /* Determine where the grammar is located. */
     this.grammar = src;
     try {
@@ -206,138 +347,181 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
     }
     /* Determine the directory for the generated Java code, and create it. */
     /* Drop the extension (.waxeye) from the grammar name and replace funny characters. */
-    String javaDirName = this.grammar.replaceFirst("\\.[^./]*$", "").replaceAll("[^\\./_A-Za-z0-9]", "_");
+    /* Sitemaps that use the grammar with other settings load their own parser, so they have their own directory. */
+    String javaDirName = this.grammar.replaceFirst("\\.[^./]*$", "").replaceAll("[^\\./_A-Za-z0-9]", "_") +
+                         (this.modular ? "_modular" : "") + (this.descentParser ? "_descent" : "");
     this.javaCodeDir = new File(this.workDir, javaDirName);
-    /* Compile the grammar if one of the grammar files is newer than the code directory. */
-    long grammarChanged = grammarChanged(grammarFile);
-    long parserChanged = parserChanged(this.javaCodeDir);
-    if (!this.javaCodeDir.exists() || grammarChanged > parserChanged) {
-      this.getLogger().info("Parser code must be generated for waxeye grammar: "+grammarFilePath);
-      long startTime = System.currentTimeMillis();
-      compileGrammar(grammarFilePath);
-      long elapsedTime = System.currentTimeMillis()-startTime;
-      getLogger().info("Generating the parser for "+this.grammar+" took "+elapsedTime+" milliseconds.");
-      parserStore.remove(grammar); // Force re-loading of the parser.
-    } else {
-      this.getLogger().info("Re-using generated parser code for waxeye grammar: "+grammarFilePath);
+    this.grammarPath = grammarFile.getCanonicalPath();
+    this.metrics = GrammarMetrics.of(this.grammarPath);
+    final WaxeyeParserLoader loader = new WaxeyeParserLoader(this.grammar, grammarFile, this.modular, this.metrics, getLogger());
+    if (this.waxeyePath != null) {
+      String classpath = this.resolver.resolveURI("context://WEB-INF/lib").getURI().replaceFirst("^file://", "");
+      loader.setWaxeye(this.waxeyePath, new File(this.workDir, PARSER_CACHE_DIR), this.javaCodeDir, classpath,
+                       new LifecycleHelper(getLogger(), this.context, this.manager, this.configuration));
     }
-    /* Load the parser for this WaxeyeParserTransformer from the cache or compile the generated Java code. */ 
-    if (parserStore.containsKey(grammar)) {
-      this.parser = parserStore.get(grammar);
-      getLogger().info("The parser for "+this.grammar+" was already loaded.");
-    } else {
-      long startTime = System.currentTimeMillis();
-      loadParser();
-      long elapsedTime = System.currentTimeMillis()-startTime;
-      getLogger().info("Loading the parser for "+this.grammar+" took "+elapsedTime+" milliseconds.");
-      parserStore.put(grammar, this.parser);
+    loader.setDescentParser(this.descentParser);
+    /* The key is the grammar file, so that sitemaps with the same relative grammar URI do not share a parser,
+     * and the settings, so that sitemaps that use the same grammar with other settings do not replace each other's parser. */
+    this.parserKey = this.grammarPath+"#"+loader.settings();
+    if (this.watchGrammars) {
+      /* The watcher reloads a watched grammar when its files change, so the files need not be read for each request. */
+      LoadedParser loadedParser = parserStore.getLoaded(this.parserKey);
+      if (loadedParser != null && isWatched(this.parserKey)) {
+        setupEngine(loadedParser);
+        return;
+      }
+    }
+    /* The fingerprint of the grammar identifies the parser, independent of file timestamps. */
+    List<File> grammarFiles = loader.grammarFiles();
+    String fingerprint = loader.fingerprint(grammarFiles);
+    /* Get the parser from the store. If the grammar changed, exactly one thread generates and loads the parser. */
+    try {
+      setupEngine(parserStore.get(this.parserKey, fingerprint, parserLoader(loader, fingerprint)));
+    } catch (ProcessingException e) {
+      throw e;
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ProcessingException("Error loading the parser for "+this.grammar, e);
+    }
+    if (this.watchGrammars) {
+      watch(this.parserKey, grammarFiles, loader, getLogger());
+    }
+    if (getLogger().isDebugEnabled()) {
+      getLogger().debug("The parser for "+this.grammar+" is "+parserStore.getLoadState(this.parserKey)+".");
     }
   }
-  
-  /* Determine when the grammar file or one of the sub-grammar files was changed.
-   * @result Most recent timestamp of one of the files.
+
+  /* Loads the parser with a fingerprint into the parser store. */
+  private static ParserStore.Loader<LoadedParser> parserLoader(final WaxeyeParserLoader loader, final String fingerprint) {
+    return new ParserStore.Loader<LoadedParser>() {
+      public LoadedParser load() throws Exception {
+        return loader.load(fingerprint);
+      }
+    };
+  }
+
+  /* Reload the grammar in the background when one of its files changes.
+   * The new parser is swapped into the parser store; parses that are in progress finish with the old parser.
+   * The reload action only refers to the loader, so that it does not keep this transformer.
    */
-  private long grammarChanged(File grammarFile) throws ProcessingException {
-    long grammarChanged = grammarFile.lastModified();
-    if (this.modular) {
-      Pattern subGrammar = Pattern.compile("\"([^\"]+)\"");
-      try {
-        BufferedReader grammarFileReader = new BufferedReader(new FileReader(grammarFile));
-        String line;
-        while ((line = grammarFileReader.readLine()) != null) {
-          line = line.replaceFirst(";;.*", "");
-          Matcher subGr = subGrammar.matcher(line);
-          while (subGr.find()) {
-            String subGrFileName = subGr.group(1);
-            File subGrFile = new File(grammarFile.getParentFile(), subGrFileName);
-            long subGrMod = subGrFile.lastModified();
-            if (subGrMod > grammarChanged) grammarChanged = subGrMod;
+  private static void watch(final String parserKey, List<File> grammarFiles, final WaxeyeParserLoader loader, final Logger logger) {
+    try {
+      grammarWatcher().watch(parserKey, grammarFiles, new Runnable() {
+        public void run() {
+          try {
+            List<File> files = loader.grammarFiles();
+            String fingerprint = loader.fingerprint(files);
+            parserStore.get(parserKey, fingerprint, parserLoader(loader, fingerprint));
+            logger.info("Reloaded the waxeye grammar "+parserKey+", "+parserStore.getLoadState(parserKey)+".");
+            grammarWatcher().watch(parserKey, files, this);
+          } catch (Exception e) {
+            // The previous parser stays in use, and the grammar is loaded again at the next change.
+            logger.warn("Could not reload the waxeye grammar "+parserKey+": "+e.getMessage());
           }
         }
-        grammarFileReader.close();
-      } catch (Exception e) {
-        throw new ProcessingException(e);
-      }
+      });
+    } catch (IOException e) {
+      logger.warn("Cannot watch the waxeye grammar "+parserKey+": "+e.getMessage());
     }
-    return grammarChanged;
   }
-  
-  /* Determine when the parser file was changed.
-   * @result Timestamp of the parser file.
-   */
-  private long parserChanged(File javaCodeDir) {
-    File parserFile = new File(javaCodeDir, "Parser.java");
-    if (parserFile.exists())
-      return parserFile.lastModified();
-    else
-      return 0L;
+
+  /* Is the grammar of a parser watched by the grammar watcher? */
+  private static synchronized boolean isWatched(String parserKey) {
+    return grammarWatcher != null && grammarWatcher.isWatching(parserKey);
   }
 
-  /* Compile the Waxeye grammar into Java code using the Waxeye executable.
-   * This produces .java source-code files.
-   */
-  private void compileGrammar(String grammarFilePath)
-      throws IOException, ProcessingException, MalformedURLException {
-    String javaCodeDirPath = javaCodeDir.getAbsolutePath();
-    if (!javaCodeDir.mkdirs() && !javaCodeDir.exists()) {
-      throw new ProcessingException("Unable to create directory ["+javaCodeDirPath+"] for Waxeye java files.");
-    }
-    /* Compile the grammar into Java code. */
-    // The String[] waxeyeCommand must not contain empty strings, which will give an empty argument on OSX.
-    String[] waxeyeCommand;
-    if (modular)
-      waxeyeCommand = new String[]{waxeyePath, "-g", "java", javaCodeDirPath, "-m", grammarFilePath};
-    else
-      waxeyeCommand = new String[]{waxeyePath, "-g", "java", javaCodeDirPath, grammarFilePath};
-    this.getLogger().info("Compiling waxeye grammar: "+StringUtils.join(waxeyeCommand, " "));
-    String waxeyeOutput = "";
-    try {
-      Process waxeye = new ProcessBuilder(waxeyeCommand).redirectErrorStream(true).start();
-      BufferedReader waxeyeOutputReader = new BufferedReader(new InputStreamReader(waxeye.getInputStream()));
-      for (String line = waxeyeOutputReader.readLine(); line != null; line = waxeyeOutputReader.readLine()) {
-        waxeyeOutput += line+"\n";
-      }
-      waxeye.waitFor();
-      if (waxeye.exitValue() != 0) {
-        throw new ProcessingException("Waxeye process exited with error code: "+waxeye.exitValue());
-      }
-    } catch (Throwable ex) {
-      throw new ProcessingException("Error compiling waxeye grammar: "+ex.getMessage()+"\n"+waxeyeOutput, ex);
+  /* The grammar watcher that is shared by all instances, which is started the first time. */
+  private static synchronized GrammarWatcher grammarWatcher() throws IOException {
+    if (grammarWatcher == null) {
+      grammarWatcher = new GrammarWatcher("waxeye-grammar-watcher", GrammarWatcher.DEFAULT_DELAY_MILLIS);
     }
-    this.getLogger().info(waxeyeOutput);
+    return grammarWatcher;
   }
 
-  /* Compile the Java files for the grammar and loads the class-files.
-   * It then makes an instance of the Parser class and puts it in this.parser.
-   */
-  private void loadParser() throws ProcessingException, MalformedURLException,
-      IOException {
-    /* Compile the Java files into a class. */
-    LifecycleHelper lch = new LifecycleHelper(this.getLogger(), context, manager, configuration);
-    ParserJavaLanguage java = new ParserJavaLanguage();
-    try {
-      lch.setupComponent(java);
-    } catch (Exception e) {
-      throw new ProcessingException("Error setting up the JavaLanguage component.", e);
+  /* Configure the engine for the parser, and the direct parser if it is used. */
+  private void setupEngine(LoadedParser loadedParser) throws ProcessingException {
+    this.engine = new ParseEngine(loadedParser);
+    this.engine.setMode(ScanMode.of(this.completeMatch, this.adjacentMatches));
+    this.engine.setParseErrors(this.parseErrors);
+    this.engine.setShowParseTree(this.showParseTree);
+    this.engine.setToASCII(this.toASCII);
+    this.engine.setDirect(this.directSAX);
+    this.engine.setChunks(this.chunkSeparator, this.chunkLength, this.maxParallelChunks,
+                          this.chunkSeparator == null ? null : parallelExecutor());
+    this.engine.setMetrics(this.metrics);
+    this.engine.setFragmentCache(this.engineFragmentCache);
+    CompiledGrammar compiledGrammar = loadedParser.getCompiledGrammar();
+    if (!this.engine.isDirect()) {
+      this.directParser = null;
+      return;
     }
-    java.addClasspath(this.resolver.resolveURI("context://WEB-INF/lib").getURI().replaceFirst("^file://", ""));
-    ParserJavaProgram parserClass;
+    MemoPolicy memoPolicy;
     try {
-      // The load method compiles (if necessary) and loads.
-      parserClass = java.load(new String[] {"Type", "Parser"}, javaCodeDir, "UTF-8");
-    } catch (LanguageException e) {
-      throw new ProcessingException("Error compiling or loading the parser.", e);
+      memoPolicy = MemoPolicy.of(compiledGrammar, this.unmemoizedRules);
+    } catch (IllegalArgumentException e) {
+      throw new ProcessingException(UNMEMOIZED_RULES_PARAMETER_NAME+": "+e.getMessage());
     }
-    try {
-      LifecycleHelper.decommission(java);
-    } catch (Exception e) {
-      throw new ProcessingException("Can't stop Java!", e);
+    this.engine.setMemoPolicy(memoPolicy);
+    this.engine.setMemoLimit(this.memoLimit);
+    if (this.directParser == null || this.directParser.getGrammar() != compiledGrammar) {
+      // The direct parser is kept while this transformer is used for the same grammar.
+      this.directParser = loadedParser.newDirectParser();
     }
-    /* Instantiate the parser. */
-    try {
-      this.parser = (Parser<?>)parserClass.getProgram().newInstance();
-    } catch (Throwable e) {
-      throw new ProcessingException("Error instantiating the generated Java Parser class.", e);
+    this.directParser.setMemoPolicy(memoPolicy);
+    this.directParser.setMemoLimit(this.memoLimit);
+  }
+
+  /**
+   * The cache key of the output, made from the grammar file, the fingerprint of the parser that is used,
+   * and the parameters that change the output.
+   * The fingerprint is that of the parser that setup got, which is the previous version while a changed grammar is loaded.
+   * Parameters that only change how the output is made, like streaming, directSAX and parallel, are not part of the key.
+   * @see org.apache.cocoon.caching.CacheableProcessingComponent#getKey()
+   */
+  public Serializable getKey() {
+    return this.grammarPath+"#"+this.engine.getLoadedParser().getFingerprint()+
+      ";namespaceURI="+this.namespaceURI+
+      ";parseElementTag="+this.parseElementTag+
+      ";modular="+this.modular+
+      ";completeMatch="+this.completeMatch+
+      ";adjacentMatches="+this.adjacentMatches+
+      ";parseErrors="+this.parseErrors+
+      ";showParseTree="+this.showParseTree+
+      ";keepXML="+this.keepXML+
+      ";mixedContent="+this.mixedContent+
+      ";toASCII="+this.toASCII;
+  }
+
+  /**
+   * The validity of the output, which lasts as long as the parser that is used has the same fingerprint.
+   * @see org.apache.cocoon.caching.CacheableProcessingComponent#getValidity()
+   */
+  public SourceValidity getValidity() {
+    return new ParserValidity(this.parserKey, this.engine.getLoadedParser().getFingerprint());
+  }
+
+  /* The validity of output that was made by the parser for a version of a grammar.
+   * It is valid while the parser store has that version, and otherwise when the parser that is used now has that version.
+   */
+  private static final class ParserValidity implements SourceValidity {
+    private static final long serialVersionUID = 1L;
+    private final String parserKey;
+    private final String fingerprint;
+
+    ParserValidity(String parserKey, String fingerprint) {
+      this.parserKey = parserKey;
+      this.fingerprint = fingerprint;
+    }
+
+    public int isValid() {
+      return fingerprint != null && fingerprint.equals(parserStore.getVersion(parserKey)) ? VALID : UNKNOWN;
+    }
+
+    public int isValid(SourceValidity newValidity) {
+      if (!(newValidity instanceof ParserValidity)) return INVALID;
+      ParserValidity other = (ParserValidity) newValidity;
+      return fingerprint != null && fingerprint.equals(other.fingerprint) && parserKey.equals(other.parserKey) ? VALID : INVALID;
     }
   }
 
@@ -345,6 +529,14 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
    * Recycle the transformer by removing references.
    */
   public void recycle() {
+    // Fragments that are still being parsed after an error are not needed anymore.
+    for (FragmentTask task : this.pendingFragments) {
+      task.future.cancel(true);
+    }
+    this.pendingFragments.clear();
+    this.recordedContent = null;
+    this.outputContentHandler = null;
+    this.outputLexicalHandler = null;
     if (this.grammarSource != null) {
       this.resolver.release(this.grammarSource);
       this.grammarSource = null;
@@ -373,7 +565,13 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
     if (name.equals(parseElementTag)) {
       sendStartElementEventNS(name, attr);
       if (isParsing++ == 0) {
-        if (keepXML) {
+        if (streaming && !keepXML && !mixedContent) {
+          /* Parse the text while it comes in, instead of recording it. */
+          this.scanner = this.engine.newStreamingScanner(this.directParser, outputEmitter());
+        } else if (mixedContent) {
+          /* Record the text, and the markup aside. */
+          this.recordedContent = new MixedContent();
+        } else if (keepXML) {
           /* This will repeat some but not all namespace-prefix declarations.
              Therefore it causes weird bugs. Fix this in AbstractSAXPipelineTransformer. */
           startSerializedXMLRecording(propertiesForXML());
@@ -394,8 +592,22 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
       throws ProcessingException, IOException, SAXException {
     if (name.equals(parseElementTag)) {
       if (--isParsing == 0) {
-        String fragment = keepXML ? endSerializedXMLRecording() : endTextRecording();
-        parseFragment(fragment);
+        try {
+          if (this.scanner != null) {
+            FragmentScanner streamingScanner = this.scanner;
+            this.scanner = null;
+            streamingScanner.scan(true);
+          } else if (this.recordedContent != null) {
+            MixedContent content = this.recordedContent;
+            this.recordedContent = null;
+            parseFragment(null, content);
+          } else {
+            String fragment = keepXML ? endSerializedXMLRecording() : endTextRecording();
+            parseFragment(fragment, null);
+          }
+        } catch (ParsingException e) {
+          throw new ProcessingException(e.getMessage(), e);
+        }
       }
       sendEndElementEventNS(name);
     } else if (ignoreEventsCount == 0) {
@@ -403,154 +615,315 @@ public class WaxeyeParserTransformer extends AbstractSAXPipelineTransformer
     }
   }
 
-  private void parseFragment(String fragment) throws SAXException, ProcessingException {
-    parser.setEofCheck(this.completeMatch);
-    boolean allowUnmatchedText = !(this.completeMatch || this.adjacentMatches);
-    final InputBuffer input;
-    if (this.toASCII)
-      input = new InputBuffer(AsciiUtils.normalize(fragment).toCharArray());
-    else
-      input = new InputBuffer(fragment.toCharArray());
-    int start = 0;
-    int end = fragment.length();
-    StringBuilder unmatched = new StringBuilder(); // Collects unmatched characters, up to the next match.
-    while (start < end) {
-      // Skip spaces.
-      if (allowUnmatchedText)
-        while (start < end && Character.isWhitespace(fragment.charAt(start))) {
-          unmatched.append(fragment.charAt(start++));
-        }
-      if (start < end) {
-        // input[start] points to the start from where we will match.
-        input.setPosition(start);
-        final ParseResult<?> parseResult = parser.parse(input);
-        // Parse errors are significant if completeMatch or adjacentMatches.
-        if (!allowUnmatchedText && parseResult.getError() != null) {
-          try {
-            new XmlVisitor(this, parseResult, fragment, start); // This will throw an exception.
-          } catch (ProcessingException pe) {
-            if (parseErrors) return;
-            else throw pe;
-          }
-        // Create XML for a non-empty match.
-        } else if (parseResult.getAST() != null && parseResult.getAST().getChildren().size() > 0) {
-          sendText(unmatched);
-          if (showParseTree) sendCommentEvent(parseResult.toString());
-          new XmlVisitor(this, parseResult, fragment, start);
-          start = parseResult.getAST().getPosition().getEndIndex();
-        // Skip unmatched text if there is an ignored error or empty match.
-        } else if (allowUnmatchedText) {
-          char unmatchedChar = fragment.charAt(start++);
-          unmatched.append(unmatchedChar);
-          // If the current character was part of a word, skip the rest of the word.
-          if (Character.isLetterOrDigit(unmatchedChar)) {
-            while (start < end && Character.isLetterOrDigit(fragment.charAt(start))) {
-              unmatched.append(fragment.charAt(start++));
-            }
-          }
-        // There is an empty match, apparently the grammar allows that.
-        } else {
-          throw new ProcessingException(this.source+": The grammar only matches an empty string, no parsing progress can be made.");
-        }
+  /*
+   * While streaming, markup inside the trigger element is dropped, like text recording does.
+   * With mixedContent, it is recorded aside.
+   * @see org.apache.cocoon.transformation.AbstractSAXTransformer#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
+   */
+  @Override
+  public void startElement(String uri, String name, String raw, Attributes attr) throws SAXException {
+    if (this.scanner != null) {
+      if (isParseElement(uri, name)) ++isParsing;
+    } else if (this.recordedContent != null) {
+      if (isParseElement(uri, name)) ++isParsing;
+      this.recordedContent.startElement(uri, name, raw, attr);
+    } else {
+      super.startElement(uri, name, raw, attr);
+    }
+  }
+
+  /*
+   * @see org.apache.cocoon.transformation.AbstractSAXTransformer#endElement(java.lang.String, java.lang.String, java.lang.String)
+   */
+  @Override
+  public void endElement(String uri, String name, String raw) throws SAXException {
+    if (this.scanner != null && !(isParseElement(uri, name) && isParsing == 1)) {
+      if (isParseElement(uri, name)) --isParsing;
+    } else if (this.recordedContent != null && !(isParseElement(uri, name) && isParsing == 1)) {
+      if (isParseElement(uri, name)) --isParsing;
+      this.recordedContent.endElement(uri, name, raw);
+    } else {
+      super.endElement(uri, name, raw);
+    }
+  }
+
+  /*
+   * While streaming, text inside the trigger element is scanned as it comes in.
+   * @see org.apache.cocoon.transformation.AbstractSAXTransformer#characters(char[], int, int)
+   */
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    if (this.scanner != null) {
+      try {
+        this.scanner.append(ch, start, length);
+      } catch (ParsingException e) {
+        throw new SAXException(e);
       }
+    } else if (this.recordedContent != null) {
+      this.recordedContent.characters(ch, start, length);
+    } else {
+      super.characters(ch, start, length);
     }
-    sendText(unmatched);
   }
-  
-  private void sendText(StringBuilder sb) throws SAXException {
-    if (sb.length() > 0) {
-      sendTextEvent(sb.toString());
-      sb.delete(0, sb.length());
+
+  /*
+   * The other events inside the trigger element are recorded with mixedContent.
+   * @see org.apache.cocoon.transformation.AbstractSAXTransformer#ignorableWhitespace(char[], int, int)
+   */
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.ignorableWhitespace(ch, start, length);
+    } else {
+      super.ignorableWhitespace(ch, start, length);
     }
   }
-  
-  public ContentHandler getContentHandler() {
-    return contentHandler;
+
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.processingInstruction(target, data);
+    } else {
+      super.processingInstruction(target, data);
+    }
   }
 
+  @Override
+  public void skippedEntity(String name) throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.skippedEntity(name);
+    } else {
+      super.skippedEntity(name);
+    }
+  }
 
-  private class XmlVisitor implements IASTVisitor {
-    
-    private final WaxeyeParserTransformer xml;
-    private final String fragment;
-    private StringBuilder buf;
-    
-    public XmlVisitor(WaxeyeParserTransformer xml, ParseResult<?> parseResult, String fragment, int start)
-        throws ProcessingException {
-      this.xml = xml;
-      this.fragment = fragment;
-      if (parseResult.getAST() != null) {
-        this.buf = new StringBuilder();
-        parseResult.getAST().acceptASTVisitor(this);
-      } else if (parseResult.getError() != null) {
-        String message = "Parser error: "+parseResult.getError().toString()+"\n"+
-                         "Parsing ["+fragment.substring(start, Math.min(fragment.length(), start+12))+"]";
-        try {
-          error(parseResult.getError(), fragment);
-        } catch (SAXException e) {
-          throw new ProcessingException(message, e);
-        }
-        throw new ProcessingException(message);
-      } else {
-        throw new ProcessingException("Unknown error occurred during parsing.");
-      }
+  @Override
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.comment(ch, start, length);
+    } else {
+      super.comment(ch, start, length);
     }
-    
-    public void error(ParseError error, String fragment) throws SAXException {
-      AttributesImpl attrs = new AttributesImpl();
-      attrs.addCDATAAttribute("NT", error.getNT());
-      attrs.addCDATAAttribute("line", ""+error.getLine());
-      attrs.addCDATAAttribute("column", ""+error.getColumn());
-      attrs.addCDATAAttribute("position", ""+error.getPosition());
-      attrs.addCDATAAttribute("message", error.toString());
-      this.xml.sendStartElementEventNS(ERROR_ELEMENT_TAG, attrs);
-      this.xml.sendTextEvent(fragment.substring(0, error.getPosition()));
-      this.xml.sendStartElementEventNS(MARKER_ELEMENT_TAG);
-      this.xml.sendEndElementEventNS(MARKER_ELEMENT_TAG);
-      this.xml.sendTextEvent(fragment.substring(error.getPosition()));
-      this.xml.sendEndElementEventNS(ERROR_ELEMENT_TAG);
-    }
-
-    public void visitAST(IAST<?> tree) {
+  }
+
+  @Override
+  public void startCDATA() throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.startCDATA();
+    } else {
+      super.startCDATA();
+    }
+  }
+
+  @Override
+  public void endCDATA() throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.endCDATA();
+    } else {
+      super.endCDATA();
+    }
+  }
+
+  @Override
+  public void startEntity(String name) throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.startEntity(name);
+    } else {
+      super.startEntity(name);
+    }
+  }
+
+  @Override
+  public void endEntity(String name) throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.endEntity(name);
+    } else {
+      super.endEntity(name);
+    }
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    if (this.recordedContent != null) {
+      this.recordedContent.endPrefixMapping(prefix);
+    } else {
+      super.endPrefixMapping(prefix);
+    }
+  }
+
+  /*
+   * Send the output of fragments that are parsed in parallel before the end of the document.
+   * @see org.apache.cocoon.transformation.AbstractSAXTransformer#endDocument()
+   */
+  @Override
+  public void endDocument() throws SAXException {
+    try {
+      sendPendingFragments(true);
+    } catch (ProcessingException e) {
+      throw new SAXException(e);
+    }
+    super.endDocument();
+  }
+
+  /*
+   * Remember the prefix of the namespace of the generated elements.
+   * @see org.apache.cocoon.transformation.AbstractSAXTransformer#startPrefixMapping(java.lang.String, java.lang.String)
+   */
+  @Override
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    if (this.recordedContent != null) {
+      // The mapping is declared on an element in the mixed content, and is kept with it.
+      this.recordedContent.startPrefixMapping(prefix, uri);
+      return;
+    }
+    if (this.namespacePrefix == null && uri.equals(this.namespaceURI)) {
+      this.namespacePrefix = prefix;
+    }
+    super.startPrefixMapping(prefix, uri);
+  }
+
+  private boolean isParseElement(String uri, String name) {
+    return this.namespaceURI.equals(uri) && name.equals(parseElementTag);
+  }
+
+  /* Parse a recorded fragment.
+   * @param fragment The recorded text, or null for mixed content.
+   * @param content The recorded mixed content, or null.
+   */
+  private void parseFragment(String fragment, MixedContent content) throws SAXException, ProcessingException, ParsingException {
+    if (this.parallel) {
+      parseFragmentInParallel(fragment, content);
+    } else {
+      newScanner(this.engine, fragment, content, this.directParser, outputEmitter()).scan(true);
+    }
+  }
+
+  /* A scanner for a recorded fragment, which is text or mixed content. */
+  private static FragmentScanner newScanner(ParseEngine engine, String fragment, MixedContent content,
+                                            DirectParser directParser, SaxEmitter emitter) {
+    return content != null ? engine.newScanner(content, directParser, emitter)
+                           : engine.newScanner(fragment, directParser, emitter);
+  }
+
+  /* The emitter for the output of this transformer. */
+  private SaxEmitter outputEmitter() {
+    emitter.setContentHandler(contentHandler);
+    emitter.setLexicalHandler(lexicalHandler);
+    emitter.setNamespace(namespaceURI, namespacePrefix);
+    return emitter;
+  }
+
+  /* Parse a fragment on a worker thread. The output is buffered, and so are the events that follow it,
+   * until the output of all preceding fragments has been sent.
+   */
+  private void parseFragmentInParallel(String fragment, MixedContent content) throws SAXException, ProcessingException {
+    if (pendingFragments.isEmpty()) {
+      this.outputContentHandler = contentHandler;
+      this.outputLexicalHandler = lexicalHandler;
+    }
+    FragmentTask task = new FragmentTask(fragment, content);
+    task.future = parallelExecutor().submit(task, task);
+    pendingFragments.add(task);
+    contentHandler = task.following;
+    lexicalHandler = task.following;
+    sendPendingFragments(false);
+  }
+
+  /* Send the output of parsed fragments and the events that follow them, in document order.
+   * @param all Wait until all fragments are parsed. Otherwise, only wait while too many fragments are being parsed.
+   */
+  private void sendPendingFragments(boolean all) throws SAXException, ProcessingException {
+    while (!pendingFragments.isEmpty()) {
+      FragmentTask task = pendingFragments.getFirst();
+      if (!all && !task.future.isDone() && pendingFragments.size() <= maxParallelFragments) {
+        return;
+      }
       try {
-        outputChars();
-        Position pos = tree.getPosition();
-        AttributesImpl attrs = new AttributesImpl();
-        attrs.addCDATAAttribute("start", ""+pos.getStartIndex());
-        attrs.addCDATAAttribute("end", ""+pos.getEndIndex());
-        this.xml.sendStartElementEventNS(tree.getType().toString(), attrs);
-        for (IAST<?> child : tree.getChildren()) {
-          child.acceptASTVisitor(this);
-        }
-        outputChars();
-        this.xml.sendEndElementEventNS(tree.getType().toString());
-      } catch (SAXException e) {
-        getLogger().error(e.getMessage());
+        task.future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ProcessingException("Interrupted while parsing in parallel.", e);
+      } catch (ExecutionException e) {
+        throw new ProcessingException("Error while parsing in parallel.", e.getCause());
+      }
+      pendingFragments.removeFirst();
+      task.output.toSAX(outputContentHandler);
+      if (task.exception instanceof ParsingException) {
+        throw new ProcessingException(task.exception.getMessage(), task.exception);
+      } else if (task.exception instanceof SAXException) {
+        throw (SAXException) task.exception;
+      }
+      // Events that follow the last fragment are sent directly from now on.
+      task.following.toSAX(outputContentHandler);
+      if (pendingFragments.isEmpty()) {
+        contentHandler = outputContentHandler;
+        lexicalHandler = outputLexicalHandler;
       }
     }
+  }
 
-    public void visitEmpty(IEmpty tree) {
-      outputChars();
+  /* The executor for parallel parsing, shared by all transformers. */
+  private static synchronized ExecutorService parallelExecutor() {
+    if (parallelExecutor == null) {
+      parallelExecutor = Executors.newFixedThreadPool(PARALLEL_THREADS, new ThreadFactory() {
+        private int count = 0;
+        public synchronized Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "waxeye-parser-"+(++count));
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
     }
+    return parallelExecutor;
+  }
+
+  /* Parses a fragment on a worker thread, into a buffer.
+   * The worker thread has its own direct parser and emitter.
+   */
+  private class FragmentTask implements Runnable {
+    private final String fragment;
+    private final MixedContent content;
+    private final ParseEngine taskEngine = engine;
+    private final String prefix = namespacePrefix;
+    final SaxBuffer output = new SaxBuffer(); /* The events for the parsed fragment. */
+    final SaxBuffer following = new SaxBuffer(); /* The events after the fragment, up to the next fragment. */
+    Future<FragmentTask> future;
+    Exception exception; /* The exception that parsing ended with, or null. */
 
-    public void visitChar(IChar tree) {
-      int pos = tree.getPos() - 1;
-      //if (!AsciiUtils.normalize(""+this.fragment.charAt(pos)).equals(""+tree.getValue()))
-      //  throw new RuntimeException("Fragment "+this.fragment+" does not match "+tree.getValue()+" at position "+pos);
-      this.buf.append(this.fragment.charAt(pos)); // was: tree.getValue()
+    FragmentTask(String fragment, MixedContent content) {
+      this.fragment = fragment;
+      this.content = content;
     }
-    
-    private void outputChars() {
-      if (buf.length() > 0) {
-        try {
-          this.xml.sendTextEvent(this.buf.toString());
-        } catch (Exception e) {
-          throw new RuntimeException(e);
-        } finally {
-          this.buf.delete(0, buf.length());
-        }
+
+    public void run() {
+      SaxEmitter taskEmitter = new SaxEmitter();
+      taskEmitter.setContentHandler(output);
+      taskEmitter.setLexicalHandler(output);
+      taskEmitter.setNamespace(namespaceURI, prefix);
+      try {
+        newScanner(taskEngine, fragment, content, workerParser(), taskEmitter).scan(true);
+      } catch (Exception e) {
+        exception = e;
       }
     }
-    
+  }
+
+  /* The direct parser of the current worker thread, or null if parsing is not direct. */
+  private DirectParser workerParser() {
+    if (directParser == null) {
+      return null;
+    }
+    DirectParser workerParser = workerParsers.get();
+    if (workerParser == null || workerParser.getGrammar() != directParser.getGrammar()) {
+      workerParser = directParser.newParser();
+      workerParsers.set(workerParser);
+    }
+    workerParser.setMemoPolicy(directParser.getMemoPolicy());
+    workerParser.setMemoLimit(directParser.getMemoLimit());
+    return workerParser;
+  }
+
+  public ContentHandler getContentHandler() {
+    return contentHandler;
   }
 }
@@ -0,0 +1,60 @@
+package com.rakensi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.text.Normalizer;
+
+import org.junit.Test;
+
+public class AsciiUtilsTest {
+
+  @Test
+  public void asciiIsNotCopied() {
+    String s = "Plain ASCII text, with 'quotes' and [brackets].";
+    assertSame(s, AsciiUtils.normalize(s));
+  }
+
+  @Test
+  public void diacriticsAreRemoved() {
+    assertEquals("Cafe creme a la facon d'Ocean", AsciiUtils.normalize("Café crème à la façon d’Ôcéan"));
+    assertEquals("AaOoUuy", AsciiUtils.normalize("ÅåŐőŰűÿ"));
+  }
+
+  @Test
+  public void punctuationIsReplaced() {
+    assertEquals("\"a\" - 'b' - c'", AsciiUtils.normalize("“a” – ‘b’ — c′"));
+  }
+
+  @Test
+  public void eachCharacterHasOneReplacement() {
+    // A ligature and a fraction keep the first character of their decomposition, so the length does not change.
+    assertEquals("f1", AsciiUtils.normalize("ﬁ½"));
+    assertEquals("??", AsciiUtils.normalize("中Ω"));
+    // A character outside the Basic Multilingual Plane is two surrogates, which are replaced one by one.
+    assertEquals("a??b", AsciiUtils.normalize("a𝐀b"));
+  }
+
+  @Test
+  public void lengthIsKept() {
+    for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+      assertEquals(1, AsciiUtils.normalize(String.valueOf((char) c)).length());
+      assertEquals(AsciiUtils.normalize((char) c), AsciiUtils.normalize(String.valueOf((char) c)).charAt(0));
+    }
+  }
+
+  /* Decomposed text keeps its combining marks, so positions in the normalized text are positions in the original text. */
+  @Test
+  public void decomposedTextKeepsItsLength() {
+    String composed = "Café naïve Ångström";
+    String decomposed = Normalizer.normalize(composed, Normalizer.Form.NFD);
+    String normalized = AsciiUtils.normalize(decomposed);
+    assertEquals(decomposed.length(), normalized.length());
+    assertEquals(decomposed, normalized);
+    // The base letters are where they were.
+    for (int i = 0; i < decomposed.length(); ++i) {
+      if (decomposed.charAt(i) < 0x80) assertEquals(decomposed.charAt(i), normalized.charAt(i));
+    }
+  }
+
+}
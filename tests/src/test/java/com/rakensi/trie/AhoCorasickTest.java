@@ -0,0 +1,72 @@
+package com.rakensi.trie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AhoCorasickTest {
+
+  @Test
+  public void overlappingStringsAreFound() {
+    AhoCorasick automaton = AhoCorasick.of(Arrays.asList("he", "she", "his", "hers"));
+    assertEquals(4, automaton.size());
+    assertEquals(2, automaton.getMinLength());
+    assertEquals(4, automaton.getMaxLength());
+    assertEquals(bits(1, 2), automaton.starts("ushers", 0, 6));
+    assertEquals(bits(0, 2, 3), automaton.starts("hishe", 0, 5));
+  }
+
+  @Test
+  public void matchLengthsAreFromLongToShort() {
+    AhoCorasick automaton = AhoCorasick.of(Arrays.asList("abc", "bc", "c", "x"));
+    int state = automaton.initialState();
+    for (char c : "abc".toCharArray()) state = automaton.next(state, c);
+    assertArrayEquals(new int[] {3, 2, 1}, automaton.matchLengths(state));
+    state = automaton.next(state, 'y');
+    assertArrayEquals(new int[0], automaton.matchLengths(state));
+  }
+
+  @Test
+  public void searchIsLimitedToTheRange() {
+    AhoCorasick automaton = AhoCorasick.of(Arrays.asList("ab"));
+    assertEquals(bits(0, 3, 6), automaton.starts("abxabxab", 0, 8));
+    // A string that ends after the range is not found; one that starts before it is not found either.
+    assertEquals(bits(3), automaton.starts("abxabxab", 1, 7));
+  }
+
+  /* The automaton finds the same positions as searching for each string. */
+  @Test
+  public void sameStartsAsSearchingForEachString() {
+    Random random = new Random(1);
+    for (int round = 0; round < 200; ++round) {
+      List<String> strings = Arrays.asList(randomString(random, 1 + random.nextInt(4)), randomString(random, 1 + random.nextInt(4)),
+                                           randomString(random, 1 + random.nextInt(4)));
+      String text = randomString(random, 60);
+      BitSet expected = new BitSet();
+      for (String string : strings) {
+        for (int i = text.indexOf(string); i >= 0; i = text.indexOf(string, i + 1)) expected.set(i);
+      }
+      assertEquals(strings+" in "+text, expected, AhoCorasick.of(strings).starts(text, 0, text.length()));
+    }
+  }
+
+  /* Few different characters, so that strings overlap often. */
+  private static String randomString(Random random, int length) {
+    StringBuilder string = new StringBuilder();
+    for (int i = 0; i < length; ++i) string.append((char) ('a' + random.nextInt(3)));
+    return string.toString();
+  }
+
+  private static BitSet bits(int... positions) {
+    BitSet bits = new BitSet();
+    for (int position : positions) bits.set(position);
+    return bits;
+  }
+
+}
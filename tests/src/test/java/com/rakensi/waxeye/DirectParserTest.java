@@ -0,0 +1,168 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class DirectParserTest {
+
+  /* Records that end in a semicolon, where a pair without '!' makes the parser backtrack. */
+  private static final String GRAMMAR =
+      "Record <- Item *(:',' Item) :';'\n" +
+      "Item <- Bang | Pair | Word\n" +
+      "Bang <- Word :'=' Word :'!'\n" +
+      "Pair <- Word :'=' Word\n" +
+      "Word <- +[a-z0-9]\n";
+
+  @Test
+  public void sameResultsAsWaxeye() throws Exception {
+    CompiledGrammar grammar = TestGrammars.ftanGrammar();
+    DirectParser parser = new DirectParser(grammar);
+    assertEquals("(List 0-8(Number 1-2(Digits 1-2 '1'))(Boolean 3-7 'true'))", TestGrammars.describe(parser, "[1 true]"));
+    assertEquals("error at 1 in "+parseErrorType(grammar, "["), TestGrammars.describe(parser, "["));
+  }
+
+  /* With a memo limit, the records of earlier parses are dropped, and the results stay the same. */
+  @Test
+  public void memoLimitBoundsTheRecords() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile(GRAMMAR);
+    String input = records(20000);
+    DirectParser unlimited = new DirectParser(grammar);
+    unlimited.setEofCheck(false);
+    DirectParser limited = new DirectParser(grammar);
+    limited.setEofCheck(false);
+    limited.setMemoLimit(256);
+    String expected = parseAll(unlimited, input);
+    int unlimitedLength = unlimited.getArenaLength();
+    assertEquals(expected, parseAll(limited, input));
+    assertTrue(limited.getDroppedMemoEntries() > 0);
+    assertTrue(limited.getArenaLength() < unlimitedLength / 8);
+  }
+
+  /* The lookahead memoizes the next word, which the next parse uses after the records have been moved. */
+  @Test
+  public void movedRecordsAreUsedAgain() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile("Item <- Word ?&(:' ' Word) :' '\nWord <- +[a-z0-9]\n");
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 20000; ++i) input.append('w').append(i).append(' ');
+    DirectParser unlimited = new DirectParser(grammar);
+    unlimited.setEofCheck(false);
+    DirectParser limited = new DirectParser(grammar);
+    limited.setEofCheck(false);
+    limited.setMemoLimit(64);
+    assertEquals(parseAll(unlimited, input.toString()), parseAll(limited, input.toString()));
+    assertTrue(limited.getArenaLength() < unlimited.getArenaLength() / 8);
+  }
+
+  /* With a memo limit, the records of backtracking are dropped during a parse, and the tree of the match is kept. */
+  @Test
+  public void memoLimitBoundsTheRecordsOfOneParse() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile(LIST_GRAMMAR);
+    String input = list(20000);
+    DirectParser unlimited = new DirectParser(grammar);
+    DirectParser limited = new DirectParser(grammar);
+    limited.setMemoLimit(256);
+    String expected = TestGrammars.describe(unlimited, input);
+    assertEquals(expected, TestGrammars.describe(limited, input));
+    assertTrue(limited.getDroppedMemoEntries() > 0);
+    assertTrue(limited.getArenaLength() < unlimited.getArenaLength() / 4);
+  }
+
+  /* When the records do not fit, the parse is done again without memoization, which only keeps the tree of the match. */
+  @Test
+  public void recordsThatDoNotFitAreNotMemoized() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile(LIST_GRAMMAR);
+    String input = list(2000);
+    String expected = TestGrammars.describe(new DirectParser(grammar), input);
+    DirectParser parser = new DirectParser(grammar);
+    parser.setMaxArenaLength(1 << 16);
+    assertEquals(expected, TestGrammars.describe(parser, input));
+    assertTrue(parser.getDroppedMemoEntries() > 0);
+    // The parser is memoized again for the next parse.
+    assertEquals("(Doc 0-2(Item 0-2(Single 0-2)))", TestGrammars.describe(parser, "a;"));
+    // The tree itself does not fit.
+    parser.setMaxArenaLength(1 << 13);
+    parser.setInput(input);
+    try {
+      parser.parse(0);
+      fail();
+    } catch (IllegalStateException e) {
+      // The parser can be used again.
+      assertEquals("(Doc 0-2(Item 0-2(Single 0-2)))", TestGrammars.describe(parser, "a;"));
+    }
+  }
+
+  /* The states of an automaton are matched without using the Java stack. */
+  @Test
+  public void longRepetitionsDoNotOverflowTheStack() throws Exception {
+    char[] letters = new char[1 << 20];
+    Arrays.fill(letters, 'a');
+    String input = new String(letters);
+    // The start automaton and the automaton of the word each repeat a million times.
+    DirectParser parser = new DirectParser(TestGrammars.compile("Doc <- *[a-z] :';' Word\nWord <- +[a-z]\n"));
+    parser.setInput(input + ";" + input);
+    assertTrue(parser.parse(0));
+    assertEquals(2 * input.length() + 1, parser.getEndIndex());
+  }
+
+  @Test
+  public void releasingTheInputReleasesTheMemory() throws Exception {
+    DirectParser parser = new DirectParser(TestGrammars.compile(GRAMMAR));
+    parser.setEofCheck(false);
+    String input = records(20000);
+    int initialLength = parser.getArenaLength();
+    parseAll(parser, input);
+    assertTrue(parser.getArenaLength() > initialLength);
+    parser.setInput(null);
+    assertEquals(initialLength, parser.getArenaLength());
+    // The parser can be used again.
+    assertEquals("(Record 0-4(Item 0-3(Word 0-3 'abc')))", TestGrammars.describe(parser, "abc;"));
+  }
+
+  /* Parse adjacent records from the start of the input, and describe the parse trees. */
+  private static String parseAll(DirectParser parser, String input) throws SAXException {
+    StringBuilder description = new StringBuilder();
+    parser.setInput(input);
+    int start = 0;
+    while (start < input.length() && parser.parse(start)) {
+      description.append(TestGrammars.describeResult(parser, input));
+      start = parser.getEndIndex();
+    }
+    description.append(parser.getError() == null ? "" : "error at "+parser.getError().getPosition());
+    return description.toString();
+  }
+
+  /* A list of items, where a single word makes the parser backtrack from a pair, and leave the records of the word. */
+  private static final String LIST_GRAMMAR =
+      "Doc <- *Item\n" +
+      "Item <- Pair | Single\n" +
+      "Pair <- Word :'=' Word :';'\n" +
+      "Single <- :+[a-z] :';'\n" +
+      "Word <- +[a-z]\n";
+
+  private static String list(int count) {
+    StringBuilder list = new StringBuilder();
+    for (int i = 0; i < count; ++i) {
+      list.append(i % 100 == 0 ? "abc=def;" : "abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz;");
+    }
+    return list.toString();
+  }
+
+  private static String records(int count) {
+    StringBuilder records = new StringBuilder();
+    for (int i = 0; i < count; ++i) {
+      records.append("a").append(i).append(i % 3 == 0 ? "=b!" : "=b").append(",c").append(i % 5).append(';');
+    }
+    return records.toString();
+  }
+
+  private static String parseErrorType(CompiledGrammar grammar, String input) {
+    return grammar.newParser().parse(input).getError().getNT();
+  }
+
+}
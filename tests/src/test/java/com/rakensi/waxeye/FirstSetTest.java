@@ -0,0 +1,111 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.waxeye.parser.ParseResult;
+import org.waxeye.parser.Parser;
+
+public class FirstSetTest {
+
+  @Test
+  public void literalsAndClasses() throws Exception {
+    FirstSet first = firstSet("A <- 'abc' | [0-9] | [x-z] 'q'\n");
+    assertFalse(first.isNullable());
+    assertEquals(1 + 10 + 3, first.size());
+    assertTrue(first.mayStartWith('a'));
+    assertFalse(first.mayStartWith('b'));
+    assertTrue(first.mayStartWith('5'));
+    assertTrue(first.mayStartWith('y'));
+    assertFalse(first.mayStartWith('q'));
+  }
+
+  @Test
+  public void caseInsensitiveLiterals() throws Exception {
+    FirstSet first = firstSet("A <- \"ab\"\n");
+    assertTrue(first.mayStartWith('a'));
+    assertTrue(first.mayStartWith('A'));
+    assertFalse(first.mayStartWith('b'));
+  }
+
+  @Test
+  public void optionalPrefixes() throws Exception {
+    FirstSet first = firstSet("A <- ?'-' *' ' [0-9]\n");
+    assertFalse(first.isNullable());
+    assertEquals(1 + 1 + 10, first.size());
+    assertTrue(first.mayStartWith('-'));
+    assertTrue(first.mayStartWith(' '));
+    assertTrue(first.mayStartWith('0'));
+  }
+
+  @Test
+  public void recursiveRules() throws Exception {
+    FirstSet first = firstSet("A <- B | 'z'\nB <- C '(' A ')' | [a-c]\nC <- ?'#'\n");
+    assertFalse(first.isNullable());
+    assertEquals(1 + 1 + 1 + 3, first.size());
+    assertTrue(first.mayStartWith('#'));
+    assertTrue(first.mayStartWith('('));
+    assertTrue(first.mayStartWith('b'));
+    assertTrue(first.mayStartWith('z'));
+    assertFalse(first.mayStartWith(')'));
+  }
+
+  @Test
+  public void predicatesAreIgnored() throws Exception {
+    // The first set is an over-approximation: 'x' is in it, although a match cannot start with it.
+    FirstSet first = firstSet("A <- !'x' &[a-y] [a-z]\n");
+    assertFalse(first.isNullable());
+    assertEquals(26, first.size());
+    assertTrue(first.mayStartWith('x'));
+    assertTrue(first.mayStartWith('z'));
+  }
+
+  @Test
+  public void wildcard() throws Exception {
+    FirstSet first = firstSet("A <- . 'x'\n");
+    assertFalse(first.isNullable());
+    assertEquals(Character.MAX_VALUE + 1, first.size());
+  }
+
+  @Test
+  public void nullableStartRule() throws Exception {
+    FirstSet first = firstSet("A <- *'a'\n");
+    assertTrue(first.isNullable());
+    assertEquals(Character.MAX_VALUE + 1, first.size());
+    assertTrue(first.mayStartWith('b'));
+  }
+
+  @Test
+  public void nullableThroughRules() throws Exception {
+    assertTrue(firstSet("A <- B C\nB <- ?'b'\nC <- *'c'\n").isNullable());
+    assertFalse(firstSet("A <- B C\nB <- ?'b'\nC <- +'c'\n").isNullable());
+  }
+
+  /* Every non-empty match in the inputs starts with a character in the first set. */
+  @Test
+  public void matchesStartWithCharactersOfTheFirstSet() throws Exception {
+    CompiledGrammar grammar = TestGrammars.ftanGrammar();
+    FirstSet first = FirstSet.of(grammar);
+    assertFalse(first.isNullable());
+    Parser<?> parser = grammar.newParser();
+    parser.setEofCheck(false);
+    int matches = 0;
+    for (String input : TestGrammars.inputs()) {
+      for (int start = 0; start < input.length(); ++start) {
+        ParseResult<?> result = parser.parse(input.substring(start));
+        if (result.getError() == null && result.getAST().getChildren().size() > 0) {
+          ++matches;
+          assertTrue(input.substring(start), first.mayStartWith(input.charAt(start)));
+        }
+      }
+    }
+    assertTrue(matches > 0);
+  }
+
+  private static FirstSet firstSet(String grammar) throws GrammarException {
+    return FirstSet.of(TestGrammars.compile(grammar));
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FragmentCacheTest {
+
+  /* The size of an entry for a fragment of one character and an empty recording. */
+  private static final long ENTRY_SIZE = key("a").size() + recording().size();
+
+  @Test
+  public void cachedRecordingsAreFound() {
+    FragmentCache cache = new FragmentCache(10 * ENTRY_SIZE, 100);
+    EmitterRecording recording = recording();
+    assertNull(cache.get(key("a")));
+    cache.put(key("a"), recording);
+    assertSame(recording, cache.get(key("a")));
+    assertNull(cache.get(new FragmentCache.Key(2, 0, "a")));
+    assertNull(cache.get(new FragmentCache.Key(1, 1, "a")));
+    assertEquals(1, cache.getHits());
+    assertEquals(3, cache.getMisses());
+    assertEquals(0.25, cache.getHitRatio(), 0.0);
+    assertEquals(1, cache.getEntries());
+    assertEquals(ENTRY_SIZE, cache.getSize());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvicted() {
+    FragmentCache cache = new FragmentCache(3 * ENTRY_SIZE, 100);
+    cache.put(key("a"), recording());
+    cache.put(key("b"), recording());
+    cache.put(key("c"), recording());
+    assertEquals(0, cache.getEvictions());
+    // Using a makes b the least recently used entry.
+    assertNotNull(cache.get(key("a")));
+    cache.put(key("d"), recording());
+    assertEquals(1, cache.getEvictions());
+    assertEquals(3, cache.getEntries());
+    assertNull(cache.get(key("b")));
+    assertNotNull(cache.get(key("a")));
+    assertNotNull(cache.get(key("c")));
+    assertNotNull(cache.get(key("d")));
+    assertEquals(3 * ENTRY_SIZE, cache.getSize());
+  }
+
+  @Test
+  public void largeEntriesEvictSeveralEntries() {
+    FragmentCache cache = new FragmentCache(3 * ENTRY_SIZE, 100);
+    cache.put(key("a"), recording());
+    cache.put(key("b"), recording());
+    cache.put(key("c"), recording());
+    // Two characters more than the others, so the two least recently used entries are evicted.
+    cache.put(key("xyz"), recording());
+    assertEquals(2, cache.getEvictions());
+    assertNull(cache.get(key("a")));
+    assertNull(cache.get(key("b")));
+    assertNotNull(cache.get(key("c")));
+    assertNotNull(cache.get(key("xyz")));
+    assertTrue(cache.getSize() <= cache.getMaxSize());
+  }
+
+  @Test
+  public void entriesLargerThanTheCacheAreNotCached() {
+    FragmentCache cache = new FragmentCache(ENTRY_SIZE, 100);
+    cache.put(key("a"), recording());
+    cache.put(key("abc"), recording());
+    assertNull(cache.get(key("abc")));
+    assertNotNull(cache.get(key("a")));
+    assertEquals(0, cache.getEvictions());
+  }
+
+  @Test
+  public void replacingAnEntryKeepsTheSize() {
+    FragmentCache cache = new FragmentCache(10 * ENTRY_SIZE, 100);
+    cache.put(key("a"), recording());
+    EmitterRecording recording = recording();
+    cache.put(key("a"), recording);
+    assertSame(recording, cache.get(key("a")));
+    assertEquals(1, cache.getEntries());
+    assertEquals(ENTRY_SIZE, cache.getSize());
+    cache.clear();
+    assertEquals(0, cache.getEntries());
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void onlyShortFragmentsAreAccepted() {
+    FragmentCache cache = new FragmentCache(1000, 10);
+    assertTrue(cache.accepts(10));
+    assertFalse(cache.accepts(11));
+  }
+
+  /* A fragment that is parsed again gets the same output from the cache. */
+  @Test
+  public void replayedOutputIsTheSame() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile("Word <- +[a-z] ?(:'=' Number)\nNumber <- +[0-9]\n");
+    String fragment = "a=1 and b=22, c";
+    String expected = TestGrammars.scan(directEngine(new LoadedParser(grammar.newParser(), grammar)), fragment);
+    FragmentCache cache = new FragmentCache(1 << 20, 100);
+    ParseEngine engine = directEngine(new LoadedParser(grammar.newParser(), grammar));
+    engine.setFragmentCache(cache);
+    assertEquals(expected, TestGrammars.scan(engine, fragment));
+    assertEquals(0, cache.getHits());
+    assertEquals(expected, TestGrammars.scan(engine, fragment));
+    assertEquals(1, cache.getHits());
+    // Another engine for the same parser with other output options does not use the entry.
+    ParseEngine adjacent = directEngine(engine.getLoadedParser());
+    adjacent.setFragmentCache(cache);
+    adjacent.setMode(ScanMode.ADJACENT);
+    adjacent.setParseErrors(true);
+    TestGrammars.scan(adjacent, fragment);
+    assertEquals(1, cache.getHits());
+  }
+
+  private static ParseEngine directEngine(LoadedParser parser) {
+    ParseEngine engine = new ParseEngine(parser);
+    engine.setDirect(true);
+    return engine;
+  }
+
+  private static FragmentCache.Key key(String fragment) {
+    return new FragmentCache.Key(1, 0, fragment);
+  }
+
+  private static EmitterRecording recording() {
+    EmitterRecording recording = new EmitterRecording();
+    recording.finish(0, 0);
+    return recording;
+  }
+
+}
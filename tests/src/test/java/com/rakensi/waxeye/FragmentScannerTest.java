@@ -0,0 +1,146 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.Normalizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class FragmentScannerTest {
+
+  @Test
+  public void adjacentMatches() throws Exception {
+    ParseEngine engine = engine(TestGrammars.compile("Record <- +[a-z] :';'\n"));
+    assertEquals("<Record>ab</Record><Record>c</Record>", TestGrammars.scan(engine, "ab;c;"));
+  }
+
+  /* With toASCII, the output has the original text, also when it is decomposed. */
+  @Test
+  public void toASCIIKeepsTheOriginalText() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile("Word <- +([a-z] *[\\<0300>-\\<036F>])\n");
+    String composed = "café crème x";
+    String decomposed = Normalizer.normalize(composed, Normalizer.Form.NFD);
+    ParseEngine engine = new ParseEngine(grammar);
+    engine.setToASCII(true);
+    engine.setDirect(true);
+    assertEquals("<Word>café</Word> <Word>crème</Word> <Word>x</Word>", TestGrammars.scan(engine, composed));
+    assertEquals("<Word>cafe\u0301</Word> <Word>cre\u0300me</Word> <Word>x</Word>", TestGrammars.scan(engine, decomposed));
+  }
+
+  /* Chunks that are parsed in parallel give the same output as parsing the fragment in one piece. */
+  @Test
+  public void chunksGiveTheSameOutput() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile("Record <- +[a-z] ?(:'=' +[0-9]) :';'\n");
+    StringBuilder fragment = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) {
+      fragment.append("record").append(i % 2 == 0 ? "="+i : "").append(';');
+    }
+    String expected = TestGrammars.scan(engine(grammar), fragment.toString());
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      for (int maxChunks = 1; maxChunks <= 8; maxChunks *= 2) {
+        ParseEngine engine = engine(grammar);
+        engine.setChunks(";", 500, maxChunks, executor);
+        assertEquals(expected, TestGrammars.scan(engine, fragment.toString()));
+        engine.setChunks(";", 500, maxChunks, null);
+        assertEquals(expected, TestGrammars.scan(engine, fragment.toString()));
+      }
+      // A separator that is not between matches makes chunks that do not line up, and are parsed again.
+      ParseEngine engine = engine(grammar);
+      engine.setChunks("=", 500, 4, executor);
+      assertEquals(expected, TestGrammars.scan(engine, fragment.toString()));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /* Text that is appended in parts gives the same output as scanning it as a whole, however it is split. */
+  @Test
+  public void streamingGivesTheSameOutput() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile("Record <- +[a-z] :'=' +[0-9] :';'\n");
+    String text = records();
+    for (ScanMode mode : new ScanMode[] {ScanMode.SCAN, ScanMode.ADJACENT}) {
+      ParseEngine engine = engine(grammar);
+      engine.setMode(mode);
+      String fragment = mode == ScanMode.SCAN ? text : adjacentRecords();
+      String expected = TestGrammars.scan(engine, fragment);
+      for (int partLength : PART_LENGTHS) {
+        assertEquals(mode+" in parts of "+partLength, expected, stream(engine, engine.newDirectParser(), fragment, partLength));
+      }
+    }
+  }
+
+  /* The Waxeye parser is tried again when it has read to the end of the text that is available.
+   * The characters of the grammar are voided, so that the output only depends on the positions of the matches.
+   */
+  @Test
+  public void streamingWithTheWaxeyeParserGivesTheSameOutput() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile(
+        "Record <- Key :'=' Value :';'\n" +
+        "Key <- :+[a-z]\n" +
+        "Value <- :+[0-9]\n");
+    ParseEngine engine = new ParseEngine(grammar);
+    String text = records();
+    String expected = TestGrammars.scan(engine, text);
+    assertEquals(23 * 200, count(expected, "<Record><Key></Key><Value></Value></Record>"));
+    for (int partLength : PART_LENGTHS) {
+      assertEquals("in parts of "+partLength, expected, stream(engine, null, text, partLength));
+    }
+  }
+
+  /* The lengths of the parts in which text is streamed. */
+  private static final int[] PART_LENGTHS = {1, 3, 7, 1000};
+
+  /* Records and unmatched text, longer than the text that must come in before a scanner tries again. */
+  private static String records() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 200; ++i) {
+      for (int j = 0; j < 23; ++j) {
+        text.append("record").append((char) ('a' + j)).append('=').append(i * j).append(';');
+      }
+      text.append(" not a record=; 12, abc=").append(i).append(' ');
+    }
+    return text.toString();
+  }
+
+  /* Adjacent records, longer than the text that must come in before a scanner tries again. */
+  private static String adjacentRecords() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) {
+      text.append("record=").append(i).append(';');
+    }
+    return text.toString();
+  }
+
+  /* Append a fragment to a streaming scanner in parts, and describe the elements and text of the output. */
+  private static String stream(ParseEngine engine, DirectParser directParser, String fragment, int partLength)
+      throws SAXException, ParsingException {
+    StringBuilder output = new StringBuilder();
+    FragmentScanner scanner = engine.newStreamingScanner(directParser, engine.newEmitter(TestGrammars.describer(output)));
+    char[] chars = fragment.toCharArray();
+    for (int offset = 0; offset < chars.length; offset += partLength) {
+      scanner.append(chars, offset, Math.min(partLength, chars.length - offset));
+    }
+    scanner.scan(true);
+    return output.toString();
+  }
+
+  private static int count(String text, String part) {
+    int count = 0;
+    for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + part.length())) {
+      ++count;
+    }
+    return count;
+  }
+
+  private static ParseEngine engine(CompiledGrammar grammar) {
+    ParseEngine engine = new ParseEngine(grammar);
+    engine.setMode(ScanMode.ADJACENT);
+    engine.setDirect(true);
+    return engine;
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+import org.waxeye.ast.AST;
+import org.waxeye.ast.IAST;
+import org.waxeye.ast.IChar;
+import org.waxeye.parser.ParseResult;
+import org.waxeye.parser.Parser;
+
+/**
+ * Checks that a grammar that is compiled in memory parses like the parser that the Waxeye executable generates.
+ * The comparison with Waxeye is only done when the system property waxeye.bin is the Waxeye executable.
+ */
+public class GrammarCompilerTest {
+
+  @Test
+  public void parseTreesFollowWaxeyeSemantics() throws Exception {
+    Parser<?> parser = TestGrammars.ftanGrammar().newParser();
+    // Voided expressions are left out, and a pruning rule with one child is replaced by the child.
+    assertEquals("(Null 0-4)", describe(parser.parse("null")));
+    assertEquals("(Boolean 0-4 't 'r 'u 'e)", describe(parser.parse("true")));
+    assertEquals("(List 0-8 (Number 1-2 (Digits 1-2 '1)) (Boolean 3-7 't 'r 'u 'e))", describe(parser.parse("[1 true]")));
+    assertEquals("(List 0-2 (EmptyList 0-2 '[ ']))", describe(parser.parse("[]")));
+    assertEquals("(String 0-4 'a 'b)", describe(parser.parse("\"ab\"")));
+    assertEquals(1, parser.parse("[").getError().getPosition());
+  }
+
+  @Test
+  public void nodeTypesAreNamedLikeWaxeye() throws Exception {
+    Enum<?>[] types = TestGrammars.ftanGrammar().getNodeTypes();
+    assertEquals("_Empty", types[GrammarCompiler.EMPTY_TYPE].name());
+    assertEquals("_Char", types[GrammarCompiler.CHAR_TYPE].name());
+    assertEquals("_Pos", types[GrammarCompiler.POS_TYPE].name());
+    assertEquals("_Neg", types[GrammarCompiler.NEG_TYPE].name());
+    assertEquals("Value", types[GrammarCompiler.FIRST_RULE_TYPE].name());
+    assertEquals("EmptyList", typeNamed(types, "EmptyList").name());
+  }
+
+  @Test
+  public void sameParseTreesAsWaxeye() throws Exception {
+    String waxeye = System.getProperty("waxeye.bin", "");
+    assumeTrue(waxeye.length() > 0);
+    Parser<?> generated = generateParser(waxeye, TestGrammars.ftanGrammarFile());
+    Parser<?> inMemory = TestGrammars.ftanGrammar().newParser();
+    for (String input : TestGrammars.inputs()) {
+      for (String text : variants(input)) {
+        assertEquals(text, describe(generated.parse(text)), describe(inMemory.parse(text)));
+      }
+    }
+  }
+
+  /* The input, and variants of it that do not match, so that parse errors are compared as well. */
+  private static List<String> variants(String input) {
+    List<String> variants = new ArrayList<String>();
+    variants.add(input);
+    variants.add(input.trim());
+    variants.add(input.substring(0, input.length() / 2));
+    variants.add(input.substring(input.length() / 3));
+    variants.add("x" + input);
+    return variants;
+  }
+
+  /* A description of a parse result, with the names of the node types instead of the node types. */
+  private static String describe(ParseResult<?> result) {
+    StringBuilder description = new StringBuilder();
+    if (result.getAST() != null) describe(result.getAST(), description);
+    if (result.getError() != null) {
+      description.append(" error at ").append(result.getError().getPosition())
+                 .append(" (").append(result.getError().getLine()).append(':').append(result.getError().getColumn())
+                 .append(") in ").append(result.getError().getNT());
+    }
+    return description.toString();
+  }
+
+  private static void describe(IAST<?> tree, StringBuilder description) {
+    if (tree instanceof IChar) {
+      description.append('\'').append(((IChar) tree).getValue());
+    } else if (tree instanceof AST) {
+      description.append('(').append(tree.getType().name())
+                 .append(' ').append(tree.getPosition().getStartIndex()).append('-').append(tree.getPosition().getEndIndex());
+      for (IAST<?> child : tree.getChildren()) {
+        description.append(' ');
+        describe(child, description);
+      }
+      description.append(')');
+    } else {
+      description.append(tree.getType().name());
+    }
+  }
+
+  private static Enum<?> typeNamed(Enum<?>[] types, String name) {
+    for (Enum<?> type : types) {
+      if (type.name().equals(name)) return type;
+    }
+    throw new AssertionError("There is no node type "+name);
+  }
+
+  /* Generate the parser of a grammar with the Waxeye executable, compile it, and load it. */
+  private static Parser<?> generateParser(String waxeye, File grammarFile) throws Exception {
+    File directory = File.createTempFile("waxeye-parser", "");
+    if (!directory.delete() || !directory.mkdir()) throw new IOException("Cannot create the directory "+directory);
+    Process process = new ProcessBuilder(waxeye, "-g", "java", directory.getPath(), grammarFile.getPath())
+        .redirectErrorStream(true).start();
+    Reader output = new InputStreamReader(process.getInputStream());
+    StringBuilder message = new StringBuilder();
+    for (int c = output.read(); c >= 0; c = output.read()) message.append((char) c);
+    if (process.waitFor() != 0) throw new IOException("Waxeye failed: "+message);
+    JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+    if (javaCompiler == null) throw new IOException("There is no system Java compiler; run the tests with a JDK.");
+    if (javaCompiler.run(null, null, null, "-nowarn", "-classpath", System.getProperty("java.class.path"),
+                         "-d", directory.getPath(), new File(directory, "Type.java").getPath(),
+                         new File(directory, "Parser.java").getPath()) != 0) {
+      throw new IOException("Cannot compile the parser that Waxeye generated in "+directory);
+    }
+    ClassLoader classLoader = new URLClassLoader(new URL[] {directory.toURI().toURL()}, GrammarCompilerTest.class.getClassLoader());
+    return (Parser<?>) classLoader.loadClass("Parser").newInstance();
+  }
+
+}
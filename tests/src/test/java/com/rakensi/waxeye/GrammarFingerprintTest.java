@@ -0,0 +1,65 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GrammarFingerprintTest {
+
+  private File directory;
+
+  @Before
+  public void setup() throws IOException {
+    directory = File.createTempFile("grammar-fingerprint", "");
+    if (!directory.delete() || !directory.mkdir()) throw new IOException("Cannot create the directory "+directory);
+  }
+
+  @After
+  public void cleanup() {
+    for (File file : directory.listFiles()) file.delete();
+    directory.delete();
+  }
+
+  @Test
+  public void sameContentsGiveTheSameFingerprint() throws IOException {
+    List<File> files = Collections.singletonList(write("a.waxeye", "A <- 'a'\n"));
+    String fingerprint = GrammarFingerprint.of(files, "settings");
+    assertEquals(fingerprint, GrammarFingerprint.of(files, "settings"));
+    assertFalse(fingerprint.equals(GrammarFingerprint.of(files, "other settings")));
+  }
+
+  /* A deployment may restore the timestamp of a changed file, so the contents are read every time. */
+  @Test
+  public void changedContentsWithTheSameTimestampAndLength() throws IOException {
+    File grammar = write("a.waxeye", "A <- 'a'\n");
+    long lastModified = grammar.lastModified();
+    List<File> files = Collections.singletonList(grammar);
+    String fingerprint = GrammarFingerprint.of(files, "");
+    write("a.waxeye", "A <- 'b'\n");
+    grammar.setLastModified(lastModified);
+    assertEquals(lastModified, grammar.lastModified());
+    assertFalse(fingerprint.equals(GrammarFingerprint.of(files, "")));
+  }
+
+  private File write(String name, String content) throws IOException {
+    File file = new File(directory, name);
+    Writer writer = new FileWriter(file);
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.waxeye.ast.AST;
+import org.waxeye.ast.IAST;
+import org.waxeye.ast.IChar;
+import org.waxeye.parser.ParseResult;
+import org.waxeye.parser.Parser;
+
+/**
+ * Checks modular grammars, which are read from src/test/resources/modular, without the Waxeye executable.
+ * The parse trees of the inputs in inputs.txt are compared with the golden file name.expected of each modular grammar.
+ */
+public class GrammarReaderTest {
+
+  @Test
+  public void modulesAreCombined() throws Exception {
+    assertEquals(Arrays.asList("List", "Item", "Number", "Digits", "Word"), ruleNames(modular("all.modular")));
+  }
+
+  @Test
+  public void rulesAreRenamedAndPrefixed() throws Exception {
+    assertEquals(Arrays.asList("List", "Element", "NumNumber", "NumDigits", "NumSign", "Word"),
+                 ruleNames(modular("renamed.modular")));
+  }
+
+  @Test
+  public void parseTreesOfModularGrammars() throws Exception {
+    List<String> inputs = lines("inputs.txt");
+    for (String name : new String[] {"all", "renamed"}) {
+      Parser<?> parser = GrammarCompiler.compile(modular(name+".modular")).newParser();
+      List<String> expected = lines(name+".expected");
+      assertEquals(name, inputs.size(), expected.size());
+      for (int i = 0; i < inputs.size(); ++i) {
+        assertEquals(name+": "+inputs.get(i), expected.get(i), inputs.get(i)+" => "+describe(parser.parse(inputs.get(i))));
+      }
+    }
+  }
+
+  /* The prefix of (prefix "Num" ...) is not a grammar file, and comments are left out. */
+  @Test
+  public void grammarFilesAreTheModules() throws Exception {
+    File grammarFile = resource("renamed.modular");
+    assertEquals(Arrays.asList(grammarFile, resource("list.waxeye"), resource("numbers.waxeye"), resource("words.waxeye")),
+                 canonical(GrammarFingerprint.grammarFiles(grammarFile, true)));
+    grammarFile = resource("all.modular");
+    assertEquals(Arrays.asList(grammarFile, resource("list.waxeye"), resource("numbers.waxeye"), resource("words.waxeye")),
+                 canonical(GrammarFingerprint.grammarFiles(grammarFile, true)));
+    assertEquals(Arrays.asList(grammarFile), GrammarFingerprint.grammarFiles(grammarFile, false));
+  }
+
+  @Test
+  public void unknownOperatorsAreErrors() throws Exception {
+    File grammarFile = File.createTempFile("unknown", ".modular", resource("list.waxeye").getParentFile());
+    try {
+      TestGrammars.write(grammarFile, "(merge \"list.waxeye\")\n");
+      GrammarReader.read(grammarFile, true);
+      fail("Expected a GrammarException");
+    } catch (GrammarException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Unknown module operator 'merge'"));
+    } finally {
+      grammarFile.delete();
+    }
+  }
+
+  private static Grammar modular(String name) throws Exception {
+    return GrammarReader.read(resource(name), true);
+  }
+
+  private static List<String> ruleNames(Grammar grammar) {
+    List<String> names = new ArrayList<String>();
+    for (Rule rule : grammar.getRules()) names.add(rule.getName());
+    return names;
+  }
+
+  private static List<File> canonical(List<File> files) throws Exception {
+    List<File> canonical = new ArrayList<File>();
+    for (File file : files) canonical.add(file.getCanonicalFile());
+    return canonical;
+  }
+
+  private static File resource(String name) throws Exception {
+    return new File(GrammarReaderTest.class.getResource("/modular/"+name).toURI()).getCanonicalFile();
+  }
+
+  private static List<String> lines(String name) throws Exception {
+    List<String> lines = new ArrayList<String>();
+    for (String line : TestGrammars.read(resource(name)).split("\n")) {
+      if (line.length() > 0) lines.add(line);
+    }
+    return lines;
+  }
+
+  /* A description of a parse result, with the names of the node types, like GrammarCompilerTest. */
+  private static String describe(ParseResult<?> result) {
+    if (result.getAST() == null) return "error at "+result.getError().getPosition()+" in "+result.getError().getNT();
+    StringBuilder description = new StringBuilder();
+    describe(result.getAST(), description);
+    return description.toString();
+  }
+
+  private static void describe(IAST<?> tree, StringBuilder description) {
+    if (tree instanceof IChar) {
+      description.append('\'').append(((IChar) tree).getValue());
+    } else if (tree instanceof AST) {
+      description.append('(').append(tree.getType().name());
+      for (IAST<?> child : tree.getChildren()) {
+        description.append(' ');
+        describe(child, description);
+      }
+      description.append(')');
+    } else {
+      description.append(tree.getType().name());
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GrammarWatcherTest {
+
+  private GrammarWatcher watcher;
+  private File directory;
+
+  @Before
+  public void setup() throws IOException {
+    watcher = new GrammarWatcher("test-grammar-watcher", 50);
+    directory = File.createTempFile("grammar-watcher", "");
+    if (!directory.delete() || !directory.mkdir()) throw new IOException("Cannot create the directory "+directory);
+  }
+
+  @After
+  public void shutdown() throws IOException {
+    watcher.close();
+    for (File file : directory.listFiles()) file.delete();
+    directory.delete();
+  }
+
+  @Test
+  public void watchedGrammarsAreKnown() throws IOException {
+    File grammar = write("a.waxeye", "A <- 'a'\n");
+    assertFalse(watcher.isWatching("a"));
+    watcher.watch("a", Collections.singletonList(grammar), new Runnable() {
+      public void run() {
+      }
+    });
+    assertTrue(watcher.isWatching("a"));
+    assertFalse(watcher.isWatching("b"));
+    watcher.unwatch("a");
+    assertFalse(watcher.isWatching("a"));
+  }
+
+  @Test
+  public void changedGrammarIsReloaded() throws Exception {
+    File grammar = write("a.waxeye", "A <- 'a'\n");
+    final CountDownLatch reloaded = new CountDownLatch(1);
+    watcher.watch("a", Collections.singletonList(grammar), new Runnable() {
+      public void run() {
+        reloaded.countDown();
+      }
+    });
+    write("a.waxeye", "A <- 'b'\n");
+    assertTrue(reloaded.await(30, TimeUnit.SECONDS));
+    // The grammar stays watched after a reload, so that requests can keep using the loaded parser.
+    assertTrue(watcher.isWatching("a"));
+  }
+
+  private File write(String name, String content) throws IOException {
+    File file = new File(directory, name);
+    Writer writer = new FileWriter(file);
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+}
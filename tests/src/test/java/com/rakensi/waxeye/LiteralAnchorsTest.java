@@ -0,0 +1,104 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.rakensi.trie.AhoCorasick;
+
+public class LiteralAnchorsTest {
+
+  private static final String KEYWORDS_GRAMMAR =
+      "Ref <- Article | Ecli\n" +
+      "Article <- :'artikel' :' ' +[0-9] ?[a-z]\n" +
+      "Ecli <- :'ECLI:' +[A-Z] :':' +[A-Z0-9]\n";
+
+  @Test
+  public void keywordsAreAnchors() throws Exception {
+    // Anchors are at most MAX_LENGTH long, and a character class with many characters ends an anchor.
+    assertEquals(Arrays.asList("ECLI:", "artikel "), LiteralAnchors.of(TestGrammars.compile(KEYWORDS_GRAMMAR)));
+    AhoCorasick anchors = LiteralAnchors.index(TestGrammars.compile(KEYWORDS_GRAMMAR));
+    assertNotNull(anchors);
+    assertEquals(2, anchors.size());
+  }
+
+  @Test
+  public void smallCharacterClassesAreExpanded() throws Exception {
+    assertEquals(Arrays.asList("x0", "x1", "x2"), LiteralAnchors.of(TestGrammars.compile("A <- 'x' [0-2] +[a-z]\n")));
+  }
+
+  @Test
+  public void anchorsThatBeginWithAnotherAnchorAreLeftOut() throws Exception {
+    assertEquals(Arrays.asList("ab"), LiteralAnchors.of(TestGrammars.compile("A <- 'abc' | 'ab' 'd' | 'ab'\n")));
+  }
+
+  @Test
+  public void noAnchorsWhenAMatchCanStartWithAnything() throws Exception {
+    assertNull(LiteralAnchors.of(TestGrammars.compile("A <- . 'x'\n")));
+    assertNull(LiteralAnchors.of(TestGrammars.compile("A <- +[a-z]\n")));
+    // The start rule can match the empty string.
+    assertNull(LiteralAnchors.of(TestGrammars.compile("A <- ?'ab'\n")));
+  }
+
+  @Test
+  public void noIndexForSingleCharacterAnchors() throws Exception {
+    assertEquals(Arrays.asList("a", "bc"), LiteralAnchors.of(TestGrammars.compile("A <- 'a' | 'bc'\n")));
+    // The FirstSet is just as good.
+    assertNull(LiteralAnchors.index(TestGrammars.compile("A <- 'a' | 'bc'\n")));
+  }
+
+  /* Every non-empty match starts with an anchor. */
+  @Test
+  public void matchesStartWithAnAnchor() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile(KEYWORDS_GRAMMAR);
+    AhoCorasick anchors = LiteralAnchors.index(grammar);
+    String text = text();
+    DirectParser parser = new DirectParser(grammar);
+    parser.setEofCheck(false);
+    parser.setInput(text);
+    int matches = 0;
+    for (int start = 0; start < text.length(); ++start) {
+      if (parser.parse(start)) {
+        ++matches;
+        assertTrue(text.substring(start), anchors.starts(text, 0, text.length()).get(start));
+      }
+    }
+    assertTrue(matches > 0);
+  }
+
+  /* The scan output is the same with the anchors as without them. */
+  @Test
+  public void anchorsDoNotChangeTheScanOutput() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile(KEYWORDS_GRAMMAR);
+    ParseEngine withAnchors = new ParseEngine(grammar);
+    withAnchors.setDirect(true);
+    assertNotNull(withAnchors.getAnchors());
+    ParseEngine withoutAnchors = new ParseEngine(grammar) {
+      public AhoCorasick getAnchors() {
+        return null;
+      }
+    };
+    withoutAnchors.setDirect(true);
+    String text = text();
+    String expected = TestGrammars.scan(withoutAnchors, text);
+    assertTrue(expected.contains("<Article>12a</Article>"));
+    assertTrue(expected.contains("<Ecli>NLHR2019</Ecli>"));
+    assertEquals(expected, TestGrammars.scan(withAnchors, text));
+    for (int end = 0; end <= text.length(); ++end) {
+      String fragment = text.substring(0, end);
+      assertEquals(fragment, TestGrammars.scan(withoutAnchors, fragment), TestGrammars.scan(withAnchors, fragment));
+    }
+  }
+
+  /* Matches, near misses, overlapping keywords, and a keyword at the end. */
+  private static String text() {
+    return "Zie artikel 12a en artikel 3, niet artikelen 4 of artikel x; ECLI:NL:HR2019, ECLI:NL, ECLI:nl:x, " +
+           "artiartikel 7 ECLIECLI:AB:C1 artikel";
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MemoPolicyTest {
+
+  @Test
+  public void allAutomataAreMemoized() throws Exception {
+    CompiledGrammar grammar = TestGrammars.ftanGrammar();
+    MemoPolicy policy = MemoPolicy.all(grammar);
+    for (int i = 0; i < grammar.getAutomata().size(); ++i) {
+      assertTrue(policy.isMemoized(i));
+    }
+  }
+
+  @Test
+  public void lexicalAutomataAreNotMemoized() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile("A <- B C\nB <- +[a-z]\nC <- B ?' '\n");
+    MemoPolicy policy = MemoPolicy.of(grammar, Collections.<String>emptyList());
+    assertTrue(policy.isMemoized(0));
+    assertFalse(policy.isMemoized(1));
+    assertTrue(policy.isMemoized(2));
+  }
+
+  @Test
+  public void namedRulesAreNotMemoized() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile("A <- B C\nB <- +[a-z]\nC <- B ?' '\n");
+    MemoPolicy policy = MemoPolicy.of(grammar, Arrays.asList("C"));
+    assertTrue(policy.isMemoized(0));
+    assertFalse(policy.isMemoized(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownRulesAreRejected() throws Exception {
+    MemoPolicy.of(TestGrammars.compile("A <- 'a'\n"), Arrays.asList("B"));
+  }
+
+  /* Memoization and the memo limit do not change the result of a parse. */
+  @Test
+  public void memoizationDoesNotChangeParses() throws Exception {
+    CompiledGrammar grammar = TestGrammars.ftanGrammar();
+    List<String> inputs = TestGrammars.inputs();
+    DirectParser reference = new DirectParser(grammar);
+    DirectParser lexical = new DirectParser(grammar);
+    lexical.setMemoPolicy(MemoPolicy.of(grammar, Arrays.asList("value", "string")));
+    DirectParser limited = new DirectParser(grammar);
+    limited.setMemoLimit(16);
+    for (String input : inputs) {
+      for (String text : new String[] {input, input.trim(), input.substring(0, input.length() / 2)}) {
+        String expected = TestGrammars.describe(reference, text);
+        assertEquals(text, expected, TestGrammars.describe(lexical, text));
+        assertEquals(text, expected, TestGrammars.describe(limited, text));
+      }
+    }
+    assertTrue(limited.getDroppedMemoEntries() > 0);
+  }
+
+}
@@ -0,0 +1,111 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MemoTableTest {
+
+  @Test
+  public void entriesAreFoundByAutomatonAndPosition() {
+    MemoTable table = new MemoTable();
+    table.put(3, 10, 7, 12, 11, 5, -1);
+    table.put(4, 10, 8, 10, -1, 0, 20);
+    int slot = table.find(3, 10);
+    assertTrue(slot >= 0);
+    assertEquals(7, table.getResult(slot));
+    assertEquals(12, table.getEndPosition(slot));
+    assertEquals(11, table.getErrorPosition(slot));
+    assertEquals(5, table.getErrorType(slot));
+    assertEquals(-1, table.getInputLength(slot));
+    slot = table.find(4, 10);
+    assertEquals(8, table.getResult(slot));
+    assertEquals(20, table.getInputLength(slot));
+    assertEquals(-1, table.find(3, 11));
+    assertEquals(-1, table.find(5, 10));
+    assertEquals(2, table.size());
+  }
+
+  @Test
+  public void putReplacesAnEntry() {
+    MemoTable table = new MemoTable();
+    table.put(1, 0, 1, 1, -1, 0, -1);
+    table.put(1, 0, 2, 3, -1, 0, -1);
+    assertEquals(1, table.size());
+    assertEquals(2, table.getResult(table.find(1, 0)));
+    assertEquals(3, table.getEndPosition(table.find(1, 0)));
+  }
+
+  @Test
+  public void tableGrowsWithoutLimit() {
+    MemoTable table = new MemoTable();
+    for (int position = 0; position < 10000; ++position) {
+      table.put(position % 7, position, position, position + 1, -1, 0, -1);
+    }
+    assertEquals(10000, table.size());
+    for (int position = 0; position < 10000; ++position) {
+      assertEquals(position, table.getResult(table.find(position % 7, position)));
+    }
+    assertEquals(0, table.getDropped());
+  }
+
+  @Test
+  public void clearRemovesAllEntries() {
+    MemoTable table = new MemoTable();
+    for (int position = 0; position < 3000; ++position) {
+      table.put(0, position, 1, position, -1, 0, -1);
+    }
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(-1, table.find(0, 5));
+    table.put(0, 5, 9, 6, -1, 0, -1);
+    assertEquals(9, table.getResult(table.find(0, 5)));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  public void entriesBeforeTheCommittedPositionAreDroppedFirst() {
+    MemoTable table = new MemoTable();
+    table.setMaxSize(64);
+    for (int position = 0; position < 64; ++position) {
+      table.put(0, position, 1, position + 1, -1, 0, -1);
+    }
+    table.setCommittedPosition(40);
+    table.put(0, 64, 1, 65, -1, 0, -1);
+    assertEquals(40, table.getDropped());
+    assertEquals(25, table.size());
+    assertEquals(-1, table.find(0, 39));
+    for (int position = 40; position <= 64; ++position) {
+      assertEquals(position + 1, table.getEndPosition(table.find(0, position)));
+    }
+  }
+
+  @Test
+  public void allEntriesAreDroppedIfTheCommittedPositionDoesNotMakeRoom() {
+    MemoTable table = new MemoTable();
+    table.setMaxSize(64);
+    for (int position = 0; position < 64; ++position) {
+      table.put(0, position, 1, position + 1, -1, 0, -1);
+    }
+    table.put(0, 64, 1, 65, -1, 0, -1);
+    assertEquals(64, table.getDropped());
+    assertEquals(1, table.size());
+    assertEquals(-1, table.find(0, 63));
+    assertEquals(65, table.getEndPosition(table.find(0, 64)));
+  }
+
+  @Test
+  public void sizeStaysWithinTheMaximum() {
+    MemoTable table = new MemoTable();
+    table.setMaxSize(1000);
+    for (int position = 0; position < 100000; ++position) {
+      table.setCommittedPosition(position - 100);
+      table.put(position % 3, position, 1, position + 1, -1, 0, -1);
+      assertTrue(table.size() <= 1000);
+      assertEquals(position + 1, table.getEndPosition(table.find(position % 3, position)));
+    }
+    assertEquals(100000, table.size() + table.getDropped());
+  }
+
+}
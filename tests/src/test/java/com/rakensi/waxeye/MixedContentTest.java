@@ -0,0 +1,160 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class MixedContentTest {
+
+  /* Words, in which markup may stand. */
+  private static final String WORDS_GRAMMAR = "Word <- +([a-z] | [\\<FFFC>])\n";
+
+  @Test
+  public void markupIsSplicedIntoMatches() throws Exception {
+    ParseEngine engine = engine(WORDS_GRAMMAR);
+    assertEquals("<Word>ab<i>cd</i>ef</Word> <Word>gh<!--c--></Word> <Word>x<?t d?></Word>",
+                 parse(engine, sample()));
+  }
+
+  @Test
+  public void markupIsSplicedIntoUnmatchedText() throws Exception {
+    ParseEngine engine = engine("Word <- +[a-z]\n");
+    assertEquals("<Word>ab</Word><i>cd</i><Word>ef</Word> <Word>gh</Word><!--c--> <Word>x</Word><?t d?>",
+                 parse(engine, sample()));
+  }
+
+  /* The prefix mappings around an element are sent with it, in the same order. */
+  @Test
+  public void prefixMappingsAreReplayed() throws Exception {
+    MixedContent content = new MixedContent();
+    characters(content, "ab");
+    content.startPrefixMapping("p", "urn:p");
+    content.startElement("urn:p", "b", "p:b", new AttributesImpl());
+    characters(content, "cd");
+    content.endElement("urn:p", "b", "p:b");
+    content.endPrefixMapping("p");
+    characters(content, " ef");
+    assertEquals(1, content.getMarkupCount());
+    assertEquals(2, content.getPosition(0));
+    assertEquals("<Word>ab{p=urn:p}<p:b>cd</p:b>{/p}</Word> <Word>ef</Word>", parse(engine(WORDS_GRAMMAR), content));
+  }
+
+  /* With toASCII, the placeholders are not replaced, and the output has the original text. */
+  @Test
+  public void toASCIIKeepsThePlaceholders() throws Exception {
+    assertEquals(MixedContent.PLACEHOLDER, MixedContent.asciiTable()[MixedContent.PLACEHOLDER]);
+    assertEquals('e', MixedContent.asciiTable()['é']);
+    MixedContent content = new MixedContent();
+    characters(content, "café");
+    element(content, "i", "x");
+    characters(content, "naïve où");
+    ParseEngine engine = engine(WORDS_GRAMMAR);
+    engine.setToASCII(true);
+    assertEquals("<Word>café<i>x</i>naïve</Word> <Word>où</Word>", parse(engine, content));
+  }
+
+  /* Cached output of mixed content is replayed with the markup of the content that is parsed. */
+  @Test
+  public void cachedOutputIsReplayed() throws Exception {
+    ParseEngine engine = engine(WORDS_GRAMMAR);
+    FragmentCache cache = new FragmentCache(1 << 20, 1000);
+    engine.setFragmentCache(cache);
+    String expected = "<Word>ab<i>cd</i>ef</Word> <Word>gh<!--c--></Word> <Word>x<?t d?></Word>";
+    assertEquals(expected, parse(engine, sample()));
+    assertEquals(0, cache.getHits());
+    assertEquals(expected, parse(engine, sample()));
+    assertEquals(1, cache.getHits());
+    // The same text with other markup gets the markup of its own content.
+    MixedContent other = new MixedContent();
+    characters(other, "ab");
+    element(other, "u", "yz");
+    characters(other, "ef gh");
+    element(other, "br", "");
+    characters(other, " x");
+    element(other, "s", "");
+    assertEquals("<Word>ab<u>yz</u>ef</Word> <Word>gh<br></br></Word> <Word>x<s></s></Word>", parse(engine, other));
+    assertEquals(2, cache.getHits());
+    // Plain text is not answered from the cache of mixed content.
+    assertEquals("<Word>ab</Word>", TestGrammars.scan(engine, "ab"));
+    assertEquals(2, cache.getHits());
+  }
+
+  /* Text with an element, a comment and a processing instruction. */
+  private static MixedContent sample() throws SAXException {
+    MixedContent content = new MixedContent();
+    characters(content, "ab");
+    element(content, "i", "cd");
+    characters(content, "ef gh");
+    content.comment("c".toCharArray(), 0, 1);
+    characters(content, " x");
+    content.processingInstruction("t", "d");
+    return content;
+  }
+
+  private static void characters(MixedContent content, String text) {
+    content.characters(text.toCharArray(), 0, text.length());
+  }
+
+  private static void element(MixedContent content, String name, String text) {
+    content.startElement("", name, name, new AttributesImpl());
+    characters(content, text);
+    content.endElement("", name, name);
+  }
+
+  private static ParseEngine engine(String grammar) throws GrammarException {
+    ParseEngine engine = new ParseEngine(TestGrammars.compile(grammar));
+    engine.setDirect(true);
+    return engine;
+  }
+
+  /* Parse mixed content, and describe the elements, text, prefix mappings, comments and processing instructions. */
+  private static String parse(ParseEngine engine, MixedContent content) throws SAXException, ParsingException {
+    Recorder recorder = new Recorder();
+    engine.parse(content, recorder);
+    return recorder.output.toString();
+  }
+
+  private static final class Recorder extends DefaultHandler implements LexicalHandler {
+    final StringBuilder output = new StringBuilder();
+
+    public void startPrefixMapping(String prefix, String uri) {
+      output.append('{').append(prefix).append('=').append(uri).append('}');
+    }
+    public void endPrefixMapping(String prefix) {
+      output.append("{/").append(prefix).append('}');
+    }
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      output.append('<').append(qName).append('>');
+    }
+    public void endElement(String uri, String localName, String qName) {
+      output.append("</").append(qName).append('>');
+    }
+    public void characters(char[] ch, int start, int length) {
+      output.append(ch, start, length);
+    }
+    public void processingInstruction(String target, String data) {
+      output.append("<?").append(target).append(' ').append(data).append("?>");
+    }
+    public void comment(char[] ch, int start, int length) {
+      output.append("<!--").append(ch, start, length).append("-->");
+    }
+    public void startDTD(String name, String publicId, String systemId) {
+    }
+    public void endDTD() {
+    }
+    public void startEntity(String name) {
+    }
+    public void endEntity(String name) {
+    }
+    public void startCDATA() {
+    }
+    public void endCDATA() {
+    }
+  }
+
+}
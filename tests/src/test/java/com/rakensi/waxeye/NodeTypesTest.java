@@ -0,0 +1,82 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.waxeye.ast.IAST;
+import org.waxeye.parser.ParseResult;
+
+public class NodeTypesTest {
+
+  @Test
+  public void typesHaveTheirNamesAndOrdinals() {
+    Enum<?>[] types = NodeTypes.create(new String[] {"_Empty", "_Char", "Value", "EmptyList"});
+    assertEquals(4, types.length);
+    for (int i = 0; i < types.length; ++i) {
+      assertEquals(i, types[i].ordinal());
+    }
+    assertEquals("_Empty", types[0].name());
+    assertEquals("EmptyList", types[3].name());
+    assertEquals("EmptyList", types[3].toString());
+  }
+
+  @Test
+  public void typesBehaveLikeEnumConstants() {
+    Enum<?>[] types = NodeTypes.create(new String[] {"A", "B", "C"});
+    Class<?> typeClass = types[0].getClass();
+    assertSame(Enum.class, typeClass.getSuperclass());
+    assertSame(typeClass, types[0].getDeclaringClass());
+    assertSame(typeClass, types[2].getClass());
+    // Not an enum class, so that it can be instantiated, but the constants compare and hash like enum constants.
+    assertFalse(typeClass.isEnum());
+    assertTrue(compare(types[0], types[1]) < 0);
+    assertTrue(compare(types[2], types[1]) > 0);
+    assertEquals(0, compare(types[1], types[1]));
+    assertFalse(types[0].equals(types[1]));
+    Map<Object, String> names = new HashMap<Object, String>();
+    for (Enum<?> type : types) names.put(type, type.name());
+    assertEquals("B", names.get(types[1]));
+  }
+
+  @Test
+  public void eachGrammarHasItsOwnTypes() {
+    Enum<?>[] first = NodeTypes.create(new String[] {"A"});
+    Enum<?>[] second = NodeTypes.create(new String[] {"A"});
+    assertNotSame(first[0].getClass(), second[0].getClass());
+    assertFalse(first[0].equals(second[0]));
+  }
+
+  @Test
+  public void typeNamesAreCapitalized() {
+    assertEquals("Value", NodeTypes.typeName("value"));
+    assertEquals("EmptyList", NodeTypes.typeName("emptyList"));
+    assertEquals("CharRep", NodeTypes.typeName("char_rep"));
+    assertEquals("CharRep", NodeTypes.typeName("char-rep"));
+  }
+
+  @Test
+  public void parseTreesHaveTheTypesOfTheGrammar() throws Exception {
+    CompiledGrammar grammar = TestGrammars.compile("Pair <- Word :',' Word\nWord <- +[a-z]\n");
+    ParseResult<?> result = grammar.newParser().parse("ab,c");
+    IAST<?> tree = result.getAST();
+    Enum<?>[] types = grammar.getNodeTypes();
+    assertSame(types[GrammarCompiler.FIRST_RULE_TYPE], tree.getType());
+    assertEquals("Pair", tree.getType().name());
+    assertEquals(2, tree.getChildren().size());
+    assertSame(types[GrammarCompiler.FIRST_RULE_TYPE + 1], tree.getChildren().get(0).getType());
+    assertSame(types[GrammarCompiler.CHAR_TYPE], tree.getChildren().get(0).getChildren().get(0).getType());
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static int compare(Enum a, Enum b) {
+    return a.compareTo(b);
+  }
+
+}
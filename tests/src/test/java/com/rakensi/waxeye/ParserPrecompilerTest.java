@@ -0,0 +1,71 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks that grammars are precompiled without the Waxeye executable, into descent parsers that are found by their hash.
+ */
+public class ParserPrecompilerTest {
+
+  @Test
+  public void grammarIsPrecompiledWithoutWaxeye() throws Exception {
+    File grammarFile = TestGrammars.ftanGrammarFile();
+    File directory = File.createTempFile("waxeye-parsers", "");
+    if (!directory.delete() || !directory.mkdir()) throw new IOException("Cannot create the directory "+directory);
+    File jarFile = new ParserPrecompiler(null, false, null).precompile(grammarFile, directory);
+    try {
+      String hash = PrecompiledParsers.hash(GrammarFingerprint.grammarFiles(grammarFile, false), false);
+      ClassLoader resources = new URLClassLoader(new URL[] {directory.toURI().toURL()}, null);
+      Map<String, byte[]> classes = PrecompiledParsers.find(resources, PrecompiledParsers.grammarName(grammarFile), hash);
+      assertNotNull(classes);
+      // A jar of another format version of the descent parsers is not found.
+      String otherFormat = GrammarFingerprint.of(GrammarFingerprint.grammarFiles(grammarFile, false),
+                                                 "compiler=precompiled;modular=false;descent="+(DescentParserGenerator.FORMAT_VERSION - 1));
+      assertNull(PrecompiledParsers.find(resources, PrecompiledParsers.grammarName(grammarFile), otherFormat));
+      // Only the descent parser; the compiled grammar is the parser that is not direct.
+      assertFalse(classes.containsKey("Parser"));
+      assertTrue(classes.containsKey(DescentParserGenerator.CLASS_NAME));
+      CompiledGrammar grammar = TestGrammars.ftanGrammar();
+      Class<? extends DirectParser> descentParserClass =
+          new ClassesLoader(classes).loadClass(DescentParserGenerator.CLASS_NAME).asSubclass(DirectParser.class);
+      LoadedParser loadedParser = new LoadedParser(grammar.newParser(), grammar, descentParserClass);
+      assertTrue(loadedParser.hasDescentParser());
+      for (String input : TestGrammars.inputs()) {
+        assertEquals(input, TestGrammars.describe(new DirectParser(grammar), input),
+                     TestGrammars.describe(loadedParser.newDirectParser(), input));
+      }
+    } finally {
+      jarFile.delete();
+      jarFile.getParentFile().delete();
+      directory.delete();
+    }
+  }
+
+  /* Defines classes from their class files. */
+  private static final class ClassesLoader extends ClassLoader {
+    private final Map<String, byte[]> classes;
+    ClassesLoader(Map<String, byte[]> classes) {
+      super(ParserPrecompilerTest.class.getClassLoader());
+      this.classes = classes;
+    }
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      byte[] bytes = classes.get(name);
+      if (bytes == null) throw new ClassNotFoundException(name);
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+package com.rakensi.waxeye;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ParserStoreTest {
+
+  private final ParserStore<String> store = new ParserStore<String>();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void storedVersionIsReturnedWithoutLoading() throws Exception {
+    CountingLoader loader = new CountingLoader("parser-1");
+    assertEquals("parser-1", store.get("grammar", "1", loader));
+    assertEquals("parser-1", store.get("grammar", "1", loader));
+    assertEquals(1, loader.loads.get());
+    assertEquals(ParserStore.LoadState.LOADED, store.getLoadState("grammar"));
+    assertEquals("1", store.getVersion("grammar"));
+    assertEquals(null, store.getVersion("other"));
+    assertEquals("parser-1", store.getLoaded("grammar"));
+    assertEquals(null, store.getLoaded("other"));
+  }
+
+  @Test
+  public void concurrentRequestsForOneVersionLoadOnce() throws Exception {
+    final BlockingLoader loader = new BlockingLoader("parser-1");
+    Future<String> first = executor.submit(get("1", loader));
+    assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+    Future<String> second = executor.submit(get("1", loader));
+    assertEquals(ParserStore.LoadState.LOADING, store.getLoadState("grammar"));
+    loader.release.countDown();
+    assertEquals("parser-1", first.get(5, TimeUnit.SECONDS));
+    assertEquals("parser-1", second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, loader.loads.get());
+  }
+
+  @Test
+  public void previousVersionIsUsedWhileReloading() throws Exception {
+    store.get("grammar", "1", new CountingLoader("parser-1"));
+    BlockingLoader loader = new BlockingLoader("parser-2");
+    Future<String> reload = executor.submit(get("2", loader));
+    assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+    assertEquals(ParserStore.LoadState.RELOADING, store.getLoadState("grammar"));
+    assertEquals("parser-1", store.get("grammar", "2", loader));
+    // The version of the parser that is returned, not the requested version.
+    assertEquals("1", store.getVersion("grammar"));
+    assertEquals("parser-1", store.getLoaded("grammar"));
+    loader.release.countDown();
+    assertEquals("parser-2", reload.get(5, TimeUnit.SECONDS));
+    assertEquals("parser-2", store.get("grammar", "2", loader));
+    assertEquals("2", store.getVersion("grammar"));
+    assertEquals("parser-2", store.getLoaded("grammar"));
+    assertEquals(1, loader.loads.get());
+  }
+
+  @Test
+  public void loadsOfDifferentVersionsDoNotOverlap() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger overlaps = new AtomicInteger();
+    BlockingLoader first = new BlockingLoader("parser-1", running, overlaps);
+    BlockingLoader second = new BlockingLoader("parser-2", running, overlaps);
+    Future<String> firstResult = executor.submit(get("1", first));
+    assertTrue(first.started.await(5, TimeUnit.SECONDS));
+    Future<String> secondResult = executor.submit(get("2", second));
+    // The second load waits for the first one.
+    assertFalse(second.started.await(200, TimeUnit.MILLISECONDS));
+    first.release.countDown();
+    assertEquals("parser-1", firstResult.get(5, TimeUnit.SECONDS));
+    assertTrue(second.started.await(5, TimeUnit.SECONDS));
+    second.release.countDown();
+    assertEquals("parser-2", secondResult.get(5, TimeUnit.SECONDS));
+    assertEquals(0, overlaps.get());
+    assertEquals("parser-2", store.get("grammar", "2", second));
+    assertEquals(ParserStore.LoadState.LOADED, store.getLoadState("grammar"));
+  }
+
+  @Test
+  public void failedLoadDoesNotPreventTheNextVersion() throws Exception {
+    final Exception failure = new Exception("broken grammar");
+    try {
+      store.get("grammar", "1", new ParserStore.Loader<String>() {
+        public String load() throws Exception {
+          throw failure;
+        }
+      });
+      fail("The failure of the loader is not thrown.");
+    } catch (Exception e) {
+      assertSame(failure, e);
+    }
+    assertEquals(ParserStore.LoadState.FAILED, store.getLoadState("grammar"));
+    assertSame(failure, store.getFailure("grammar"));
+    assertEquals("parser-2", store.get("grammar", "2", new CountingLoader("parser-2")));
+    assertEquals(ParserStore.LoadState.LOADED, store.getLoadState("grammar"));
+  }
+
+  private Callable<String> get(final String version, final ParserStore.Loader<String> loader) {
+    return new Callable<String>() {
+      public String call() throws Exception {
+        return store.get("grammar", version, loader);
+      }
+    };
+  }
+
+  /* Counts its loads. */
+  private static class CountingLoader implements ParserStore.Loader<String> {
+    final String parser;
+    final AtomicInteger loads = new AtomicInteger();
+    CountingLoader(String parser) {
+      this.parser = parser;
+    }
+    public String load() throws Exception {
+      loads.incrementAndGet();
+      return parser;
+    }
+  }
+
+  /* Signals when it starts loading, and finishes when it is released. Records loads that overlap. */
+  private static class BlockingLoader extends CountingLoader {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger running;
+    final AtomicInteger overlaps;
+    BlockingLoader(String parser) {
+      this(parser, new AtomicInteger(), new AtomicInteger());
+    }
+    BlockingLoader(String parser, AtomicInteger running, AtomicInteger overlaps) {
+      super(parser);
+      this.running = running;
+      this.overlaps = overlaps;
+    }
+    @Override
+    public String load() throws Exception {
+      if (running.incrementAndGet() > 1) overlaps.incrementAndGet();
+      try {
+        started.countDown();
+        release.await();
+        return super.load();
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.rakensi.waxeye;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * The grammar and the inputs of the project, for the tests.
+ */
+final class TestGrammars {
+
+  private TestGrammars() { }
+
+  /* The project directory, which contains the grammar and the input directory. */
+  static File home() {
+    return new File(System.getProperty("ixml.home", ".."));
+  }
+
+  static File ftanGrammarFile() {
+    return new File(home(), "ftan.waxeye");
+  }
+
+  static CompiledGrammar ftanGrammar() throws IOException, GrammarException {
+    return GrammarCompiler.compile(GrammarReader.read(ftanGrammarFile(), false));
+  }
+
+  static CompiledGrammar compile(String grammar) throws GrammarException {
+    return GrammarCompiler.compile(GrammarReader.read(grammar, "test.waxeye"));
+  }
+
+  /* The contents of the files in the input directory, in the order of their names. */
+  static List<String> inputs() throws IOException {
+    File[] files = new File(home(), "input").listFiles();
+    if (files == null) throw new IOException("There is no input directory in "+home());
+    Arrays.sort(files);
+    List<String> inputs = new ArrayList<String>();
+    for (File file : files) {
+      inputs.add(read(file));
+    }
+    return inputs;
+  }
+
+  /* Parse a text from the start with a DirectParser, and describe the parse tree or the parse error. */
+  static String describe(DirectParser parser, String text) throws SAXException {
+    parser.setInput(text);
+    if (!parser.parse(0)) {
+      return "error at "+parser.getError().getPosition()+" in "+parser.getError().getNT();
+    }
+    return describeResult(parser, text);
+  }
+
+  /* Describe the parse tree of the last parse of a DirectParser. */
+  static String describeResult(DirectParser parser, final CharSequence input) throws SAXException {
+    final StringBuilder description = new StringBuilder();
+    parser.emit(new ParseTreeHandler() {
+      public void startNode(Object type, int start, int end) {
+        description.append('(').append(type).append(' ').append(start).append('-').append(end);
+      }
+      public void text(int start, int end) {
+        description.append(" '").append(input, start, end).append('\'');
+      }
+      public void endNode(Object type) {
+        description.append(')');
+      }
+    });
+    return description.toString();
+  }
+
+  /* Scan a fragment with an engine, and describe the elements and text of the output. */
+  static String scan(ParseEngine engine, String fragment) throws SAXException, ParsingException {
+    StringBuilder output = new StringBuilder();
+    engine.parse(fragment, describer(output));
+    return output.toString();
+  }
+
+  /* A content handler that describes the elements and text that it receives. */
+  static DefaultHandler describer(final StringBuilder output) {
+    return new DefaultHandler() {
+      public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        output.append('<').append(localName).append('>');
+      }
+      public void endElement(String uri, String localName, String qName) {
+        output.append("</").append(localName).append('>');
+      }
+      public void characters(char[] ch, int start, int length) {
+        output.append(ch, start, length);
+      }
+    };
+  }
+
+  static String read(File file) throws IOException {
+    Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+    try {
+      StringBuilder text = new StringBuilder();
+      char[] buffer = new char[8192];
+      for (int n = reader.read(buffer); n >= 0; n = reader.read(buffer)) {
+        text.append(buffer, 0, n);
+      }
+      return text.toString();
+    } finally {
+      reader.close();
+    }
+  }
+
+  static void write(File file, String text) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(text);
+    } finally {
+      writer.close();
+    }
+  }
+
+}